@@ -2,10 +2,10 @@ package pl.zkotlowski.banktransactionanalyzer;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
-@EnableAsync
+@ConfigurationPropertiesScan
 public class Application {
 
     public static void main(String[] args) {
@@ -0,0 +1,16 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the background migration of stored amounts to minor units, bound from the {@code
+ * amount-migration} section of the application configuration.
+ *
+ * @param enabled run the migration on startup, it stops by itself once no document is left
+ * @param batchSize number of documents converted in one bulk write
+ * @param pause delay between two batches, keeps the load on the database low while it serves
+ *     requests
+ */
+@ConfigurationProperties(prefix = "amount-migration")
+public record AmountMigrationProperties(boolean enabled, int batchSize, Duration pause) {}
@@ -0,0 +1,18 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the in-memory columnar engine answering statistics, bound from the {@code
+ * columnar-engine} section of the application configuration.
+ *
+ * @param enabled load published transactions into memory on startup and answer statistics from
+ *     them, statistics are aggregated in Mongo while disabled or loading
+ * @param parallelism number of threads a query scans with, 0 for one per available processor
+ * @param refreshInterval delay between two checks for newly completed imports, which bounds how
+ *     long a completed import may be missing from the statistics
+ */
+@ConfigurationProperties(prefix = "columnar-engine")
+public record ColumnarEngineProperties(
+        boolean enabled, int parallelism, Duration refreshInterval) {}
@@ -0,0 +1,15 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the distinct IBAN counts, bound from the {@code distinct-count} section of the
+ * application configuration.
+ *
+ * @param standardError relative standard error of the estimated counts, sets the size of the
+ *     stored sketches: 0.01 takes up to 16KB per currency, category and month, halving it
+ *     quadruples them. Sketches stored with another error are still merged, at the larger one
+ * @param exactMaxMonths longest range of months exact counts can be requested for
+ */
+@ConfigurationProperties(prefix = "distinct-count")
+public record DistinctCountProperties(double standardError, int exactMaxMonths) {}
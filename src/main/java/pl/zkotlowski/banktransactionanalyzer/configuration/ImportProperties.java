@@ -0,0 +1,89 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import pl.zkotlowski.banktransactionanalyzer.csv.CsvParserMode;
+import pl.zkotlowski.banktransactionanalyzer.validation.TransactionValidatorMode;
+
+/**
+ * Import limits and storage settings, bound from the {@code transaction-import} section of the
+ * application configuration.
+ *
+ * @param maxBytes maximum size of a single uploaded CSV payload
+ * @param maxRows maximum number of data rows (header excluded) accepted in a single import
+ * @param spoolDirectory directory where uploaded payloads are stored until their import finishes
+ * @param parser CSV parser selection, AUTO uses the byte-level parser for the standard layout
+ * @param validator row validation, COMPILED checks the constraints without Bean Validation
+ * @param pipeline sizing of the import pipeline stages
+ * @param batch adaptive sizing of write batches
+ * @param progressInterval how often the progress of a running import is saved to its job
+ * @param scheduler concurrency limits of imports
+ * @param dedupe sizing of the in-memory pre-check for duplicate rows
+ */
+@ConfigurationProperties(prefix = "transaction-import")
+public record ImportProperties(
+        DataSize maxBytes,
+        long maxRows,
+        Path spoolDirectory,
+        CsvParserMode parser,
+        TransactionValidatorMode validator,
+        Pipeline pipeline,
+        Batch batch,
+        Duration progressInterval,
+        Scheduler scheduler,
+        Dedupe dedupe) {
+
+    /**
+     * @param parseWorkers number of threads parsing and validating row chunks
+     * @param writeWorkers number of threads writing batches to the database
+     * @param queueCapacity capacity of each queue between the stages, bounds memory usage
+     * @param chunkSize size of the row chunks handed to parse workers
+     */
+    public record Pipeline(
+            int parseWorkers, int writeWorkers, int queueCapacity, DataSize chunkSize) {}
+
+    /**
+     * @param minSize lower bound of the batch size, in documents
+     * @param maxSize upper bound of the batch size, in documents
+     * @param initialSize batch size used until the first batches are measured
+     * @param targetLatency write latency above which the batch size is reduced
+     * @param maxPayload estimated BSON payload at which a batch is cut regardless of its size
+     */
+    public record Batch(
+            int minSize,
+            int maxSize,
+            int initialSize,
+            Duration targetLatency,
+            DataSize maxPayload) {}
+
+    /**
+     * @param workers number of imports running at the same time on each instance
+     * @param virtualThreads run the import workers on virtual threads
+     * @param queueCapacity number of imports that can wait for a worker across all instances,
+     *     further uploads are rejected
+     * @param retryAfter delay suggested to clients whose upload was rejected
+     * @param leaseDuration how long a claimed job belongs to its instance without a heartbeat
+     * @param heartbeatInterval how often running jobs renew their lease, well below its duration
+     * @param pollInterval how often idle workers look for jobs queued by other instances
+     * @param maxAttempts number of times a job is claimed before it is failed instead of resumed
+     */
+    public record Scheduler(
+            int workers,
+            boolean virtualThreads,
+            int queueCapacity,
+            Duration retryAfter,
+            Duration leaseDuration,
+            Duration heartbeatInterval,
+            Duration pollInterval,
+            int maxAttempts) {}
+
+    /**
+     * @param expectedKeys number of stored rows the Bloom filter is sized for, beyond it the
+     *     false positive rate grows
+     * @param falsePositiveRate share of new rows the filter reports as possibly stored, which
+     *     costs a lookup
+     */
+    public record Dedupe(long expectedKeys, double falsePositiveRate) {}
+}
@@ -2,6 +2,8 @@ package pl.zkotlowski.banktransactionanalyzer.configuration;
 
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoClients;
 import org.bson.UuidRepresentation;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -9,6 +11,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.MongoDatabaseFactory;
 import org.springframework.data.mongodb.MongoTransactionManager;
 import org.springframework.data.mongodb.config.AbstractMongoClientConfiguration;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import pl.zkotlowski.banktransactionanalyzer.repository.MongoWorkload;
+import pl.zkotlowski.banktransactionanalyzer.repository.MongoWorkloads;
 
 @Configuration
 public class MongoConfig extends AbstractMongoClientConfiguration {
@@ -16,6 +21,9 @@ public class MongoConfig extends AbstractMongoClientConfiguration {
     @Value("${mongodb.uri}")
     private String connectionString;
 
+    @Value("${spring.application.name}")
+    private String applicationName;
+
     @Override
     protected String getDatabaseName() {
         return "transaction-analyzer";
@@ -36,4 +44,33 @@ public class MongoConfig extends AbstractMongoClientConfiguration {
     protected MongoTransactionManager transactionManager(MongoDatabaseFactory dbFactory) {
         return new MongoTransactionManager(dbFactory);
     }
+
+    /**
+     * Clients of the ingest, query and bulk workloads, next to the default one. They share its
+     * connection string and mapping, with their own pool size and read preference.
+     */
+    @Bean
+    MongoWorkloads mongoWorkloads(
+            MongoWorkloadProperties properties, MappingMongoConverter mappingMongoConverter) {
+        return new MongoWorkloads(
+                workload("ingest", properties.ingest(), mappingMongoConverter),
+                workload("query", properties.query(), mappingMongoConverter),
+                workload("bulk", properties.bulk(), mappingMongoConverter));
+    }
+
+    private MongoWorkload workload(
+            String name,
+            MongoWorkloadProperties.Workload settings,
+            MappingMongoConverter mappingMongoConverter) {
+        var builder = MongoClientSettings.builder();
+        configureClientSettings(builder);
+        var client =
+                MongoClients.create(
+                        builder.applicationName(applicationName + "-" + name)
+                                .applyToConnectionPoolSettings(
+                                        pool -> pool.maxSize(settings.maxPoolSize()))
+                                .readPreference(ReadPreference.valueOf(settings.readPreference()))
+                                .build());
+        return new MongoWorkload(name, client, getDatabaseName(), mappingMongoConverter, settings);
+    }
 }
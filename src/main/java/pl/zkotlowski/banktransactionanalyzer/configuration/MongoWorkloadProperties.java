@@ -0,0 +1,32 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the MongoDB workloads that run on connection pools of their own, bound from the
+ * {@code mongodb.workloads} section of the application configuration. Other operations, e.g. on
+ * import jobs, run on the default pool.
+ *
+ * @param ingest writes of imports, snapshot loads and rollup maintenance
+ * @param query statistics and transaction searches
+ * @param bulk scans and rewrites of whole collections, e.g. exports and the amount migration
+ */
+@ConfigurationProperties(prefix = "mongodb.workloads")
+public record MongoWorkloadProperties(Workload ingest, Workload query, Workload bulk) {
+
+    /**
+     * @param maxPoolSize connections of the workload's own pool
+     * @param maxConcurrency operations of the workload running at once, further ones wait
+     * @param maxWait time an operation waits to run before it is rejected, 0 to reject it at once
+     * @param readPreference read preference of the workload, e.g. {@code primary} or {@code
+     *     secondaryPreferred}
+     * @param maxTime server side time limit of the workload's queries and aggregations, 0 for none
+     */
+    public record Workload(
+            int maxPoolSize,
+            int maxConcurrency,
+            Duration maxWait,
+            String readPreference,
+            Duration maxTime) {}
+}
@@ -0,0 +1,17 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of the cache of statistics results, bound from the {@code statistics-cache} section
+ * of the application configuration.
+ *
+ * @param maxSize estimated size of the cached results, least recently used results are evicted
+ *     beyond it
+ * @param timeToLive age after which a result is computed again even if the data version did not
+ *     change, bounds staleness if an instance failed to increment the version
+ */
+@ConfigurationProperties(prefix = "statistics-cache")
+public record StatisticsCacheProperties(DataSize maxSize, Duration timeToLive) {}
@@ -0,0 +1,16 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the sharing of statistics computations among concurrent requests, bound from the
+ * {@code statistics-coalescing} section of the application configuration.
+ *
+ * @param enabled share one computation among concurrent requests for the same statistic, each
+ *     request computes its own while disabled
+ * @param timeout time a request waits for a computation, a computation no request waits for
+ *     anymore is cancelled
+ */
+@ConfigurationProperties(prefix = "statistics-coalescing")
+public record StatisticsCoalescingProperties(boolean enabled, Duration timeout) {}
@@ -0,0 +1,15 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import java.nio.file.Path;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the binary snapshots of the transactions, bound from the {@code
+ * transaction-snapshot} section of the application configuration.
+ *
+ * @param directory directory snapshots are written to and loaded from
+ * @param blockRows number of rows per block, the unit that is checksummed and loaded by a worker
+ * @param loadWorkers number of threads decoding and inserting blocks while a snapshot is loaded
+ */
+@ConfigurationProperties(prefix = "transaction-snapshot")
+public record TransactionSnapshotProperties(Path directory, int blockRows, int loadWorkers) {}
@@ -0,0 +1,23 @@
+package pl.zkotlowski.banktransactionanalyzer.configuration;
+
+import jakarta.validation.Validator;
+import java.time.Clock;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import pl.zkotlowski.banktransactionanalyzer.validation.BeanTransactionValidator;
+import pl.zkotlowski.banktransactionanalyzer.validation.CompiledTransactionValidator;
+import pl.zkotlowski.banktransactionanalyzer.validation.TransactionRowValidator;
+
+@Configuration
+public class ValidationConfig {
+
+    @Bean
+    public TransactionRowValidator transactionRowValidator(
+            ImportProperties importProperties, Validator validator) {
+        return switch (importProperties.validator()) {
+            // same clock as the default ClockProvider of Bean Validation
+            case COMPILED -> new CompiledTransactionValidator(Clock.systemDefaultZone());
+            case BEAN_VALIDATION -> new BeanTransactionValidator(validator);
+        };
+    }
+}
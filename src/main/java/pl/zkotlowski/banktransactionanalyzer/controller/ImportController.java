@@ -1,7 +1,11 @@
 package pl.zkotlowski.banktransactionanalyzer.controller;
 
+import java.io.InputStream;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -10,6 +14,9 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import pl.zkotlowski.banktransactionanalyzer.exception.DuplicateImportException;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportBudgetExceededException;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportQueueFullException;
 import pl.zkotlowski.banktransactionanalyzer.model.response.GetImportJobResponseBody;
 import pl.zkotlowski.banktransactionanalyzer.service.ImportJobService;
 import pl.zkotlowski.banktransactionanalyzer.service.ImportService;
@@ -24,9 +31,44 @@ public class ImportController {
 
     @PostMapping
     public ResponseEntity<GetImportJobResponseBody> importTransactions(
-            @RequestParam("file") MultipartFile file) {
-        var importJob = importService.processImport(file);
-        return ResponseEntity.accepted().body(GetImportJobResponseBody.ok(importJob));
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(name = "priority", defaultValue = "0") int priority) {
+        try {
+            var importJob = importService.processImport(file, priority);
+            return ResponseEntity.accepted().body(GetImportJobResponseBody.ok(importJob));
+        } catch (ImportBudgetExceededException e) {
+            return ResponseEntity.status(HttpStatus.CONTENT_TOO_LARGE)
+                    .body(GetImportJobResponseBody.failed(e.getMessage()));
+        } catch (ImportQueueFullException e) {
+            return queueFull(e);
+        } catch (DuplicateImportException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(GetImportJobResponseBody.failed(e.getMessage()));
+        }
+    }
+
+    /**
+     * Imports transactions from the raw (or chunked) request body, which lets clients upload
+     * files of any size within the configured import budget without multipart buffering.
+     */
+    @PostMapping(
+            path = "/stream",
+            consumes = {"text/csv", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<GetImportJobResponseBody> importTransactionsStream(
+            InputStream csvStream,
+            @RequestParam(name = "priority", defaultValue = "0") int priority) {
+        try {
+            var importJob = importService.processImport(csvStream, priority);
+            return ResponseEntity.accepted().body(GetImportJobResponseBody.ok(importJob));
+        } catch (ImportBudgetExceededException e) {
+            return ResponseEntity.status(HttpStatus.CONTENT_TOO_LARGE)
+                    .body(GetImportJobResponseBody.failed(e.getMessage()));
+        } catch (ImportQueueFullException e) {
+            return queueFull(e);
+        } catch (DuplicateImportException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(GetImportJobResponseBody.failed(e.getMessage()));
+        }
     }
 
     @GetMapping("/{importJobId}/status")
@@ -44,4 +86,11 @@ public class ImportController {
                     .body(GetImportJobResponseBody.failed("Invalid UUID format for importJobId"));
         }
     }
+
+    private static ResponseEntity<GetImportJobResponseBody> queueFull(
+            ImportQueueFullException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                .body(GetImportJobResponseBody.failed(e.getMessage()));
+    }
 }
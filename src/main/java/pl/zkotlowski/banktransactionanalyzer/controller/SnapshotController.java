@@ -0,0 +1,46 @@
+package pl.zkotlowski.banktransactionanalyzer.controller;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pl.zkotlowski.banktransactionanalyzer.exception.InvalidSnapshotException;
+import pl.zkotlowski.banktransactionanalyzer.service.TransactionSnapshotService;
+
+@RestController
+@RequestMapping("/api/snapshots")
+@RequiredArgsConstructor
+public class SnapshotController {
+
+    private final TransactionSnapshotService transactionSnapshotService;
+
+    /** Writes the published transactions to a snapshot file of the name, replacing it. */
+    @PostMapping("/{name}")
+    public ResponseEntity<?> exportSnapshot(@PathVariable("name") String name)
+            throws IOException {
+        try {
+            return ResponseEntity.ok(transactionSnapshotService.export(name));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /** Inserts the transactions of the snapshot file of the name, skipping stored ones. */
+    @PostMapping("/{name}/load")
+    public ResponseEntity<?> loadSnapshot(@PathVariable("name") String name) throws IOException {
+        try {
+            return ResponseEntity.ok(transactionSnapshotService.load(name));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.notFound().build();
+        } catch (InvalidSnapshotException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_CONTENT).body(e.getMessage());
+        }
+    }
+}
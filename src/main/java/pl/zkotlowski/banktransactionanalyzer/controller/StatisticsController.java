@@ -1,14 +1,38 @@
 package pl.zkotlowski.banktransactionanalyzer.controller;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistributionQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceGranularity;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceSeriesQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctIbanQuery;
 import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.request.StatisticsBatchRequestBody;
+import pl.zkotlowski.banktransactionanalyzer.model.response.StatisticsCacheStats;
+import pl.zkotlowski.banktransactionanalyzer.model.response.StatisticsCoalescingStats;
 import pl.zkotlowski.banktransactionanalyzer.service.StatisticsService;
+import pl.zkotlowski.banktransactionanalyzer.service.TransactionRollupService;
+import tools.jackson.databind.json.JsonMapper;
 
 @RestController
 @RequiredArgsConstructor
@@ -17,25 +41,202 @@ import pl.zkotlowski.banktransactionanalyzer.service.StatisticsService;
 public class StatisticsController {
 
     private final StatisticsService statisticsService;
+    private final TransactionRollupService transactionRollupService;
+    private final JsonMapper jsonMapper;
 
+    /**
+     * Results carry the statistics version as their {@code ETag}, a request with that version in
+     * {@code If-None-Match} is answered with {@code 304} without computing anything.
+     */
     @GetMapping("/most-spent")
     public ResponseEntity<?> getMostSpentBy(
             @RequestParam("filterBy") TransactionFilterByAttribute attributeToFilterBy,
             @RequestParam("resultSize") int resultSize,
-            @RequestParam("currency") String currency) {
-
+            @RequestParam("currency") String currency,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false)
+                    String ifNoneMatch) {
+        var version = statisticsService.getCurrentVersion();
+        if (isNotModified(ifNoneMatch, version)) {
+            return notModified(version);
+        }
         var stats =
                 statisticsService.getMostSpentByAttribute(
-                        attributeToFilterBy, resultSize, currency);
-        return ResponseEntity.ok(stats);
+                        attributeToFilterBy, resultSize, currency, version);
+        return ResponseEntity.ok().eTag(eTag(version)).body(stats);
     }
 
     @GetMapping("/balance")
     public ResponseEntity<?> getBalanceBy(
             @RequestParam("filterBy") TransactionFilterByAttribute attributeToFilterBy,
             @RequestParam("value") String value,
-            @RequestParam("currency") String currency) {
-        var balance = statisticsService.getBalanceByAttribute(attributeToFilterBy, value, currency);
-        return ResponseEntity.ok(balance);
+            @RequestParam("currency") String currency,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false)
+                    String ifNoneMatch) {
+        var version = statisticsService.getCurrentVersion();
+        if (isNotModified(ifNoneMatch, version)) {
+            return notModified(version);
+        }
+        var balance =
+                statisticsService.getBalanceByAttribute(
+                        attributeToFilterBy, value, currency, version);
+        return ResponseEntity.ok().eTag(eTag(version)).body(balance);
+    }
+
+    /**
+     * Count, min, max, mean, percentiles and a histogram of the amounts per value of the
+     * attribute, estimated in one pass from mergeable log bucket sketches. Ranges of whole months,
+     * or no range, are answered from sketches stored per month.
+     */
+    @GetMapping("/distribution")
+    public ResponseEntity<?> getDistribution(
+            @RequestParam("groupBy") TransactionFilterByAttribute groupBy,
+            @RequestParam("currency") String currency,
+            @RequestParam(name = "from", required = false)
+                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                    LocalDate from,
+            @RequestParam(name = "to", required = false)
+                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                    LocalDate to,
+            @RequestParam(name = "percentiles", required = false) List<Double> percentiles,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false)
+                    String ifNoneMatch) {
+        AmountDistributionQuery query;
+        try {
+            query = new AmountDistributionQuery(groupBy, currency, from, to, percentiles);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        var version = statisticsService.getCurrentVersion();
+        if (isNotModified(ifNoneMatch, version)) {
+            return notModified(version);
+        }
+        var distribution = statisticsService.getDistribution(query, version);
+        return ResponseEntity.ok().eTag(eTag(version)).body(distribution);
+    }
+
+    /**
+     * Number of distinct IBANs with transactions per value of the attribute between the months,
+     * estimated from HyperLogLog sketches stored per currency, category and month, or counted
+     * exactly for short ranges.
+     */
+    @GetMapping("/distinct-ibans")
+    public ResponseEntity<?> getDistinctIbans(
+            @RequestParam("groupBy") TransactionFilterByAttribute groupBy,
+            @RequestParam("currency") String currency,
+            @RequestParam(name = "from", required = false) YearMonth from,
+            @RequestParam(name = "to", required = false) YearMonth to,
+            @RequestParam(name = "exact", defaultValue = "false") boolean exact,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false)
+                    String ifNoneMatch) {
+        var version = statisticsService.getCurrentVersion();
+        if (isNotModified(ifNoneMatch, version)) {
+            return notModified(version);
+        }
+        try {
+            var counts =
+                    statisticsService.getDistinctIbans(
+                            new DistinctIbanQuery(groupBy, currency, from, to, exact), version);
+            return ResponseEntity.ok().eTag(eTag(version)).body(counts);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Balance per bucket of the granularity between the dates, including the buckets without
+     * transactions. The buckets with transactions are aggregated first, the empty buckets between
+     * them are filled in while the series is written.
+     */
+    @GetMapping("/balance/series")
+    public ResponseEntity<StreamingResponseBody> getBalanceSeries(
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam("granularity") BalanceGranularity granularity,
+            @RequestParam("currency") String currency,
+            @RequestParam(name = "iban", required = false) String iban,
+            @RequestParam(name = "category", required = false) String category,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false)
+                    String ifNoneMatch) {
+        BalanceSeriesQuery query;
+        try {
+            query = new BalanceSeriesQuery(from, to, granularity, currency, iban, category);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(outputStream -> outputStream.write(e.getMessage().getBytes(UTF_8)));
+        }
+        var version = statisticsService.getCurrentVersion();
+        if (isNotModified(ifNoneMatch, version)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag(version)).build();
+        }
+        StreamingResponseBody series =
+                outputStream -> {
+                    var generator = jsonMapper.createGenerator(outputStream);
+                    generator.writeStartArray();
+                    statisticsService.streamBalanceSeries(
+                            query, point -> jsonMapper.writeValue(generator, point));
+                    generator.writeEndArray();
+                    generator.flush();
+                };
+        return ResponseEntity.ok()
+                .eTag(eTag(version))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(series);
+    }
+
+    /**
+     * Answers many statistics, each in the shape of the parameters of its single endpoint, with
+     * one aggregation per collection instead of one request and query each. Results are returned
+     * in the order of the metrics.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> getBatch(@RequestBody StatisticsBatchRequestBody requestBody) {
+        var version = statisticsService.getCurrentVersion();
+        try {
+            var results = statisticsService.getBatch(requestBody.metrics(), version);
+            return ResponseEntity.ok().eTag(eTag(version)).body(results);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<StatisticsCacheStats> getCacheStats() {
+        return ResponseEntity.ok(statisticsService.getCacheStats());
+    }
+
+    @GetMapping("/coalescing")
+    public ResponseEntity<StatisticsCoalescingStats> getCoalescingStats() {
+        return ResponseEntity.ok(statisticsService.getCoalescingStats());
+    }
+
+    /**
+     * Recomputes the rollups statistics are answered from out of all stored transactions. Imports
+     * keep the rollups up to date, this is meant for transactions written otherwise.
+     */
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<Void> rebuildRollups() {
+        transactionRollupService.rebuild();
+        return ResponseEntity.noContent().build();
+    }
+
+    private static String eTag(long version) {
+        return "\"stats-" + version + "\"";
+    }
+
+    private static boolean isNotModified(String ifNoneMatch, long version) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        var eTag = eTag(version);
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                // weak comparison, as for GET requests
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals(eTag) || tag.equals("*"));
+    }
+
+    private static ResponseEntity<?> notModified(long version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag(version)).build();
     }
 }
@@ -0,0 +1,114 @@
+package pl.zkotlowski.banktransactionanalyzer.controller;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportFormat;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionSearchCursor;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionSearchQuery;
+import pl.zkotlowski.banktransactionanalyzer.service.TransactionService;
+
+@RestController
+@RequestMapping("/api/transactions")
+@RequiredArgsConstructor
+public class TransactionController {
+
+    private static final MediaType APPLICATION_GZIP = MediaType.parseMediaType("application/gzip");
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+    private final TransactionService transactionService;
+
+    /**
+     * Searches the published transactions, newest first. A page ends with a {@code nextCursor}
+     * if there are more, which is passed as {@code cursor} to get the next one.
+     */
+    @GetMapping
+    public ResponseEntity<?> searchTransactions(
+            @RequestParam("currency") String currency,
+            @RequestParam(name = "iban", required = false) String iban,
+            @RequestParam(name = "category", required = false) String category,
+            @RequestParam(name = "from", required = false)
+                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                    LocalDate from,
+            @RequestParam(name = "to", required = false)
+                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                    LocalDate to,
+            @RequestParam(name = "minAmount", required = false) BigDecimal minAmount,
+            @RequestParam(name = "maxAmount", required = false) BigDecimal maxAmount,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        try {
+            var query =
+                    new TransactionSearchQuery(
+                            currency,
+                            iban,
+                            category,
+                            from,
+                            to,
+                            minAmount,
+                            maxAmount,
+                            cursor == null ? null : TransactionSearchCursor.decode(cursor),
+                            limit);
+            return ResponseEntity.ok(transactionService.searchTransactions(query));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Exports the published transactions matching the optional filters as a file download,
+     * written while the transactions are read, so exports of any size use constant memory.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @RequestParam(name = "format", defaultValue = "NDJSON") TransactionExportFormat format,
+            @RequestParam(name = "gzip", defaultValue = "false") boolean gzip,
+            @RequestParam(name = "iban", required = false) String iban,
+            @RequestParam(name = "currency", required = false) String currency,
+            @RequestParam(name = "from", required = false)
+                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                    LocalDate from,
+            @RequestParam(name = "to", required = false)
+                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                    LocalDate to) {
+        TransactionExportQuery query;
+        try {
+            query = new TransactionExportQuery(iban, currency, from, to);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(outputStream -> outputStream.write(e.getMessage().getBytes(UTF_8)));
+        }
+        StreamingResponseBody export =
+                outputStream -> {
+                    if (gzip) {
+                        var gzipStream = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE);
+                        transactionService.exportTransactions(query, format, gzipStream);
+                        gzipStream.finish();
+                    } else {
+                        transactionService.exportTransactions(query, format, outputStream);
+                    }
+                };
+        var fileName = "transactions." + format.extension() + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+                .contentType(gzip ? APPLICATION_GZIP : format.mediaType())
+                .header(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(fileName).build().toString())
+                .body(export);
+    }
+}
@@ -0,0 +1,164 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Cuts the raw input into chunks of whole records without parsing them. Quotes are tracked the
+ * same way {@link ByteCsvTransactionReader} does, so line breaks inside quoted fields never split
+ * a record.
+ */
+final class ByteCsvChunker implements TransactionCsvChunker {
+
+    private final InputStream inputStream;
+    private final int chunkSize;
+    private byte[] data;
+    private int length;
+    // offset of data[0] in the input
+    private long dataOffset;
+    private boolean endOfInput;
+    private boolean headerSkipped;
+    private long rowCount;
+
+    ByteCsvChunker(InputStream inputStream, int chunkSize) {
+        this(inputStream, chunkSize, 0, 0);
+    }
+
+    /**
+     * Continues an input that was already read up to a record boundary. The stream has to be
+     * positioned at that offset.
+     *
+     * @param startOffset offset of the stream position in the whole input, 0 for a new input
+     * @param startRowCount number of data rows before that offset
+     */
+    ByteCsvChunker(InputStream inputStream, int chunkSize, long startOffset, long startRowCount) {
+        this.inputStream = inputStream;
+        this.chunkSize = chunkSize;
+        this.data = new byte[chunkSize];
+        this.dataOffset = startOffset;
+        this.rowCount = startRowCount;
+        this.headerSkipped = startOffset > 0;
+    }
+
+    @Override
+    public RowChunk nextChunk() throws IOException {
+        while (true) {
+            while (length < data.length && !endOfInput) {
+                var read = inputStream.read(data, length, data.length - length);
+                if (read == -1) {
+                    endOfInput = true;
+                } else {
+                    length += read;
+                }
+            }
+
+            var start = 0;
+            var boundary = 0;
+            var rows = 0;
+            var fieldStart = true;
+            var quotedField = false;
+            var inQuotes = false;
+            var content = false;
+            for (int i = 0; i < length; i++) {
+                var b = data[i];
+                if (b == '"') {
+                    if (fieldStart) {
+                        quotedField = true;
+                        inQuotes = true;
+                    } else if (quotedField) {
+                        // an escaped quote ("") closes and reopens the quoted section
+                        inQuotes = !inQuotes;
+                    }
+                } else if (!inQuotes && b == ',') {
+                    fieldStart = true;
+                    quotedField = false;
+                    content = true;
+                    continue;
+                } else if (!inQuotes && (b == '\n' || b == '\r')) {
+                    // empty lines are not records, same as in the reader
+                    if (content) {
+                        if (headerSkipped) {
+                            rows++;
+                        } else {
+                            headerSkipped = true;
+                            start = i + 1;
+                        }
+                    }
+                    boundary = i + 1;
+                    fieldStart = true;
+                    quotedField = false;
+                    content = false;
+                    continue;
+                }
+                fieldStart = false;
+                content = true;
+            }
+
+            var end = boundary;
+            if (endOfInput && content) {
+                // last record without a line break
+                if (headerSkipped) {
+                    rows++;
+                    end = length;
+                } else {
+                    headerSkipped = true;
+                    start = length;
+                }
+            }
+
+            if (rows > 0) {
+                return cut(start, end, rows);
+            }
+            if (endOfInput) {
+                return null;
+            }
+            // only header or empty lines so far, or a record larger than the chunk
+            discard(boundary);
+        }
+    }
+
+    @Override
+    public long rowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /** Hands out the given range as a chunk and carries the remaining bytes over. */
+    private RowChunk cut(int start, int end, int rows) {
+        var chunk = new ByteRowChunk(data, start, end - start, rowCount + 1, dataOffset + end);
+        rowCount += rows;
+        dataOffset += end;
+
+        var remaining = length - end;
+        var next = new byte[Math.max(chunkSize, remaining * 2)];
+        System.arraycopy(data, end, next, 0, remaining);
+        data = next;
+        length = remaining;
+        return chunk;
+    }
+
+    private void discard(int end) {
+        var remaining = length - end;
+        System.arraycopy(data, end, data, 0, remaining);
+        dataOffset += end;
+        length = remaining;
+        if (length == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+    }
+
+    private record ByteRowChunk(
+            byte[] data, int offset, int length, long firstRowNumber, long endOffset)
+            implements RowChunk {
+
+        @Override
+        public TransactionCsvReader open() {
+            return new ByteCsvTransactionReader(data, offset, length, firstRowNumber);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/**
+ * Byte-level parser for the standard five column layout. Records are scanned in place in a
+ * reusable buffer, dates and amounts are parsed straight from the bytes and low-cardinality
+ * columns (currency, category) are served from a small cache instead of allocating a String per
+ * row.
+ *
+ * <p>Output is identical to {@link Transaction#fromCsvRow}: values that do not fit the fast paths
+ * (non-ASCII text, quoted fields, unusual date or number notation) are delegated to the same
+ * normalization methods the commons-csv path uses. Quoting follows {@code CSVFormat.DEFAULT}.
+ */
+final class ByteCsvTransactionReader implements TransactionCsvReader {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int NEED_MORE_DATA = -1;
+
+    private static final int COLUMNS = 5;
+    private static final int IBAN = 0;
+    private static final int DATE = 1;
+    private static final int CURRENCY = 2;
+    private static final int CATEGORY = 3;
+    private static final int AMOUNT = 4;
+
+    // a long holds any 18 digit number, longer amounts go through the BigDecimal constructor
+    private static final int MAX_FAST_AMOUNT_DIGITS = 18;
+
+    // String.toUpperCase() depends on the default locale, e.g. in Turkish 'i' is not mapped to 'I'
+    private static final boolean ASCII_UPPERCASE = "i".toUpperCase().equals("I");
+
+    private final InputStream inputStream;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+
+    private final int[] fieldStart = new int[COLUMNS];
+    private final int[] fieldEnd = new int[COLUMNS];
+    private final boolean[] fieldQuoted = new boolean[COLUMNS];
+    private int fieldCount;
+    private int recordStart;
+    private int recordEnd;
+
+    private byte[] ibanBuffer = new byte[64];
+    private final TextCache currencyCache = new TextCache(UnaryOperator.identity());
+    private final TextCache categoryCache = new TextCache(Transaction::normalizeCategory);
+
+    private boolean headerSkipped;
+    private long rowNumber;
+
+    ByteCsvTransactionReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Reads a chunk of complete records without a header, as cut by {@link ByteCsvChunker}.
+     *
+     * @param firstRowNumber row number of the first record in the chunk, used for reporting
+     */
+    ByteCsvTransactionReader(byte[] data, int offset, int length, long firstRowNumber) {
+        this.inputStream = InputStream.nullInputStream();
+        this.buffer = data;
+        this.position = offset;
+        this.limit = offset + length;
+        this.endOfInput = true;
+        this.headerSkipped = true;
+        this.rowNumber = firstRowNumber - 1;
+    }
+
+    @Override
+    public Transaction next() throws IOException {
+        if (!headerSkipped) {
+            headerSkipped = true;
+            if (!nextRecord()) {
+                return null;
+            }
+        }
+        if (!nextRecord()) {
+            return null;
+        }
+        rowNumber++;
+        if (fieldCount < COLUMNS) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Row %d has %d values, expected %d: %s",
+                            rowNumber, fieldCount, COLUMNS, currentRow()));
+        }
+
+        return new Transaction(
+                Transaction.newId(),
+                parseIban(),
+                parseDate(),
+                text(CURRENCY, currencyCache),
+                text(CATEGORY, categoryCache),
+                parseAmount());
+    }
+
+    @Override
+    public long rowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public String currentRow() {
+        return new String(buffer, recordStart, recordEnd - recordStart, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /** Moves to the next non-empty record, refilling the buffer as needed. */
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            if (position >= limit && endOfInput) {
+                return false;
+            }
+            var next = scanRecord();
+            if (next == NEED_MORE_DATA) {
+                fill();
+                continue;
+            }
+            position = next;
+            // empty lines are ignored, same as CSVFormat.DEFAULT
+            if (fieldCount == 1 && !fieldQuoted[0] && recordStart == recordEnd) {
+                continue;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Splits the record starting at {@link #position} into fields.
+     *
+     * @return index right after the record terminator, or {@link #NEED_MORE_DATA} when the record
+     *     is not complete in the buffer yet
+     */
+    private int scanRecord() throws IOException {
+        var i = position;
+        recordStart = i;
+        fieldCount = 0;
+        while (true) {
+            var start = i;
+            var quoted = i < limit && buffer[i] == '"';
+            int end;
+            if (quoted) {
+                i++;
+                while (true) {
+                    if (i >= limit) {
+                        if (endOfInput) {
+                            throw new IOException(
+                                    "EOF reached before encapsulated token finished in row "
+                                            + (rowNumber + 1));
+                        }
+                        return NEED_MORE_DATA;
+                    }
+                    if (buffer[i] == '"') {
+                        if (i + 1 >= limit && !endOfInput) {
+                            return NEED_MORE_DATA;
+                        }
+                        if (i + 1 < limit && buffer[i + 1] == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i++;
+                start++;
+                // only whitespace is allowed between the closing quote and the delimiter
+                while (i < limit && isBlank(buffer[i])) {
+                    i++;
+                }
+                if (i < limit && !isSeparator(buffer[i])) {
+                    throw new IOException(
+                            "Invalid char between encapsulated token and delimiter in row "
+                                    + (rowNumber + 1));
+                }
+            } else {
+                while (i < limit && !isSeparator(buffer[i])) {
+                    i++;
+                }
+                end = i;
+            }
+
+            if (fieldCount < COLUMNS) {
+                fieldStart[fieldCount] = start;
+                fieldEnd[fieldCount] = end;
+                fieldQuoted[fieldCount] = quoted;
+            }
+            fieldCount++;
+
+            if (i >= limit) {
+                if (!endOfInput) {
+                    return NEED_MORE_DATA;
+                }
+                // last record without a line break
+                recordEnd = i;
+                return i;
+            }
+            if (buffer[i] == ',') {
+                i++;
+                continue;
+            }
+
+            recordEnd = i;
+            if (buffer[i] == '\r') {
+                if (i + 1 >= limit && !endOfInput) {
+                    return NEED_MORE_DATA;
+                }
+                if (i + 1 < limit && buffer[i + 1] == '\n') {
+                    return i + 2;
+                }
+            }
+            return i + 1;
+        }
+    }
+
+    /** Compacts unread bytes to the front of the buffer and reads more input. */
+    private void fill() throws IOException {
+        var remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            // a single record larger than the buffer
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        position = 0;
+        limit = remaining;
+        var read = inputStream.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private String parseIban() {
+        var start = fieldStart[IBAN];
+        var end = fieldEnd[IBAN];
+        if (fieldQuoted[IBAN] || !ASCII_UPPERCASE) {
+            return Transaction.normalizeIban(decode(IBAN));
+        }
+        if (ibanBuffer.length < end - start) {
+            ibanBuffer = new byte[end - start];
+        }
+        var length = 0;
+        for (int i = start; i < end; i++) {
+            var b = buffer[i];
+            if (b < 0) {
+                return Transaction.normalizeIban(decode(IBAN));
+            }
+            // same characters as the \s regex class: [ \t\n\x0B\f\r]
+            if (b == ' ' || (b >= '\t' && b <= '\r')) {
+                continue;
+            }
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            ibanBuffer[length++] = b;
+        }
+        return new String(ibanBuffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private LocalDate parseDate() {
+        var start = fieldStart[DATE];
+        if (!fieldQuoted[DATE]
+                && fieldEnd[DATE] - start == 10
+                && buffer[start + 4] == '-'
+                && buffer[start + 7] == '-') {
+            var year = digits(start, 4);
+            var month = digits(start + 5, 2);
+            var day = digits(start + 8, 2);
+            if (year > 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31) {
+                // the formatter resolves in SMART mode, which clamps day-of-month to month length
+                var monthLength = Month.of(month).length(Year.isLeap(year));
+                return LocalDate.of(year, month, Math.min(day, monthLength));
+            }
+        }
+        return Transaction.parseDate(decode(DATE));
+    }
+
+    private BigDecimal parseAmount() {
+        var i = fieldStart[AMOUNT];
+        var end = fieldEnd[AMOUNT];
+        if (!fieldQuoted[AMOUNT] && i < end) {
+            var negative = buffer[i] == '-';
+            if (negative || buffer[i] == '+') {
+                i++;
+            }
+            long unscaled = 0;
+            var digits = 0;
+            var scale = -1; // no decimal point yet
+            for (; i < end; i++) {
+                var b = buffer[i];
+                if (b >= '0' && b <= '9') {
+                    unscaled = unscaled * 10 + (b - '0');
+                    digits++;
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                } else if (b == '.' && scale < 0) {
+                    scale = 0;
+                } else {
+                    break;
+                }
+            }
+            if (i == end && digits > 0 && digits <= MAX_FAST_AMOUNT_DIGITS) {
+                return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+            }
+        }
+        return new BigDecimal(decode(AMOUNT));
+    }
+
+    private String text(int field, TextCache cache) {
+        if (fieldQuoted[field]) {
+            return cache.normalizer.apply(decode(field));
+        }
+        return cache.get(fieldStart[field], fieldEnd[field]);
+    }
+
+    private String decode(int field) {
+        var value =
+                new String(
+                        buffer,
+                        fieldStart[field],
+                        fieldEnd[field] - fieldStart[field],
+                        StandardCharsets.UTF_8);
+        return fieldQuoted[field] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * @return value of the given number of ASCII digits, or -1 if any of them is not a digit
+     */
+    private int digits(int from, int count) {
+        var value = 0;
+        for (int i = from; i < from + count; i++) {
+            var digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == '\n' || b == '\r';
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+    }
+
+    /** Direct-mapped cache of decoded values for low-cardinality columns. */
+    private final class TextCache {
+
+        private static final int SLOTS = 256;
+
+        private final byte[][] keys = new byte[SLOTS][];
+        private final String[] values = new String[SLOTS];
+        private final UnaryOperator<String> normalizer;
+
+        private TextCache(UnaryOperator<String> normalizer) {
+            this.normalizer = normalizer;
+        }
+
+        private String get(int start, int end) {
+            var hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            var slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+            var key = keys[slot];
+            if (key != null && Arrays.equals(key, 0, key.length, buffer, start, end)) {
+                return values[slot];
+            }
+            var value =
+                    normalizer.apply(
+                            new String(buffer, start, end - start, StandardCharsets.UTF_8));
+            keys[slot] = Arrays.copyOfRange(buffer, start, end);
+            values[slot] = value;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/**
+ * Fallback for non-standard dialects: commons-csv can only read the stream sequentially, so rows
+ * are parsed here and the chunks carry already parsed transactions.
+ */
+final class CommonsCsvChunker implements TransactionCsvChunker {
+
+    private static final int ROWS_PER_CHUNK = 1_000;
+
+    private final CommonsCsvTransactionReader reader;
+
+    CommonsCsvChunker(InputStream inputStream) throws IOException {
+        this(inputStream, 0);
+    }
+
+    /**
+     * @param skipRows number of rows to skip after the header, as the stream cannot be positioned
+     *     by byte offset
+     */
+    CommonsCsvChunker(InputStream inputStream, long skipRows) throws IOException {
+        this.reader = new CommonsCsvTransactionReader(inputStream);
+        reader.skip(skipRows);
+    }
+
+    @Override
+    public RowChunk nextChunk() throws IOException {
+        var firstRowNumber = reader.rowNumber() + 1;
+        List<Transaction> transactions = new ArrayList<>(ROWS_PER_CHUNK);
+        List<String> rows = new ArrayList<>(ROWS_PER_CHUNK);
+        Transaction transaction;
+        while (transactions.size() < ROWS_PER_CHUNK && (transaction = reader.next()) != null) {
+            transactions.add(transaction);
+            rows.add(reader.currentRow());
+        }
+        return transactions.isEmpty()
+                ? null
+                : new ParsedRowChunk(firstRowNumber, transactions, rows);
+    }
+
+    @Override
+    public long rowCount() {
+        return reader.rowNumber();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private record ParsedRowChunk(
+            long firstRowNumber, List<Transaction> transactions, List<String> rows)
+            implements RowChunk {
+
+        @Override
+        public long endOffset() {
+            return -1;
+        }
+
+        @Override
+        public TransactionCsvReader open() {
+            return new TransactionCsvReader() {
+                private int index = -1;
+
+                @Override
+                public Transaction next() {
+                    return ++index < transactions.size() ? transactions.get(index) : null;
+                }
+
+                @Override
+                public long rowNumber() {
+                    return firstRowNumber + index;
+                }
+
+                @Override
+                public String currentRow() {
+                    return rows.get(index);
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/** commons-csv based reader, handles any dialect supported by {@link CSVFormat#DEFAULT}. */
+class CommonsCsvTransactionReader implements TransactionCsvReader {
+
+    private final CSVParser csvParser;
+    private final Iterator<CSVRecord> records;
+    private CSVRecord currentRecord;
+    private long rowNumber;
+
+    CommonsCsvTransactionReader(InputStream inputStream) throws IOException {
+        this.csvParser =
+                CSVFormat.Builder.create()
+                        // overwrite the csv header to ensure correct mapping
+                        .setSkipHeaderRecord(true)
+                        .setHeader("iban", "date", "currency", "category", "amount")
+                        .get()
+                        .parse(new InputStreamReader(inputStream));
+        this.records = csvParser.iterator();
+    }
+
+    @Override
+    public Transaction next() {
+        if (!records.hasNext()) {
+            return null;
+        }
+        currentRecord = records.next();
+        rowNumber++;
+        return Transaction.fromCsvRow(currentRecord);
+    }
+
+    /** Skips rows without converting them, used to resume an interrupted import. */
+    void skip(long rows) {
+        while (rowNumber < rows && records.hasNext()) {
+            currentRecord = records.next();
+            rowNumber++;
+        }
+    }
+
+    @Override
+    public long rowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public String currentRow() {
+        return String.valueOf(currentRecord);
+    }
+
+    @Override
+    public void close() throws IOException {
+        csvParser.close();
+    }
+}
@@ -0,0 +1,11 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+/** Selects the CSV parser used for transaction imports. */
+public enum CsvParserMode {
+    /** Byte-level parser for files with the standard header, commons-csv for anything else. */
+    AUTO,
+    /** Always use the byte-level parser. */
+    FAST,
+    /** Always use commons-csv. */
+    COMMONS
+}
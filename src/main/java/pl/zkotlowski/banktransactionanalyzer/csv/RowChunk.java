@@ -0,0 +1,18 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+/** A slice of consecutive CSV rows that can be parsed independently of the rest of the file. */
+public interface RowChunk {
+
+    long firstRowNumber();
+
+    /**
+     * @return offset in the input right after the last row of this chunk, or -1 when the parser
+     *     does not track byte offsets
+     */
+    long endOffset();
+
+    /**
+     * @return reader over the rows of this chunk, reporting row numbers relative to the whole file
+     */
+    TransactionCsvReader open();
+}
@@ -0,0 +1,89 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a CSV stream with the fixed {@code iban,date,currency,category,amount} layout into row
+ * chunks, so they can be parsed in parallel. The first record is always treated as a header and
+ * skipped.
+ */
+public interface TransactionCsvChunker extends Closeable {
+
+    String STANDARD_HEADER = "iban,date,currency,category,amount";
+
+    /**
+     * @return next chunk of rows, or null when the input is exhausted
+     */
+    RowChunk nextChunk() throws IOException;
+
+    /**
+     * @return number of data rows handed out in chunks so far, header excluded
+     */
+    long rowCount();
+
+    /**
+     * @param chunkSize target size of a chunk in bytes, a chunk always ends on a record boundary
+     */
+    static TransactionCsvChunker open(InputStream inputStream, CsvParserMode mode, int chunkSize)
+            throws IOException {
+        return open(inputStream, mode, chunkSize, 0, 0);
+    }
+
+    /**
+     * Opens the input from its beginning and continues after the given position, so an
+     * interrupted import can be resumed. Row numbers and the row count include the skipped rows.
+     *
+     * @param resumeOffset offset right after the last processed row as reported by {@link
+     *     RowChunk#endOffset()}, -1 if unknown, in which case rows are skipped one by one
+     * @param resumeRowCount number of data rows before that position
+     */
+    static TransactionCsvChunker open(
+            InputStream inputStream,
+            CsvParserMode mode,
+            int chunkSize,
+            long resumeOffset,
+            long resumeRowCount)
+            throws IOException {
+        var bufferedStream = new BufferedInputStream(inputStream);
+        var byteLevel =
+                switch (mode) {
+                    case FAST -> true;
+                    case COMMONS -> false;
+                    case AUTO -> hasStandardHeader(bufferedStream);
+                };
+        if (!byteLevel || resumeOffset < 0) {
+            return new CommonsCsvChunker(bufferedStream, resumeRowCount);
+        }
+        bufferedStream.skipNBytes(resumeOffset);
+        return new ByteCsvChunker(bufferedStream, chunkSize, resumeOffset, resumeRowCount);
+    }
+
+    /**
+     * Peeks at the header line without consuming it. Any other header (different delimiter,
+     * quoting, column names) is treated as a non-standard dialect.
+     */
+    private static boolean hasStandardHeader(BufferedInputStream inputStream) throws IOException {
+        var expected = STANDARD_HEADER.getBytes(StandardCharsets.US_ASCII);
+        inputStream.mark(expected.length + 2);
+        try {
+            var header = inputStream.readNBytes(expected.length + 1);
+            if (header.length < expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (Character.toLowerCase((char) (header[i] & 0xFF)) != expected[i]) {
+                    return false;
+                }
+            }
+            return header.length == expected.length
+                    || header[expected.length] == '\n'
+                    || header[expected.length] == '\r';
+        } finally {
+            inputStream.reset();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/**
+ * Reads transactions from CSV rows with the fixed {@code iban,date,currency,category,amount}
+ * layout.
+ */
+public interface TransactionCsvReader extends Closeable {
+
+    /**
+     * @return next transaction, or null when the input is exhausted
+     */
+    Transaction next() throws IOException;
+
+    /**
+     * @return row number of the last read row, header excluded
+     */
+    long rowNumber();
+
+    /**
+     * @return raw content of the last read row, used for error reporting
+     */
+    String currentRow();
+}
@@ -0,0 +1,18 @@
+package pl.zkotlowski.banktransactionanalyzer.exception;
+
+import java.util.UUID;
+import lombok.Getter;
+
+@Getter
+public class DuplicateImportException extends RuntimeException {
+
+    // job that imports (or imported) the same file
+    private final UUID existingImportJobId;
+
+    public DuplicateImportException(UUID existingImportJobId) {
+        super(
+                String.format(
+                        "File already imported by import job with id %s.", existingImportJobId));
+        this.existingImportJobId = existingImportJobId;
+    }
+}
@@ -1,7 +0,0 @@
-package pl.zkotlowski.banktransactionanalyzer.exception;
-
-public class FeatureNotImplementedException extends RuntimeException {
-    public FeatureNotImplementedException() {
-        super("Feature not implemented");
-    }
-}
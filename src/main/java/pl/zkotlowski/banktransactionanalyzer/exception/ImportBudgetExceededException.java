@@ -0,0 +1,7 @@
+package pl.zkotlowski.banktransactionanalyzer.exception;
+
+public class ImportBudgetExceededException extends RuntimeException {
+    public ImportBudgetExceededException(String budget, long limit) {
+        super(String.format("Import exceeds the configured %s budget of %d.", budget, limit));
+    }
+}
@@ -0,0 +1,16 @@
+package pl.zkotlowski.banktransactionanalyzer.exception;
+
+import java.time.Duration;
+import lombok.Getter;
+
+@Getter
+public class ImportQueueFullException extends RuntimeException {
+
+    // suggested delay before the client retries the upload
+    private final Duration retryAfter;
+
+    public ImportQueueFullException(int capacity, Duration retryAfter) {
+        super(String.format("Import queue is full with %d waiting jobs, retry later.", capacity));
+        this.retryAfter = retryAfter;
+    }
+}
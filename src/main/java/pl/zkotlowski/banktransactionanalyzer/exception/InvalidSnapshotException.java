@@ -0,0 +1,9 @@
+package pl.zkotlowski.banktransactionanalyzer.exception;
+
+import java.nio.file.Path;
+
+public class InvalidSnapshotException extends RuntimeException {
+    public InvalidSnapshotException(Path path, String reason) {
+        super(String.format("Invalid transaction snapshot %s: %s.", path.getFileName(), reason));
+    }
+}
@@ -0,0 +1,13 @@
+package pl.zkotlowski.banktransactionanalyzer.exception;
+
+import java.time.Duration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class StatisticsTimeoutException extends RuntimeException {
+
+    public StatisticsTimeoutException(Duration timeout) {
+        super(String.format("Statistics were not computed within %s, retry later.", timeout));
+    }
+}
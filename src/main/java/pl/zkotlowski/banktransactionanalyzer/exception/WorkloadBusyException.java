@@ -0,0 +1,17 @@
+package pl.zkotlowski.banktransactionanalyzer.exception;
+
+import java.time.Duration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class WorkloadBusyException extends RuntimeException {
+
+    public WorkloadBusyException(String workload, int maxConcurrency, Duration maxWait) {
+        super(
+                String.format(
+                        "The %s workload runs %d operations and none ended within %s, retry"
+                                + " later.",
+                        workload, maxConcurrency, maxWait));
+    }
+}
@@ -0,0 +1,21 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Summary of the batches written by an import, used to tune the adaptive batch sizing.
+ *
+ * @param batchCount number of batches written
+ * @param minBatchSize smallest batch written, in documents
+ * @param maxBatchSize largest batch written, in documents
+ * @param lastBatchSize batch size chosen by the adaptive sizing at the end of the import
+ * @param avgBatchLatencyMs average write latency of a batch
+ * @param maxBatchLatencyMs highest write latency of a batch
+ */
+public record BatchWriteStats(
+        @Field(name = "batch_count") long batchCount,
+        @Field(name = "min_batch_size") int minBatchSize,
+        @Field(name = "max_batch_size") int maxBatchSize,
+        @Field(name = "last_batch_size") int lastBatchSize,
+        @Field(name = "avg_batch_latency_ms") double avgBatchLatencyMs,
+        @Field(name = "max_batch_latency_ms") double maxBatchLatencyMs) {}
@@ -0,0 +1,17 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Position in the payload up to which all rows of an import are durably written. An interrupted
+ * import continues from here.
+ *
+ * @param byteOffset offset right after the last written row, -1 when the CSV parser does not
+ *     track byte offsets and rows have to be skipped instead
+ * @param rowNumber number of the last written row, header excluded
+ */
+public record ImportCheckpoint(
+        @Field(name = "byte_offset") long byteOffset, @Field(name = "row_number") long rowNumber) {
+
+    public static final ImportCheckpoint START = new ImportCheckpoint(0, 0);
+}
@@ -11,14 +11,53 @@ import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
  * @param startedAt
  * @param status
  * @param errorMessage
+ * @param priority queued jobs with a higher priority run first
+ * @param writeStats statistics of the batch writes, present once the transactions are written
+ * @param progress latest progress snapshot of the import
+ * @param checkpoint position up to which the rows are written, an interrupted import resumes here
+ * @param attempts number of times an import worker picked the job up
+ * @param reinstatement whether the job imports rows deferred by other jobs instead of a file
+ * @param queuePosition 1-based position in the import queue, only present for queued jobs
  */
 public record ImportJob(
-        UUID id, Instant startedAt, ImportJobDocument.Status status, String errorMessage) {
+        UUID id,
+        Instant startedAt,
+        ImportJobDocument.Status status,
+        String errorMessage,
+        int priority,
+        BatchWriteStats writeStats,
+        ImportProgress progress,
+        ImportCheckpoint checkpoint,
+        int attempts,
+        boolean reinstatement,
+        Integer queuePosition) {
     public static ImportJob from(ImportJobDocument importJobDocument) {
         return new ImportJob(
                 importJobDocument.getId(),
                 importJobDocument.getStartedAt(),
                 importJobDocument.getStatus(),
-                importJobDocument.getErrorMessage());
+                importJobDocument.getErrorMessage(),
+                importJobDocument.getPriority(),
+                importJobDocument.getWriteStats(),
+                importJobDocument.getProgress(),
+                importJobDocument.getCheckpoint(),
+                importJobDocument.getAttempts(),
+                importJobDocument.isReinstatement(),
+                null);
+    }
+
+    public ImportJob withQueuePosition(int queuePosition) {
+        return new ImportJob(
+                id,
+                startedAt,
+                status,
+                errorMessage,
+                priority,
+                writeStats,
+                progress,
+                checkpoint,
+                attempts,
+                reinstatement,
+                queuePosition);
     }
 }
@@ -0,0 +1,34 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import java.time.Instant;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Snapshot of a running (or finished) import, flushed to the job periodically.
+ *
+ * @param rowsParsed rows parsed and validated so far
+ * @param rowsWritten rows written to the database so far, duplicates included
+ * @param duplicateRows rows skipped because the same row is already stored
+ * @param bytesRead bytes of the payload consumed so far
+ * @param totalBytes size of the payload
+ * @param rowsPerSecond rows written per second since the previous snapshot
+ * @param elapsedMillis wall time since the import started
+ * @param readMillis time spent reading and chunking the payload
+ * @param parseMillis time spent parsing and validating rows, summed over all parse workers
+ * @param writeMillis time spent writing batches, summed over all write workers
+ * @param etaSeconds estimated time left based on the byte throughput, null until it is known
+ * @param updatedAt time of the snapshot, a stale value indicates a stalled import
+ */
+public record ImportProgress(
+        @Field(name = "rows_parsed") long rowsParsed,
+        @Field(name = "rows_written") long rowsWritten,
+        @Field(name = "duplicate_rows") long duplicateRows,
+        @Field(name = "bytes_read") long bytesRead,
+        @Field(name = "total_bytes") long totalBytes,
+        @Field(name = "rows_per_second") double rowsPerSecond,
+        @Field(name = "elapsed_ms") long elapsedMillis,
+        @Field(name = "read_ms") long readMillis,
+        @Field(name = "parse_ms") long parseMillis,
+        @Field(name = "write_ms") long writeMillis,
+        @Field(name = "eta_seconds") Long etaSeconds,
+        @Field(name = "updated_at") Instant updatedAt) {}
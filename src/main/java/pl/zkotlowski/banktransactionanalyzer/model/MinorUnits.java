@@ -0,0 +1,30 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts amounts to and from minor units, the signed number of cents stored in the database.
+ * The scale is the same for every transaction, fixed by the 2 fraction digits allowed by {@link
+ * Transaction}, so stored amounts can be summed and compared as plain integers.
+ */
+public final class MinorUnits {
+
+    public static final int SCALE = 2;
+
+    private MinorUnits() {}
+
+    /**
+     * @throws ArithmeticException when the amount has more fraction digits than the scale or does
+     *     not fit a long, neither passes validation
+     */
+    public static Long toMinorUnits(BigDecimal amount) {
+        return amount == null
+                ? null
+                : amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromMinorUnits(Long minorUnits) {
+        return minorUnits == null ? null : BigDecimal.valueOf(minorUnits, SCALE);
+    }
+}
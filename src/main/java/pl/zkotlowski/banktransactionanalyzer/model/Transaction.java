@@ -6,9 +6,12 @@ import jakarta.validation.constraints.PastOrPresent;
 import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 import java.math.BigDecimal;
+import java.security.SecureRandom;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
 import org.apache.commons.csv.CSVRecord;
 import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
 
@@ -33,6 +36,18 @@ public record Transaction(
                 BigDecimal amount) {
     private static final DateTimeFormatter DATE_FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    // fully qualified to avoid a clash with the jakarta @Pattern constraint
+    private static final java.util.regex.Pattern WHITESPACE =
+            java.util.regex.Pattern.compile("\\s");
+    private static final SecureRandom ID_SEEDS = new SecureRandom();
+    // 384 bits of state per thread, each seeded from ID_SEEDS
+    private static final ThreadLocal<RandomGenerator> ID_RANDOM =
+            ThreadLocal.withInitial(
+                    () -> {
+                        var seed = new byte[48];
+                        ID_SEEDS.nextBytes(seed);
+                        return RandomGeneratorFactory.of("L128X256MixRandom").create(seed);
+                    });
 
     public static Transaction fromEntity(TransactionDocument transactionDocument) {
         return new Transaction(
@@ -41,23 +56,44 @@ public record Transaction(
                 transactionDocument.getDate(),
                 transactionDocument.getCurrency(),
                 transactionDocument.getCategory(),
-                transactionDocument.getAmount());
+                MinorUnits.fromMinorUnits(transactionDocument.getAmountMinor()));
     }
 
     public static Transaction fromCsvRow(CSVRecord csvRow) {
-        var rawIban = csvRow.get("iban");
-        var rawCategory = csvRow.get("category");
-
-        // remove all whitespaces from IBAN and convert to uppercase
-        var iban = rawIban == null ? null : rawIban.replaceAll("\\s", "").toUpperCase();
-        // remove all leading/trailing whitespaces from category and convert to uppercase
-        var category = rawCategory == null ? null : rawCategory.strip().toUpperCase();
         return new Transaction(
-                UUID.randomUUID(),
-                iban,
-                LocalDate.parse(csvRow.get("date"), DATE_FORMATTER),
+                newId(),
+                normalizeIban(csvRow.get("iban")),
+                parseDate(csvRow.get("date")),
                 csvRow.get("currency"),
-                category,
+                normalizeCategory(csvRow.get("category")),
                 new BigDecimal(csvRow.get("amount")));
     }
+
+    /**
+     * Generates a random (version 4) UUID. The SecureRandom behind {@link UUID#randomUUID()}
+     * dominates the cost of parsing a row, so ids come from a per thread LXM generator seeded by
+     * it instead. Its state is larger than the 122 random bits of an id, so ids of all threads are
+     * as unlikely to collide as ones of {@link UUID#randomUUID()}, which matters since a
+     * colliding id would be rejected like a duplicate row.
+     */
+    public static UUID newId() {
+        var random = ID_RANDOM.get();
+        var mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        var leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /** Removes all whitespaces from IBAN and converts it to uppercase. */
+    public static String normalizeIban(String rawIban) {
+        return rawIban == null ? null : WHITESPACE.matcher(rawIban).replaceAll("").toUpperCase();
+    }
+
+    /** Removes all leading/trailing whitespaces from category and converts it to uppercase. */
+    public static String normalizeCategory(String rawCategory) {
+        return rawCategory == null ? null : rawCategory.strip().toUpperCase();
+    }
+
+    public static LocalDate parseDate(String rawDate) {
+        return LocalDate.parse(rawDate, DATE_FORMATTER);
+    }
 }
@@ -0,0 +1,26 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import org.springframework.http.MediaType;
+
+public enum TransactionExportFormat {
+    // one JSON object per line
+    NDJSON(MediaType.parseMediaType("application/x-ndjson"), "ndjson"),
+    // same columns as the imported files, so an export can be imported again
+    CSV(MediaType.parseMediaType("text/csv"), "csv");
+
+    private final MediaType mediaType;
+    private final String extension;
+
+    TransactionExportFormat(MediaType mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public MediaType mediaType() {
+        return mediaType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+}
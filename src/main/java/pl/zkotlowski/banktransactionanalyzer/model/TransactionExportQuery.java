@@ -0,0 +1,18 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import java.time.LocalDate;
+
+/**
+ * Filters of an export, each optional.
+ *
+ * @param to last day included
+ */
+public record TransactionExportQuery(String iban, String currency, LocalDate from, LocalDate to) {
+
+    public TransactionExportQuery {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException(
+                    String.format("Export start %s is after its end %s.", from, to));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position after the last transaction of a search page, by the sort key of the search. Clients
+ * get it as an opaque token.
+ */
+public record TransactionSearchCursor(LocalDate date, UUID id) {
+
+    private static final int TOKEN_BYTES = Long.BYTES * 3;
+
+    public String encode() {
+        var bytes =
+                ByteBuffer.allocate(TOKEN_BYTES)
+                        .putLong(date.toEpochDay())
+                        .putLong(id.getMostSignificantBits())
+                        .putLong(id.getLeastSignificantBits())
+                        .array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the token was not returned by a search
+     */
+    public static TransactionSearchCursor decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            bytes = new byte[0];
+        }
+        if (bytes.length != TOKEN_BYTES) {
+            throw new IllegalArgumentException(String.format("Invalid cursor: %s.", token));
+        }
+        var buffer = ByteBuffer.wrap(bytes);
+        return new TransactionSearchCursor(
+                LocalDate.ofEpochDay(buffer.getLong()),
+                new UUID(buffer.getLong(), buffer.getLong()));
+    }
+}
@@ -0,0 +1,44 @@
+package pl.zkotlowski.banktransactionanalyzer.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Filters of a search, all but the currency optional, and the page to return.
+ *
+ * @param to last day included
+ * @param maxAmount included, as is minAmount
+ * @param cursor position after the previous page, null for the first page
+ */
+public record TransactionSearchQuery(
+        String currency,
+        String iban,
+        String category,
+        LocalDate from,
+        LocalDate to,
+        BigDecimal minAmount,
+        BigDecimal maxAmount,
+        TransactionSearchCursor cursor,
+        int limit) {
+
+    public static final int MAX_LIMIT = 1_000;
+
+    public TransactionSearchQuery {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException(
+                    String.format("Search start %s is after its end %s.", from, to));
+        }
+        for (var amount : new BigDecimal[] {minAmount, maxAmount}) {
+            if (amount != null && amount.stripTrailingZeros().scale() > MinorUnits.SCALE) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Amount %s has more than %d fraction digits.",
+                                amount, MinorUnits.SCALE));
+            }
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException(
+                    String.format("Limit must be between 1 and %d.", MAX_LIMIT));
+        }
+    }
+}
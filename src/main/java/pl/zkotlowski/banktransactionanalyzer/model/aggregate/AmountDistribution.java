@@ -0,0 +1,62 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import pl.zkotlowski.banktransactionanalyzer.model.MinorUnits;
+
+/**
+ * Distribution of the amounts with one value of an attribute.
+ *
+ * @param attribute value of the attribute the amounts are grouped by
+ * @param mean rounded to the cent
+ * @param percentiles estimated amount per requested percentile, e.g. {@code p95}
+ * @param histogram number of amounts per power of two of their magnitude in cents, bins without
+ *     amounts left out
+ */
+public record AmountDistribution(
+        String attribute,
+        long count,
+        BigDecimal min,
+        BigDecimal max,
+        BigDecimal mean,
+        Map<String, BigDecimal> percentiles,
+        List<HistogramBin> histogram) {
+
+    public static AmountDistribution of(
+            String attribute, AmountSketch sketch, List<Double> percentiles) {
+        var estimates = new LinkedHashMap<String, BigDecimal>();
+        for (var percentile : percentiles) {
+            estimates.put(
+                    "p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(),
+                    MinorUnits.fromMinorUnits(sketch.percentile(percentile)));
+        }
+        var mean =
+                BigDecimal.valueOf(sketch.sum())
+                        .divide(BigDecimal.valueOf(sketch.count()), 0, RoundingMode.HALF_EVEN)
+                        .longValueExact();
+        return new AmountDistribution(
+                attribute,
+                sketch.count(),
+                MinorUnits.fromMinorUnits(sketch.min()),
+                MinorUnits.fromMinorUnits(sketch.max()),
+                MinorUnits.fromMinorUnits(mean),
+                estimates,
+                sketch.histogram().stream()
+                        .map(
+                                bin ->
+                                        new HistogramBin(
+                                                MinorUnits.fromMinorUnits(bin.from()),
+                                                MinorUnits.fromMinorUnits(bin.to()),
+                                                bin.count()))
+                        .toList());
+    }
+
+    /**
+     * @param from smallest amount of the bin
+     * @param to largest amount of the bin
+     */
+    public record HistogramBin(BigDecimal from, BigDecimal to, long count) {}
+}
@@ -0,0 +1,57 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Distribution of the amounts of a currency per value of an attribute.
+ *
+ * @param groupBy IBAN, category or month
+ * @param from optional, first day included
+ * @param to optional, last day included
+ * @param percentiles percentiles to estimate, between 0 (excluded) and 100
+ */
+public record AmountDistributionQuery(
+        TransactionFilterByAttribute groupBy,
+        String currency,
+        LocalDate from,
+        LocalDate to,
+        List<Double> percentiles) {
+
+    public static final List<Double> DEFAULT_PERCENTILES = List.of(50.0, 90.0, 95.0, 99.0);
+    private static final int MAX_PERCENTILES = 20;
+
+    public AmountDistributionQuery {
+        if (groupBy != TransactionFilterByAttribute.IBAN
+                && groupBy != TransactionFilterByAttribute.CATEGORY
+                && groupBy != TransactionFilterByAttribute.YEAR_MONTH) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Distribution cannot be grouped by %s, only by IBAN, CATEGORY or"
+                                    + " YEAR_MONTH.",
+                            groupBy));
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException(
+                    String.format("Distribution start %s is after its end %s.", from, to));
+        }
+        if (percentiles == null || percentiles.isEmpty()) {
+            percentiles = DEFAULT_PERCENTILES;
+        }
+        if (percentiles.size() > MAX_PERCENTILES
+                || percentiles.stream().anyMatch(p -> p == null || !(p > 0 && p <= 100))) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Expected 1 to %d percentiles between 0 (excluded) and 100, got %s.",
+                            MAX_PERCENTILES, percentiles));
+        }
+        percentiles = List.copyOf(percentiles);
+    }
+
+    /** Whether the range starts and ends with whole months, which the rollups hold. */
+    public boolean coversWholeMonths() {
+        return (from == null || from.getDayOfMonth() == 1)
+                && (to == null || to.equals(YearMonth.from(to).atEndOfMonth()));
+    }
+}
@@ -0,0 +1,219 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mergeable summary of the distribution of amounts in minor units: count, sum, min, max and the
+ * number of amounts per log bucket. Amounts below 128 cents have a bucket each, above that each
+ * power of two is split into 64 buckets, so a value estimated from a bucket is within 1% of the
+ * amounts in it. Sketches of partitions, e.g. of months, merge into the exact sketch of all their
+ * amounts, whatever the order.
+ *
+ * <p>The bucket of an amount is an integer computed without floating point, so it is the same
+ * wherever it is computed, see {@code TransactionRollupRepository.amountBucket}.
+ */
+public final class AmountSketch {
+
+    // each power of two above 64 is split into 2^6 buckets
+    public static final int SUB_BUCKET_BITS = 6;
+    // slot of the open addressing table that holds no bucket, buckets stay within +-4096
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] buckets = new int[8];
+    private long[] counts = new long[8];
+    private int size;
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public AmountSketch() {
+        Arrays.fill(buckets, EMPTY);
+    }
+
+    /**
+     * @return bucket of the amount, negative for negative amounts, 0 for 0, ordered like the
+     *     amounts
+     */
+    public static int bucketOf(long amount) {
+        var magnitude = Math.abs(amount);
+        var exponent = 63 - Long.numberOfLeadingZeros(magnitude);
+        var shift = Math.max(0, exponent - SUB_BUCKET_BITS);
+        var index = (shift << SUB_BUCKET_BITS) + (int) (magnitude >>> shift);
+        return amount < 0 ? -index : index;
+    }
+
+    /**
+     * @return smallest magnitude of the amounts in the bucket
+     */
+    private static long lowerMagnitude(int bucket) {
+        var index = Math.abs(bucket);
+        var shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    /**
+     * @return number of amounts in the bucket
+     */
+    private static long width(int bucket) {
+        return 1L << Math.max(0, (Math.abs(bucket) >> SUB_BUCKET_BITS) - 1);
+    }
+
+    public void add(long amount) {
+        addBucket(bucketOf(amount), 1);
+        addTotals(amount, amount, amount);
+    }
+
+    /**
+     * Adds amounts known only by their bucket, their sum and range are added with {@link
+     * #addTotals}.
+     */
+    public void addBucket(int bucket, long bucketCount) {
+        if (bucketCount == 0) {
+            return;
+        }
+        count += bucketCount;
+        var slot = slotOf(bucket);
+        if (buckets[slot] == EMPTY) {
+            buckets[slot] = bucket;
+            if (++size * 2 > buckets.length) {
+                grow();
+                slot = slotOf(bucket);
+            }
+        }
+        counts[slot] += bucketCount;
+    }
+
+    /**
+     * @param min smallest of the added amounts
+     * @param max largest of the added amounts
+     */
+    public void addTotals(long amountSum, long min, long max) {
+        sum += amountSum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    public void merge(AmountSketch other) {
+        for (int slot = 0; slot < other.buckets.length; slot++) {
+            if (other.buckets[slot] != EMPTY) {
+                addBucket(other.buckets[slot], other.counts[slot]);
+            }
+        }
+        if (other.count > 0) {
+            addTotals(other.sum, other.min, other.max);
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    public long min() {
+        return min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Estimates the percentile by the nearest rank, from the middle of the bucket of the ranked
+     * amount, which is exact for amounts below 128 cents and within 1% above. The 100th
+     * percentile is the exact max.
+     *
+     * @param percentile between 0 (excluded) and 100
+     */
+    public long percentile(double percentile) {
+        var rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        if (rank >= count) {
+            return max;
+        }
+        var seen = 0L;
+        for (var bucket : sortedBuckets()) {
+            seen += countOf(bucket);
+            if (seen >= rank) {
+                var magnitude = lowerMagnitude(bucket) + (width(bucket) - 1) / 2;
+                var value = bucket < 0 ? -magnitude : magnitude;
+                return Math.clamp(value, min, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Counts of the amounts per power of two of their magnitude, from the most negative to the
+     * largest, empty powers left out. The buckets of the sketch never span two powers, so the
+     * counts are exact.
+     */
+    public List<Bin> histogram() {
+        var bins = new ArrayList<Bin>();
+        for (var bucket : sortedBuckets()) {
+            var magnitude = lowerMagnitude(bucket);
+            // [0, 0], [1, 1], [2, 3], [4, 7], ...
+            var lower = Long.highestOneBit(magnitude);
+            var upper = magnitude == 0 ? 0 : lower * 2 - 1;
+            var from = bucket < 0 ? -upper : lower;
+            var to = bucket < 0 ? -lower : upper;
+            var last = bins.isEmpty() ? null : bins.getLast();
+            if (last != null && last.from() == from) {
+                bins.set(bins.size() - 1, new Bin(from, to, last.count() + countOf(bucket)));
+            } else {
+                bins.add(new Bin(from, to, countOf(bucket)));
+            }
+        }
+        return bins;
+    }
+
+    private int[] sortedBuckets() {
+        var sorted = new int[size];
+        var next = 0;
+        for (var bucket : buckets) {
+            if (bucket != EMPTY) {
+                sorted[next++] = bucket;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private long countOf(int bucket) {
+        return counts[slotOf(bucket)];
+    }
+
+    // linear probing, the slot of the bucket or the empty slot it goes to
+    private int slotOf(int bucket) {
+        var mask = buckets.length - 1;
+        var slot = (bucket * 0x9E3779B9) >>> 16 & mask;
+        while (buckets[slot] != EMPTY && buckets[slot] != bucket) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        var oldBuckets = buckets;
+        var oldCounts = counts;
+        buckets = new int[oldBuckets.length * 2];
+        counts = new long[oldBuckets.length * 2];
+        Arrays.fill(buckets, EMPTY);
+        for (int slot = 0; slot < oldBuckets.length; slot++) {
+            if (oldBuckets[slot] != EMPTY) {
+                var newSlot = slotOf(oldBuckets[slot]);
+                buckets[newSlot] = oldBuckets[slot];
+                counts[newSlot] = oldCounts[slot];
+            }
+        }
+    }
+
+    /**
+     * Amounts in minor units between {@code from} and {@code to}, both included.
+     */
+    public record Bin(long from, long to, long count) {}
+}
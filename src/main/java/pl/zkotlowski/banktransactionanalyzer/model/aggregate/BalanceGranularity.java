@@ -0,0 +1,58 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+
+/** Size of the buckets of a balance series, weeks start on Monday. */
+public enum BalanceGranularity {
+    DAY("day"),
+    WEEK("week"),
+    MONTH("month"),
+    QUARTER("quarter"),
+    YEAR("year");
+
+    // unit of $dateTrunc
+    private final String unit;
+
+    BalanceGranularity(String unit) {
+        this.unit = unit;
+    }
+
+    public String unit() {
+        return unit;
+    }
+
+    /** Buckets of whole months, which the monthly rollups can be grouped into. */
+    public boolean isMonthly() {
+        return this == MONTH || this == QUARTER || this == YEAR;
+    }
+
+    /**
+     * @return first day of the bucket containing the date
+     */
+    public LocalDate truncate(LocalDate date) {
+        return switch (this) {
+            case DAY -> date;
+            case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> date.withDayOfMonth(1);
+            case QUARTER -> date.with(IsoFields.DAY_OF_QUARTER, 1);
+            case YEAR -> date.withDayOfYear(1);
+        };
+    }
+
+    /**
+     * @param bucket first day of a bucket
+     * @return first day of the following bucket
+     */
+    public LocalDate next(LocalDate bucket) {
+        return switch (this) {
+            case DAY -> bucket.plusDays(1);
+            case WEEK -> bucket.plusWeeks(1);
+            case MONTH -> bucket.plusMonths(1);
+            case QUARTER -> bucket.plusMonths(3);
+            case YEAR -> bucket.plusYears(1);
+        };
+    }
+}
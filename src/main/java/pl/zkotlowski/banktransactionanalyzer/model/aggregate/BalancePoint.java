@@ -0,0 +1,22 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import pl.zkotlowski.banktransactionanalyzer.model.MinorUnits;
+
+/**
+ * @param bucket first day of the bucket
+ */
+public record BalancePoint(LocalDate bucket, BigDecimal expenses, BigDecimal income) {
+
+    public static BalancePoint empty(LocalDate bucket) {
+        return new BalancePoint(
+                bucket, MinorUnits.fromMinorUnits(0L), MinorUnits.fromMinorUnits(0L));
+    }
+
+    @JsonProperty("balance")
+    public BigDecimal balance() {
+        return income.add(expenses);
+    }
+}
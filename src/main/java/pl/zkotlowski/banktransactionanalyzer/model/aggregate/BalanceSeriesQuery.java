@@ -0,0 +1,26 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import java.time.LocalDate;
+
+/**
+ * Balance per bucket between two dates.
+ *
+ * @param to last day included
+ * @param iban optional, only transactions of the IBAN
+ * @param category optional, only transactions of the category
+ */
+public record BalanceSeriesQuery(
+        LocalDate from,
+        LocalDate to,
+        BalanceGranularity granularity,
+        String currency,
+        String iban,
+        String category) {
+
+    public BalanceSeriesQuery {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException(
+                    String.format("Series start %s is after its end %s.", from, to));
+        }
+    }
+}
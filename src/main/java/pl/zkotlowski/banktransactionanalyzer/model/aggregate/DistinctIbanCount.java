@@ -0,0 +1,8 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+/**
+ * @param attribute value of the attribute the IBANs are grouped by
+ * @param ibans number of distinct IBANs, estimated unless exact
+ * @param standardError relative standard error of the estimate, 0 if exact
+ */
+public record DistinctIbanCount(String attribute, long ibans, double standardError) {}
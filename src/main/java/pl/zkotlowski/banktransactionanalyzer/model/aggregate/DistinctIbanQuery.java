@@ -0,0 +1,43 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Number of distinct IBANs with transactions in a currency per value of an attribute.
+ *
+ * @param groupBy category, month or currency, the latter counting the IBANs of the whole range
+ * @param from optional, first month included
+ * @param to optional, last month included
+ * @param exact count the IBANs instead of estimating them from sketches
+ */
+public record DistinctIbanQuery(
+        TransactionFilterByAttribute groupBy,
+        String currency,
+        YearMonth from,
+        YearMonth to,
+        boolean exact) {
+
+    public DistinctIbanQuery {
+        if (groupBy != TransactionFilterByAttribute.CATEGORY
+                && groupBy != TransactionFilterByAttribute.YEAR_MONTH
+                && groupBy != TransactionFilterByAttribute.CURRENCY) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Distinct IBANs cannot be grouped by %s, only by CATEGORY,"
+                                    + " YEAR_MONTH or CURRENCY.",
+                            groupBy));
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException(
+                    String.format("Distinct IBANs start %s is after their end %s.", from, to));
+        }
+    }
+
+    /**
+     * @return number of months of the range, both included, or -1 if it is not bounded
+     */
+    public long months() {
+        return from == null || to == null ? -1 : ChronoUnit.MONTHS.between(from, to) + 1;
+    }
+}
@@ -0,0 +1,316 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct values added to it, e.g. IBANs, from 2^p
+ * registers whatever the number of values, with a relative standard error of about 1.04 /
+ * sqrt(2^p). Sketches merge into the sketch of the union of their values, so sketches of
+ * partitions, e.g. of months, estimate the distinct values of any combination of them.
+ *
+ * <p>A sketch of few values only keeps its non-zero registers, until they would take more space
+ * than all registers. Values are hashed with a fixed hash, so sketches built by any instance,
+ * stored or not, can be merged.
+ */
+public final class DistinctSketch {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    // first byte of the serialized sketch
+    private static final byte SPARSE = 1;
+    private static final byte DENSE = 2;
+    // slot of the sparse table that holds no register, others hold index << 8 | value
+    private static final int EMPTY = -1;
+
+    private final int precision;
+    private int[] sparse = new int[8];
+    private int sparseSize;
+    // all registers by index, null while sparse
+    private byte[] registers;
+
+    /**
+     * @param precision number of index bits p, between {@link #MIN_PRECISION} and {@link
+     *     #MAX_PRECISION}
+     */
+    public DistinctSketch(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Precision %d is not between %d and %d.",
+                            precision, MIN_PRECISION, MAX_PRECISION));
+        }
+        this.precision = precision;
+        Arrays.fill(sparse, EMPTY);
+    }
+
+    /**
+     * @return smallest supported precision whose standard error does not exceed the given one,
+     *     the largest if none does
+     */
+    public static int precisionFor(double standardError) {
+        var registerCount = Math.pow(1.04 / standardError, 2);
+        var precision = (int) Math.ceil(Math.log(registerCount) / Math.log(2));
+        return Math.clamp(precision, MIN_PRECISION, MAX_PRECISION);
+    }
+
+    public static double standardError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * 64 bit FNV-1a of the UTF-8 bytes of the value, mixed by the MurmurHash3 finalizer so that
+     * every bit depends on the whole value.
+     */
+    public static long hash(String value) {
+        var hash = 0xcbf29ce484222325L;
+        for (var b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a sketch written by {@link
+     *     #toBytes()}
+     */
+    public static DistinctSketch fromBytes(byte[] bytes) {
+        if (bytes == null
+                || bytes.length < 2
+                || bytes[1] < MIN_PRECISION
+                || bytes[1] > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid distinct sketch.");
+        }
+        var sketch = new DistinctSketch(bytes[1]);
+        var registerCount = 1 << sketch.precision;
+        if (bytes[0] == DENSE && bytes.length == 2 + registerCount) {
+            sketch.registers = Arrays.copyOfRange(bytes, 2, bytes.length);
+            return sketch;
+        }
+        if (bytes[0] != SPARSE || (bytes.length - 2) % 3 != 0) {
+            throw new IllegalArgumentException("Invalid distinct sketch.");
+        }
+        for (int offset = 2; offset < bytes.length; offset += 3) {
+            var index = (bytes[offset] & 0xff) << 8 | bytes[offset + 1] & 0xff;
+            var value = bytes[offset + 2] & 0xff;
+            if (index >= registerCount || value == 0) {
+                throw new IllegalArgumentException("Invalid distinct sketch.");
+            }
+            sketch.set(index, value);
+        }
+        return sketch;
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public void add(String value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * @param hash 64 bit hash of the value, the first p bits select the register, the others
+     *     give its value
+     */
+    public void addHash(long hash) {
+        var index = (int) (hash >>> (Long.SIZE - precision));
+        // position of the first one bit after the index bits, capped if there is none
+        var zeros = Math.min(Long.numberOfLeadingZeros(hash << precision), Long.SIZE - precision);
+        set(index, zeros + 1);
+    }
+
+    /**
+     * Adds the values of a sketch of the same precision, see {@link #reduce} for others.
+     */
+    public void merge(DistinctSketch other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Cannot merge a sketch of precision %d into one of precision %d.",
+                            other.precision, precision));
+        }
+        other.forEachRegister(this::set);
+    }
+
+    /**
+     * @return sketch of the same values at a lower precision, as if it had been built at it
+     */
+    public DistinctSketch reduce(int lowerPrecision) {
+        if (lowerPrecision == precision) {
+            return this;
+        }
+        if (lowerPrecision > precision) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Cannot raise the precision of a sketch from %d to %d.",
+                            precision, lowerPrecision));
+        }
+        var reduced = new DistinctSketch(lowerPrecision);
+        var dropped = precision - lowerPrecision;
+        forEachRegister(
+                (index, value) -> {
+                    // the dropped index bits now come first in the bits the value is counted in
+                    var droppedBits = index & ((1 << dropped) - 1);
+                    reduced.set(
+                            index >>> dropped,
+                            droppedBits == 0
+                                    ? dropped + value
+                                    : Integer.numberOfLeadingZeros(droppedBits)
+                                            - (Integer.SIZE - dropped)
+                                            + 1);
+                });
+        return reduced;
+    }
+
+    /**
+     * Estimates the number of distinct values from the number of registers of each value with
+     * the improved estimator of Ertl, "New cardinality estimation algorithms for HyperLogLog
+     * sketches" (2017), which unlike the original one needs no bias correction for small counts.
+     */
+    public long estimate() {
+        var registerCount = 1 << precision;
+        var maxValue = Long.SIZE - precision + 1;
+        var histogram = new int[maxValue + 1];
+        histogram[0] = registerCount;
+        forEachRegister(
+                (index, value) -> {
+                    histogram[0]--;
+                    histogram[value]++;
+                });
+        var z = registerCount * tau(1 - (double) histogram[maxValue] / registerCount);
+        for (int value = maxValue - 1; value >= 1; value--) {
+            z = 0.5 * (z + histogram[value]);
+        }
+        z += registerCount * sigma((double) histogram[0] / registerCount);
+        return Math.round(registerCount / (2 * Math.log(2)) * registerCount / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        var y = 1.0;
+        var z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        var y = 1.0;
+        var z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+
+    /**
+     * @return the precision and either the non-zero registers as 2 byte index and value, or all
+     *     registers, whichever is smaller
+     */
+    public byte[] toBytes() {
+        if (registers != null) {
+            var bytes = new byte[2 + registers.length];
+            bytes[0] = DENSE;
+            bytes[1] = (byte) precision;
+            System.arraycopy(registers, 0, bytes, 2, registers.length);
+            return bytes;
+        }
+        // ordered by index, so sketches of the same values are written the same
+        var entries = Arrays.stream(sparse).filter(entry -> entry != EMPTY).sorted().toArray();
+        var bytes = new byte[2 + 3 * entries.length];
+        bytes[0] = SPARSE;
+        bytes[1] = (byte) precision;
+        var offset = 2;
+        for (var entry : entries) {
+            bytes[offset++] = (byte) (entry >>> 16);
+            bytes[offset++] = (byte) (entry >>> 8);
+            bytes[offset++] = (byte) entry;
+        }
+        return bytes;
+    }
+
+    private void set(int index, int value) {
+        if (registers != null) {
+            registers[index] = (byte) Math.max(registers[index], value);
+            return;
+        }
+        var slot = slotOf(index);
+        if (sparse[slot] == EMPTY) {
+            sparse[slot] = index << 8 | value;
+            if (++sparseSize * 2 > sparse.length) {
+                growSparse();
+            }
+        } else if (value > (sparse[slot] & 0xff)) {
+            sparse[slot] = index << 8 | value;
+        }
+    }
+
+    private void forEachRegister(Register consumer) {
+        if (registers != null) {
+            for (int index = 0; index < registers.length; index++) {
+                if (registers[index] != 0) {
+                    consumer.accept(index, registers[index]);
+                }
+            }
+            return;
+        }
+        for (var entry : sparse) {
+            if (entry != EMPTY) {
+                consumer.accept(entry >>> 8, entry & 0xff);
+            }
+        }
+    }
+
+    // linear probing, the slot of the register or the empty slot it goes to
+    private int slotOf(int index) {
+        var mask = sparse.length - 1;
+        var slot = (index * 0x9E3779B9) >>> 16 & mask;
+        while (sparse[slot] != EMPTY && sparse[slot] >>> 8 != index) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void growSparse() {
+        var entries = sparse;
+        sparseSize = 0;
+        if (entries.length * 2 * Integer.BYTES > 1 << precision) {
+            // a larger table would take more space than all registers
+            registers = new byte[1 << precision];
+            sparse = null;
+        } else {
+            sparse = new int[entries.length * 2];
+            Arrays.fill(sparse, EMPTY);
+        }
+        for (var entry : entries) {
+            if (entry != EMPTY) {
+                set(entry >>> 8, entry & 0xff);
+            }
+        }
+    }
+
+    private interface Register {
+
+        void accept(int index, int value);
+    }
+}
@@ -0,0 +1,20 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+/**
+ * One statistic of a batch, in the shape of the parameters of its single endpoint.
+ *
+ * @param resultSize only used by {@link Type#MOST_SPENT}
+ * @param value only used by {@link Type#BALANCE}
+ */
+public record StatisticsMetric(
+        Type type,
+        TransactionFilterByAttribute filterBy,
+        Integer resultSize,
+        String value,
+        String currency) {
+
+    public enum Type {
+        MOST_SPENT,
+        BALANCE
+    }
+}
@@ -0,0 +1,13 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+
+/**
+ * @param mostSpent only present for {@link StatisticsMetric.Type#MOST_SPENT}
+ * @param balance only present for {@link StatisticsMetric.Type#BALANCE} with matching
+ *     transactions
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record StatisticsMetricResult(
+        StatisticsMetric metric, List<TopSpentBy> mostSpent, BalanceByAttribute balance) {}
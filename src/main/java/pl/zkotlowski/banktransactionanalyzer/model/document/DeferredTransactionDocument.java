@@ -0,0 +1,76 @@
+package pl.zkotlowski.banktransactionanalyzer.model.document;
+
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Mongo document keeping an imported row that was skipped as a duplicate of a row written by
+ * another import job that was not completed yet. Kept until that job is finished: if it fails,
+ * its row is removed and this one is imported instead, see {@code DeferredTransactionService}.
+ */
+@Document(collection = "deferred_transactions")
+@CompoundIndexes({
+    // rows of a failed import are removed, the ones after the checkpoint of a resumed one as well
+    @CompoundIndex(
+            name = "owner_import_job_id_import_row",
+            def = "{'owner_import_job_id': 1, 'import_row': 1}"),
+    @CompoundIndex(
+            name = "blocking_import_job_id_owner_import_job_id",
+            def = "{'blocking_import_job_id': 1, 'owner_import_job_id': 1}")
+})
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class DeferredTransactionDocument {
+
+    // id of the skipped transaction
+    @Id private UUID id;
+
+    // import job the skipped row belongs to
+    @Field(name = "owner_import_job_id")
+    private UUID ownerImportJobId;
+
+    // import job holding the natural key of the row
+    @Field(name = "blocking_import_job_id")
+    private UUID blockingImportJobId;
+
+    @Field(name = "import_row")
+    private Long importRow;
+
+    @Field(name = "transaction")
+    private TransactionDocument transaction;
+
+    public static DeferredTransactionDocument of(
+            TransactionDocument transaction, UUID blockingImportJobId) {
+        return new DeferredTransactionDocument(
+                transaction.getId(),
+                transaction.getImportJobId(),
+                blockingImportJobId,
+                transaction.getImportRow(),
+                transaction);
+    }
+
+    /**
+     * @return the skipped row, as a row of the given import job
+     */
+    public TransactionDocument toTransaction(UUID importJobId) {
+        return TransactionDocument.builder()
+                .withId(transaction.getId())
+                .withIban(transaction.getIban())
+                .withDate(transaction.getDate())
+                .withCategory(transaction.getCategory())
+                .withCurrency(transaction.getCurrency())
+                .withAmountMinor(transaction.getAmountMinor())
+                .withImportJobId(importJobId)
+                .withImportRow(transaction.getImportRow())
+                .withNaturalKey(transaction.getNaturalKey())
+                .build();
+    }
+}
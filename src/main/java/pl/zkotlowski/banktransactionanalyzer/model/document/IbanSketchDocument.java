@@ -0,0 +1,57 @@
+package pl.zkotlowski.banktransactionanalyzer.model.document;
+
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Mongo document holding a {@code DistinctSketch} of the IBANs of the transactions of one import
+ * job sharing a currency, category and month. Distinct IBAN counts of any range of months merge
+ * these sketches, keyed like the rollups by import job so they are hidden with its transactions
+ * until the job is completed.
+ */
+@Document(collection = "iban_sketches")
+@CompoundIndexes({
+    // distinct IBANs by month or category, also identifies the sketch
+    @CompoundIndex(
+            name = "currency_year_month_category_import_job_id",
+            def =
+                    "{'currency': 1, 'year': 1, 'month': 1, 'category': 1,"
+                            + " 'import_job_id': 1}",
+            unique = true),
+    // sketches of a failed or resumed import job are removed or recomputed
+    @CompoundIndex(name = "import_job_id", def = "{'import_job_id': 1}")
+})
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class IbanSketchDocument {
+
+    @Id private String id;
+
+    @Field(name = "currency")
+    private String currency;
+
+    @Field(name = "category")
+    private String category;
+
+    // month of the transaction date
+    @Field(name = "year")
+    private Integer year;
+
+    @Field(name = "month")
+    private Integer month;
+
+    @Field(name = "import_job_id")
+    private UUID importJobId;
+
+    // DistinctSketch.toBytes() of the IBANs
+    @Field(name = "sketch")
+    private byte[] sketch;
+}
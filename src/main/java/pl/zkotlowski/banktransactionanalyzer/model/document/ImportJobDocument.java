@@ -7,12 +7,25 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.mapping.FieldType;
+import pl.zkotlowski.banktransactionanalyzer.model.BatchWriteStats;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportProgress;
 
-/** Mongo document representing one transaction import job */
+/**
+ * Mongo document representing one transaction import job. The collection doubles as the import
+ * queue shared by all instances: a worker claims a job by taking its lease, see {@code
+ * ImportJobQueueRepository}.
+ */
 @Document(collection = "import_jobs")
+// claim order and queue position
+@CompoundIndex(
+        name = "status_priority_started_at",
+        def = "{'status': 1, 'priority': -1, 'started_at': 1}")
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 @Getter
 @Setter
@@ -30,12 +43,96 @@ public class ImportJobDocument {
     @Field(name = "error_message")
     private String errorMessage;
 
-    public static ImportJobDocument createNew() {
+    // queued jobs with a higher priority run first
+    @Field(name = "priority")
+    private int priority;
+
+    // true while the job has written transactions that are not published (completed) or discarded
+    @Field(name = "transactions_pending")
+    private boolean transactionsPending;
+
+    // set once all transactions are written
+    @Field(name = "write_stats")
+    private BatchWriteStats writeStats;
+
+    // updated periodically while the import runs
+    @Field(name = "progress")
+    private ImportProgress progress;
+
+    // saved together with the progress, an interrupted import resumes from here
+    @Field(name = "checkpoint")
+    private ImportCheckpoint checkpoint;
+
+    // instance running the import, renewed by heartbeats until the job is finished
+    @Field(name = "lease_owner")
+    private String leaseOwner;
+
+    @Field(name = "lease_expires_at")
+    private Instant leaseExpiresAt;
+
+    // number of times the job was claimed, more than one means it is resumed
+    @Field(name = "attempts")
+    private int attempts;
+
+    // SHA-256 of the payload, unique so the same file is not imported twice, removed on failure
+    @Field(name = "file_hash")
+    @Indexed(name = "file_hash", unique = true, sparse = true)
+    private String fileHash;
+
+    // set when the job is completed, lets other instances pick up newly published transactions
+    @Field(name = "completed_at")
+    @Indexed(sparse = true)
+    private Instant completedAt;
+
+    // imports rows deferred by other jobs instead of a payload, see DeferredTransactionService
+    @Field(name = "reinstatement")
+    private boolean reinstatement;
+
+    /**
+     * @param id id under which the payload was stored
+     * @param fileHash hash of the stored payload
+     */
+    public static ImportJobDocument createNew(UUID id, int priority, String fileHash) {
+        return new ImportJobDocument(
+                id,
+                Instant.now(),
+                Status.QUEUED,
+                null,
+                priority,
+                true,
+                null,
+                null,
+                null,
+                null,
+                null,
+                0,
+                fileHash,
+                null,
+                false);
+    }
+
+    /** A queued job importing the deferred rows blocked by it. */
+    public static ImportJobDocument createReinstatement(UUID id) {
         return new ImportJobDocument(
-                UUID.randomUUID(), Instant.now(), Status.IMPORT_IN_PROGRESS, null);
+                id,
+                Instant.now(),
+                Status.QUEUED,
+                null,
+                0,
+                true,
+                null,
+                null,
+                null,
+                null,
+                null,
+                0,
+                null,
+                null,
+                true);
     }
 
     public enum Status {
+        QUEUED,
         IMPORT_IN_PROGRESS,
         COMPLETED,
         FAILED
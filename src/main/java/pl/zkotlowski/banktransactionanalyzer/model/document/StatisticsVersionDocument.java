@@ -0,0 +1,27 @@
+package pl.zkotlowski.banktransactionanalyzer.model.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Mongo document holding the version of the data statistics are computed from, shared by all
+ * instances. The version is incremented whenever published transactions change, e.g. when an
+ * import job is completed, so results computed for an older version are known to be stale.
+ */
+@Document(collection = "statistics_version")
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class StatisticsVersionDocument {
+
+    public static final String ID = "statistics";
+
+    @Id private String id;
+
+    @Field(name = "version")
+    private long version;
+}
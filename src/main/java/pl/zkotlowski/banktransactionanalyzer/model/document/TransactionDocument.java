@@ -1,6 +1,5 @@
 package pl.zkotlowski.banktransactionanalyzer.model.document;
 
-import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
@@ -9,13 +8,35 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
+import pl.zkotlowski.banktransactionanalyzer.model.MinorUnits;
 import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
 
 /** Mongo document representing one transaction */
 @Document(collection = "transactions")
+@CompoundIndexes({
+    // used to remove the rows of a failed import, or the rows after the checkpoint of a resumed one
+    @CompoundIndex(
+            name = "import_job_id_import_row",
+            def = "{'import_job_id': 1, 'import_row': 1}",
+            sparse = true),
+    // statistics and searches always filter on the currency first, each index matches one query
+    // shape, the ones ending with the date and id also serve the sort of searches
+    @CompoundIndex(
+            name = "currency_iban_date_id",
+            def = "{'currency': 1, 'iban': 1, 'date': 1, '_id': 1}"),
+    @CompoundIndex(
+            name = "currency_category_date_id",
+            def = "{'currency': 1, 'category': 1, 'date': 1, '_id': 1}"),
+    @CompoundIndex(name = "currency_date_id", def = "{'currency': 1, 'date': 1, '_id': 1}"),
+    @CompoundIndex(
+            name = "currency_amount_minor_category",
+            def = "{'currency': 1, 'amount_minor': 1, 'category': 1}")
+})
 @NoArgsConstructor
 @AllArgsConstructor
 @Getter
@@ -41,17 +62,35 @@ public class TransactionDocument {
     @Field(name = "currency")
     private String currency;
 
-    @Field(name = "amount")
-    private BigDecimal amount;
+    // signed minor units, see MinorUnits
+    @Field(name = "amount_minor")
+    private Long amountMinor;
 
-    public static TransactionDocument fromDto(Transaction transaction) {
+    // rows of an import stay hidden from queries until the import job is completed
+    @Field(name = "import_job_id")
+    private UUID importJobId;
+
+    // row number in the imported file, header excluded
+    @Field(name = "import_row")
+    private Long importRow;
+
+    // identifies the row by its values, the same row imported again is rejected as a duplicate
+    @Field(name = "natural_key")
+    @Indexed(name = "natural_key", unique = true, sparse = true)
+    private UUID naturalKey;
+
+    public static TransactionDocument fromDto(
+            Transaction transaction, UUID importJobId, long importRow, UUID naturalKey) {
         return TransactionDocument.builder()
                 .withId(transaction.id())
                 .withIban(transaction.iban())
                 .withDate(transaction.date())
                 .withCategory(transaction.category())
                 .withCurrency(transaction.currency())
-                .withAmount(transaction.amount())
+                .withAmountMinor(MinorUnits.toMinorUnits(transaction.amount()))
+                .withImportJobId(importJobId)
+                .withImportRow(importRow)
+                .withNaturalKey(naturalKey)
                 .build();
     }
 }
@@ -0,0 +1,87 @@
+package pl.zkotlowski.banktransactionanalyzer.model.document;
+
+import java.util.List;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Mongo document holding the sums of the transactions of one import job sharing a currency,
+ * IBAN, category and month. Statistics are answered from these rollups instead of the
+ * transactions, see {@code TransactionRollupRepository}. Keeping the import job in the key lets
+ * rollups be written before the job is completed, hidden like its transactions, and recomputed
+ * per job without touching the rollups of other imports.
+ */
+@Document(collection = "transaction_rollups")
+@CompoundIndexes({
+    // balance by IBAN, also identifies the rollup
+    @CompoundIndex(
+            name = "currency_iban_year_month_category_import_job_id",
+            def =
+                    "{'currency': 1, 'iban': 1, 'year': 1, 'month': 1, 'category': 1,"
+                            + " 'import_job_id': 1}",
+            unique = true),
+    // balance by month
+    @CompoundIndex(name = "currency_year_month", def = "{'currency': 1, 'year': 1, 'month': 1}"),
+    // balance by category
+    @CompoundIndex(name = "currency_category", def = "{'currency': 1, 'category': 1}"),
+    // rollups of a failed or resumed import job are removed or recomputed
+    @CompoundIndex(name = "import_job_id", def = "{'import_job_id': 1}")
+})
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class TransactionRollupDocument {
+
+    @Id private String id;
+
+    @Field(name = "currency")
+    private String currency;
+
+    @Field(name = "iban")
+    private String iban;
+
+    @Field(name = "category")
+    private String category;
+
+    // month of the transaction date in the zone dates are stored in
+    @Field(name = "year")
+    private Integer year;
+
+    @Field(name = "month")
+    private Integer month;
+
+    @Field(name = "import_job_id")
+    private UUID importJobId;
+
+    // negative sum of the expenses in minor units
+    @Field(name = "expenses")
+    private Long expenses;
+
+    @Field(name = "income")
+    private Long income;
+
+    @Field(name = "expense_count")
+    private Long expenseCount;
+
+    @Field(name = "income_count")
+    private Long incomeCount;
+
+    @Field(name = "min_amount")
+    private Long minAmount;
+
+    @Field(name = "max_amount")
+    private Long maxAmount;
+
+    // number of transactions per AmountSketch bucket, the distribution of the rolled up amounts
+    @Field(name = "amount_buckets")
+    private List<AmountBucketCount> amountBuckets;
+
+    public record AmountBucketCount(@Field(name = "b") int bucket, @Field(name = "n") long count) {}
+}
@@ -0,0 +1,6 @@
+package pl.zkotlowski.banktransactionanalyzer.model.request;
+
+import java.util.List;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.StatisticsMetric;
+
+public record StatisticsBatchRequestBody(List<StatisticsMetric> metrics) {}
@@ -0,0 +1,11 @@
+package pl.zkotlowski.banktransactionanalyzer.model.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/**
+ * @param nextCursor token of the next page, absent on the last page
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SearchTransactionsResponseBody(List<Transaction> transactions, String nextCursor) {}
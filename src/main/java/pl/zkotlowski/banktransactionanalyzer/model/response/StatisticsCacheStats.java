@@ -0,0 +1,11 @@
+package pl.zkotlowski.banktransactionanalyzer.model.response;
+
+/**
+ * Counters of the statistics cache since startup of this instance.
+ *
+ * @param misses lookups that computed the result, including the ones of results cached for an
+ *     older version
+ * @param sizeBytes estimated size of the cached results
+ */
+public record StatisticsCacheStats(
+        long hits, long misses, long evictions, int entries, long sizeBytes) {}
@@ -0,0 +1,13 @@
+package pl.zkotlowski.banktransactionanalyzer.model.response;
+
+/**
+ * Counters of the sharing of statistics computations since startup of this instance.
+ *
+ * @param executed computations started, one per statistic and version computed at a time
+ * @param coalesced requests that waited for a computation started by another request
+ * @param timedOut requests that stopped waiting for a computation after the timeout
+ * @param cancelled computations cancelled as no request was waiting for them anymore
+ * @param inFlight computations running now
+ */
+public record StatisticsCoalescingStats(
+        long executed, long coalesced, long timedOut, long cancelled, int inFlight) {}
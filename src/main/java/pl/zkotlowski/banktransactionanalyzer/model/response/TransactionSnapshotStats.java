@@ -0,0 +1,12 @@
+package pl.zkotlowski.banktransactionanalyzer.model.response;
+
+/**
+ * Outcome of writing or loading a transaction snapshot.
+ *
+ * @param rows transactions written to or read from the snapshot
+ * @param duplicates transactions of a loaded snapshot that were already stored, always 0 for a
+ *     written one
+ * @param bytes size of the snapshot file
+ */
+public record TransactionSnapshotStats(
+        String name, long rows, long duplicates, long bytes, long millis) {}
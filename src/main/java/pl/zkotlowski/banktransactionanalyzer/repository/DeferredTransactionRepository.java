@@ -0,0 +1,127 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.document.DeferredTransactionDocument;
+
+/**
+ * Stores rows of imports skipped as duplicates of rows of import jobs that were not completed
+ * yet, see {@link DeferredTransactionDocument}. Written by imports, so it runs on the ingest
+ * workload.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeferredTransactionRepository {
+
+    private final MongoWorkloads mongoWorkloads;
+
+    public void insertAll(Collection<DeferredTransactionDocument> deferredTransactions) {
+        mongoWorkloads.ingest().run(mongoTemplate -> mongoTemplate.insertAll(deferredTransactions));
+    }
+
+    /**
+     * @return ids of the import jobs blocking rows of the given one
+     */
+    public List<UUID> findBlockingImportJobIds(UUID ownerImportJobId) {
+        return findDistinct(
+                "blockingImportJobId", Criteria.where("ownerImportJobId").is(ownerImportJobId));
+    }
+
+    /**
+     * @return ids of the import jobs whose rows the given one blocks
+     */
+    public List<UUID> findOwnerImportJobIds(UUID blockingImportJobId) {
+        return findDistinct(
+                "ownerImportJobId", Criteria.where("blockingImportJobId").is(blockingImportJobId));
+    }
+
+    /**
+     * @param afterId id of the last row of the previous page, null for the first page
+     * @return a page of the rows blocked by the import job, ordered by id
+     */
+    public List<DeferredTransactionDocument> findBlockedBy(
+            UUID blockingImportJobId, UUID afterId, int limit) {
+        var criteria = Criteria.where("blockingImportJobId").is(blockingImportJobId);
+        if (afterId != null) {
+            criteria.and("id").gt(afterId);
+        }
+        var query = new Query(criteria).with(Sort.by("id")).limit(limit);
+        return mongoWorkloads
+                .ingest()
+                .call(
+                        mongoTemplate ->
+                                mongoTemplate.find(query, DeferredTransactionDocument.class));
+    }
+
+    /**
+     * Moves the rows of one import job blocked by another one to a new blocking import job.
+     *
+     * @return number of rows moved
+     */
+    public long reassign(UUID ownerImportJobId, UUID blockingImportJobId, UUID newBlockingJobId) {
+        var update = new Update().set("blockingImportJobId", newBlockingJobId);
+        return mongoWorkloads
+                .ingest()
+                .call(
+                        mongoTemplate ->
+                                mongoTemplate.updateMulti(
+                                        blocked(ownerImportJobId, blockingImportJobId),
+                                        update,
+                                        DeferredTransactionDocument.class))
+                .getModifiedCount();
+    }
+
+    public long delete(UUID ownerImportJobId, UUID blockingImportJobId) {
+        return remove(blocked(ownerImportJobId, blockingImportJobId));
+    }
+
+    public long deleteAllByOwnerImportJobId(UUID ownerImportJobId) {
+        return remove(new Query(Criteria.where("ownerImportJobId").is(ownerImportJobId)));
+    }
+
+    public long deleteAllByOwnerImportJobIdAndImportRowGreaterThan(
+            UUID ownerImportJobId, long importRow) {
+        return remove(
+                new Query(
+                        Criteria.where("ownerImportJobId")
+                                .is(ownerImportJobId)
+                                .and("importRow")
+                                .gt(importRow)));
+    }
+
+    private static Query blocked(UUID ownerImportJobId, UUID blockingImportJobId) {
+        return new Query(
+                Criteria.where("blockingImportJobId")
+                        .is(blockingImportJobId)
+                        .and("ownerImportJobId")
+                        .is(ownerImportJobId));
+    }
+
+    private List<UUID> findDistinct(String field, Criteria criteria) {
+        return mongoWorkloads
+                .ingest()
+                .call(
+                        mongoTemplate ->
+                                mongoTemplate.findDistinct(
+                                        new Query(criteria),
+                                        field,
+                                        DeferredTransactionDocument.class,
+                                        UUID.class));
+    }
+
+    private long remove(Query query) {
+        return mongoWorkloads
+                .ingest()
+                .call(
+                        mongoTemplate ->
+                                mongoTemplate.remove(query, DeferredTransactionDocument.class))
+                .getDeletedCount();
+    }
+}
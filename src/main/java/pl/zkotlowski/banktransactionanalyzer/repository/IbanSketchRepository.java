@@ -0,0 +1,72 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.document.IbanSketchDocument;
+
+/**
+ * Stores the sketches of distinct IBANs, see {@link IbanSketchDocument}. Unlike rollups they
+ * cannot be computed server side, they are built from streamed transactions and written here,
+ * on the ingest workload. Statistics read them on the query workload.
+ */
+@Repository
+@RequiredArgsConstructor
+public class IbanSketchRepository {
+
+    private final MongoWorkloads mongoWorkloads;
+
+    /**
+     * Replaces the sketches of an import job. Called before the job is completed, its sketches
+     * are hidden from statistics until then.
+     */
+    public void replaceImportJob(UUID importJobId, Collection<IbanSketchDocument> sketches) {
+        deleteAllByImportJobId(importJobId);
+        if (!sketches.isEmpty()) {
+            mongoWorkloads.ingest().run(mongoTemplate -> mongoTemplate.insertAll(sketches));
+        }
+    }
+
+    /**
+     * Replaces all sketches, import job by import job, then removes the ones of import jobs
+     * without transactions. Sketches written by imports while it runs may be replaced or removed,
+     * they need to be written again afterwards.
+     *
+     * @param sketchesByImportJobId sketches of all stored transactions
+     */
+    public void replaceAll(
+            Map<UUID, ? extends Collection<IbanSketchDocument>> sketchesByImportJobId) {
+        sketchesByImportJobId.forEach(this::replaceImportJob);
+        var obsolete =
+                new Query(Criteria.where("importJobId").nin(sketchesByImportJobId.keySet()));
+        mongoWorkloads
+                .ingest()
+                .run(mongoTemplate -> mongoTemplate.remove(obsolete, IbanSketchDocument.class));
+    }
+
+    public long deleteAllByImportJobId(UUID importJobId) {
+        var query = new Query(Criteria.where("importJobId").is(importJobId));
+        return mongoWorkloads
+                .ingest()
+                .call(mongoTemplate -> mongoTemplate.remove(query, IbanSketchDocument.class))
+                .getDeletedCount();
+    }
+
+    public long deleteAllByImportJobIdIn(Collection<UUID> importJobIds) {
+        var query = new Query(Criteria.where("importJobId").in(importJobIds));
+        return mongoWorkloads
+                .ingest()
+                .call(mongoTemplate -> mongoTemplate.remove(query, IbanSketchDocument.class))
+                .getDeletedCount();
+    }
+
+    public boolean isEmpty() {
+        return !mongoWorkloads
+                .ingest()
+                .call(mongoTemplate -> mongoTemplate.exists(new Query(), IbanSketchDocument.class));
+    }
+}
@@ -0,0 +1,110 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument.Status;
+
+/**
+ * Uses the import jobs collection as a work queue shared by all instances. A job is claimed
+ * atomically by setting its lease, which the owner keeps renewing while the import runs. Once a
+ * lease expires, because its owner crashed or lost the connection, any instance can claim the
+ * job again and resume it.
+ *
+ * <p>Updates of a running job are conditional on the lease owner, so an instance that lost its
+ * lease can no longer change the job.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ImportJobQueueRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Claims the queued job with the highest priority, or an abandoned job whose lease expired,
+     * whichever comes first in queue order.
+     *
+     * @return the claimed job, with the new lease and attempt count
+     */
+    public Optional<ImportJobDocument> claimNext(
+            String owner, Instant now, Duration leaseDuration) {
+        var claimable =
+                new Criteria()
+                        .orOperator(
+                                Criteria.where("status").is(Status.QUEUED),
+                                Criteria.where("status")
+                                        .is(Status.IMPORT_IN_PROGRESS)
+                                        .and("leaseExpiresAt")
+                                        .lt(now));
+        var query =
+                Query.query(claimable)
+                        .with(Sort.by(Sort.Order.desc("priority"), Sort.Order.asc("startedAt")));
+        var update =
+                new Update()
+                        .set("status", Status.IMPORT_IN_PROGRESS)
+                        .set("leaseOwner", owner)
+                        .set("leaseExpiresAt", now.plus(leaseDuration))
+                        .inc("attempts", 1);
+
+        return Optional.ofNullable(
+                mongoTemplate.findAndModify(
+                        query,
+                        update,
+                        FindAndModifyOptions.options().returnNew(true),
+                        ImportJobDocument.class));
+    }
+
+    /**
+     * @return false if the lease is no longer held by the owner
+     */
+    public boolean renewLease(UUID importJobId, String owner, Instant expiresAt) {
+        return updateOwned(importJobId, owner, new Update().set("leaseExpiresAt", expiresAt));
+    }
+
+    /**
+     * Applies the update only while the job is running under the given owner's lease.
+     *
+     * @return false if the lease is no longer held by the owner
+     */
+    public boolean updateOwned(UUID importJobId, String owner, Update update) {
+        var query =
+                Query.query(
+                        Criteria.where("id")
+                                .is(importJobId)
+                                .and("status")
+                                .is(Status.IMPORT_IN_PROGRESS)
+                                .and("leaseOwner")
+                                .is(owner));
+        return mongoTemplate.updateFirst(query, update, ImportJobDocument.class).getMatchedCount()
+                > 0;
+    }
+
+    /**
+     * @return 1-based position of a queued job, counting the queued jobs claimed before it
+     */
+    public long queuePosition(ImportJobDocument importJob) {
+        var ahead =
+                new Criteria()
+                        .orOperator(
+                                Criteria.where("priority").gt(importJob.getPriority()),
+                                Criteria.where("priority")
+                                        .is(importJob.getPriority())
+                                        .and("startedAt")
+                                        .lt(importJob.getStartedAt()));
+        var query =
+                Query.query(
+                        new Criteria()
+                                .andOperator(Criteria.where("status").is(Status.QUEUED), ahead));
+        return mongoTemplate.count(query, ImportJobDocument.class) + 1;
+    }
+}
@@ -1,7 +1,24 @@
 package pl.zkotlowski.banktransactionanalyzer.repository;
 
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
 
-public interface ImportJobRepository extends MongoRepository<ImportJobDocument, UUID> {}
+public interface ImportJobRepository extends MongoRepository<ImportJobDocument, UUID> {
+
+    List<ImportJobDocument> findAllByTransactionsPendingTrue();
+
+    long countByStatus(ImportJobDocument.Status status);
+
+    Optional<ImportJobDocument> findByFileHash(String fileHash);
+
+    List<ImportJobDocument> findAllByCompletedAtGreaterThanEqual(Instant completedAt);
+
+    List<ImportJobDocument> findAllByStatusOrCompletedAtGreaterThanEqual(
+            ImportJobDocument.Status status, Instant completedAt);
+
+    List<ImportJobDocument> findAllByStatus(ImportJobDocument.Status status);
+}
@@ -0,0 +1,120 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import com.mongodb.client.MongoClient;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import pl.zkotlowski.banktransactionanalyzer.configuration.MongoWorkloadProperties;
+import pl.zkotlowski.banktransactionanalyzer.exception.WorkloadBusyException;
+
+/**
+ * Operations of one kind, e.g. imports or statistics, on a client and connection pool of their
+ * own, so that one workload holding all its connections does not make the other wait for one.
+ * Operations go through a bulkhead that bounds how many run at once, so a burst of one workload
+ * queues in the application instead of in the database.
+ */
+public class MongoWorkload implements AutoCloseable {
+
+    private final String name;
+    private final MongoClient client;
+    private final MongoTemplate template;
+    private final MongoWorkloadProperties.Workload settings;
+    private final Semaphore permits;
+
+    /**
+     * @param client client of the workload, closed with it
+     * @param converter converter shared with the default template, so documents are mapped the
+     *     same
+     */
+    public MongoWorkload(
+            String name,
+            MongoClient client,
+            String database,
+            MongoConverter converter,
+            MongoWorkloadProperties.Workload settings) {
+        this.name = name;
+        this.client = client;
+        this.template =
+                new MongoTemplate(
+                        new SimpleMongoClientDatabaseFactory(client, database), converter);
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maxConcurrency(), true);
+    }
+
+    /**
+     * Runs the operation once the bulkhead lets it, streams it opens must be consumed within it.
+     *
+     * @throws WorkloadBusyException if the operation could not start within the max wait
+     * @throws CancellationException if the thread is interrupted while waiting
+     */
+    public <T> T call(Function<MongoTemplate, T> operation) {
+        acquire();
+        try {
+            return operation.apply(template);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** See {@link #call}. */
+    public void run(Consumer<MongoTemplate> operation) {
+        call(
+                mongoTemplate -> {
+                    operation.accept(mongoTemplate);
+                    return null;
+                });
+    }
+
+    /** Converter of the workload's documents, e.g. to read rows of {@code $facet} results. */
+    public MongoConverter converter() {
+        return template.getConverter();
+    }
+
+    /**
+     * @return the aggregation limited to the max time of the workload, if any
+     */
+    public Aggregation withMaxTime(Aggregation aggregation) {
+        return hasMaxTime()
+                ? aggregation.withOptions(
+                        AggregationOptions.builder().maxTime(settings.maxTime()).build())
+                : aggregation;
+    }
+
+    /**
+     * @return the query limited to the max time of the workload, if any
+     */
+    public Query withMaxTime(Query query) {
+        return hasMaxTime() ? query.maxTime(settings.maxTime()) : query;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    private boolean hasMaxTime() {
+        return settings.maxTime() != null && settings.maxTime().isPositive();
+    }
+
+    private void acquire() {
+        var maxWait = settings.maxWait() == null ? Duration.ZERO : settings.maxWait();
+        try {
+            if (!permits.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new WorkloadBusyException(name, settings.maxConcurrency(), maxWait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException(
+                    String.format("Interrupted while waiting to run on the %s workload.", name));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+/**
+ * The workloads with their own connection pools, see {@link MongoWorkload}. Operations on import
+ * jobs, including the claims and renewals of their leases, stay on the default pool, so none of
+ * the workloads can delay a heartbeat until its lease expires.
+ *
+ * @param ingest writes of imports, snapshot loads and rollup maintenance
+ * @param query statistics and transaction searches
+ * @param bulk scans and rewrites of whole collections: exports, snapshots, loads of the columnar
+ *     engine, rollup rebuilds and the amount migration
+ */
+public record MongoWorkloads(MongoWorkload ingest, MongoWorkload query, MongoWorkload bulk)
+        implements AutoCloseable {
+
+    @Override
+    public void close() {
+        ingest.close();
+        query.close();
+        bulk.close();
+    }
+}
@@ -0,0 +1,484 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import static org.springframework.data.domain.Sort.Direction.ASC;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.FacetOperation;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistributionQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceGranularity;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceSeriesQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctIbanQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionRollupDocument;
+
+/**
+ * Builds the statistics pipeline of any attribute. Attributes the rollups are keyed by are
+ * aggregated from the rollups, dates from the transactions. Every pipeline starts with a {@code
+ * $match} on the currency and the attribute, served by an index of its collection, and only
+ * keeps the fields it groups and sums.
+ */
+final class StatisticsPipelineBuilder {
+
+    private StatisticsPipelineBuilder() {}
+
+    /** Groups the expenses of the currency by the attribute, most spent first. */
+    static StatisticsPipeline topSpent(
+            TransactionFilterByAttribute attribute, int topN, String currency) {
+        var source = Source.of(attribute);
+        var spent = source.expenses;
+        var match = Criteria.where("currency").is(currency).and(spent).lt(0);
+        var key =
+                switch (attribute) {
+                    case IBAN, CATEGORY, CURRENCY -> new GroupKey(
+                            Aggregation.project(spent, field(attribute)),
+                            Aggregation.group(field(attribute)).sum(spent).as("totalSpent"),
+                            Aggregation.project("totalSpent").and("_id").as("attribute"));
+                    case YEAR_MONTH -> new GroupKey(
+                            Aggregation.project(spent, "year", "month"),
+                            Aggregation.group("year", "month").sum(spent).as("totalSpent"),
+                            // e.g. 2025-1, the format statistics were always returned in
+                            Aggregation.project("totalSpent")
+                                    .andExpression(
+                                            "concat(toString(_id.year), '-', toString(_id.month))")
+                                    .as("attribute"));
+                    case DATE -> new GroupKey(
+                            Aggregation.project(spent)
+                                    .and(
+                                            DateOperators.dateOf("date")
+                                                    .withTimezone(
+                                                            TransactionRollupRepository.DATE_ZONE)
+                                                    .toString("%Y-%m-%d"))
+                                    .as("day"),
+                            Aggregation.group("day").sum(spent).as("totalSpent"),
+                            Aggregation.project("totalSpent").and("_id").as("attribute"));
+                };
+        return new StatisticsPipeline(
+                source.type,
+                match,
+                List.of(
+                        key.project(),
+                        key.group(),
+                        key.result(),
+                        Aggregation.sort(ASC, "totalSpent"),
+                        Aggregation.limit(topN)));
+    }
+
+    /**
+     * Sums the expenses and income of the currency with the given value of the attribute.
+     *
+     * @param value IBAN, category or currency, month as {@code yyyy-MM} or date as {@code
+     *     yyyy-MM-dd}
+     */
+    static StatisticsPipeline balance(
+            TransactionFilterByAttribute attribute, String value, String currency) {
+        var source = Source.of(attribute);
+        var valueCriteria =
+                switch (attribute) {
+                    case IBAN, CATEGORY, CURRENCY -> Criteria.where(field(attribute)).is(value);
+                    case YEAR_MONTH -> {
+                        var yearMonth = YearMonth.parse(value);
+                        yield Criteria.where("year")
+                                .is(yearMonth.getYear())
+                                .and("month")
+                                .is(yearMonth.getMonthValue());
+                    }
+                    case DATE -> Criteria.where("date").is(LocalDate.parse(value));
+                };
+        return new StatisticsPipeline(
+                source.type,
+                // an $and, as the currency may be the attribute as well
+                Criteria.where("currency").is(currency).andOperator(valueCriteria),
+                List.of(source.balanceProject(), source.balanceGroup()));
+    }
+
+    /**
+     * Sums the expenses and income per bucket of the granularity between the dates, ordered by
+     * bucket as {@code yyyy-MM-dd}. Buckets without transactions are left out.
+     */
+    static StatisticsPipeline balanceSeries(BalanceSeriesQuery query) {
+        var match = Criteria.where("currency").is(query.currency());
+        if (query.iban() != null) {
+            match.and("iban").is(query.iban());
+        }
+        if (query.category() != null) {
+            match.and("category").is(query.category());
+        }
+        var fromMonth = YearMonth.from(query.from());
+        var toMonth = YearMonth.from(query.to());
+        // rollups hold whole months, so they answer ranges of whole months in monthly buckets
+        if (query.granularity().isMonthly()
+                && query.from().equals(fromMonth.atDay(1))
+                && query.to().equals(toMonth.atEndOfMonth())) {
+            var monthStart =
+                    new Document(
+                            "$dateFromParts",
+                            new Document("year", "$year")
+                                    .append("month", "$month")
+                                    .append("timezone", dateZone()));
+            return new StatisticsPipeline(
+                    TransactionRollupDocument.class,
+                    withinMonths(match, fromMonth, toMonth),
+                    seriesStages(
+                            new Document("year", 1)
+                                    .append("month", 1)
+                                    .append("expenses", 1)
+                                    .append("income", 1),
+                            bucket(monthStart, query.granularity()),
+                            new Document("$sum", "$expenses"),
+                            new Document("$sum", "$income")));
+        }
+        return new StatisticsPipeline(
+                TransactionDocument.class,
+                match.and("date").gte(query.from()).lt(query.to().plusDays(1)),
+                seriesStages(
+                        new Document("date", 1).append("amount_minor", 1),
+                        bucket("$date", query.granularity()),
+                        sumIf("$lt"),
+                        sumIf("$gte")));
+    }
+
+    /**
+     * Counts the amounts of the currency per value of the attribute and {@code AmountSketch}
+     * bucket, with their sum, min and max, as {@code {_id: {a, b}, n, sum, min, max}}. Ranges of
+     * whole months, or no range, are read from the distributions stored in the rollups, a row per
+     * rollup bucket whose sum, min and max are only set on the first bucket of each rollup, as
+     * they are stored per rollup. Other ranges are read from the transactions.
+     */
+    static StatisticsPipeline distribution(AmountDistributionQuery query) {
+        var match = Criteria.where("currency").is(query.currency());
+        var groupBy = query.groupBy();
+        if (query.coversWholeMonths()) {
+            var rollupFields =
+                    new Document(
+                                    "a",
+                                    attributeKey(
+                                            groupBy,
+                                            new Document("$toString", "$year"),
+                                            new Document("$toString", "$month")))
+                            .append("total", new Document("$add", List.of("$expenses", "$income")))
+                            .append("min_amount", 1)
+                            .append("max_amount", 1)
+                            .append("amount_buckets", 1);
+            var buckets =
+                    new Document("path", "$amount_buckets").append("includeArrayIndex", "i");
+            var first = new Document("$eq", List.of("$i", 0));
+            return new StatisticsPipeline(
+                    TransactionRollupDocument.class,
+                    withinMonths(
+                            match,
+                            query.from() == null ? null : YearMonth.from(query.from()),
+                            query.to() == null ? null : YearMonth.from(query.to())),
+                    List.of(
+                            Aggregation.stage(new Document("$project", rollupFields)),
+                            Aggregation.stage(new Document("$unwind", buckets)),
+                            distributionGroup(
+                                    "$amount_buckets.b",
+                                    new Document("$sum", "$amount_buckets.n"),
+                                    ifFirst(first, "$total", 0L),
+                                    ifFirst(first, "$min_amount", null),
+                                    ifFirst(first, "$max_amount", null))));
+        }
+        match.and("amountMinor").exists(true);
+        if (query.from() != null || query.to() != null) {
+            var date = match.and("date");
+            if (query.from() != null) {
+                date.gte(query.from());
+            }
+            if (query.to() != null) {
+                date.lt(query.to().plusDays(1));
+            }
+        }
+        var zone = dateZone();
+        var transactionFields =
+                new Document(
+                                "a",
+                                attributeKey(
+                                        groupBy, datePart("$year", zone), datePart("$month", zone)))
+                        .append("b", TransactionRollupRepository.amountBucket("$amount_minor"))
+                        .append("amount_minor", 1);
+        return new StatisticsPipeline(
+                TransactionDocument.class,
+                match,
+                List.of(
+                        Aggregation.stage(new Document("$project", transactionFields)),
+                        distributionGroup(
+                                "$b",
+                                new Document("$sum", 1L),
+                                "$amount_minor",
+                                "$amount_minor",
+                                "$amount_minor")));
+    }
+
+    /**
+     * Counts the distinct IBANs of the currency and months per value of the attribute exactly,
+     * as {@code {_id, n}} ordered by value. Rollups are keyed by IBAN, so they are read instead
+     * of the transactions, but the first group holds every IBAN of every value, which is only
+     * affordable for short ranges.
+     */
+    static StatisticsPipeline distinctIbans(DistinctIbanQuery query) {
+        var match = Criteria.where("currency").is(query.currency());
+        var key =
+                attributeKey(
+                        query.groupBy(),
+                        new Document("$toString", "$year"),
+                        new Document("$toString", "$month"));
+        return new StatisticsPipeline(
+                TransactionRollupDocument.class,
+                withinMonths(match, query.from(), query.to()).and("iban").ne(null),
+                List.of(
+                        Aggregation.stage(
+                                new Document(
+                                        "$group",
+                                        new Document(
+                                                "_id",
+                                                new Document("a", key).append("iban", "$iban")))),
+                        Aggregation.stage(
+                                new Document(
+                                        "$group",
+                                        new Document("_id", "$_id.a")
+                                                .append("n", new Document("$sum", 1L)))),
+                        Aggregation.stage(new Document("$sort", new Document("_id", 1)))));
+    }
+
+    /**
+     * Runs pipelines of the same collection in one pass as the sub-pipelines of a {@code $facet},
+     * named {@code m0}, {@code m1}, ... in the given order. Sub-pipelines cannot use indexes, so
+     * the rows of all of them are selected up front by an {@code $or} of their matches, each of
+     * which is served by an index.
+     *
+     * @param published criteria excluding the rows of pending import jobs
+     */
+    static Aggregation facet(List<StatisticsPipeline> pipelines, Criteria published) {
+        FacetOperation facet = null;
+        for (int i = 0; i < pipelines.size(); i++) {
+            var pipeline = pipelines.get(i);
+            var operations = new ArrayList<AggregationOperation>();
+            operations.add(Aggregation.match(pipeline.match()));
+            operations.addAll(pipeline.stages());
+            var stages = operations.toArray(AggregationOperation[]::new);
+            facet =
+                    facet == null
+                            ? Aggregation.facet(stages).as(facetName(i))
+                            : facet.and(stages).as(facetName(i));
+        }
+        return Aggregation.newAggregation(
+                Aggregation.match(
+                        new Criteria()
+                                .orOperator(
+                                        pipelines.stream()
+                                                .map(StatisticsPipeline::match)
+                                                .toList())),
+                Aggregation.match(published),
+                facet);
+    }
+
+    /**
+     * Restricts rollups to the months between the given ones, both included.
+     *
+     * @param from optional, no lower bound if null
+     * @param to optional, no upper bound if null
+     */
+    static Criteria withinMonths(Criteria match, YearMonth from, YearMonth to) {
+        if (from == null && to == null) {
+            return match;
+        }
+        // within the years of the range, months only matter in its first and last year
+        var year = match.and("year");
+        var months = new ArrayList<Criteria>();
+        if (from != null) {
+            year.gte(from.getYear());
+            months.add(
+                    new Criteria()
+                            .orOperator(
+                                    Criteria.where("year").gt(from.getYear()),
+                                    Criteria.where("month").gte(from.getMonthValue())));
+        }
+        if (to != null) {
+            year.lte(to.getYear());
+            months.add(
+                    new Criteria()
+                            .orOperator(
+                                    Criteria.where("year").lt(to.getYear()),
+                                    Criteria.where("month").lte(to.getMonthValue())));
+        }
+        return year.andOperator(months);
+    }
+
+    // the value of the attribute, months in the format of the other statistics, e.g. 2025-1
+    private static Object attributeKey(
+            TransactionFilterByAttribute groupBy, Object year, Object month) {
+        return groupBy == TransactionFilterByAttribute.YEAR_MONTH
+                ? new Document("$concat", List.of(year, "-", month))
+                : "$" + field(groupBy);
+    }
+
+    private static Document datePart(String operator, Object zone) {
+        return new Document(
+                "$toString",
+                new Document(
+                        operator, new Document("date", "$date").append("timezone", zone)));
+    }
+
+    private static AggregationOperation distributionGroup(
+            String bucket, Document count, Object sum, Object min, Object max) {
+        return Aggregation.stage(
+                new Document(
+                        "$group",
+                        new Document("_id", new Document("a", "$a").append("b", bucket))
+                                .append("n", count)
+                                .append("sum", new Document("$sum", sum))
+                                .append("min", new Document("$min", min))
+                                .append("max", new Document("$max", max))));
+    }
+
+    private static Document ifFirst(Document first, Object then, Object otherwise) {
+        return new Document("$cond", Arrays.asList(first, then, otherwise));
+    }
+
+    // stages on stored field names, as the typed stages do not know $dateTrunc
+    private static List<AggregationOperation> seriesStages(
+            Document fields, Document bucket, Document expenses, Document income) {
+        return List.of(
+                Aggregation.stage(new Document("$project", fields)),
+                Aggregation.stage(
+                        new Document(
+                                "$group",
+                                new Document("_id", bucket)
+                                        .append("expenses", expenses)
+                                        .append("income", income))),
+                Aggregation.stage(new Document("$sort", new Document("_id", 1))));
+    }
+
+    private static Document bucket(Object date, BalanceGranularity granularity) {
+        var zone = dateZone();
+        return new Document(
+                "$dateToString",
+                new Document(
+                                "date",
+                                new Document(
+                                        "$dateTrunc",
+                                        new Document("date", date)
+                                                .append("unit", granularity.unit())
+                                                .append("timezone", zone)
+                                                .append("startOfWeek", "monday")))
+                        .append("format", "%Y-%m-%d")
+                        .append("timezone", zone));
+    }
+
+    private static Document sumIf(String comparison) {
+        return new Document(
+                "$sum",
+                new Document(
+                        "$cond",
+                        List.of(
+                                new Document(comparison, List.of("$amount_minor", 0)),
+                                "$amount_minor",
+                                0L)));
+    }
+
+    private static Object dateZone() {
+        return TransactionRollupRepository.DATE_ZONE.getValue();
+    }
+
+    static String facetName(int index) {
+        return "m" + index;
+    }
+
+    private static String field(TransactionFilterByAttribute attribute) {
+        return switch (attribute) {
+            case IBAN -> "iban";
+            case CATEGORY -> "category";
+            case CURRENCY -> "currency";
+            case DATE, YEAR_MONTH -> throw new IllegalArgumentException(
+                    String.format("Attribute %s is not a single field.", attribute));
+        };
+    }
+
+    /**
+     * @param type document class of the collection the pipeline runs on
+     * @param match selects the rows of the statistic, served by an index of the collection
+     * @param stages group the selected rows into the result
+     */
+    record StatisticsPipeline(
+            Class<?> type, Criteria match, List<AggregationOperation> stages) {
+
+        /**
+         * @param published criteria excluding the rows of pending import jobs
+         */
+        Aggregation aggregation(Criteria published) {
+            var operations = new ArrayList<AggregationOperation>();
+            operations.add(Aggregation.match(match));
+            operations.add(Aggregation.match(published));
+            operations.addAll(stages);
+            return Aggregation.newAggregation(operations);
+        }
+    }
+
+    private record GroupKey(
+            AggregationOperation project, GroupOperation group, AggregationOperation result) {}
+
+    /** Collection an attribute is aggregated from, with its amount fields. */
+    private enum Source {
+        // minor unit sums per currency, IBAN, category, month and import job
+        ROLLUPS(TransactionRollupDocument.class, "expenses"),
+        // single transactions, for attributes finer than the rollups
+        TRANSACTIONS(TransactionDocument.class, "amountMinor");
+
+        private final Class<?> type;
+        private final String expenses;
+
+        Source(Class<?> type, String expenses) {
+            this.type = type;
+            this.expenses = expenses;
+        }
+
+        private static Source of(TransactionFilterByAttribute attribute) {
+            return attribute == TransactionFilterByAttribute.DATE ? TRANSACTIONS : ROLLUPS;
+        }
+
+        private AggregationOperation balanceProject() {
+            return this == ROLLUPS
+                    ? Aggregation.project("expenses", "income")
+                    : Aggregation.project("amountMinor");
+        }
+
+        // amounts are stored as minor units, so they are summed as integers without coercion
+        private GroupOperation balanceGroup() {
+            if (this == ROLLUPS) {
+                return Aggregation.group()
+                        .sum("expenses")
+                        .as("expenses")
+                        .sum("income")
+                        .as("income");
+            }
+            return Aggregation.group()
+                    .sum(
+                            ConditionalOperators.Cond.when(
+                                            ComparisonOperators.Lt.valueOf("amountMinor")
+                                                    .lessThanValue(0))
+                                    .thenValueOf("amountMinor")
+                                    .otherwise(0))
+                    .as("expenses")
+                    .sum(
+                            ConditionalOperators.Cond.when(
+                                            ComparisonOperators.Gte.valueOf("amountMinor")
+                                                    .greaterThanEqualToValue(0))
+                                    .thenValueOf("amountMinor")
+                                    .otherwise(0))
+                    .as("income");
+        }
+    }
+}
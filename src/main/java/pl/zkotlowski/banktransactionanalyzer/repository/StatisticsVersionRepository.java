@@ -0,0 +1,40 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.document.StatisticsVersionDocument;
+
+@Repository
+@RequiredArgsConstructor
+public class StatisticsVersionRepository {
+
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * @return current version, 0 before the first increment
+     */
+    public long current() {
+        var document =
+                mongoTemplate.findById(
+                        StatisticsVersionDocument.ID, StatisticsVersionDocument.class);
+        return document == null ? 0 : document.getVersion();
+    }
+
+    /**
+     * @return the incremented version
+     */
+    public long increment() {
+        return mongoTemplate
+                .findAndModify(
+                        new Query(Criteria.where("id").is(StatisticsVersionDocument.ID)),
+                        new Update().inc("version", 1),
+                        FindAndModifyOptions.options().upsert(true).returnNew(true),
+                        StatisticsVersionDocument.class)
+                .getVersion();
+    }
+}
@@ -1,120 +1,307 @@
 package pl.zkotlowski.banktransactionanalyzer.repository;
 
-import static org.springframework.data.domain.Sort.Direction.ASC;
-
-import java.time.YearMonth;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.Aggregation;
-import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
-import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.MinorUnits;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistributionQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountSketch;
 import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalancePoint;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceSeriesQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctIbanQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctSketch;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.StatisticsMetric;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.StatisticsMetricResult;
 import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TopSpentBy;
-import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.document.IbanSketchDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsPipelineBuilder.StatisticsPipeline;
 
+/**
+ * Answers statistics with the pipelines of {@link StatisticsPipelineBuilder}, mostly from the
+ * rollups maintained by {@link TransactionRollupRepository}, which hold one document per
+ * currency, IBAN, category, month and import job instead of one per transaction. Statistics run
+ * on the query workload, so they neither wait for the connections taken by imports nor run
+ * longer than its max time.
+ */
 @Repository
 @RequiredArgsConstructor
 public class TransactionAggregationRepository {
 
-    private final MongoTemplate mongoTemplate;
-
-    public List<TopSpentBy> aggregateTopSpentCategories(int topN, String currency) {
-        var aggregation =
-                Aggregation.newAggregation(
-                        Aggregation.match(
-                                Criteria.where("amount").lt(0).and("currency").is(currency)),
-                        Aggregation.group("category").sum("amount").as("totalSpent"),
-                        Aggregation.project("totalSpent").and("_id").as("attribute"),
-                        Aggregation.sort(ASC, "totalSpent"),
-                        Aggregation.limit(topN));
-        return mongoTemplate
-                .aggregate(aggregation, TransactionDocument.class, TopSpentBy.class)
-                .getMappedResults();
-    }
-
-    public List<TopSpentBy> aggregateTopSpentYearMonth(int topN, String currency) {
-        var aggregation =
-                Aggregation.newAggregation(
-                        Aggregation.match(
-                                Criteria.where("amount").lt(0).and("currency").is(currency)),
-                        Aggregation.project("amount")
-                                .and("date")
-                                .extractYear()
-                                .as("year")
-                                .and("date")
-                                .extractMonth()
-                                .as("month"),
-                        Aggregation.group("year", "month").sum("amount").as("totalSpent"),
-                        Aggregation.project("totalSpent")
-                                .andExpression(
-                                        "concat(toString(_id.year), '-', toString(_id.month))")
-                                .as("attribute"),
-                        Aggregation.sort(ASC, "totalSpent"),
-                        Aggregation.limit(topN));
-        return mongoTemplate
-                .aggregate(aggregation, TransactionDocument.class, TopSpentBy.class)
-                .getMappedResults();
-    }
-
-    public BalanceByAttribute aggregateBalanceByYearMonth(YearMonth yearMonth, String currency) {
-        var aggregation =
-                Aggregation.newAggregation(
-                        Aggregation.match(Criteria.where("currency").is(currency)),
-                        Aggregation.project("amount", "currency")
-                                .and("date")
-                                .extractYear()
-                                .as("year")
-                                .and("date")
-                                .extractMonth()
-                                .as("month"),
-                        Aggregation.match(
-                                Criteria.where("year")
-                                        .is(yearMonth.getYear())
-                                        .and("month")
-                                        .is(yearMonth.getMonthValue())),
-                        Aggregation.group()
-                                .sum(
-                                        ConditionalOperators.Cond.when(
-                                                        ComparisonOperators.Lt.valueOf("amount")
-                                                                .lessThanValue(0))
-                                                .then("$amount")
-                                                .otherwise(0))
-                                .as("expenses")
-                                .sum(
-                                        ConditionalOperators.when(Criteria.where("amount").gte(0))
-                                                .then("$amount")
-                                                .otherwise(0))
-                                .as("income"));
-
-        return mongoTemplate
-                .aggregate(aggregation, TransactionDocument.class, BalanceByAttribute.class)
-                .getUniqueMappedResult();
-    }
-
-    public BalanceByAttribute aggregateBalanceByIban(String iban, String currency) {
-        var aggregation =
-                Aggregation.newAggregation(
-                        Aggregation.match(
-                                Criteria.where("iban").is(iban).and("currency").is(currency)),
-                        Aggregation.group()
-                                .sum(
-                                        ConditionalOperators.Cond.when(
-                                                        ComparisonOperators.Lt.valueOf("amount")
-                                                                .lessThanValue(0))
-                                                .then("$amount")
-                                                .otherwise(0))
-                                .as("expenses")
-                                .sum(
-                                        ConditionalOperators.when(Criteria.where("amount").gte(0))
-                                                .then("$amount")
-                                                .otherwise(0))
-                                .as("income"));
-
-        return mongoTemplate
-                .aggregate(aggregation, TransactionDocument.class, BalanceByAttribute.class)
-                .getUniqueMappedResult();
+    private final MongoWorkloads mongoWorkloads;
+    private final ImportJobRepository importJobRepository;
+
+    public List<TopSpentBy> aggregateTopSpent(
+            TransactionFilterByAttribute attribute, int topN, String currency) {
+        var pipeline = StatisticsPipelineBuilder.topSpent(attribute, topN, currency);
+        var workload = mongoWorkloads.query();
+        var aggregation = workload.withMaxTime(pipeline.aggregation(published()));
+        return workload.call(
+                        mongoTemplate ->
+                                mongoTemplate.aggregate(
+                                        aggregation, pipeline.type(), TopSpentMinorUnits.class))
+                .getMappedResults()
+                .stream()
+                .map(TopSpentMinorUnits::toTopSpentBy)
+                .toList();
+    }
+
+    /**
+     * @param value IBAN, category or currency, month as {@code yyyy-MM} or date as {@code
+     *     yyyy-MM-dd}
+     */
+    public BalanceByAttribute aggregateBalance(
+            TransactionFilterByAttribute attribute, String value, String currency) {
+        var pipeline = StatisticsPipelineBuilder.balance(attribute, value, currency);
+        var workload = mongoWorkloads.query();
+        var aggregation = workload.withMaxTime(pipeline.aggregation(published()));
+        return toBalance(
+                workload.call(
+                                mongoTemplate ->
+                                        mongoTemplate.aggregate(
+                                                aggregation,
+                                                pipeline.type(),
+                                                BalanceMinorUnits.class))
+                        .getUniqueMappedResult());
+    }
+
+    /**
+     * Answers all metrics with one {@code $facet} aggregation per collection they are aggregated
+     * from, so the matching rows are read once instead of once per metric.
+     *
+     * @return results in the order of the metrics, balance values as expected by {@link
+     *     #aggregateBalance}
+     */
+    public List<StatisticsMetricResult> aggregateBatch(List<StatisticsMetric> metrics) {
+        var pipelines = metrics.stream().map(TransactionAggregationRepository::pipeline).toList();
+        var indexesByType = new LinkedHashMap<Class<?>, List<Integer>>();
+        for (int i = 0; i < pipelines.size(); i++) {
+            indexesByType
+                    .computeIfAbsent(pipelines.get(i).type(), type -> new ArrayList<>())
+                    .add(i);
+        }
+        var published = published();
+        var workload = mongoWorkloads.query();
+        var results = new StatisticsMetricResult[metrics.size()];
+        indexesByType.forEach(
+                (type, indexes) -> {
+                    var facet =
+                            workload.withMaxTime(
+                                    StatisticsPipelineBuilder.facet(
+                                            indexes.stream().map(pipelines::get).toList(),
+                                            published));
+                    var facets =
+                            workload.call(
+                                    mongoTemplate ->
+                                            mongoTemplate
+                                                    .aggregate(facet, type, Document.class)
+                                                    .getUniqueMappedResult());
+                    for (int i = 0; i < indexes.size(); i++) {
+                        var index = indexes.get(i);
+                        var rows =
+                                facets.getList(
+                                        StatisticsPipelineBuilder.facetName(i), Document.class);
+                        results[index] = toResult(metrics.get(index), rows, workload.converter());
+                    }
+                });
+        return List.of(results);
+    }
+
+    /**
+     * Buckets of the series that have transactions, ordered by bucket. They are read into a list,
+     * at most one point per bucket of the range, so the permit of the query workload is released
+     * before the caller writes them to a client that may read slowly.
+     */
+    public List<BalancePoint> aggregateBalanceBuckets(BalanceSeriesQuery query) {
+        var pipeline = StatisticsPipelineBuilder.balanceSeries(query);
+        var buckets = new ArrayList<BalancePoint>();
+        aggregateStream(
+                pipeline,
+                bucket ->
+                        buckets.add(
+                                new BalancePoint(
+                                        LocalDate.parse(bucket.getString("_id")),
+                                        sumOf(bucket, "expenses"),
+                                        sumOf(bucket, "income"))));
+        return buckets;
+    }
+
+    /**
+     * Sketches of the amounts per value of the attribute, read from a cursor of the counts per
+     * bucket, ordered by value with null first.
+     */
+    public SortedMap<String, AmountSketch> aggregateDistribution(AmountDistributionQuery query) {
+        var pipeline = StatisticsPipelineBuilder.distribution(query);
+        var sketches =
+                new TreeMap<String, AmountSketch>(
+                        Comparator.nullsFirst(Comparator.naturalOrder()));
+        aggregateStream(
+                pipeline,
+                row -> {
+                    var id = row.get("_id", Document.class);
+                    var sketch =
+                            sketches.computeIfAbsent(
+                                    id.getString("a"), attribute -> new AmountSketch());
+                    sketch.addBucket(
+                            id.get("b", Number.class).intValue(),
+                            row.get("n", Number.class).longValue());
+                    // rows of rollups only carry the totals on the first bucket of a rollup
+                    if (row.get("min") != null) {
+                        sketch.addTotals(
+                                row.get("sum", Number.class).longValue(),
+                                row.get("min", Number.class).longValue(),
+                                row.get("max", Number.class).longValue());
+                    }
+                });
+        return sketches;
+    }
+
+    /**
+     * Merges the sketches of IBANs of the currency and months per value of the attribute.
+     * Sketches stored at different precisions are merged at the lowest one.
+     *
+     * @return merged sketches ordered by value with null first
+     */
+    public SortedMap<String, DistinctSketch> aggregateIbanSketches(DistinctIbanQuery query) {
+        var match =
+                StatisticsPipelineBuilder.withinMonths(
+                        Criteria.where("currency").is(query.currency()), query.from(), query.to());
+        var sketches =
+                new TreeMap<String, DistinctSketch>(
+                        Comparator.nullsFirst(Comparator.naturalOrder()));
+        var workload = mongoWorkloads.query();
+        var sketchQuery = workload.withMaxTime(new Query(match).addCriteria(published()));
+        workload.run(
+                mongoTemplate -> {
+                    try (var documents =
+                            mongoTemplate.stream(sketchQuery, IbanSketchDocument.class)) {
+                        documents.forEach(
+                                document ->
+                                        sketches.merge(
+                                                attributeOf(document, query),
+                                                DistinctSketch.fromBytes(document.getSketch()),
+                                                TransactionAggregationRepository::union));
+                    }
+                });
+        return sketches;
+    }
+
+    /**
+     * Counts the distinct IBANs of the currency and months per value of the attribute exactly.
+     *
+     * @return counts ordered by value with null first
+     */
+    public SortedMap<String, Long> aggregateDistinctIbans(DistinctIbanQuery query) {
+        var pipeline = StatisticsPipelineBuilder.distinctIbans(query);
+        var counts = new TreeMap<String, Long>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        aggregateStream(
+                pipeline,
+                row -> counts.put(row.getString("_id"), row.get("n", Number.class).longValue()));
+        return counts;
+    }
+
+    private static String attributeOf(IbanSketchDocument document, DistinctIbanQuery query) {
+        return switch (query.groupBy()) {
+            case CATEGORY -> document.getCategory();
+            case YEAR_MONTH -> document.getYear() + "-" + document.getMonth();
+            default -> document.getCurrency();
+        };
+    }
+
+    // merges sketches at the lowest of their precisions
+    private static DistinctSketch union(DistinctSketch merged, DistinctSketch added) {
+        var precision = Math.min(merged.precision(), added.precision());
+        var reduced = merged.reduce(precision);
+        reduced.merge(added.reduce(precision));
+        return reduced;
+    }
+
+    // streams the rows of the pipeline on the query workload, holding its permit until the end
+    private void aggregateStream(StatisticsPipeline pipeline, Consumer<Document> consumer) {
+        var workload = mongoWorkloads.query();
+        var aggregation = workload.withMaxTime(pipeline.aggregation(published()));
+        workload.run(
+                mongoTemplate -> {
+                    try (var rows =
+                            mongoTemplate.aggregateStream(
+                                    aggregation, pipeline.type(), Document.class)) {
+                        rows.forEach(consumer);
+                    }
+                });
+    }
+
+    private static BigDecimal sumOf(Document bucket, String field) {
+        return MinorUnits.fromMinorUnits(bucket.get(field, Number.class).longValue());
+    }
+
+    private static StatisticsPipeline pipeline(StatisticsMetric metric) {
+        return switch (metric.type()) {
+            case MOST_SPENT -> StatisticsPipelineBuilder.topSpent(
+                    metric.filterBy(), metric.resultSize(), metric.currency());
+            case BALANCE -> StatisticsPipelineBuilder.balance(
+                    metric.filterBy(), metric.value(), metric.currency());
+        };
+    }
+
+    private static StatisticsMetricResult toResult(
+            StatisticsMetric metric, List<Document> rows, MongoConverter converter) {
+        return switch (metric.type()) {
+            case MOST_SPENT -> new StatisticsMetricResult(
+                    metric,
+                    rows.stream()
+                            .map(row -> converter.read(TopSpentMinorUnits.class, row))
+                            .map(TopSpentMinorUnits::toTopSpentBy)
+                            .toList(),
+                    null);
+            case BALANCE -> new StatisticsMetricResult(
+                    metric,
+                    null,
+                    rows.isEmpty()
+                            ? null
+                            : toBalance(converter.read(BalanceMinorUnits.class, rows.getFirst())));
+        };
     }
+
+    private static BalanceByAttribute toBalance(BalanceMinorUnits balance) {
+        return balance == null
+                ? null
+                : new BalanceByAttribute(
+                        MinorUnits.fromMinorUnits(balance.expenses()),
+                        MinorUnits.fromMinorUnits(balance.income()));
+    }
+
+    /**
+     * Rows of imports that are still running (or failed and not cleaned up yet) are excluded, so
+     * every import becomes visible at once when its job is completed.
+     */
+    Criteria published() {
+        var pendingImportJobIds =
+                importJobRepository.findAllByTransactionsPendingTrue().stream()
+                        .map(ImportJobDocument::getId)
+                        .toList();
+        return Criteria.where("importJobId").nin(pendingImportJobIds);
+    }
+
+    private record TopSpentMinorUnits(Long totalSpent, String attribute) {
+
+        private TopSpentBy toTopSpentBy() {
+            return new TopSpentBy(MinorUnits.fromMinorUnits(totalSpent), attribute);
+        }
+    }
+
+    private record BalanceMinorUnits(Long expenses, Long income) {}
 }
@@ -0,0 +1,110 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import com.mongodb.bulk.BulkWriteError;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Write path for imports. Imported transactions are always new documents, so they are inserted
+ * in unordered bulk writes instead of going through the repository save (upsert) semantics.
+ * Runs on the ingest workload, so imports do not take the connections of statistics.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransactionIngestRepository {
+
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    private static final String NATURAL_KEY = "natural_key";
+
+    private final MongoWorkloads mongoWorkloads;
+
+    /**
+     * Inserts the documents, skipping the ones rejected by the unique natural key index. In an
+     * unordered bulk write a rejected document does not stop the others. Any other write error,
+     * including a duplicate id, is rethrown.
+     *
+     * @return documents rejected as duplicates of a stored natural key
+     */
+    public List<TransactionDocument> insertUnordered(
+            List<TransactionDocument> transactionDocuments) {
+        try {
+            mongoWorkloads
+                    .ingest()
+                    .run(
+                            mongoTemplate ->
+                                    mongoTemplate
+                                            .bulkOps(
+                                                    BulkOperations.BulkMode.UNORDERED,
+                                                    TransactionDocument.class)
+                                            .insert(transactionDocuments)
+                                            .execute());
+            return List.of();
+        } catch (BulkOperationException e) {
+            if (!e.getErrors().stream()
+                    .allMatch(TransactionIngestRepository::isNaturalKeyDuplicate)) {
+                throw e;
+            }
+            // the error index is the position of the document in the bulk write
+            return e.getErrors().stream()
+                    .map(error -> transactionDocuments.get(error.getIndex()))
+                    .toList();
+        }
+    }
+
+    /**
+     * @return import job ids of the stored rows with the given natural keys, by natural key
+     */
+    public Map<UUID, UUID> findNaturalKeyHolders(Collection<UUID> naturalKeys) {
+        var query = new Query(Criteria.where("naturalKey").in(naturalKeys)).withHint(NATURAL_KEY);
+        query.fields().include("naturalKey", "importJobId").exclude("id");
+        return mongoWorkloads
+                .ingest()
+                .call(mongoTemplate -> mongoTemplate.find(query, TransactionDocument.class))
+                .stream()
+                .collect(
+                        Collectors.toMap(
+                                TransactionDocument::getNaturalKey,
+                                TransactionDocument::getImportJobId));
+    }
+
+    /** Streams all stored natural keys, read from the index only. */
+    public void forEachNaturalKey(Consumer<UUID> consumer) {
+        var query = naturalKeysQuery(Criteria.where("naturalKey").exists(true));
+        mongoWorkloads
+                .ingest()
+                .run(
+                        mongoTemplate -> {
+                            try (var documents =
+                                    mongoTemplate.stream(query, TransactionDocument.class)) {
+                                documents.forEach(
+                                        document -> consumer.accept(document.getNaturalKey()));
+                            }
+                        });
+    }
+
+    // the server names the violated index, e.g. "E11000 duplicate key error collection:
+    // db.transactions index: natural_key dup key: { natural_key: ... }"
+    private static boolean isNaturalKeyDuplicate(BulkWriteError error) {
+        return error.getCode() == DUPLICATE_KEY_ERROR
+                && error.getMessage() != null
+                && error.getMessage().contains(" index: " + NATURAL_KEY + " ");
+    }
+
+    // projects the natural key only, so the query is covered by its index
+    private static Query naturalKeysQuery(Criteria criteria) {
+        var query = new Query(criteria).withHint(NATURAL_KEY);
+        query.fields().include("naturalKey").exclude("id");
+        return query;
+    }
+}
@@ -0,0 +1,90 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Raw access to transaction documents in their legacy shape, where the amount was stored as a
+ * {@code BigDecimal} (a string, or Decimal128 if configured) in the {@code amount} field. The
+ * migration rewrites the whole collection, so it runs on the bulk workload, one batch per permit.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransactionMigrationRepository {
+
+    private static final String LEGACY_AMOUNT = "amount";
+    private static final String AMOUNT_MINOR = "amount_minor";
+
+    private final MongoWorkloads mongoWorkloads;
+
+    /**
+     * Pages through documents still holding a legacy amount in id order, so every batch is an
+     * index range scan instead of a scan from the start of the collection.
+     *
+     * @param afterId id of the last document of the previous batch, null for the first batch
+     * @return documents with their id and legacy amount only
+     */
+    public List<Document> findLegacyAmounts(Object afterId, int limit) {
+        var criteria = Criteria.where(LEGACY_AMOUNT).exists(true);
+        if (afterId != null) {
+            criteria = criteria.and("_id").gt(afterId);
+        }
+        var query = new Query(criteria).with(Sort.by("_id")).limit(limit);
+        query.fields().include("_id", LEGACY_AMOUNT);
+        return mongoWorkloads
+                .bulk()
+                .call(
+                        mongoTemplate ->
+                                mongoTemplate.find(
+                                        query, Document.class, collection(mongoTemplate)));
+    }
+
+    /**
+     * Replaces the legacy amounts with minor units. Each update only applies while the document
+     * still holds the amount it was converted from, so concurrent runs on several instances are
+     * harmless.
+     *
+     * @return number of documents converted
+     */
+    public int replaceLegacyAmounts(List<AmountConversion> conversions) {
+        return mongoWorkloads
+                .bulk()
+                .call(
+                        mongoTemplate -> {
+                            var bulk =
+                                    mongoTemplate.bulkOps(
+                                            BulkOperations.BulkMode.UNORDERED,
+                                            collection(mongoTemplate));
+                            for (var conversion : conversions) {
+                                bulk.updateOne(
+                                        new Query(
+                                                Criteria.where("_id")
+                                                        .is(conversion.id())
+                                                        .and(LEGACY_AMOUNT)
+                                                        .is(conversion.legacyAmount())),
+                                        new Update()
+                                                .set(AMOUNT_MINOR, conversion.amountMinor())
+                                                .unset(LEGACY_AMOUNT));
+                            }
+                            return bulk.execute().getModifiedCount();
+                        });
+    }
+
+    private static String collection(MongoTemplate mongoTemplate) {
+        return mongoTemplate.getCollectionName(TransactionDocument.class);
+    }
+
+    /**
+     * @param legacyAmount raw value of the legacy amount field, as read
+     */
+    public record AmountConversion(Object id, Object legacyAmount, long amountMinor) {}
+}
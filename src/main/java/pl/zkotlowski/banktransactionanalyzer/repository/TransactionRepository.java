@@ -4,4 +4,11 @@ import java.util.UUID;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
 
-public interface TransactionRepository extends MongoRepository<TransactionDocument, UUID> {}
+public interface TransactionRepository extends MongoRepository<TransactionDocument, UUID> {
+
+    long deleteAllByImportJobId(UUID importJobId);
+
+    long countByImportJobId(UUID importJobId);
+
+    long deleteAllByImportJobIdAndImportRowGreaterThan(UUID importJobId, long importRow);
+}
@@ -0,0 +1,287 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountSketch;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionRollupDocument;
+
+/**
+ * Maintains the rollups of transactions, see {@link TransactionRollupDocument}. Rollups are
+ * computed server side from the stored transactions, so duplicates skipped during an import are
+ * not counted. They are written on the ingest workload, statistics read them on the query one.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransactionRollupRepository {
+
+    // LocalDate values are stored as the start of the day in the default zone
+    static final DateOperators.Timezone DATE_ZONE =
+            DateOperators.Timezone.valueOf(ZoneId.systemDefault().getId());
+
+    private final MongoWorkloads mongoWorkloads;
+
+    /**
+     * Replaces the rollups of an import job with ones computed from its transactions. Called
+     * before the job is completed, its rollups are hidden from statistics until then.
+     */
+    public void rollUpImportJob(UUID importJobId) {
+        deleteAllByImportJobId(importJobId);
+        aggregateRollups(
+                Criteria.where("import_job_id").is(importJobId).and("amount_minor").exists(true),
+                rollups -> Aggregation.merge().intoCollection(rollups).build());
+    }
+
+    /**
+     * Recomputes all rollups from the transactions. {@code $out} replaces the collection at once,
+     * keeping its indexes, so statistics read either the old or the new rollups. Rollups written
+     * by imports while the rebuild runs are lost with the replaced collection, they need to be
+     * rolled up again afterwards.
+     */
+    public void rebuild() {
+        aggregateRollups(Criteria.where("amount_minor").exists(true), Aggregation::out);
+    }
+
+    /**
+     * @param output stage writing the rollups, given the name of their collection
+     */
+    private void aggregateRollups(Criteria match, Function<String, AggregationOperation> output) {
+        var ingest = mongoWorkloads.ingest();
+        ingest.run(
+                mongoTemplate -> {
+                    var aggregation =
+                            Aggregation.newAggregation(
+                                    Aggregation.match(match),
+                                    yearAndMonth(),
+                                    amountBucket(),
+                                    rollUpPerBucket(),
+                                    rollUp(),
+                                    flatten(),
+                                    output.apply(rollupCollection(mongoTemplate)));
+                    mongoTemplate.aggregate(
+                            ingest.withMaxTime(aggregation),
+                            transactionCollection(mongoTemplate),
+                            Document.class);
+                });
+    }
+
+    public long deleteAllByImportJobId(UUID importJobId) {
+        var query = new Query(Criteria.where("importJobId").is(importJobId));
+        return mongoWorkloads
+                .ingest()
+                .call(mongoTemplate -> mongoTemplate.remove(query, TransactionRollupDocument.class))
+                .getDeletedCount();
+    }
+
+    public long deleteAllByImportJobIdIn(Collection<UUID> importJobIds) {
+        var query = new Query(Criteria.where("importJobId").in(importJobIds));
+        return mongoWorkloads
+                .ingest()
+                .call(mongoTemplate -> mongoTemplate.remove(query, TransactionRollupDocument.class))
+                .getDeletedCount();
+    }
+
+    public boolean isEmpty() {
+        return !mongoWorkloads
+                .ingest()
+                .call(
+                        mongoTemplate ->
+                                mongoTemplate.exists(new Query(), TransactionRollupDocument.class));
+    }
+
+    /** Whether some rollups were computed before they held the amount distribution. */
+    public boolean lacksAmountBuckets() {
+        var query = new Query(Criteria.where("amountBuckets").exists(false));
+        return mongoWorkloads
+                .ingest()
+                .call(
+                        mongoTemplate ->
+                                mongoTemplate.exists(query, TransactionRollupDocument.class));
+    }
+
+    /**
+     * Expression computing {@code AmountSketch.bucketOf} of an amount in minor units. The
+     * exponent of the magnitude is estimated with {@code $log} and corrected with exact powers of
+     * two, so the bucket is the same as in Java for every amount below 2^53.
+     *
+     * @param amount expression of the amount, e.g. {@code $amount_minor}
+     */
+    static Document amountBucket(Object amount) {
+        var estimatedExponent =
+                new Document(
+                        "$floor",
+                        new Document("$log", List.of(new Document("$max", List.of("$$m", 1)), 2)));
+        var nextExponent = new Document("$add", List.of("$$e", 1));
+        var exponent =
+                new Document(
+                        "$add",
+                        List.of(
+                                "$$e",
+                                ifElse(
+                                        new Document("$gt", List.of(powerOfTwo("$$e"), "$$m")),
+                                        -1,
+                                        0),
+                                ifElse(
+                                        new Document(
+                                                "$lte", List.of(powerOfTwo(nextExponent), "$$m")),
+                                        1,
+                                        0)));
+        var shift =
+                new Document(
+                        "$max",
+                        List.of(
+                                0,
+                                new Document(
+                                        "$subtract",
+                                        List.of("$$x", AmountSketch.SUB_BUCKET_BITS))));
+        var index =
+                new Document(
+                        "$add",
+                        List.of(
+                                new Document(
+                                        "$multiply",
+                                        List.of("$$s", 1 << AmountSketch.SUB_BUCKET_BITS)),
+                                new Document(
+                                        "$trunc",
+                                        new Document(
+                                                "$divide", List.of("$$m", powerOfTwo("$$s"))))));
+        var signedIndex =
+                ifElse(
+                        new Document("$lt", List.of(amount, 0)),
+                        new Document("$multiply", List.of(-1, index)),
+                        index);
+        return let(
+                "m",
+                new Document("$abs", amount),
+                let(
+                        "e",
+                        estimatedExponent,
+                        let("x", exponent, let("s", shift, new Document("$toInt", signedIndex)))));
+    }
+
+    private static Document powerOfTwo(Object exponent) {
+        return new Document("$pow", List.of(2, exponent));
+    }
+
+    private static Document let(String variable, Object value, Object in) {
+        return new Document(
+                "$let", new Document("vars", new Document(variable, value)).append("in", in));
+    }
+
+    private static Document ifElse(Object condition, Object then, Object otherwise) {
+        return new Document("$cond", List.of(condition, then, otherwise));
+    }
+
+    private static AggregationOperation yearAndMonth() {
+        var date = DateOperators.dateOf("date").withTimezone(DATE_ZONE);
+        return Aggregation.addFields()
+                .addFieldWithValue("year", date.year())
+                .addFieldWithValue("month", date.month())
+                .build();
+    }
+
+    private static AggregationOperation amountBucket() {
+        return Aggregation.stage(
+                new Document(
+                        "$addFields",
+                        new Document("amount_bucket", amountBucket("$amount_minor"))));
+    }
+
+    // sums per rollup and amount bucket, added up per rollup by the next stage
+    private static AggregationOperation rollUpPerBucket() {
+        var expense = ComparisonOperators.Lt.valueOf("amount_minor").lessThanValue(0);
+        var income = ComparisonOperators.Gte.valueOf("amount_minor").greaterThanEqualToValue(0);
+        return Aggregation.group(
+                        "currency",
+                        "iban",
+                        "category",
+                        "year",
+                        "month",
+                        "import_job_id",
+                        "amount_bucket")
+                .sum(sumIf(expense, "amount_minor"))
+                .as("expenses")
+                .sum(sumIf(income, "amount_minor"))
+                .as("income")
+                .sum(ConditionalOperators.Cond.when(expense).then(1L).otherwise(0L))
+                .as("expense_count")
+                .sum(ConditionalOperators.Cond.when(income).then(1L).otherwise(0L))
+                .as("income_count")
+                .min("amount_minor")
+                .as("min_amount")
+                .max("amount_minor")
+                .as("max_amount");
+    }
+
+    private static AggregationOperation rollUp() {
+        var key = new Document();
+        for (var field :
+                List.of("currency", "iban", "category", "year", "month", "import_job_id")) {
+            key.append(field, "$_id." + field);
+        }
+        var count = new Document("$add", List.of("$expense_count", "$income_count"));
+        return Aggregation.stage(
+                new Document(
+                        "$group",
+                        new Document("_id", key)
+                                .append("expenses", new Document("$sum", "$expenses"))
+                                .append("income", new Document("$sum", "$income"))
+                                .append("expense_count", new Document("$sum", "$expense_count"))
+                                .append("income_count", new Document("$sum", "$income_count"))
+                                .append("min_amount", new Document("$min", "$min_amount"))
+                                .append("max_amount", new Document("$max", "$max_amount"))
+                                .append(
+                                        "amount_buckets",
+                                        new Document(
+                                                "$push",
+                                                new Document("b", "$_id.amount_bucket")
+                                                        .append("n", count)))));
+    }
+
+    private static ConditionalOperators.Cond sumIf(AggregationExpression condition, String field) {
+        return ConditionalOperators.Cond.when(condition).thenValueOf(field).otherwise(0);
+    }
+
+    private static AggregationOperation flatten() {
+        return Aggregation.stage(
+                new Document(
+                        "$project",
+                        new Document("_id", 0)
+                                .append("currency", "$_id.currency")
+                                .append("iban", "$_id.iban")
+                                .append("category", "$_id.category")
+                                .append("year", "$_id.year")
+                                .append("month", "$_id.month")
+                                .append("import_job_id", "$_id.import_job_id")
+                                .append("expenses", 1)
+                                .append("income", 1)
+                                .append("expense_count", 1)
+                                .append("income_count", 1)
+                                .append("min_amount", 1)
+                                .append("max_amount", 1)
+                                .append("amount_buckets", 1)));
+    }
+
+    private static String transactionCollection(MongoTemplate mongoTemplate) {
+        return mongoTemplate.getCollectionName(TransactionDocument.class);
+    }
+
+    private static String rollupCollection(MongoTemplate mongoTemplate) {
+        return mongoTemplate.getCollectionName(TransactionRollupDocument.class);
+    }
+}
@@ -0,0 +1,109 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Streams transactions with the fields statistics are computed from, for copies of the
+ * transactions held outside the database. Transactions whose amount is not converted to minor
+ * units yet are left out, as they are by the statistics aggregations. Scans of the whole
+ * collection run on the bulk workload, the rows of one import job, read when it completes, on the
+ * ingest workload. Either holds its permit until the consumer is done.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransactionScanRepository {
+
+    private static final int CURSOR_BATCH_SIZE = 10_000;
+
+    private final MongoWorkloads mongoWorkloads;
+
+    /**
+     * @param pendingImportJobIds import jobs whose transactions are not published yet
+     */
+    public void forEachPublished(
+            Collection<UUID> pendingImportJobIds, Consumer<TransactionDocument> consumer) {
+        forEach(
+                mongoWorkloads.bulk(),
+                Criteria.where("importJobId").nin(pendingImportJobIds),
+                consumer);
+    }
+
+    /** Streams all stored transactions, published or not, e.g. to rebuild what they imply. */
+    public void forEachStored(Consumer<TransactionDocument> consumer) {
+        forEach(mongoWorkloads.bulk(), new Criteria(), consumer);
+    }
+
+    public void forEachOfImportJob(UUID importJobId, Consumer<TransactionDocument> consumer) {
+        forEach(mongoWorkloads.ingest(), Criteria.where("importJobId").is(importJobId), consumer);
+    }
+
+    /**
+     * Streams the published transactions matching the filters of an export, with their ids.
+     *
+     * @param pendingImportJobIds import jobs whose transactions are not published yet
+     */
+    public void forEachExported(
+            Collection<UUID> pendingImportJobIds,
+            TransactionExportQuery filter,
+            Consumer<TransactionDocument> consumer) {
+        var criteria = Criteria.where("importJobId").nin(pendingImportJobIds);
+        if (filter.currency() != null) {
+            criteria.and("currency").is(filter.currency());
+        }
+        if (filter.iban() != null) {
+            criteria.and("iban").is(filter.iban());
+        }
+        if (filter.from() != null || filter.to() != null) {
+            var date = criteria.and("date");
+            if (filter.from() != null) {
+                date.gte(filter.from());
+            }
+            if (filter.to() != null) {
+                date.lte(filter.to());
+            }
+        }
+        forEach(mongoWorkloads.bulk(), criteria, consumer, "id");
+    }
+
+    /**
+     * Streams all published transactions with their ids and natural keys, for a snapshot.
+     *
+     * @param pendingImportJobIds import jobs whose transactions are not published yet
+     */
+    public void forEachSnapshotted(
+            Collection<UUID> pendingImportJobIds, Consumer<TransactionDocument> consumer) {
+        forEach(
+                mongoWorkloads.bulk(),
+                Criteria.where("importJobId").nin(pendingImportJobIds),
+                consumer,
+                "id",
+                "naturalKey");
+    }
+
+    private static void forEach(
+            MongoWorkload workload,
+            Criteria criteria,
+            Consumer<TransactionDocument> consumer,
+            String... extraFields) {
+        var query =
+                new Query(criteria.and("amountMinor").exists(true))
+                        .cursorBatchSize(CURSOR_BATCH_SIZE);
+        query.fields()
+                .include("iban", "date", "category", "currency", "amountMinor", "importJobId")
+                .include(extraFields);
+        workload.run(
+                mongoTemplate -> {
+                    try (var documents = mongoTemplate.stream(query, TransactionDocument.class)) {
+                        documents.forEach(consumer);
+                    }
+                });
+    }
+}
@@ -0,0 +1,94 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import pl.zkotlowski.banktransactionanalyzer.model.MinorUnits;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionSearchQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Pages through transactions newest first, ordered by date and id. A page continues after the
+ * sort key of the last transaction of the previous one (keyset pagination), so every page is an
+ * index seek however deep it is. The currency, IBAN and category are matched by the equality
+ * prefix of an index ending with the sort key, amounts are filtered on the fetched rows. Searches
+ * run on the query workload.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransactionSearchRepository {
+
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "date", "id");
+
+    private final MongoWorkloads mongoWorkloads;
+
+    /**
+     * @param pendingImportJobIds import jobs whose transactions are not published yet
+     * @param limit number of transactions to return at most
+     */
+    public List<TransactionDocument> search(
+            TransactionSearchQuery searchQuery, Collection<UUID> pendingImportJobIds, int limit) {
+        var workload = mongoWorkloads.query();
+        var query = workload.withMaxTime(query(searchQuery, pendingImportJobIds, limit));
+        return workload.call(
+                mongoTemplate -> mongoTemplate.find(query, TransactionDocument.class));
+    }
+
+    static Query query(
+            TransactionSearchQuery searchQuery, Collection<UUID> pendingImportJobIds, int limit) {
+        var cursor = searchQuery.cursor();
+        Criteria criteria;
+        if (cursor == null) {
+            var date = filters(searchQuery, pendingImportJobIds).and("date").ne(null);
+            if (searchQuery.from() != null) {
+                date.gte(searchQuery.from());
+            }
+            if (searchQuery.to() != null) {
+                date.lte(searchQuery.to());
+            }
+            criteria = date;
+        } else {
+            // one index seek per branch, the rest of the cursor's day and the days before it,
+            // whose results are merged in sort order
+            var earlierDays =
+                    filters(searchQuery, pendingImportJobIds).and("date").lt(cursor.date());
+            if (searchQuery.from() != null) {
+                earlierDays.gte(searchQuery.from());
+            }
+            criteria =
+                    new Criteria()
+                            .orOperator(
+                                    filters(searchQuery, pendingImportJobIds)
+                                            .and("date")
+                                            .is(cursor.date())
+                                            .and("id")
+                                            .lt(cursor.id()),
+                                    earlierDays);
+        }
+        return new Query(criteria).with(NEWEST_FIRST).limit(limit);
+    }
+
+    private static Criteria filters(
+            TransactionSearchQuery searchQuery, Collection<UUID> pendingImportJobIds) {
+        var criteria = Criteria.where("currency").is(searchQuery.currency());
+        if (searchQuery.iban() != null) {
+            criteria.and("iban").is(searchQuery.iban());
+        }
+        if (searchQuery.category() != null) {
+            criteria.and("category").is(searchQuery.category());
+        }
+        var amount = criteria.and("amountMinor").exists(true);
+        if (searchQuery.minAmount() != null) {
+            amount.gte(MinorUnits.toMinorUnits(searchQuery.minAmount()));
+        }
+        if (searchQuery.maxAmount() != null) {
+            amount.lte(MinorUnits.toMinorUnits(searchQuery.maxAmount()));
+        }
+        return criteria.and("importJobId").nin(pendingImportJobIds);
+    }
+}
@@ -0,0 +1,105 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.util.concurrent.TimeUnit;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.BatchWriteStats;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Chooses the size of import write batches from observed write latency and payload size. The
+ * size grows by a quarter while full batches are written within the target latency and is halved
+ * when a batch is slower than that. It also never lets a batch exceed the payload limit, based
+ * on the average estimated BSON size of the documents written so far.
+ *
+ * <p>Shared by all write workers of a single import, hence synchronized.
+ */
+public class AdaptiveBatchSizer {
+
+    // rough BSON size of a transaction document without its variable-length strings
+    private static final int DOCUMENT_OVERHEAD_BYTES = 150;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetLatencyNanos;
+    private final long maxPayloadBytes;
+
+    private volatile int batchSize;
+    private double avgDocumentBytes;
+
+    private long batchCount;
+    private int minWrittenSize = Integer.MAX_VALUE;
+    private int maxWrittenSize;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    public AdaptiveBatchSizer(ImportProperties.Batch batch) {
+        this.minSize = batch.minSize();
+        this.maxSize = batch.maxSize();
+        this.targetLatencyNanos = batch.targetLatency().toNanos();
+        this.maxPayloadBytes = batch.maxPayload().toBytes();
+        this.batchSize = Math.clamp(batch.initialSize(), minSize, maxSize);
+    }
+
+    /**
+     * @return number of documents the next batch should contain
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return payload size at which a batch should be cut even if it has fewer documents
+     */
+    public long maxPayloadBytes() {
+        return maxPayloadBytes;
+    }
+
+    public static long estimateBsonSize(TransactionDocument transactionDocument) {
+        return DOCUMENT_OVERHEAD_BYTES
+                + length(transactionDocument.getIban())
+                + length(transactionDocument.getCategory())
+                + length(transactionDocument.getCurrency());
+    }
+
+    public synchronized void record(int size, long payloadBytes, long latencyNanos) {
+        batchCount++;
+        minWrittenSize = Math.min(minWrittenSize, size);
+        maxWrittenSize = Math.max(maxWrittenSize, size);
+        totalLatencyNanos += latencyNanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+
+        var documentBytes = (double) payloadBytes / Math.max(size, 1);
+        avgDocumentBytes =
+                avgDocumentBytes == 0
+                        ? documentBytes
+                        : 0.9 * avgDocumentBytes + 0.1 * documentBytes;
+
+        var next = batchSize;
+        if (latencyNanos > targetLatencyNanos) {
+            next = next / 2;
+        } else if (size >= batchSize) {
+            // only full batches say anything about the current size, the last one is partial
+            next = next + Math.max(1, next / 4);
+        }
+        var payloadLimit = (int) Math.min(Integer.MAX_VALUE, maxPayloadBytes / avgDocumentBytes);
+        batchSize = Math.clamp(Math.min(next, payloadLimit), minSize, maxSize);
+    }
+
+    public synchronized BatchWriteStats stats() {
+        return new BatchWriteStats(
+                batchCount,
+                batchCount == 0 ? 0 : minWrittenSize,
+                maxWrittenSize,
+                batchSize,
+                batchCount == 0 ? 0 : toMillis(totalLatencyNanos / (double) batchCount),
+                toMillis(maxLatencyNanos));
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
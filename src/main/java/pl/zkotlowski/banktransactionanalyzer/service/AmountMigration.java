@@ -0,0 +1,106 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.Decimal128;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import pl.zkotlowski.banktransactionanalyzer.configuration.AmountMigrationProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.MinorUnits;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionMigrationRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionMigrationRepository.AmountConversion;
+
+/**
+ * Converts amounts stored before minor units were introduced, batch by batch in the background
+ * while the application serves requests. Statistics only include converted transactions, so
+ * they are incomplete until the migration finishes and the rollups are rebuilt. Documents whose
+ * amount cannot be converted are logged and left as they are.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AmountMigration {
+
+    private final TransactionMigrationRepository transactionMigrationRepository;
+    private final AmountMigrationProperties amountMigrationProperties;
+    private final TransactionRollupService transactionRollupService;
+    private final ColumnarStatisticsEngine columnarStatisticsEngine;
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (amountMigrationProperties.enabled()) {
+            Thread.ofPlatform().daemon().name("amount-migration").start(this::migrate);
+        }
+    }
+
+    void migrate() {
+        var start = System.nanoTime();
+        long converted = 0;
+        long skipped = 0;
+        Object lastId = null;
+        try {
+            while (true) {
+                var documents =
+                        transactionMigrationRepository.findLegacyAmounts(
+                                lastId, amountMigrationProperties.batchSize());
+                if (documents.isEmpty()) {
+                    break;
+                }
+                var conversions = new ArrayList<AmountConversion>(documents.size());
+                for (var document : documents) {
+                    var id = document.get("_id");
+                    var legacyAmount = document.get("amount");
+                    try {
+                        conversions.add(
+                                new AmountConversion(id, legacyAmount, toMinorUnits(legacyAmount)));
+                    } catch (RuntimeException e) {
+                        log.warn(
+                                "Amount of transaction id: {} not converted: {}",
+                                id,
+                                legacyAmount);
+                        skipped++;
+                    }
+                }
+                if (!conversions.isEmpty()) {
+                    converted += transactionMigrationRepository.replaceLegacyAmounts(conversions);
+                }
+                lastId = documents.getLast().get("_id");
+                Thread.sleep(amountMigrationProperties.pause());
+            }
+            log.info(
+                    "Amount migration finished in {} ms, converted: {}, skipped: {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    converted,
+                    skipped);
+            if (converted > 0) {
+                // rollups and the columnar engine only hold minor units, the converted
+                // transactions are missing from them
+                transactionRollupService.rebuild();
+                columnarStatisticsEngine.reload();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // converted documents stay converted, the next start continues with the rest
+            log.error("Amount migration stopped after converting {} transactions", converted, e);
+        }
+    }
+
+    private static long toMinorUnits(Object legacyAmount) {
+        var amount =
+                switch (legacyAmount) {
+                    case String value -> new BigDecimal(value);
+                    case Decimal128 value -> value.bigDecimalValue();
+                    case Double value -> BigDecimal.valueOf(value);
+                    case Number value -> BigDecimal.valueOf(value.longValue());
+                    default ->
+                            throw new IllegalArgumentException(
+                                    "Unsupported amount type: " + legacyAmount.getClass());
+                };
+        return MinorUnits.toMinorUnits(amount);
+    }
+}
@@ -0,0 +1,184 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ColumnarEngineProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsVersionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionScanRepository;
+
+/**
+ * Holds the published transactions in memory as {@link TransactionColumns} so statistics are
+ * answered without a round trip to Mongo. The transactions are loaded in the background on
+ * startup, after that the transactions of newly completed imports, on any instance, are appended
+ * periodically. Until the transactions are loaded, or if the engine is disabled, statistics are
+ * aggregated in Mongo.
+ */
+@Component
+@Slf4j
+public class ColumnarStatisticsEngine {
+
+    // completion times are set by other instances, whose clocks may be ahead
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+    private static final int MIN_SLICE_ROWS = 1 << 16;
+
+    private final TransactionScanRepository transactionScanRepository;
+    private final ImportJobRepository importJobRepository;
+    private final StatisticsVersionRepository statisticsVersionRepository;
+    private final ColumnarEngineProperties columnarEngineProperties;
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService loader;
+
+    // only touched by the loader thread
+    private Set<UUID> appliedImportJobIds = new HashSet<>();
+    private Instant appliedUntil;
+
+    private volatile TransactionColumns columns;
+    // statistics version the columns are known to include
+    private volatile long version;
+
+    public ColumnarStatisticsEngine(
+            TransactionScanRepository transactionScanRepository,
+            ImportJobRepository importJobRepository,
+            StatisticsVersionRepository statisticsVersionRepository,
+            ColumnarEngineProperties columnarEngineProperties) {
+        this.transactionScanRepository = transactionScanRepository;
+        this.importJobRepository = importJobRepository;
+        this.statisticsVersionRepository = statisticsVersionRepository;
+        this.columnarEngineProperties = columnarEngineProperties;
+        var parallelism =
+                columnarEngineProperties.parallelism() > 0
+                        ? columnarEngineProperties.parallelism()
+                        : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+        this.loader =
+                Executors.newSingleThreadScheduledExecutor(
+                        Thread.ofPlatform().daemon().name("columnar-engine").factory());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (!columnarEngineProperties.enabled()) {
+            return;
+        }
+        var interval = columnarEngineProperties.refreshInterval().toMillis();
+        loader.execute(this::load);
+        loader.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        loader.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /**
+     * @param minVersion statistics version the transactions must include
+     * @return the loaded transactions, empty while the engine is disabled or loading, or has not
+     *     appended the imports completed up to the version yet
+     */
+    Optional<TransactionColumns> loadedColumns(long minVersion) {
+        var loaded = columns;
+        return loaded != null && version >= minVersion ? Optional.of(loaded) : Optional.empty();
+    }
+
+    /**
+     * Loads all transactions again, e.g. after stored transactions were changed. Statistics are
+     * aggregated in Mongo meanwhile.
+     */
+    public void reload() {
+        if (columnarEngineProperties.enabled()) {
+            loader.execute(
+                    () -> {
+                        columns = null;
+                        load();
+                    });
+        }
+    }
+
+    private void load() {
+        var start = System.nanoTime();
+        try {
+            var loadedAt = Instant.now();
+            // the version is incremented after an import is completed, so every import counted
+            // by it is either published by now or completed since loadedAt
+            var loadedVersion = statisticsVersionRepository.current();
+            // listed before the transactions are read, imports completed meanwhile are appended
+            // by the next refresh
+            var pendingImportJobIds =
+                    importJobRepository.findAllByTransactionsPendingTrue().stream()
+                            .map(ImportJobDocument::getId)
+                            .toList();
+            var loaded = new TransactionColumns(pool, MIN_SLICE_ROWS);
+            var loadedImportJobIds = new HashSet<UUID>();
+            transactionScanRepository.forEachPublished(
+                    pendingImportJobIds,
+                    transaction -> {
+                        loaded.append(transaction);
+                        if (transaction.getImportJobId() != null) {
+                            loadedImportJobIds.add(transaction.getImportJobId());
+                        }
+                    });
+            loaded.publish();
+            appliedImportJobIds = loadedImportJobIds;
+            appliedUntil = loadedAt;
+            version = loadedVersion;
+            columns = loaded;
+            log.info(
+                    "Loaded {} transactions into the columnar engine in {} ms",
+                    loaded.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            // statistics stay on Mongo, the next refresh tries again
+            log.error("Could not load transactions into the columnar engine", e);
+        }
+    }
+
+    private void refresh() {
+        var loaded = columns;
+        if (loaded == null) {
+            load();
+            return;
+        }
+        try {
+            var refreshedAt = Instant.now();
+            var refreshedVersion = statisticsVersionRepository.current();
+            var completedImportJobs =
+                    importJobRepository.findAllByCompletedAtGreaterThanEqual(
+                            appliedUntil.minus(CLOCK_SKEW));
+            var appended = 0;
+            for (var importJob : completedImportJobs) {
+                if (appliedImportJobIds.add(importJob.getId())) {
+                    var before = loaded.size();
+                    transactionScanRepository.forEachOfImportJob(
+                            importJob.getId(), loaded::append);
+                    loaded.publish();
+                    appended += loaded.size() - before;
+                }
+            }
+            appliedUntil = refreshedAt;
+            version = refreshedVersion;
+            if (appended > 0) {
+                log.info("Appended {} transactions to the columnar engine", appended);
+            }
+        } catch (RuntimeException e) {
+            // a partly appended import cannot be told apart, so everything is loaded again
+            log.error("Could not refresh the columnar engine, loading it again", e);
+            columns = null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.util.List;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import pl.zkotlowski.banktransactionanalyzer.model.document.DeferredTransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument.Status;
+import pl.zkotlowski.banktransactionanalyzer.repository.DeferredTransactionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+
+/**
+ * Settles the rows an import skipped for the natural key of a row of another import job that was
+ * not completed yet, see {@link DeferredTransactionDocument}. Once the blocking job is completed
+ * the row is a duplicate and is dropped. If the blocking job fails instead, its rows are removed
+ * and the deferred row is imported after all, by a queued reinstatement job, as the job it
+ * belongs to can no longer take rows once it is completed.
+ *
+ * <p>Both jobs settle their deferred rows when they are finished, so whichever finishes last sees
+ * the final state of both.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeferredTransactionService {
+
+    static final int REINSTATE_BATCH_SIZE = 1000;
+
+    private final DeferredTransactionRepository deferredTransactionRepository;
+    private final ImportJobRepository importJobRepository;
+    private final ImportJobService importJobService;
+    private final TransactionService transactionService;
+
+    /** Settles the rows deferred by the finished import job, and the rows it blocks. */
+    public void settle(UUID importJobId) {
+        for (var blockingImportJobId :
+                deferredTransactionRepository.findBlockingImportJobIds(importJobId)) {
+            settle(importJobId, blockingImportJobId);
+        }
+        for (var ownerImportJobId :
+                deferredTransactionRepository.findOwnerImportJobIds(importJobId)) {
+            settle(ownerImportJobId, importJobId);
+        }
+    }
+
+    /**
+     * Imports the deferred rows moved to a reinstatement job as rows of that job. Rows it wrote
+     * before are removed first, so a resumed job starts over.
+     *
+     * @return number of rows skipped as duplicates
+     */
+    public long reinstate(UUID importJobId) {
+        transactionService.deleteTransactionsOfImportJob(importJobId);
+        long duplicates = 0;
+        UUID lastId = null;
+        List<DeferredTransactionDocument> page;
+        do {
+            page =
+                    deferredTransactionRepository.findBlockedBy(
+                            importJobId, lastId, REINSTATE_BATCH_SIZE);
+            if (!page.isEmpty()) {
+                duplicates +=
+                        transactionService.insertAllTransactions(
+                                page.stream()
+                                        .map(deferred -> deferred.toTransaction(importJobId))
+                                        .toList());
+                lastId = page.getLast().getId();
+            }
+        } while (page.size() == REINSTATE_BATCH_SIZE);
+        return duplicates;
+    }
+
+    private void settle(UUID ownerImportJobId, UUID blockingImportJobId) {
+        var owner = importJobRepository.findById(ownerImportJobId).orElse(null);
+        var blocking = importJobRepository.findById(blockingImportJobId).orElse(null);
+        if (owner == null
+                || owner.getStatus() == Status.FAILED
+                || blocking != null && blocking.getStatus() == Status.COMPLETED) {
+            // the row is either not imported at all or a duplicate of a published row
+            var removed =
+                    deferredTransactionRepository.delete(ownerImportJobId, blockingImportJobId);
+            log.info(
+                    "Dropped {} rows of import job id: {} deferred for job id: {}",
+                    removed,
+                    ownerImportJobId,
+                    blockingImportJobId);
+            return;
+        }
+        if (owner.getStatus() != Status.COMPLETED || !isDiscarded(blocking)) {
+            // settled by the job finishing last
+            return;
+        }
+        var reinstatementJobId = importJobService.createReinstatementJob();
+        var moved =
+                deferredTransactionRepository.reassign(
+                        ownerImportJobId, blockingImportJobId, reinstatementJobId);
+        log.info(
+                "Moved {} rows of import job id: {} deferred for failed job id: {} to job id: {}",
+                moved,
+                ownerImportJobId,
+                blockingImportJobId,
+                reinstatementJobId);
+    }
+
+    // a failed job keeps its rows pending until they are removed
+    private static boolean isDiscarded(ImportJobDocument importJob) {
+        return importJob == null
+                || importJob.getStatus() == Status.FAILED && !importJob.isTransactionsPending();
+    }
+}
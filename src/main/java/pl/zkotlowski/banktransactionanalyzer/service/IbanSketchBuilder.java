@@ -0,0 +1,61 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctSketch;
+import pl.zkotlowski.banktransactionanalyzer.model.document.IbanSketchDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Adds the IBANs of the transactions it is given to the sketch of their currency, category,
+ * month and import job. Sketches of few IBANs stay small, see {@link DistinctSketch}.
+ */
+final class IbanSketchBuilder implements Consumer<TransactionDocument> {
+
+    private final int precision;
+    private final Map<Key, DistinctSketch> sketches = new HashMap<>();
+
+    IbanSketchBuilder(int precision) {
+        this.precision = precision;
+    }
+
+    @Override
+    public void accept(TransactionDocument transaction) {
+        if (transaction.getIban() == null || transaction.getDate() == null) {
+            return;
+        }
+        var key =
+                new Key(
+                        transaction.getCurrency(),
+                        transaction.getCategory(),
+                        YearMonth.from(transaction.getDate()),
+                        transaction.getImportJobId());
+        sketches.computeIfAbsent(key, k -> new DistinctSketch(precision))
+                .add(transaction.getIban());
+    }
+
+    Map<UUID, List<IbanSketchDocument>> documentsByImportJobId() {
+        var documents = new HashMap<UUID, List<IbanSketchDocument>>();
+        sketches.forEach(
+                (key, sketch) ->
+                        documents
+                                .computeIfAbsent(key.importJobId(), id -> new ArrayList<>())
+                                .add(
+                                        new IbanSketchDocument(
+                                                null,
+                                                key.currency(),
+                                                key.category(),
+                                                key.month().getYear(),
+                                                key.month().getMonthValue(),
+                                                key.importJobId(),
+                                                sketch.toBytes())));
+        return documents;
+    }
+
+    private record Key(String currency, String category, YearMonth month, UUID importJobId) {}
+}
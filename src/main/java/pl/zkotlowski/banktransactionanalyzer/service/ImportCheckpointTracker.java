@@ -0,0 +1,66 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+
+/**
+ * Derives the checkpoint of an import from the chunks written so far. Chunks are parsed and
+ * written out of order, so the checkpoint only moves past a chunk once it and all chunks before
+ * it are completely written.
+ */
+class ImportCheckpointTracker {
+
+    private final Queue<PendingChunk> pending = new ArrayDeque<>();
+    private final Map<Long, PendingChunk> byFirstRow = new HashMap<>();
+    private ImportCheckpoint checkpoint;
+
+    ImportCheckpointTracker(ImportCheckpoint start) {
+        this.checkpoint = start;
+    }
+
+    /** Registers a chunk in input order, before any of its rows is written. */
+    synchronized void register(long firstRowNumber, long lastRowNumber, long endOffset) {
+        var chunk = new PendingChunk(firstRowNumber, lastRowNumber, endOffset);
+        pending.add(chunk);
+        byFirstRow.put(firstRowNumber, chunk);
+    }
+
+    /**
+     * Counts rows of a chunk as written.
+     *
+     * @return the new checkpoint if it moved, null otherwise
+     */
+    synchronized ImportCheckpoint written(long firstRowNumber, int rows) {
+        byFirstRow.get(firstRowNumber).written += rows;
+
+        var moved = false;
+        while (!pending.isEmpty() && pending.peek().isComplete()) {
+            var chunk = pending.remove();
+            byFirstRow.remove(chunk.firstRowNumber);
+            checkpoint = new ImportCheckpoint(chunk.endOffset, chunk.lastRowNumber);
+            moved = true;
+        }
+        return moved ? checkpoint : null;
+    }
+
+    private static final class PendingChunk {
+
+        private final long firstRowNumber;
+        private final long lastRowNumber;
+        private final long endOffset;
+        private long written;
+
+        private PendingChunk(long firstRowNumber, long lastRowNumber, long endOffset) {
+            this.firstRowNumber = firstRowNumber;
+            this.lastRowNumber = lastRowNumber;
+            this.endOffset = endOffset;
+        }
+
+        private boolean isComplete() {
+            return written == lastRowNumber - firstRowNumber + 1;
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package pl.zkotlowski.banktransactionanalyzer.service;
 
+import java.io.IOException;
+import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
-import org.springframework.web.multipart.MultipartFile;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.BatchWriteStats;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
 import pl.zkotlowski.banktransactionanalyzer.model.ImportJob;
-import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -15,25 +17,169 @@ public class ImportJobProcessor {
 
     private final ImportJobService importJobService;
     private final TransactionImporter transactionImporter;
+    private final ImportPayloadStore importPayloadStore;
+    private final TransactionService transactionService;
+    private final TransactionRollupService transactionRollupService;
+    private final DeferredTransactionService deferredTransactionService;
+    private final ImportProperties importProperties;
 
-    @Async
-    public void processImportAsync(ImportJob importJob, MultipartFile multipartFile) {
+    /**
+     * Runs the import of a claimed job, called by an {@link ImportScheduler} worker. A job claimed
+     * again after its previous owner lost the lease continues from its last checkpoint, or from
+     * the beginning if it had none. Rows written after the checkpoint are removed first, they are
+     * imported again, and the rows before it are replayed to continue their natural keys. A
+     * reinstatement job imports deferred rows instead of a payload, see {@link
+     * DeferredTransactionService}.
+     */
+    public void processImport(ImportJob importJob, ImportLease lease) {
         var importJobId = importJob.id();
+        var resumed = importJob.attempts() > 1;
+        var checkpoint =
+                resumed && importJob.checkpoint() != null
+                        ? importJob.checkpoint()
+                        : ImportCheckpoint.START;
+        log.info(
+                "Starting import processing for job id: {}, attempt: {}, checkpoint: {}",
+                importJobId,
+                importJob.attempts(),
+                checkpoint);
+
+        var maxAttempts = importProperties.scheduler().maxAttempts();
+        if (importJob.attempts() > maxAttempts) {
+            // e.g. the import keeps crashing the instances running it
+            if (fail(importJobId, lease, "Import abandoned after " + maxAttempts + " attempts")) {
+                importPayloadStore.delete(importJobId);
+            }
+            return;
+        }
 
-        log.info("Starting async import processing for job id: {}", importJobId);
         try {
-            transactionImporter.importTransactionsFromCsv(multipartFile);
-            importJobService.updateJobStatus(importJob.id(), ImportJobDocument.Status.COMPLETED);
+            var writeStats =
+                    importJob.reinstatement()
+                            ? reinstate(importJobId)
+                            : importPayload(importJobId, lease, resumed, checkpoint);
+            // hidden like the transactions until the job is completed
+            transactionRollupService.rollUpImportJob(importJobId);
+            // completing removes the lease from the job, its heartbeat must stop first
+            lease.release();
+            if (!importJobService.completeJob(importJobId, lease.getOwner(), writeStats)) {
+                log.warn("Import job id: {} finished after its lease was lost", importJobId);
+                return;
+            }
+            settleDeferredTransactions(importJobId);
         } catch (Exception e) {
+            if (lease.isLost()) {
+                // the next owner resumes the job and needs its rows and payload
+                log.warn("Import job id: {} stopped, its lease was lost", importJobId);
+                return;
+            }
             log.error("Error processing import job id: {}", importJobId, e);
+            // todo: consider better error message extraction to avoid potential NPE if cause is
+            // null
             String errorMessage =
                     (e.getCause() != null && e.getCause().getMessage() != null)
                             ? e.getCause().getMessage()
                             : e.getMessage();
-            importJobService.failJob(
-                    importJobId,
-                    errorMessage); // todo: consider better error message extraction to avoid
-            // potential NPE if cause is null
+            if (!fail(importJobId, lease, errorMessage)) {
+                return;
+            }
+        }
+        importPayloadStore.delete(importJobId);
+    }
+
+    private BatchWriteStats importPayload(
+            UUID importJobId, ImportLease lease, boolean resumed, ImportCheckpoint checkpoint)
+            throws IOException {
+        try (var payload = importPayloadStore.open(importJobId)) {
+            var naturalKeys = new NaturalKeySequence();
+            long previousDuplicates = 0;
+            if (resumed) {
+                var removed =
+                        transactionService.deleteTransactionsOfImportJobAfterRow(
+                                importJobId, checkpoint.rowNumber());
+                log.info(
+                        "Removed {} transactions written after the checkpoint of job id: {}",
+                        removed,
+                        importJobId);
+                try (var prefix = importPayloadStore.open(importJobId)) {
+                    naturalKeys = transactionImporter.replayNaturalKeys(prefix, checkpoint);
+                }
+                // every row up to the checkpoint is either stored or was a duplicate
+                previousDuplicates =
+                        checkpoint.rowNumber()
+                                - transactionService.countTransactionsOfImportJob(importJobId);
+            }
+            var progress =
+                    new ImportProgressTracker(
+                            importPayloadStore.size(importJobId),
+                            importProperties.progressInterval(),
+                            (snapshot, latestCheckpoint) ->
+                                    importJobService.updateProgress(
+                                            importJobId,
+                                            lease.getOwner(),
+                                            snapshot,
+                                            latestCheckpoint));
+            progress.duplicates(previousDuplicates);
+            return transactionImporter.importTransactionsFromCsv(
+                    importJobId, payload, progress, checkpoint, naturalKeys);
+        }
+    }
+
+    /**
+     * Imports the deferred rows moved to a reinstatement job, which has no payload.
+     *
+     * @return no write stats, the rows are written in fixed batches
+     */
+    private BatchWriteStats reinstate(UUID importJobId) {
+        var duplicates = deferredTransactionService.reinstate(importJobId);
+        log.info(
+                "Reinstated deferred rows in job id: {}, {} of them are duplicates",
+                importJobId,
+                duplicates);
+        return null;
+    }
+
+    /**
+     * Fails the job, releasing the lease first so the cleanup afterwards is not interrupted.
+     *
+     * @return false if the lease was lost, the job then stays with its next owner
+     */
+    private boolean fail(UUID importJobId, ImportLease lease, String errorMessage) {
+        lease.release();
+        if (!importJobService.failJob(importJobId, lease.getOwner(), errorMessage)) {
+            log.warn("Import job id: {} not failed, its lease was lost", importJobId);
+            return false;
+        }
+        discardTransactions(importJobId);
+        return true;
+    }
+
+    /**
+     * Removes rows already written by a failed import. If that fails they stay hidden from
+     * queries, as the job keeps its pending flag.
+     */
+    private void discardTransactions(UUID importJobId) {
+        try {
+            transactionRollupService.deleteRollupsOfImportJob(importJobId);
+            var removed = transactionService.deleteTransactionsOfImportJob(importJobId);
+            importJobService.markTransactionsDiscarded(importJobId);
+            log.info("Discarded {} transactions of failed import job id: {}", removed, importJobId);
+        } catch (Exception e) {
+            log.error("Could not discard transactions of import job id: {}", importJobId, e);
+            return;
+        }
+        settleDeferredTransactions(importJobId);
+    }
+
+    /**
+     * Settles the rows deferred by the finished job and the ones it blocks. If that fails they
+     * are kept, the other job of each row settles it when it finishes.
+     */
+    private void settleDeferredTransactions(UUID importJobId) {
+        try {
+            deferredTransactionService.settle(importJobId);
+        } catch (Exception e) {
+            log.error("Could not settle deferred rows of import job id: {}", importJobId, e);
         }
     }
 }
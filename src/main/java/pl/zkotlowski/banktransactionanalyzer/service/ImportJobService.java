@@ -1,58 +1,195 @@
 package pl.zkotlowski.banktransactionanalyzer.service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import pl.zkotlowski.banktransactionanalyzer.exception.DuplicateImportException;
 import pl.zkotlowski.banktransactionanalyzer.exception.ImportJobNotFoundException;
+import pl.zkotlowski.banktransactionanalyzer.model.BatchWriteStats;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
 import pl.zkotlowski.banktransactionanalyzer.model.ImportJob;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportProgress;
 import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobQueueRepository;
 import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsVersionRepository;
 
+/**
+ * Manages import jobs. Changes of a running job are made on behalf of its lease owner and are
+ * ignored once the lease has been lost, see {@link ImportJobQueueRepository}.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ImportJobService {
 
     private final ImportJobRepository importJobRepository;
+    private final ImportJobQueueRepository importJobQueueRepository;
+    private final StatisticsVersionRepository statisticsVersionRepository;
 
-    public ImportJob createNewJob() {
-        var importJobDto = ImportJob.from(importJobRepository.save(ImportJobDocument.createNew()));
+    /**
+     * Queues a new job for a payload that was already stored.
+     *
+     * @param importJobId id under which the payload was stored
+     * @param fileHash hash of the stored payload
+     * @throws DuplicateImportException when the same file is queued, running or already imported
+     */
+    public ImportJob createNewJob(UUID importJobId, int priority, String fileHash) {
+        ImportJobDocument importJob;
+        try {
+            importJob =
+                    importJobRepository.save(
+                            ImportJobDocument.createNew(importJobId, priority, fileHash));
+        } catch (DuplicateKeyException e) {
+            // the unique file hash index rejects re-uploads, also concurrent ones
+            var existingJob =
+                    importJobRepository.findByFileHash(fileHash).orElseThrow(() -> e);
+            throw new DuplicateImportException(existingJob.getId());
+        }
+        var importJobDto = ImportJob.from(importJob);
         log.info("Created new import job: {}", importJobDto);
         return importJobDto;
     }
 
-    public ImportJob updateJobStatus(UUID importJobId, ImportJobDocument.Status status) {
-        log.info("Updating status to {} of import job with id: {}", status, importJobId);
+    /**
+     * Queues a job importing the deferred rows that will be moved to it, see {@link
+     * DeferredTransactionService}.
+     *
+     * @return id of the queued job
+     */
+    public UUID createReinstatementJob() {
         var importJob =
-                importJobRepository
-                        .findById(importJobId)
-                        .orElseThrow(() -> new ImportJobNotFoundException(importJobId));
-        importJob.setStatus(status);
+                importJobRepository.save(ImportJobDocument.createReinstatement(UUID.randomUUID()));
+        log.info("Created new reinstatement job with id: {}", importJob.getId());
+        return importJob.getId();
+    }
+
+    /**
+     * @return the claimed job, empty if no job is waiting
+     */
+    public Optional<ImportJob> claimNextJob(String leaseOwner, Duration leaseDuration) {
+        var importJob =
+                importJobQueueRepository
+                        .claimNext(leaseOwner, Instant.now(), leaseDuration)
+                        .map(ImportJob::from);
+        importJob.ifPresent(
+                job ->
+                        log.info(
+                                "Claimed import job with id: {}, attempt: {}",
+                                job.id(),
+                                job.attempts()));
+        return importJob;
+    }
+
+    /**
+     * @return false if the lease is no longer held by the owner
+     */
+    public boolean renewLease(UUID importJobId, String leaseOwner, Duration leaseDuration) {
+        return importJobQueueRepository.renewLease(
+                importJobId, leaseOwner, Instant.now().plus(leaseDuration));
+    }
 
-        return ImportJob.from(save(importJob));
+    /**
+     * Completes the job, which atomically publishes all transactions it has written, and then
+     * increments the statistics version. Incremented afterwards, a result computed in between is
+     * at worst cached for the old version with the new transactions, never the other way round.
+     *
+     * @return false if the lease was lost and the job was left unchanged
+     */
+    public boolean completeJob(UUID importJobId, String leaseOwner, BatchWriteStats writeStats) {
+        log.info("Completing import job with id: {}", importJobId);
+        var completed =
+                importJobQueueRepository.updateOwned(
+                        importJobId,
+                        leaseOwner,
+                        releaseLease()
+                                .set("status", ImportJobDocument.Status.COMPLETED)
+                                .set("completedAt", Instant.now())
+                                .set("transactionsPending", false)
+                                .set("writeStats", writeStats));
+        if (completed) {
+            try {
+                statisticsVersionRepository.increment();
+            } catch (RuntimeException e) {
+                // the job is completed, cached statistics expire by their time to live instead
+                log.error("Could not increment the statistics version", e);
+            }
+        }
+        return completed;
     }
 
-    public ImportJob failJob(UUID importJobId, String errorMessage) {
+    /**
+     * Fails the job, releasing its file hash so the file can be imported again.
+     *
+     * @return false if the lease was lost and the job was left unchanged
+     */
+    public boolean failJob(UUID importJobId, String leaseOwner, String errorMessage) {
         log.info(
                 "Marking import job with id: {} as FAILED with cause: {}",
                 importJobId,
                 errorMessage);
+        return importJobQueueRepository.updateOwned(
+                importJobId,
+                leaseOwner,
+                releaseLease()
+                        .set("status", ImportJobDocument.Status.FAILED)
+                        .set("errorMessage", errorMessage)
+                        // the file may be uploaded again
+                        .unset("fileHash"));
+    }
+
+    /**
+     * @param checkpoint latest checkpoint, null keeps the saved one
+     */
+    public void updateProgress(
+            UUID importJobId,
+            String leaseOwner,
+            ImportProgress progress,
+            ImportCheckpoint checkpoint) {
+        var update = new Update().set("progress", progress);
+        if (checkpoint != null) {
+            update.set("checkpoint", checkpoint);
+        }
+        if (!importJobQueueRepository.updateOwned(importJobId, leaseOwner, update)) {
+            log.warn("Progress of import job id: {} not saved, its lease was lost", importJobId);
+        }
+    }
+
+    public long countQueuedJobs() {
+        return importJobRepository.countByStatus(ImportJobDocument.Status.QUEUED);
+    }
+
+    /** Marks transactions of a failed job as removed, so they no longer need to be hidden. */
+    public void markTransactionsDiscarded(UUID importJobId) {
         var importJob =
                 importJobRepository
                         .findById(importJobId)
                         .orElseThrow(() -> new ImportJobNotFoundException(importJobId));
-        importJob.setStatus(ImportJobDocument.Status.FAILED);
-        importJob.setErrorMessage(errorMessage);
-
-        return ImportJob.from(save(importJob));
+        importJob.setTransactionsPending(false);
+        save(importJob);
     }
 
     public ImportJob getJobDtoById(UUID importJobId) {
-        return importJobRepository
-                .findById(importJobId)
-                .map(ImportJob::from)
-                .orElseThrow(() -> new ImportJobNotFoundException(importJobId));
+        var importJob =
+                importJobRepository
+                        .findById(importJobId)
+                        .orElseThrow(() -> new ImportJobNotFoundException(importJobId));
+        var importJobDto = ImportJob.from(importJob);
+        if (importJob.getStatus() != ImportJobDocument.Status.QUEUED) {
+            return importJobDto;
+        }
+        return importJobDto.withQueuePosition(
+                (int) importJobQueueRepository.queuePosition(importJob));
+    }
+
+    private static Update releaseLease() {
+        return new Update().unset("leaseOwner").unset("leaseExpiresAt");
     }
 
     private ImportJobDocument save(ImportJobDocument importJobDocument) {
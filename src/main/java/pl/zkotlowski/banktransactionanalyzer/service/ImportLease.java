@@ -0,0 +1,50 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.time.Instant;
+import java.util.UUID;
+import lombok.Getter;
+
+/**
+ * Lease on an import job held by this instance. When it is lost the worker running the import is
+ * interrupted, the job then belongs to whichever instance claims it next. Once the worker has
+ * released the lease, losing it no longer interrupts the worker, which may be cleaning up after
+ * the import or run another import by then, and the heartbeat no longer renews it.
+ */
+@Getter
+public class ImportLease {
+
+    private final UUID importJobId;
+    private final String owner;
+    private final Thread worker;
+    private volatile Instant expiresAt;
+    private volatile boolean lost;
+    // set under this, so the worker is never interrupted after the release
+    private volatile boolean released;
+
+    ImportLease(UUID importJobId, String owner, Instant expiresAt, Thread worker) {
+        this.importJobId = importJobId;
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+        this.worker = worker;
+    }
+
+    void renewed(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    synchronized void lose() {
+        if (released) {
+            return;
+        }
+        lost = true;
+        worker.interrupt();
+    }
+
+    /**
+     * Called by the worker before the job is completed or failed, which removes the lease from
+     * the job, and again when the import ended, before it claims another job.
+     */
+    synchronized void release() {
+        released = true;
+    }
+}
@@ -0,0 +1,111 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportBudgetExceededException;
+
+/**
+ * Spools uploaded CSV payloads to disk, so the request body can be consumed as a stream and the
+ * import itself can run asynchronously without keeping the file in memory.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ImportPayloadStore {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ImportProperties importProperties;
+
+    /**
+     * Copies the given stream to the spool directory, enforcing the configured byte budget. The
+     * payload only appears under its final name once it is complete, so an interrupted upload is
+     * never mistaken for a payload to resume. The payload is hashed while it is copied, so
+     * re-uploads of the same file can be recognized without reading it again.
+     *
+     * @return hex encoded SHA-256 of the stored payload
+     * @throws ImportBudgetExceededException when the payload is larger than the byte budget, the
+     *     partially written file is removed in that case
+     */
+    public String store(UUID importJobId, InputStream payload) {
+        var digest = sha256();
+        var maxBytes = importProperties.maxBytes().toBytes();
+        var target = resolve(importJobId);
+        var partial = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            Files.createDirectories(target.getParent());
+            long written = 0;
+            try (OutputStream out = Files.newOutputStream(partial)) {
+                var buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = payload.read(buffer)) != -1) {
+                    written += read;
+                    if (written > maxBytes) {
+                        throw new ImportBudgetExceededException("byte", maxBytes);
+                    }
+                    out.write(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                }
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Stored {} bytes of import payload for job id: {}", written, importJobId);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            deleteQuietly(partial);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            deleteQuietly(partial);
+            throw e;
+        }
+    }
+
+    public InputStream open(UUID importJobId) throws IOException {
+        return Files.newInputStream(resolve(importJobId));
+    }
+
+    public boolean exists(UUID importJobId) {
+        return Files.exists(resolve(importJobId));
+    }
+
+    public long size(UUID importJobId) throws IOException {
+        return Files.size(resolve(importJobId));
+    }
+
+    public void delete(UUID importJobId) {
+        deleteQuietly(resolve(importJobId));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete import payload: {}", path, e);
+        }
+    }
+
+    private Path resolve(UUID importJobId) {
+        return importProperties.spoolDirectory().resolve(importJobId + ".csv");
+    }
+}
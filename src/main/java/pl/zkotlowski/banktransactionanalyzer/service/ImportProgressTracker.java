@@ -0,0 +1,183 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportProgress;
+
+/**
+ * Collects progress counters of a single import from all pipeline stages and publishes a
+ * snapshot at most once per interval, so reporting does not add a write per batch. The latest
+ * checkpoint is published along with it.
+ */
+@Slf4j
+public class ImportProgressTracker {
+
+    private final long totalBytes;
+    private final long intervalNanos;
+    private final BiConsumer<ImportProgress, ImportCheckpoint> listener;
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder duplicateRows = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final AtomicLong nextFlushNanos;
+    private volatile ImportCheckpoint checkpoint;
+
+    // rate of the previous snapshot, guarded by flush
+    private long lastFlushNanos = startNanos;
+    private long lastRowsWritten;
+
+    /**
+     * @param totalBytes payload size, used for the ETA
+     * @param interval minimum time between two published snapshots
+     * @param listener receives the snapshots with the latest checkpoint, null if there is none yet
+     */
+    public ImportProgressTracker(
+            long totalBytes,
+            Duration interval,
+            BiConsumer<ImportProgress, ImportCheckpoint> listener) {
+        this.totalBytes = totalBytes;
+        this.intervalNanos = interval.toNanos();
+        this.listener = listener;
+        this.nextFlushNanos = new AtomicLong(startNanos + intervalNanos);
+    }
+
+    /** Tracker that only counts, used when nobody follows the progress. */
+    public static ImportProgressTracker untracked() {
+        return new ImportProgressTracker(
+                0, Duration.ofNanos(Long.MAX_VALUE), (progress, checkpoint) -> {});
+    }
+
+    /** Wraps the payload stream, counting the bytes consumed from it. */
+    public InputStream countBytes(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b != -1) {
+                    bytesRead.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                var read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytesRead.add(read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                var skipped = super.skip(n);
+                bytesRead.add(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    /** Counts the rows written before the import was resumed. */
+    public synchronized void resumedFrom(ImportCheckpoint checkpoint) {
+        rowsParsed.add(checkpoint.rowNumber());
+        rowsWritten.add(checkpoint.rowNumber());
+        lastRowsWritten = checkpoint.rowNumber();
+        this.checkpoint = checkpoint;
+    }
+
+    public void checkpoint(ImportCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public void read(long nanos) {
+        readNanos.add(nanos);
+    }
+
+    public void parsed(long rows, long nanos) {
+        rowsParsed.add(rows);
+        parseNanos.add(nanos);
+    }
+
+    /** Counts rows skipped as duplicates, they are counted as written as well. */
+    public void duplicates(long rows) {
+        duplicateRows.add(rows);
+    }
+
+    public void written(long rows, long nanos) {
+        rowsWritten.add(rows);
+        writeNanos.add(nanos);
+        flushIfDue();
+    }
+
+    /** Publishes a snapshot if the interval has passed, only one caller per interval wins. */
+    public void flushIfDue() {
+        var now = System.nanoTime();
+        var next = nextFlushNanos.get();
+        if (now - next >= 0 && nextFlushNanos.compareAndSet(next, now + intervalNanos)) {
+            flush(now);
+        }
+    }
+
+    /** Publishes the final snapshot. */
+    public void flush() {
+        flush(System.nanoTime());
+    }
+
+    private synchronized void flush(long now) {
+        var written = rowsWritten.sum();
+        var elapsedNanos = now - startNanos;
+        var sinceLastFlush = now - lastFlushNanos;
+        var rowsPerSecond =
+                sinceLastFlush > 0
+                        ? (written - lastRowsWritten) * (double) TimeUnit.SECONDS.toNanos(1)
+                                / sinceLastFlush
+                        : 0;
+        lastFlushNanos = now;
+        lastRowsWritten = written;
+
+        var read = bytesRead.sum();
+        var progress =
+                new ImportProgress(
+                        rowsParsed.sum(),
+                        written,
+                        duplicateRows.sum(),
+                        read,
+                        totalBytes,
+                        rowsPerSecond,
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                        TimeUnit.NANOSECONDS.toMillis(readNanos.sum()),
+                        TimeUnit.NANOSECONDS.toMillis(parseNanos.sum()),
+                        TimeUnit.NANOSECONDS.toMillis(writeNanos.sum()),
+                        eta(read, elapsedNanos),
+                        Instant.now());
+        try {
+            listener.accept(progress, checkpoint);
+        } catch (RuntimeException e) {
+            // progress is informational, it must not fail the import
+            log.warn("Could not publish import progress", e);
+        }
+    }
+
+    private Long eta(long read, long elapsedNanos) {
+        if (totalBytes <= 0 || read <= 0) {
+            return null;
+        }
+        var remainingBytes = Math.max(totalBytes - read, 0);
+        var remainingNanos = elapsedNanos * (remainingBytes / (double) read);
+        return TimeUnit.NANOSECONDS.toSeconds((long) remainingNanos);
+    }
+}
@@ -0,0 +1,193 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportQueueFullException;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportJob;
+
+/**
+ * Runs imports on a fixed number of workers per instance, so concurrent uploads do not compete
+ * for the database and CPU without limit. The queue itself is the import jobs collection, shared
+ * by all instances: workers claim the next job (by priority, then submission order) with a lease
+ * and renew it with heartbeats while the import runs. Jobs of an instance that stopped renewing
+ * its leases are claimed by any other instance and resumed from their checkpoint.
+ *
+ * <p>Workers are daemon threads and are not interrupted on shutdown: an import cut off by the
+ * shutdown is resumed once its lease expires.
+ */
+@Component
+@Slf4j
+public class ImportScheduler {
+
+    private final ImportProperties.Scheduler settings;
+    private final ImportJobService importJobService;
+    private final ImportJobProcessor importJobProcessor;
+
+    // identifies this instance as lease owner
+    @Getter private final String nodeId;
+
+    private final Map<UUID, ImportLease> leases = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition jobSubmitted = lock.newCondition();
+    private ScheduledExecutorService heartbeat;
+    private volatile boolean running;
+
+    public ImportScheduler(
+            ImportProperties importProperties,
+            ImportJobService importJobService,
+            ImportJobProcessor importJobProcessor) {
+        this.settings = importProperties.scheduler();
+        this.importJobService = importJobService;
+        this.importJobProcessor = importJobProcessor;
+        this.nodeId =
+                System.getenv().getOrDefault("HOSTNAME", "node")
+                        + "-"
+                        + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        var threadFactory =
+                settings.virtualThreads()
+                        ? Thread.ofVirtual().name("import-worker-", 0).factory()
+                        : Thread.ofPlatform().daemon().name("import-worker-", 0).factory();
+        for (int i = 0; i < settings.workers(); i++) {
+            threadFactory.newThread(this::work).start();
+        }
+        heartbeat =
+                Executors.newSingleThreadScheduledExecutor(
+                        Thread.ofPlatform().daemon().name("import-heartbeat").factory());
+        var interval = settings.heartbeatInterval().toMillis();
+        heartbeat.scheduleAtFixedRate(this::renewLeases, interval, interval, TimeUnit.MILLISECONDS);
+        log.info(
+                "Started {} import workers on node: {}, queue capacity: {}",
+                settings.workers(),
+                nodeId,
+                settings.queueCapacity());
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        wakeUp();
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    /**
+     * Fails fast before an upload is accepted. The limit applies to all instances together and
+     * is not exact, concurrent uploads may all pass the check.
+     *
+     * @throws ImportQueueFullException when no more jobs can be queued
+     */
+    public void checkCapacity() {
+        if (importJobService.countQueuedJobs() >= settings.queueCapacity()) {
+            throw new ImportQueueFullException(settings.queueCapacity(), settings.retryAfter());
+        }
+    }
+
+    /** Lets idle workers of this instance claim a job queued here without waiting for a poll. */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            jobSubmitted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            ImportJob importJob;
+            try {
+                importJob =
+                        importJobService
+                                .claimNextJob(nodeId, settings.leaseDuration())
+                                .orElse(null);
+            } catch (RuntimeException e) {
+                log.warn("Could not claim an import job", e);
+                importJob = null;
+            }
+            if (importJob == null) {
+                awaitJob();
+                continue;
+            }
+
+            var lease =
+                    new ImportLease(
+                            importJob.id(),
+                            nodeId,
+                            Instant.now().plus(settings.leaseDuration()),
+                            Thread.currentThread());
+            leases.put(importJob.id(), lease);
+            try {
+                importJobProcessor.processImport(importJob, lease);
+            } catch (RuntimeException e) {
+                log.error("Import job id: {} failed unexpectedly", importJob.id(), e);
+            } finally {
+                lease.release();
+                leases.remove(importJob.id());
+                // clear an interrupt caused by a lost lease, it only concerned that import, a
+                // lease lost after its release no longer interrupts
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void awaitJob() {
+        lock.lock();
+        try {
+            if (running) {
+                jobSubmitted.await(settings.pollInterval().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Renews the leases of imports running here. A lease is given up when another instance has
+     * taken it over, or when it could not be renewed before it expired, in which case another
+     * instance may claim the job any moment. Released leases are skipped, their job is finishing
+     * and no longer holds a lease to renew.
+     */
+    private void renewLeases() {
+        for (var lease : leases.values()) {
+            if (lease.isReleased()) {
+                continue;
+            }
+            try {
+                if (importJobService.renewLease(
+                        lease.getImportJobId(), nodeId, settings.leaseDuration())) {
+                    lease.renewed(Instant.now().plus(settings.leaseDuration()));
+                    continue;
+                }
+                log.warn("Lease of import job id: {} was taken over", lease.getImportJobId());
+            } catch (RuntimeException e) {
+                log.warn("Could not renew lease of import job id: {}", lease.getImportJobId(), e);
+                if (Instant.now().isBefore(lease.getExpiresAt())) {
+                    continue;
+                }
+            }
+            lease.lose();
+        }
+    }
+}
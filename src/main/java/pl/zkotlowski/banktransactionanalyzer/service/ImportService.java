@@ -1,9 +1,15 @@
 package pl.zkotlowski.banktransactionanalyzer.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import pl.zkotlowski.banktransactionanalyzer.exception.DuplicateImportException;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportQueueFullException;
 import pl.zkotlowski.banktransactionanalyzer.model.ImportJob;
 
 @Service
@@ -12,11 +18,40 @@ import pl.zkotlowski.banktransactionanalyzer.model.ImportJob;
 public class ImportService {
 
     private final ImportJobService importJobService;
-    private final ImportJobProcessor importJobProcessor;
+    private final ImportPayloadStore importPayloadStore;
+    private final ImportScheduler importScheduler;
 
-    public ImportJob processImport(MultipartFile multipartFile) {
-        var importJob = importJobService.createNewJob();
-        importJobProcessor.processImportAsync(importJob, multipartFile);
+    public ImportJob processImport(MultipartFile multipartFile, int priority) {
+        try (var inputStream = multipartFile.getInputStream()) {
+            return processImport(inputStream, priority);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Spools the CSV stream to the payload store and queues its import. The stream is consumed
+     * before this method returns, the import itself runs on an import worker of any instance.
+     *
+     * @param priority queued jobs with a higher priority run first
+     * @throws ImportQueueFullException when the import queue is full, checked before the upload
+     *     is consumed
+     * @throws DuplicateImportException when the same file was already uploaded, unless its import
+     *     failed
+     */
+    public ImportJob processImport(InputStream csvStream, int priority) {
+        importScheduler.checkCapacity();
+        var importJobId = UUID.randomUUID();
+        // the job is queued only once its payload is stored, workers never claim a job without one
+        var fileHash = importPayloadStore.store(importJobId, csvStream);
+        ImportJob importJob;
+        try {
+            importJob = importJobService.createNewJob(importJobId, priority, fileHash);
+        } catch (RuntimeException e) {
+            importPayloadStore.delete(importJobId);
+            throw e;
+        }
+        importScheduler.wakeUp();
         return importJob;
     }
 }
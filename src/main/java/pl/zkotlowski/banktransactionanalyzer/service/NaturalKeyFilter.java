@@ -0,0 +1,111 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionIngestRepository;
+
+/**
+ * Bloom filter over the natural keys of stored transactions, so imports only look up the few rows
+ * that may be duplicates instead of every row. A key missing from the filter is new, a key found
+ * in it is looked up in the database.
+ *
+ * <p>The filter is loaded from the natural key index in the background on startup and is not
+ * used until then. It only knows the keys written by this instance after loading, keys written by
+ * other instances are still rejected by the unique index.
+ */
+@Component
+@Slf4j
+public class NaturalKeyFilter {
+
+    private final TransactionIngestRepository transactionIngestRepository;
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private volatile boolean ready;
+
+    public NaturalKeyFilter(
+            TransactionIngestRepository transactionIngestRepository,
+            ImportProperties importProperties) {
+        this.transactionIngestRepository = transactionIngestRepository;
+        var dedupe = importProperties.dedupe();
+        var expectedKeys = Math.max(dedupe.expectedKeys(), 1);
+        var optimalBits =
+                -expectedKeys * Math.log(dedupe.falsePositiveRate()) / (Math.log(2) * Math.log(2));
+        this.bits = new AtomicLongArray((int) Math.ceil(optimalBits / Long.SIZE));
+        this.bitCount = (long) bits.length() * Long.SIZE;
+        var optimalHashes = (double) bitCount / expectedKeys * Math.log(2);
+        this.hashCount = Math.max((int) Math.round(optimalHashes), 1);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void load() {
+        Thread.ofPlatform().daemon().name("natural-key-filter").start(this::loadKeys);
+    }
+
+    private void loadKeys() {
+        var start = System.nanoTime();
+        var keys = new LongAdder();
+        try {
+            transactionIngestRepository.forEachNaturalKey(
+                    naturalKey -> {
+                        add(naturalKey);
+                        keys.increment();
+                    });
+            ready = true;
+            log.info(
+                    "Loaded {} natural keys into duplicate filter in {} ms, bits: {}, hashes: {}",
+                    keys.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    bitCount,
+                    hashCount);
+        } catch (RuntimeException e) {
+            // duplicates are still rejected by the unique index, only without the pre-check
+            log.warn("Could not load the duplicate filter, it stays disabled", e);
+        }
+    }
+
+    /**
+     * @return false until the stored keys are loaded, the filter must not be consulted before
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return false if the key is certainly not stored
+     */
+    public boolean mightContain(UUID naturalKey) {
+        var hash = naturalKey.getMostSignificantBits();
+        var step = naturalKey.getLeastSignificantBits() | 1;
+        for (int i = 0; i < hashCount; i++) {
+            var bit = Math.floorMod(hash, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += step;
+        }
+        return true;
+    }
+
+    public void add(UUID naturalKey) {
+        // keys are MD5 based, their halves serve as the two hashes of double hashing
+        var hash = naturalKey.getMostSignificantBits();
+        var step = naturalKey.getLeastSignificantBits() | 1;
+        for (int i = 0; i < hashCount; i++) {
+            var bit = Math.floorMod(hash, bitCount);
+            var mask = 1L << bit;
+            var word = (int) (bit >>> 6);
+            if ((bits.get(word) & mask) == 0) {
+                bits.getAndUpdate(word, value -> value | mask);
+            }
+            hash += step;
+        }
+    }
+}
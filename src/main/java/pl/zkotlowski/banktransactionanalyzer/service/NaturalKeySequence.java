@@ -0,0 +1,133 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/**
+ * Assigns natural keys to the rows of one import. A natural key is derived from the row values
+ * (iban, date, currency, category, amount) and the occurrence index of those values in the file,
+ * so identical rows within a file stay distinct while the same row uploaded again, in the same or
+ * an overlapping export, gets the same key.
+ *
+ * <p>Occurrence indexes follow the file order: chunks are parsed in parallel, but their keys are
+ * assigned one chunk after another in the order they were read.
+ */
+final class NaturalKeySequence {
+
+    private static final long WAIT_MS = 100;
+
+    // spreads occurrence indexes over the key bits, see naturalKey
+    private static final long OCCURRENCE_MIX = 0x9E3779B97F4A7C15L;
+
+    private final OccurrenceCounter occurrences = new OccurrenceCounter();
+    private long nextChunk;
+
+    /**
+     * Key of the row values without the occurrence index. Category is the only free text column,
+     * so it goes last and the separator cannot make two different rows look the same.
+     */
+    static UUID valuesKey(Transaction transaction) {
+        var values =
+                transaction.iban()
+                        + '|'
+                        + transaction.date()
+                        + '|'
+                        + transaction.currency()
+                        + '|'
+                        + transaction.amount().stripTrailingZeros().toPlainString()
+                        + '|'
+                        + (transaction.category() == null ? "" : transaction.category());
+        return UUID.nameUUIDFromBytes(values.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static UUID naturalKey(UUID valuesKey, int occurrence) {
+        return new UUID(
+                valuesKey.getMostSignificantBits(),
+                valuesKey.getLeastSignificantBits() ^ (occurrence * OCCURRENCE_MIX));
+    }
+
+    /** Counts a row imported before the import was resumed, in file order. */
+    synchronized void replay(UUID valuesKey) {
+        occurrences.next(valuesKey);
+    }
+
+    /**
+     * Assigns natural keys to the rows of a chunk once the keys of all chunks before it are
+     * assigned.
+     *
+     * @param chunk index of the chunk in read order, starting at 0
+     * @param valuesKeys {@link #valuesKey} of the chunk rows, in file order
+     * @param cancelled stops waiting for the previous chunks
+     * @return natural keys of the rows, null if cancelled
+     */
+    synchronized List<UUID> assign(long chunk, List<UUID> valuesKeys, BooleanSupplier cancelled)
+            throws InterruptedException {
+        while (chunk != nextChunk) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            wait(WAIT_MS);
+        }
+        var naturalKeys = new ArrayList<UUID>(valuesKeys.size());
+        for (var valuesKey : valuesKeys) {
+            naturalKeys.add(naturalKey(valuesKey, occurrences.next(valuesKey)));
+        }
+        nextChunk++;
+        notifyAll();
+        return naturalKeys;
+    }
+
+    /**
+     * Open addressing map from 64 bits of the values key to the number of its occurrences, about
+     * 24 bytes per distinct row instead of the ~100 of a boxed HashMap entry. Two values sharing
+     * the 64 bits only share their occurrence indexes, which stay deterministic for a given file.
+     */
+    private static final class OccurrenceCounter {
+
+        private long[] keys = new long[1 << 12];
+        private int[] counts = new int[keys.length];
+        private int size;
+
+        private int next(UUID valuesKey) {
+            // 0 marks a free slot
+            var key = valuesKey.getMostSignificantBits() | 1;
+            var mask = keys.length - 1;
+            var slot = (int) (key ^ (key >>> 32)) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                counts[slot] = 1;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                return 0;
+            }
+            return counts[slot]++;
+        }
+
+        private void grow() {
+            var oldKeys = keys;
+            var oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[keys.length];
+            var mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) {
+                    continue;
+                }
+                var slot = (int) (oldKeys[i] ^ (oldKeys[i] >>> 32)) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import pl.zkotlowski.banktransactionanalyzer.configuration.StatisticsCacheProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistribution;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctIbanCount;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TopSpentBy;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.response.StatisticsCacheStats;
+
+/**
+ * Results of statistics queries, each tagged with the statistics version it was computed for. A
+ * result is only returned for the same version, so it is never served once an import completed
+ * after it was computed. The cache is bounded by the estimated size of its results, the least
+ * recently used ones are evicted first.
+ */
+@Component
+public class StatisticsCache {
+
+    // rough per entry overhead of the key, the map node and the entry itself
+    private static final long ENTRY_BYTES = 200;
+    private static final long TOP_SPENT_BYTES = 120;
+    private static final long BALANCE_BYTES = 120;
+    private static final long DISTRIBUTION_BYTES = 300;
+    // a percentile or histogram bin
+    private static final long DISTRIBUTION_ENTRY_BYTES = 100;
+    private static final long DISTINCT_IBANS_BYTES = 80;
+
+    private final long maxBytes;
+    private final long timeToLiveNanos;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public StatisticsCache(StatisticsCacheProperties statisticsCacheProperties) {
+        this.maxBytes = statisticsCacheProperties.maxSize().toBytes();
+        this.timeToLiveNanos = statisticsCacheProperties.timeToLive().toNanos();
+    }
+
+    /**
+     * Returns the result cached for the key and version, or computes and caches it. Results are
+     * computed outside the lock, concurrent misses of the same key are left to {@link
+     * StatisticsCoalescer}.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(Key key, long version, Supplier<T> compute) {
+        var now = System.nanoTime();
+        synchronized (this) {
+            var entry = entries.get(key);
+            if (entry != null && entry.version() == version && now < entry.expiresAt()) {
+                hits.increment();
+                return (T) entry.value();
+            }
+        }
+        misses.increment();
+        var value = compute.get();
+        put(key, new Entry(value, version, now + timeToLiveNanos, estimateBytes(key, value)));
+        return value;
+    }
+
+    /**
+     * Returns the results cached for the keys and version, the missing ones are computed together
+     * and cached.
+     *
+     * @param computeMisses computes the results of the given distinct keys, in their order
+     * @return results in the order of the keys
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> getAll(List<Key> keys, long version, Function<List<Key>, List<T>> computeMisses) {
+        var now = System.nanoTime();
+        var values = new HashMap<Key, Object>();
+        var missing = new LinkedHashSet<Key>();
+        synchronized (this) {
+            for (var key : keys) {
+                var entry = entries.get(key);
+                if (entry != null && entry.version() == version && now < entry.expiresAt()) {
+                    hits.increment();
+                    values.put(key, entry.value());
+                } else if (!values.containsKey(key)) {
+                    missing.add(key);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            misses.add(missing.size());
+            var missingKeys = List.copyOf(missing);
+            var computed = computeMisses.apply(missingKeys);
+            for (int i = 0; i < missingKeys.size(); i++) {
+                var key = missingKeys.get(i);
+                var value = computed.get(i);
+                values.put(key, value);
+                var expiresAt = now + timeToLiveNanos;
+                put(key, new Entry(value, version, expiresAt, estimateBytes(key, value)));
+            }
+        }
+        var results = new ArrayList<T>(keys.size());
+        for (var key : keys) {
+            results.add((T) values.get(key));
+        }
+        return results;
+    }
+
+    public StatisticsCacheStats stats() {
+        synchronized (this) {
+            return new StatisticsCacheStats(
+                    hits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+        }
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        var previous = entries.get(key);
+        if (previous != null && previous.version() > entry.version()) {
+            // computed concurrently for a newer version, which is kept
+            return;
+        }
+        if (previous != null) {
+            bytes -= previous.bytes();
+        }
+        entries.put(key, entry);
+        bytes += entry.bytes();
+        var iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            var eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.bytes();
+            evictions.increment();
+        }
+    }
+
+    private static long estimateBytes(Key key, Object value) {
+        var bytes = ENTRY_BYTES + 2L * key.argument().length() + 2L * key.currency().length();
+        if (value instanceof List<?> list) {
+            for (var item : list) {
+                bytes +=
+                        switch (item) {
+                            case TopSpentBy topSpent -> TOP_SPENT_BYTES
+                                    + textBytes(topSpent.attribute());
+                            case AmountDistribution distribution -> DISTRIBUTION_BYTES
+                                    + textBytes(distribution.attribute())
+                                    + DISTRIBUTION_ENTRY_BYTES
+                                            * (distribution.percentiles().size()
+                                                    + distribution.histogram().size());
+                            case DistinctIbanCount count -> DISTINCT_IBANS_BYTES
+                                    + textBytes(count.attribute());
+                            default -> 0;
+                        };
+            }
+        } else if (value != null) {
+            bytes += BALANCE_BYTES;
+        }
+        return bytes;
+    }
+
+    private static long textBytes(String text) {
+        return text == null ? 0 : 2L * text.length();
+    }
+
+    /**
+     * @param argument result size of the most spent, value of the balance, range and percentiles
+     *     of the distribution, range and mode of the distinct IBANs
+     */
+    record Key(
+            String endpoint,
+            TransactionFilterByAttribute attribute,
+            String argument,
+            String currency) {}
+
+    private record Entry(Object value, long version, long expiresAt, long bytes) {}
+}
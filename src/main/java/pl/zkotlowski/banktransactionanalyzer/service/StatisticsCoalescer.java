@@ -0,0 +1,172 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import pl.zkotlowski.banktransactionanalyzer.configuration.StatisticsCoalescingProperties;
+import pl.zkotlowski.banktransactionanalyzer.exception.StatisticsTimeoutException;
+import pl.zkotlowski.banktransactionanalyzer.model.response.StatisticsCoalescingStats;
+
+/**
+ * Shares one computation among concurrent requests for the same statistic and version (single
+ * flight), so a dashboard refreshed by many users at once runs each aggregation once. Unlike the
+ * {@link StatisticsCache} it keeps nothing once computed, it also applies with the cache
+ * disabled or to results evicted from it.
+ *
+ * <p>Computations run on their own virtual threads while requests wait for them up to the
+ * timeout. A computation no request waits for anymore, after a timeout or an interruption, is
+ * cancelled by interrupting its thread, a later request for the same statistic starts a new one.
+ */
+@Component
+public class StatisticsCoalescer {
+
+    private final StatisticsCoalescingProperties statisticsCoalescingProperties;
+    private final ConcurrentHashMap<Flight, InFlight<?>> flights = new ConcurrentHashMap<>();
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("statistics-", 0).factory());
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+
+    public StatisticsCoalescer(StatisticsCoalescingProperties statisticsCoalescingProperties) {
+        this.statisticsCoalescingProperties = statisticsCoalescingProperties;
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the result of the computation in flight for the key and version, or starts it.
+     *
+     * @param key identifies the statistic, e.g. its cache key
+     * @throws StatisticsTimeoutException if the result is not computed within the timeout
+     */
+    @SuppressWarnings("unchecked")
+    <T> T coalesce(Object key, long version, Supplier<T> compute) {
+        if (!statisticsCoalescingProperties.enabled()) {
+            executed.increment();
+            return compute.get();
+        }
+        var flight = new Flight(key, version);
+        while (true) {
+            var started = new InFlight<T>();
+            var inFlight = (InFlight<T>) flights.putIfAbsent(flight, started);
+            if (inFlight == null) {
+                executed.increment();
+                started.start(executor, compute, () -> flights.remove(flight, started));
+                return await(flight, started);
+            }
+            if (inFlight.join()) {
+                coalesced.increment();
+                return await(flight, inFlight);
+            }
+            // cancelled by its last request, a new computation replaces it
+            flights.remove(flight, inFlight);
+        }
+    }
+
+    public StatisticsCoalescingStats stats() {
+        return new StatisticsCoalescingStats(
+                executed.sum(), coalesced.sum(), timedOut.sum(), cancelled.sum(), flights.size());
+    }
+
+    private <T> T await(Flight flight, InFlight<T> inFlight) {
+        var timeout = statisticsCoalescingProperties.timeout();
+        try {
+            var result = inFlight.result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            inFlight.leave();
+            return result;
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            leave(flight, inFlight);
+            throw new StatisticsTimeoutException(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            leave(flight, inFlight);
+            throw new CancellationException("Interrupted while waiting for statistics.");
+        } catch (ExecutionException e) {
+            inFlight.leave();
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void leave(Flight flight, InFlight<?> inFlight) {
+        if (inFlight.leave()) {
+            cancelled.increment();
+            flights.remove(flight, inFlight);
+        }
+    }
+
+    private record Flight(Object key, long version) {}
+
+    /** A computation and the number of requests waiting for it. */
+    private static final class InFlight<T> {
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // the request that started the computation waits for it as well
+        private int waiters = 1;
+        private boolean cancelled;
+        private Future<?> task;
+
+        private synchronized void start(
+                ExecutorService executor, Supplier<T> compute, Runnable onDone) {
+            task =
+                    executor.submit(
+                            () -> {
+                                try {
+                                    result.complete(compute.get());
+                                } catch (Throwable e) {
+                                    result.completeExceptionally(e);
+                                } finally {
+                                    onDone.run();
+                                }
+                            });
+        }
+
+        /**
+         * @return false if the computation was cancelled, it cannot be joined anymore
+         */
+        private synchronized boolean join() {
+            if (cancelled) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * @return true if this was the last request waiting and the computation was cancelled
+         */
+        private synchronized boolean leave() {
+            waiters--;
+            if (waiters > 0 || result.isDone()) {
+                return false;
+            }
+            cancelled = true;
+            task.cancel(true);
+            result.cancel(false);
+            return true;
+        }
+    }
+}
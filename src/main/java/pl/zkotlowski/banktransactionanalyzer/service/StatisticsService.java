@@ -1,14 +1,31 @@
 package pl.zkotlowski.banktransactionanalyzer.service;
 
+import java.time.LocalDate;
 import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import pl.zkotlowski.banktransactionanalyzer.exception.FeatureNotImplementedException;
+import pl.zkotlowski.banktransactionanalyzer.configuration.DistinctCountProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistribution;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistributionQuery;
 import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceGranularity;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalancePoint;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceSeriesQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctIbanCount;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctIbanQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctSketch;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.StatisticsMetric;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.StatisticsMetricResult;
 import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TopSpentBy;
 import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.response.StatisticsCacheStats;
+import pl.zkotlowski.banktransactionanalyzer.model.response.StatisticsCoalescingStats;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsVersionRepository;
 import pl.zkotlowski.banktransactionanalyzer.repository.TransactionAggregationRepository;
 
 @Service
@@ -16,36 +33,209 @@ import pl.zkotlowski.banktransactionanalyzer.repository.TransactionAggregationRe
 @Slf4j
 public class StatisticsService {
 
+    private static final int MAX_BATCH_METRICS = 100;
+
     private final TransactionAggregationRepository transactionAggregationRepository;
+    private final ColumnarStatisticsEngine columnarStatisticsEngine;
+    private final StatisticsVersionRepository statisticsVersionRepository;
+    private final StatisticsCache statisticsCache;
+    private final StatisticsCoalescer statisticsCoalescer;
+    private final DistinctCountProperties distinctCountProperties;
+
+    /**
+     * @return version of the data statistics are currently computed from, changes whenever an
+     *     import is completed
+     */
+    public long getCurrentVersion() {
+        return statisticsVersionRepository.current();
+    }
 
+    /**
+     * @param version current version, as returned by {@link #getCurrentVersion()}
+     */
     public List<TopSpentBy> getMostSpentByAttribute(
-            TransactionFilterByAttribute attribute, int topN, String currency) {
-        switch (attribute) {
-            case IBAN, CURRENCY, DATE -> throw new FeatureNotImplementedException();
-            case CATEGORY -> {
-                return getTopCategoriesSpendAggregation(topN, currency);
-            }
-            case YEAR_MONTH -> {
-                return getTopYearMonthSpendAggregation(topN, currency);
-            }
-        }
-        return List.of();
+            TransactionFilterByAttribute attribute, int topN, String currency, long version) {
+        var key = mostSpentKey(attribute, topN, currency);
+        return statisticsCache.get(
+                key,
+                version,
+                () ->
+                        statisticsCoalescer.coalesce(
+                                key,
+                                version,
+                                () ->
+                                        computeMostSpentByAttribute(
+                                                attribute, topN, currency, version)));
     }
 
+    /**
+     * @param version current version, as returned by {@link #getCurrentVersion()}
+     */
     public BalanceByAttribute getBalanceByAttribute(
-            TransactionFilterByAttribute attribute, String value, String currency) {
+            TransactionFilterByAttribute attribute, String value, String currency, long version) {
+        var key = balanceKey(attribute, value, currency);
+        return statisticsCache.get(
+                key,
+                version,
+                () ->
+                        statisticsCoalescer.coalesce(
+                                key,
+                                version,
+                                () ->
+                                        computeBalanceByAttribute(
+                                                attribute, value, currency, version)));
+    }
+
+    /**
+     * @param version current version, as returned by {@link #getCurrentVersion()}
+     * @return distribution per value of the attribute, ordered by value with null first
+     */
+    public List<AmountDistribution> getDistribution(AmountDistributionQuery query, long version) {
+        var key =
+                new StatisticsCache.Key(
+                        "distribution",
+                        query.groupBy(),
+                        query.from() + ".." + query.to() + " " + query.percentiles(),
+                        query.currency());
+        return statisticsCache.get(
+                key,
+                version,
+                () ->
+                        statisticsCoalescer.coalesce(
+                                key, version, () -> computeDistribution(query, version)));
+    }
+
+    /**
+     * Estimates the distinct IBANs from the sketches stored per month, or counts them exactly
+     * from the rollups for ranges of at most {@code distinct-count.exact-max-months} months.
+     *
+     * @param version current version, as returned by {@link #getCurrentVersion()}
+     * @return counts per value of the attribute, ordered by value with null first
+     */
+    public List<DistinctIbanCount> getDistinctIbans(DistinctIbanQuery query, long version) {
+        var exactMaxMonths = distinctCountProperties.exactMaxMonths();
+        if (query.exact() && (query.months() < 0 || query.months() > exactMaxMonths)) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Exact distinct IBANs need a range of at most %d months.",
+                            exactMaxMonths));
+        }
+        var key =
+                new StatisticsCache.Key(
+                        "distinct-ibans",
+                        query.groupBy(),
+                        query.from() + ".." + query.to() + (query.exact() ? " exact" : ""),
+                        query.currency());
+        return statisticsCache.get(
+                key,
+                version,
+                () ->
+                        statisticsCoalescer.coalesce(
+                                key, version, () -> computeDistinctIbans(query)));
+    }
+
+    /**
+     * Answers all metrics of a batch. Cached results are reused, the missing ones are computed
+     * together: by the columnar engine if it caught up with the version, else in one pass over
+     * each collection they are aggregated from.
+     *
+     * @param version current version, as returned by {@link #getCurrentVersion()}
+     * @return results in the order of the metrics
+     */
+    @SuppressWarnings("unchecked")
+    public List<StatisticsMetricResult> getBatch(List<StatisticsMetric> metrics, long version) {
+        if (metrics == null || metrics.isEmpty() || metrics.size() > MAX_BATCH_METRICS) {
+            throw new IllegalArgumentException(
+                    String.format("A batch needs 1 to %d metrics.", MAX_BATCH_METRICS));
+        }
+        for (int i = 0; i < metrics.size(); i++) {
+            validate(i, metrics.get(i));
+        }
+        var keys = metrics.stream().map(StatisticsService::cacheKey).toList();
+        var metricsByKey = new HashMap<StatisticsCache.Key, StatisticsMetric>();
+        for (int i = 0; i < metrics.size(); i++) {
+            metricsByKey.putIfAbsent(keys.get(i), metrics.get(i));
+        }
+        var values =
+                statisticsCache.getAll(
+                        keys,
+                        version,
+                        // identical batches missing the same results share their computation
+                        missing ->
+                                statisticsCoalescer.coalesce(
+                                        missing,
+                                        version,
+                                        () ->
+                                                computeBatch(
+                                                        missing.stream()
+                                                                .map(metricsByKey::get)
+                                                                .toList(),
+                                                        version)));
+        var results = new ArrayList<StatisticsMetricResult>(metrics.size());
+        for (int i = 0; i < metrics.size(); i++) {
+            var metric = metrics.get(i);
+            var value = values.get(i);
+            results.add(
+                    metric.type() == StatisticsMetric.Type.MOST_SPENT
+                            ? new StatisticsMetricResult(metric, (List<TopSpentBy>) value, null)
+                            : new StatisticsMetricResult(
+                                    metric, null, (BalanceByAttribute) value));
+        }
+        return results;
+    }
+
+    /**
+     * Streams the balance of every bucket of the series in order, buckets without transactions
+     * with zero expenses and income. The buckets with transactions are aggregated before the
+     * first point is passed on, so the consumer runs without holding a query permit.
+     */
+    public void streamBalanceSeries(BalanceSeriesQuery query, Consumer<BalancePoint> consumer) {
+        var normalizedQuery =
+                new BalanceSeriesQuery(
+                        query.from(),
+                        query.to(),
+                        query.granularity(),
+                        query.currency(),
+                        query.iban() == null
+                                ? null
+                                : normalize(TransactionFilterByAttribute.IBAN, query.iban()),
+                        query.category());
+        var gapFiller = new GapFiller(query.granularity(), query.from(), consumer);
+        transactionAggregationRepository
+                .aggregateBalanceBuckets(normalizedQuery)
+                .forEach(gapFiller);
+        gapFiller.fillUntil(query.granularity().next(query.granularity().truncate(query.to())));
+    }
+
+    public StatisticsCacheStats getCacheStats() {
+        return statisticsCache.stats();
+    }
+
+    public StatisticsCoalescingStats getCoalescingStats() {
+        return statisticsCoalescer.stats();
+    }
+
+    // each statistic is answered by the columnar engine once it caught up with the version, by
+    // Mongo until then
+    private List<TopSpentBy> computeMostSpentByAttribute(
+            TransactionFilterByAttribute attribute, int topN, String currency, long version) {
+        var columns = columnarStatisticsEngine.loadedColumns(version);
+        if (columns.isPresent()) {
+            return columns.get().topSpent(attribute, topN, currency);
+        }
+        return transactionAggregationRepository.aggregateTopSpent(attribute, topN, currency);
+    }
+
+    private BalanceByAttribute computeBalanceByAttribute(
+            TransactionFilterByAttribute attribute, String value, String currency, long version) {
         try {
-            switch (attribute) {
-                case IBAN -> {
-                    return getBalanceByIban(value, currency);
-                }
-                case YEAR_MONTH -> {
-                    return getBalanceByYearMonth(value, currency);
-                }
-                case CATEGORY, DATE, CURRENCY -> throw new FeatureNotImplementedException();
-                default -> throw new IllegalArgumentException(
-                        String.format("Invalid attribute to get balance by: %s", attribute));
+            var normalizedValue = normalize(attribute, value);
+            var columns = columnarStatisticsEngine.loadedColumns(version);
+            if (columns.isPresent()) {
+                return columns.get().balance(attribute, normalizedValue, currency);
             }
+            return transactionAggregationRepository.aggregateBalance(
+                    attribute, normalizedValue, currency);
         } catch (Exception e) {
             log.error("Error getting balance by attribute {}: {}", attribute, e.getMessage());
             throw e;
@@ -53,23 +243,157 @@ public class StatisticsService {
         }
     }
 
-    private List<TopSpentBy> getTopCategoriesSpendAggregation(int topN, String currency) {
-        return transactionAggregationRepository.aggregateTopSpentCategories(topN, currency);
+    private List<AmountDistribution> computeDistribution(
+            AmountDistributionQuery query, long version) {
+        var columns = columnarStatisticsEngine.loadedColumns(version);
+        var sketches =
+                columns.isPresent()
+                        ? columns.get().distribution(query)
+                        : transactionAggregationRepository.aggregateDistribution(query);
+        var distributions = new ArrayList<AmountDistribution>(sketches.size());
+        sketches.forEach(
+                (attribute, sketch) ->
+                        distributions.add(
+                                AmountDistribution.of(attribute, sketch, query.percentiles())));
+        return distributions;
+    }
+
+    private List<DistinctIbanCount> computeDistinctIbans(DistinctIbanQuery query) {
+        var counts = new ArrayList<DistinctIbanCount>();
+        if (query.exact()) {
+            transactionAggregationRepository
+                    .aggregateDistinctIbans(query)
+                    .forEach(
+                            (attribute, ibans) ->
+                                    counts.add(new DistinctIbanCount(attribute, ibans, 0)));
+        } else {
+            transactionAggregationRepository
+                    .aggregateIbanSketches(query)
+                    .forEach(
+                            (attribute, sketch) ->
+                                    counts.add(
+                                            new DistinctIbanCount(
+                                                    attribute,
+                                                    sketch.estimate(),
+                                                    DistinctSketch.standardError(
+                                                            sketch.precision()))));
+        }
+        return counts;
+    }
+
+    private List<Object> computeBatch(List<StatisticsMetric> metrics, long version) {
+        var normalizedMetrics =
+                metrics.stream()
+                        .map(
+                                metric ->
+                                        new StatisticsMetric(
+                                                metric.type(),
+                                                metric.filterBy(),
+                                                metric.resultSize(),
+                                                metric.type() == StatisticsMetric.Type.BALANCE
+                                                        ? normalize(
+                                                                metric.filterBy(), metric.value())
+                                                        : null,
+                                                metric.currency()))
+                        .toList();
+        var columns = columnarStatisticsEngine.loadedColumns(version);
+        if (columns.isPresent()) {
+            var loaded = columns.get();
+            // each metric is a scan in memory, which costs less than a round trip to Mongo
+            return normalizedMetrics.stream()
+                    .map(
+                            metric ->
+                                    metric.type() == StatisticsMetric.Type.MOST_SPENT
+                                            ? loaded.topSpent(
+                                                    metric.filterBy(),
+                                                    metric.resultSize(),
+                                                    metric.currency())
+                                            : (Object)
+                                                    loaded.balance(
+                                                            metric.filterBy(),
+                                                            metric.value(),
+                                                            metric.currency()))
+                    .toList();
+        }
+        return transactionAggregationRepository.aggregateBatch(normalizedMetrics).stream()
+                .map(
+                        result ->
+                                result.metric().type() == StatisticsMetric.Type.MOST_SPENT
+                                        ? result.mostSpent()
+                                        : (Object) result.balance())
+                .toList();
     }
 
-    private List<TopSpentBy> getTopYearMonthSpendAggregation(int topN, String currency) {
-        return transactionAggregationRepository.aggregateTopSpentYearMonth(topN, currency);
+    private static StatisticsCache.Key cacheKey(StatisticsMetric metric) {
+        return metric.type() == StatisticsMetric.Type.MOST_SPENT
+                ? mostSpentKey(metric.filterBy(), metric.resultSize(), metric.currency())
+                : balanceKey(metric.filterBy(), metric.value(), metric.currency());
     }
 
-    private BalanceByAttribute getBalanceByYearMonth(String rawYearMonth, String currency) {
-        var yearMonth = YearMonth.parse(rawYearMonth);
-        return transactionAggregationRepository.aggregateBalanceByYearMonth(yearMonth, currency);
+    private static void validate(int index, StatisticsMetric metric) {
+        if (metric == null
+                || metric.type() == null
+                || metric.filterBy() == null
+                || metric.currency() == null) {
+            throw new IllegalArgumentException(
+                    String.format("Metric %d needs a type, filterBy and currency.", index));
+        }
+        if (metric.type() == StatisticsMetric.Type.MOST_SPENT
+                && (metric.resultSize() == null || metric.resultSize() < 1)) {
+            throw new IllegalArgumentException(
+                    String.format("Metric %d needs a positive resultSize.", index));
+        }
+        if (metric.type() == StatisticsMetric.Type.BALANCE && metric.value() == null) {
+            throw new IllegalArgumentException(String.format("Metric %d needs a value.", index));
+        }
+    }
+
+    private static StatisticsCache.Key mostSpentKey(
+            TransactionFilterByAttribute attribute, int topN, String currency) {
+        return new StatisticsCache.Key("most-spent", attribute, String.valueOf(topN), currency);
     }
 
-    private BalanceByAttribute getBalanceByIban(String iban, String currency) {
-        iban =
-                iban.replaceAll("\\s+", "")
-                        .toUpperCase(); // clean up input to match the one in database
-        return transactionAggregationRepository.aggregateBalanceByIban(iban, currency);
+    private static StatisticsCache.Key balanceKey(
+            TransactionFilterByAttribute attribute, String value, String currency) {
+        return new StatisticsCache.Key("balance", attribute, value, currency);
+    }
+
+    // clean up input to match the one in database
+    private static String normalize(TransactionFilterByAttribute attribute, String value) {
+        return switch (attribute) {
+            case IBAN -> value.replaceAll("\\s+", "").toUpperCase();
+            case YEAR_MONTH -> YearMonth.parse(value).toString();
+            case DATE -> LocalDate.parse(value).toString();
+            case CATEGORY, CURRENCY -> value;
+        };
+    }
+
+    /** Passes on the buckets of a series, preceded by the empty buckets missing before each. */
+    private static final class GapFiller implements Consumer<BalancePoint> {
+
+        private final BalanceGranularity granularity;
+        private final Consumer<BalancePoint> consumer;
+        private LocalDate next;
+
+        private GapFiller(
+                BalanceGranularity granularity, LocalDate from, Consumer<BalancePoint> consumer) {
+            this.granularity = granularity;
+            this.consumer = consumer;
+            this.next = granularity.truncate(from);
+        }
+
+        @Override
+        public void accept(BalancePoint point) {
+            fillUntil(point.bucket());
+            consumer.accept(point);
+            next = granularity.next(point.bucket());
+        }
+
+        private void fillUntil(LocalDate bucket) {
+            while (next.isBefore(bucket)) {
+                consumer.accept(BalancePoint.empty(next));
+                next = granularity.next(next);
+            }
+        }
     }
 }
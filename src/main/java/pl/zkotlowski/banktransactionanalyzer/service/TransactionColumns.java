@@ -0,0 +1,588 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+import pl.zkotlowski.banktransactionanalyzer.model.MinorUnits;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistributionQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountSketch;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TopSpentBy;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Transactions held as primitive columns: amounts in minor units, dates as epoch days and IBAN,
+ * category and currency as ids of their dictionaries. Queries scan the columns in slices on the
+ * given pool and only allocate one accumulator per slice, never per row. Their results are the
+ * same as those of the Mongo aggregations built by {@code StatisticsPipelineBuilder}.
+ *
+ * <p>Rows are appended by a single writer and become visible to queries once published. Each
+ * query reads the rows published when it started, rows are never changed once written.
+ */
+final class TransactionColumns {
+
+    private static final int NULL_ID = 0;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final Comparator<String> ATTRIBUTE_ORDER =
+            Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int minSliceRows;
+
+    private final Dictionary ibans = new Dictionary();
+    private final Dictionary categories = new Dictionary();
+    private final Dictionary currencies = new Dictionary();
+    private long[] amounts = new long[INITIAL_CAPACITY];
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+    private int[] ibanIds = new int[INITIAL_CAPACITY];
+    private int[] categoryIds = new int[INITIAL_CAPACITY];
+    private int[] currencyIds = new int[INITIAL_CAPACITY];
+    private int size;
+    private int minDay = Integer.MAX_VALUE;
+    private int maxDay = Integer.MIN_VALUE;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param minSliceRows scans of fewer rows per thread stay on the calling thread
+     */
+    TransactionColumns(ForkJoinPool pool, int minSliceRows) {
+        this.pool = pool;
+        this.parallelism = pool.getParallelism();
+        this.minSliceRows = minSliceRows;
+        publish();
+    }
+
+    /** Appends a transaction, not visible to queries until {@link #publish()}. */
+    void append(TransactionDocument transaction) {
+        if (transaction.getAmountMinor() == null) {
+            return;
+        }
+        if (size == amounts.length) {
+            var capacity = size * 2;
+            amounts = Arrays.copyOf(amounts, capacity);
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            ibanIds = Arrays.copyOf(ibanIds, capacity);
+            categoryIds = Arrays.copyOf(categoryIds, capacity);
+            currencyIds = Arrays.copyOf(currencyIds, capacity);
+        }
+        var date = transaction.getDate();
+        var epochDay = date == null ? NO_DATE : Math.toIntExact(date.toEpochDay());
+        amounts[size] = transaction.getAmountMinor();
+        epochDays[size] = epochDay;
+        ibanIds[size] = ibans.add(transaction.getIban());
+        categoryIds[size] = categories.add(transaction.getCategory());
+        currencyIds[size] = currencies.add(transaction.getCurrency());
+        if (epochDay != NO_DATE) {
+            minDay = Math.min(minDay, epochDay);
+            maxDay = Math.max(maxDay, epochDay);
+        }
+        size++;
+    }
+
+    /** Makes the rows appended so far visible to queries. */
+    void publish() {
+        snapshot =
+                new Snapshot(
+                        amounts,
+                        epochDays,
+                        ibanIds,
+                        categoryIds,
+                        currencyIds,
+                        size,
+                        ibans.names(),
+                        categories.names(),
+                        currencies.names(),
+                        minDay,
+                        maxDay);
+    }
+
+    int size() {
+        return snapshot.size();
+    }
+
+    /** Same result as the top spent aggregation of the attribute in Mongo. */
+    List<TopSpentBy> topSpent(TransactionFilterByAttribute attribute, int topN, String currency) {
+        var rows = snapshot;
+        var currencyId = currencies.find(currency);
+        if (currencyId < 0) {
+            return List.of();
+        }
+        var spent =
+                switch (attribute) {
+                    case IBAN -> spentById(rows, rows.ibanIds(), rows.ibanNames(), currencyId);
+                    case CATEGORY -> spentById(
+                            rows, rows.categoryIds(), rows.categoryNames(), currencyId);
+                    case CURRENCY -> spentById(
+                            rows, rows.currencyIds(), rows.currencyNames(), currencyId);
+                    case YEAR_MONTH -> spentByYearMonth(rows, currencyId);
+                    case DATE -> spentByDate(rows, currencyId);
+                };
+        return top(spent, topN);
+    }
+
+    /**
+     * Same result as the balance aggregation of the attribute in Mongo.
+     *
+     * @param value IBAN, category or currency, month as {@code yyyy-MM} or date as {@code
+     *     yyyy-MM-dd}
+     */
+    BalanceByAttribute balance(
+            TransactionFilterByAttribute attribute, String value, String currency) {
+        var rows = snapshot;
+        var currencyId = currencies.find(currency);
+        if (currencyId < 0) {
+            return null;
+        }
+        return switch (attribute) {
+            case IBAN -> balanceById(rows, rows.ibanIds(), ibans.find(value), currencyId);
+            case CATEGORY -> balanceById(
+                    rows, rows.categoryIds(), categories.find(value), currencyId);
+            case CURRENCY -> balanceById(
+                    rows, rows.currencyIds(), currencies.find(value), currencyId);
+            case YEAR_MONTH -> {
+                var yearMonth = YearMonth.parse(value);
+                yield balanceByDays(
+                        rows, yearMonth.atDay(1), yearMonth.plusMonths(1).atDay(1), currencyId);
+            }
+            case DATE -> {
+                var date = LocalDate.parse(value);
+                yield balanceByDays(rows, date, date.plusDays(1), currencyId);
+            }
+        };
+    }
+
+    /** Same sketches as the distribution aggregation in Mongo, ordered by value with null first. */
+    SortedMap<String, AmountSketch> distribution(AmountDistributionQuery query) {
+        var rows = snapshot;
+        var sketches = new TreeMap<String, AmountSketch>(ATTRIBUTE_ORDER);
+        var currencyId = currencies.find(query.currency());
+        if (currencyId < 0) {
+            return sketches;
+        }
+        // transactions without a date are only included without a range, as in Mongo
+        var ranged = query.from() != null || query.to() != null;
+        var fromDay = query.from() == null ? Integer.MIN_VALUE : epochDay(query.from());
+        var toDay = query.to() == null ? Integer.MAX_VALUE : epochDay(query.to());
+        var firstMonth = rows.maxDay() < rows.minDay() ? 0 : monthOf(rows.minDay());
+        var noDateSlot =
+                rows.maxDay() < rows.minDay() ? 0 : monthOf(rows.maxDay()) - firstMonth + 1;
+        var epochDays = rows.epochDays();
+        String[] names;
+        IntUnaryOperator slotOf;
+        switch (query.groupBy()) {
+            case IBAN -> {
+                names = rows.ibanNames();
+                slotOf = row -> rows.ibanIds()[row];
+            }
+            case CATEGORY -> {
+                names = rows.categoryNames();
+                slotOf = row -> rows.categoryIds()[row];
+            }
+            case YEAR_MONTH -> {
+                names = new String[noDateSlot + 1];
+                for (int slot = 0; slot < noDateSlot; slot++) {
+                    names[slot] = yearMonthAttribute(firstMonth + slot);
+                }
+                slotOf =
+                        row ->
+                                epochDays[row] == NO_DATE
+                                        ? noDateSlot
+                                        : monthOf(epochDays[row]) - firstMonth;
+            }
+            default -> throw new IllegalArgumentException(
+                    String.format("Distribution cannot be grouped by %s.", query.groupBy()));
+        }
+        var perSlot =
+                sketchScan(
+                        rows,
+                        names.length,
+                        (from, to, accumulator) -> {
+                            var amounts = rows.amounts();
+                            var currencyIds = rows.currencyIds();
+                            for (int i = from; i < to; i++) {
+                                if (currencyIds[i] != currencyId
+                                        || ranged
+                                                && (epochDays[i] == NO_DATE
+                                                        || epochDays[i] < fromDay
+                                                        || epochDays[i] > toDay)) {
+                                    continue;
+                                }
+                                var slot = slotOf.applyAsInt(i);
+                                if (accumulator[slot] == null) {
+                                    accumulator[slot] = new AmountSketch();
+                                }
+                                accumulator[slot].add(amounts[i]);
+                            }
+                        });
+        for (int slot = 0; slot < perSlot.length; slot++) {
+            if (perSlot[slot] != null) {
+                sketches.put(names[slot], perSlot[slot]);
+            }
+        }
+        return sketches;
+    }
+
+    private List<SpentTotal> spentById(Snapshot rows, int[] ids, String[] names, int currencyId) {
+        var totals =
+                scan(
+                        rows,
+                        names.length,
+                        (from, to, accumulator) -> {
+                            var amounts = rows.amounts();
+                            var currencyIds = rows.currencyIds();
+                            for (int i = from; i < to; i++) {
+                                if (currencyIds[i] == currencyId && amounts[i] < 0) {
+                                    accumulator[ids[i]] += amounts[i];
+                                }
+                            }
+                        });
+        var spent = new ArrayList<SpentTotal>();
+        for (int id = 0; id < totals.length; id++) {
+            // only negative amounts are summed, a total of 0 means no expense
+            if (totals[id] != 0) {
+                spent.add(new SpentTotal(totals[id], names[id]));
+            }
+        }
+        return spent;
+    }
+
+    private List<SpentTotal> spentByYearMonth(Snapshot rows, int currencyId) {
+        var firstMonth = rows.maxDay() < rows.minDay() ? 0 : monthOf(rows.minDay());
+        // months in between plus the last slot for transactions without a date
+        var noDateSlot =
+                rows.maxDay() < rows.minDay() ? 0 : monthOf(rows.maxDay()) - firstMonth + 1;
+        var totals =
+                scan(
+                        rows,
+                        noDateSlot + 1,
+                        (from, to, accumulator) -> {
+                            var amounts = rows.amounts();
+                            var currencyIds = rows.currencyIds();
+                            var epochDays = rows.epochDays();
+                            for (int i = from; i < to; i++) {
+                                if (currencyIds[i] == currencyId && amounts[i] < 0) {
+                                    var slot =
+                                            epochDays[i] == NO_DATE
+                                                    ? noDateSlot
+                                                    : monthOf(epochDays[i]) - firstMonth;
+                                    accumulator[slot] += amounts[i];
+                                }
+                            }
+                        });
+        var spent = new ArrayList<SpentTotal>();
+        for (int slot = 0; slot < totals.length; slot++) {
+            if (totals[slot] != 0) {
+                var attribute = slot == noDateSlot ? null : yearMonthAttribute(firstMonth + slot);
+                spent.add(new SpentTotal(totals[slot], attribute));
+            }
+        }
+        return spent;
+    }
+
+    private List<SpentTotal> spentByDate(Snapshot rows, int currencyId) {
+        var firstDay = rows.minDay();
+        // days in between plus the last slot for transactions without a date
+        var noDateSlot = rows.maxDay() < firstDay ? 0 : rows.maxDay() - firstDay + 1;
+        var totals =
+                scan(
+                        rows,
+                        noDateSlot + 1,
+                        (from, to, accumulator) -> {
+                            var amounts = rows.amounts();
+                            var currencyIds = rows.currencyIds();
+                            var epochDays = rows.epochDays();
+                            for (int i = from; i < to; i++) {
+                                if (currencyIds[i] == currencyId && amounts[i] < 0) {
+                                    var slot =
+                                            epochDays[i] == NO_DATE
+                                                    ? noDateSlot
+                                                    : epochDays[i] - firstDay;
+                                    accumulator[slot] += amounts[i];
+                                }
+                            }
+                        });
+        var spent = new ArrayList<SpentTotal>();
+        for (int slot = 0; slot < totals.length; slot++) {
+            if (totals[slot] != 0) {
+                // ISO date, the format of the Mongo aggregation
+                var attribute =
+                        slot == noDateSlot
+                                ? null
+                                : LocalDate.ofEpochDay(firstDay + slot).toString();
+                spent.add(new SpentTotal(totals[slot], attribute));
+            }
+        }
+        return spent;
+    }
+
+    private BalanceByAttribute balanceById(Snapshot rows, int[] ids, int id, int currencyId) {
+        if (id < 0) {
+            return null;
+        }
+        return toBalance(
+                scan(
+                        rows,
+                        BalanceSlot.COUNT,
+                        (from, to, accumulator) -> {
+                            var amounts = rows.amounts();
+                            var currencyIds = rows.currencyIds();
+                            for (int i = from; i < to; i++) {
+                                if (currencyIds[i] == currencyId && ids[i] == id) {
+                                    addToBalance(accumulator, amounts[i]);
+                                }
+                            }
+                        }));
+    }
+
+    /**
+     * @param to first day after the range
+     */
+    private BalanceByAttribute balanceByDays(
+            Snapshot rows, LocalDate from, LocalDate to, int currencyId) {
+        var fromDay = Math.toIntExact(from.toEpochDay());
+        var toDay = Math.toIntExact(to.toEpochDay());
+        return toBalance(
+                scan(
+                        rows,
+                        BalanceSlot.COUNT,
+                        (start, end, accumulator) -> {
+                            var amounts = rows.amounts();
+                            var currencyIds = rows.currencyIds();
+                            var epochDays = rows.epochDays();
+                            for (int i = start; i < end; i++) {
+                                if (currencyIds[i] == currencyId
+                                        && epochDays[i] >= fromDay
+                                        && epochDays[i] < toDay) {
+                                    addToBalance(accumulator, amounts[i]);
+                                }
+                            }
+                        }));
+    }
+
+    /**
+     * Runs the scan over slices of the rows, in parallel if there are enough of them, and adds up
+     * the accumulators of the slices.
+     */
+    private long[] scan(Snapshot rows, int width, SliceScan sliceScan) {
+        var slices = Math.min(parallelism, Math.max(rows.size() / minSliceRows, 1));
+        if (slices == 1) {
+            var accumulator = new long[width];
+            sliceScan.scan(0, rows.size(), accumulator);
+            return accumulator;
+        }
+        return pool.submit(
+                        () ->
+                                IntStream.range(0, slices)
+                                        .parallel()
+                                        .mapToObj(
+                                                slice -> {
+                                                    var accumulator = new long[width];
+                                                    sliceScan.scan(
+                                                            sliceStart(rows, slices, slice),
+                                                            sliceStart(rows, slices, slice + 1),
+                                                            accumulator);
+                                                    return accumulator;
+                                                })
+                                        .reduce(TransactionColumns::add)
+                                        .orElseThrow())
+                .join();
+    }
+
+    /** Like {@link #scan}, with a sketch per slot, created for the slots with rows only. */
+    private AmountSketch[] sketchScan(Snapshot rows, int width, SketchScan sketchScan) {
+        var slices = Math.min(parallelism, Math.max(rows.size() / minSliceRows, 1));
+        if (slices == 1) {
+            var accumulator = new AmountSketch[width];
+            sketchScan.scan(0, rows.size(), accumulator);
+            return accumulator;
+        }
+        return pool.submit(
+                        () ->
+                                IntStream.range(0, slices)
+                                        .parallel()
+                                        .mapToObj(
+                                                slice -> {
+                                                    var accumulator = new AmountSketch[width];
+                                                    sketchScan.scan(
+                                                            sliceStart(rows, slices, slice),
+                                                            sliceStart(rows, slices, slice + 1),
+                                                            accumulator);
+                                                    return accumulator;
+                                                })
+                                        .reduce(TransactionColumns::merge)
+                                        .orElseThrow())
+                .join();
+    }
+
+    private static int sliceStart(Snapshot rows, int slices, int slice) {
+        return (int) ((long) rows.size() * slice / slices);
+    }
+
+    private static long[] add(long[] left, long[] right) {
+        for (int i = 0; i < left.length; i++) {
+            left[i] += right[i];
+        }
+        return left;
+    }
+
+    private static AmountSketch[] merge(AmountSketch[] left, AmountSketch[] right) {
+        for (int i = 0; i < left.length; i++) {
+            if (left[i] == null) {
+                left[i] = right[i];
+            } else if (right[i] != null) {
+                left[i].merge(right[i]);
+            }
+        }
+        return left;
+    }
+
+    private static void addToBalance(long[] accumulator, long amount) {
+        accumulator[amount < 0 ? BalanceSlot.EXPENSES : BalanceSlot.INCOME] += amount;
+        accumulator[BalanceSlot.ROWS]++;
+    }
+
+    // no rows means no group in the Mongo aggregation, so no balance
+    private static BalanceByAttribute toBalance(long[] balance) {
+        return balance[BalanceSlot.ROWS] == 0
+                ? null
+                : new BalanceByAttribute(
+                        MinorUnits.fromMinorUnits(balance[BalanceSlot.EXPENSES]),
+                        MinorUnits.fromMinorUnits(balance[BalanceSlot.INCOME]));
+    }
+
+    private static List<TopSpentBy> top(List<SpentTotal> spent, int topN) {
+        return spent.stream()
+                .sorted(
+                        Comparator.comparingLong(SpentTotal::total)
+                                .thenComparing(SpentTotal::attribute, ATTRIBUTE_ORDER))
+                .limit(topN)
+                .map(
+                        total ->
+                                new TopSpentBy(
+                                        MinorUnits.fromMinorUnits(total.total()),
+                                        total.attribute()))
+                .toList();
+    }
+
+    /**
+     * Month of an epoch day as {@code year * 12 + month - 1}, computed without allocating a
+     * {@link java.time.LocalDate} (days to civil date conversion by Howard Hinnant).
+     */
+    static int monthOf(int epochDay) {
+        var shifted = (long) epochDay + 719_468;
+        var era = Math.floorDiv(shifted, 146_097);
+        var dayOfEra = shifted - era * 146_097;
+        var yearOfEra =
+                (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        var dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        // months counted from March, so the leap day is the last day of the year
+        var marchMonth = (5 * dayOfYear + 2) / 153;
+        var month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+        var year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    // same format as the Mongo aggregations, e.g. 2025-1
+    private static String yearMonthAttribute(int month) {
+        return Math.floorDiv(month, 12) + "-" + (Math.floorMod(month, 12) + 1);
+    }
+
+    private static int epochDay(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay());
+    }
+
+    @FunctionalInterface
+    private interface SliceScan {
+
+        void scan(int from, int to, long[] accumulator);
+    }
+
+    @FunctionalInterface
+    private interface SketchScan {
+
+        void scan(int from, int to, AmountSketch[] accumulator);
+    }
+
+    private static final class BalanceSlot {
+
+        private static final int EXPENSES = 0;
+        private static final int INCOME = 1;
+        private static final int ROWS = 2;
+        private static final int COUNT = 3;
+    }
+
+    private record SpentTotal(long total, String attribute) {}
+
+    /**
+     * Rows up to {@code size} of the column arrays, which the writer only appends to or replaces
+     * with larger copies.
+     */
+    private record Snapshot(
+            long[] amounts,
+            int[] epochDays,
+            int[] ibanIds,
+            int[] categoryIds,
+            int[] currencyIds,
+            int size,
+            String[] ibanNames,
+            String[] categoryNames,
+            String[] currencyNames,
+            int minDay,
+            int maxDay) {}
+
+    /**
+     * Ids of the values of a text column, null always has id 0. Lookups are safe while the writer
+     * adds values, names are read through a snapshot.
+     */
+    private static final class Dictionary {
+
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private String[] names = new String[16];
+        private int size = 1;
+
+        private int add(String value) {
+            if (value == null) {
+                return NULL_ID;
+            }
+            var id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            names[size] = value;
+            ids.put(value, size);
+            return size++;
+        }
+
+        /** Names by id, a copy so the writer may add values meanwhile. */
+        private String[] names() {
+            return Arrays.copyOf(names, size);
+        }
+
+        /**
+         * @return id of the value, -1 if no row has it
+         */
+        private int find(String value) {
+            if (value == null) {
+                return NULL_ID;
+            }
+            return ids.getOrDefault(value, -1);
+        }
+    }
+}
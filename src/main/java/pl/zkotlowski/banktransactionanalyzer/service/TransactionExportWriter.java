@@ -0,0 +1,88 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportFormat;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Writes exported transactions one by one through a fixed size buffer, so memory does not grow
+ * with the number of transactions.
+ */
+abstract sealed class TransactionExportWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    static TransactionExportWriter of(
+            TransactionExportFormat format, OutputStream outputStream, JsonMapper jsonMapper)
+            throws IOException {
+        var bufferedStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        return switch (format) {
+            case NDJSON -> new Ndjson(bufferedStream, jsonMapper);
+            case CSV -> new Csv(bufferedStream);
+        };
+    }
+
+    abstract void write(Transaction transaction) throws IOException;
+
+    /** Writes out what is buffered, the output stream is left open. */
+    abstract void flush() throws IOException;
+
+    private static final class Ndjson extends TransactionExportWriter {
+
+        private final OutputStream outputStream;
+        private final JsonMapper jsonMapper;
+
+        private Ndjson(OutputStream outputStream, JsonMapper jsonMapper) {
+            this.outputStream = outputStream;
+            this.jsonMapper = jsonMapper;
+        }
+
+        @Override
+        void write(Transaction transaction) throws IOException {
+            outputStream.write(jsonMapper.writeValueAsBytes(transaction));
+            outputStream.write('\n');
+        }
+
+        @Override
+        void flush() throws IOException {
+            outputStream.flush();
+        }
+    }
+
+    private static final class Csv extends TransactionExportWriter {
+
+        private final CSVPrinter printer;
+
+        private Csv(OutputStream outputStream) throws IOException {
+            this.printer =
+                    CSVFormat.Builder.create()
+                            .setHeader("iban", "date", "currency", "category", "amount")
+                            .setRecordSeparator('\n')
+                            .get()
+                            .print(new OutputStreamWriter(outputStream, UTF_8));
+        }
+
+        @Override
+        void write(Transaction transaction) throws IOException {
+            printer.printRecord(
+                    transaction.iban(),
+                    transaction.date(),
+                    transaction.currency(),
+                    transaction.category(),
+                    transaction.amount() == null ? null : transaction.amount().toPlainString());
+        }
+
+        @Override
+        void flush() throws IOException {
+            printer.flush();
+        }
+    }
+}
@@ -1,82 +1,418 @@
 package pl.zkotlowski.banktransactionanalyzer.service;
 
-import jakarta.validation.ConstraintViolation;
-import jakarta.validation.Validator;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.csv.RowChunk;
+import pl.zkotlowski.banktransactionanalyzer.csv.TransactionCsvChunker;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportBudgetExceededException;
 import pl.zkotlowski.banktransactionanalyzer.exception.InvalidTransactionRowException;
 import pl.zkotlowski.banktransactionanalyzer.exception.TransactionImportFailedException;
+import pl.zkotlowski.banktransactionanalyzer.model.BatchWriteStats;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
 import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
 import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.validation.TransactionRowValidator;
 
+/**
+ * Imports transactions from CSV through a staged pipeline: the calling thread cuts the input into
+ * row chunks, parse workers turn chunks into validated batches and write workers store the
+ * batches. Bounded queues between the stages provide backpressure, so memory usage stays flat
+ * regardless of the file size.
+ *
+ * <p>Batches are written independently, so instead of one database transaction every row is
+ * tagged with the import job id and its row number. Rows stay hidden from queries until the job
+ * is completed, and the caller removes them when the import fails. Once all rows of a chunk and
+ * of the chunks before it are written, the end of the chunk becomes the checkpoint of the import,
+ * from which an interrupted import can be resumed.
+ *
+ * <p>Every row gets a natural key, rows whose key is already stored are skipped as duplicates and
+ * counted in the progress, see {@link NaturalKeySequence}.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class TransactionImporter {
 
     private final TransactionService transactionService;
-    private final Validator validator;
-
-    private static final int BATCH_SIZE = 100;
-
-    @Transactional
-    public void importTransactionsFromCsv(MultipartFile multipartFile) {
-        try {
-            List<Transaction> transactionBatch = new ArrayList<>();
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(multipartFile.getInputStream()));
-            CSVParser csvParser =
-                    CSVFormat.Builder.create()
-                            // overwrite the csv header to ensure correct mapping
-                            .setSkipHeaderRecord(true)
-                            .setHeader("iban", "date", "currency", "category", "amount")
-                            .get()
-                            .parse(reader);
-
-            csvParser.stream()
-                    .iterator()
-                    .forEachRemaining(
-                            row -> {
-                                var transaction = Transaction.fromCsvRow(row);
-                                var violations = validator.validate(transaction);
-                                if (!violations.isEmpty()) {
-                                    log.warn(
-                                            "Invalid transaction row detected during import: {}. Violations: {}. Rolling back entire import.",
-                                            row,
-                                            violations.stream()
-                                                    .map(ConstraintViolation::getMessage)
-                                                    .toList());
-
-                                    throw new InvalidTransactionRowException(row);
-                                }
-
-                                transactionBatch.add(transaction);
-
-                                if (transactionBatch.size() >= BATCH_SIZE) {
-                                    transactionService.saveAllTransactions(
-                                            transactionBatch.stream()
-                                                    .map(TransactionDocument::fromDto)
-                                                    .toList());
-                                    transactionBatch.clear();
-                                }
-                            });
-
-            // save any remaining transactions in the batch
-            if (!transactionBatch.isEmpty()) {
-                transactionService.saveAllTransactions(
-                        transactionBatch.stream().map(TransactionDocument::fromDto).toList());
-            }
+    private final TransactionRowValidator transactionRowValidator;
+    private final ImportProperties importProperties;
+
+    private static final long QUEUE_POLL_INTERVAL_MS = 100;
+
+    public BatchWriteStats importTransactionsFromCsv(
+            UUID importJobId, MultipartFile multipartFile) {
+        try (var inputStream = multipartFile.getInputStream()) {
+            return importTransactionsFromCsv(importJobId, inputStream);
+        } catch (TransactionImportFailedException e) {
+            throw e;
         } catch (Exception e) {
             throw new TransactionImportFailedException(e);
         }
     }
+
+    /**
+     * Imports transactions from a CSV stream, reading it chunk by chunk so memory usage does not
+     * depend on the payload size.
+     *
+     * @return statistics of the written batches
+     * @throws TransactionImportFailedException with the first error raised by any of the stages
+     */
+    public BatchWriteStats importTransactionsFromCsv(UUID importJobId, InputStream inputStream) {
+        return importTransactionsFromCsv(
+                importJobId,
+                inputStream,
+                ImportProgressTracker.untracked(),
+                ImportCheckpoint.START,
+                new NaturalKeySequence());
+    }
+
+    /**
+     * Same as {@link #importTransactionsFromCsv(UUID, InputStream)}, continuing after the given
+     * checkpoint and reporting progress and checkpoints of all stages to the given tracker. The
+     * final snapshot is flushed whether the import succeeds or not.
+     *
+     * @param inputStream the whole payload, rows up to the checkpoint are skipped
+     * @param resumeFrom checkpoint of an interrupted import, rows written after it have to be
+     *     removed by the caller, {@link ImportCheckpoint#START} for a new import
+     * @param naturalKeys natural keys of the rows before the checkpoint, see {@link
+     *     #replayNaturalKeys}
+     */
+    BatchWriteStats importTransactionsFromCsv(
+            UUID importJobId,
+            InputStream inputStream,
+            ImportProgressTracker progress,
+            ImportCheckpoint resumeFrom,
+            NaturalKeySequence naturalKeys) {
+        var pipeline = importProperties.pipeline();
+        var run =
+                new PipelineRun(
+                        importJobId, pipeline.queueCapacity(), progress, resumeFrom, naturalKeys);
+        progress.resumedFrom(resumeFrom);
+
+        try (var chunker =
+                        TransactionCsvChunker.open(
+                                progress.countBytes(inputStream),
+                                importProperties.parser(),
+                                (int) pipeline.chunkSize().toBytes(),
+                                resumeFrom.byteOffset(),
+                                resumeFrom.rowNumber());
+                var parseWorkers = newWorkerPool("import-parse-", pipeline.parseWorkers());
+                var writeWorkers = newWorkerPool("import-write-", pipeline.writeWorkers())) {
+            var parseTasks = submit(parseWorkers, pipeline.parseWorkers(), run::parseChunks);
+            var writeTasks = submit(writeWorkers, pipeline.writeWorkers(), run::writeBatches);
+
+            run.readChunks(chunker);
+            run.chunksDone = true;
+            awaitAll(parseTasks, run);
+            run.batchesDone = true;
+            awaitAll(writeTasks, run);
+        } catch (Exception e) {
+            run.fail(e);
+        }
+        progress.flush();
+
+        var failure = run.failure.get();
+        if (failure != null) {
+            throw new TransactionImportFailedException(failure);
+        }
+        var writeStats = run.batchSizer.stats();
+        log.info(
+                "Imported {} rows for job id: {}, batch stats: {}",
+                run.rowCount,
+                importJobId,
+                writeStats);
+        return writeStats;
+    }
+
+    /**
+     * Counts the rows up to the checkpoint of an interrupted import, so the resumed import
+     * assigns the same occurrence indexes as if it had not been interrupted. Rows skipped as
+     * duplicates are not stored, so the payload is the only complete source.
+     *
+     * @param inputStream the whole payload
+     */
+    NaturalKeySequence replayNaturalKeys(InputStream inputStream, ImportCheckpoint upTo)
+            throws IOException {
+        var naturalKeys = new NaturalKeySequence();
+        long rows = 0;
+        try (var chunker =
+                TransactionCsvChunker.open(
+                        inputStream,
+                        importProperties.parser(),
+                        (int) importProperties.pipeline().chunkSize().toBytes())) {
+            RowChunk chunk;
+            while (rows < upTo.rowNumber() && (chunk = chunker.nextChunk()) != null) {
+                try (var csvReader = chunk.open()) {
+                    Transaction transaction;
+                    while (rows < upTo.rowNumber() && (transaction = csvReader.next()) != null) {
+                        naturalKeys.replay(NaturalKeySequence.valuesKey(transaction));
+                        rows++;
+                    }
+                }
+            }
+        }
+        return naturalKeys;
+    }
+
+    private static ExecutorService newWorkerPool(String namePrefix, int threads) {
+        return Executors.newFixedThreadPool(
+                threads, Thread.ofPlatform().name(namePrefix, 0).factory());
+    }
+
+    private static List<Future<?>> submit(ExecutorService executor, int count, Runnable task) {
+        return IntStream.range(0, count).<Future<?>>mapToObj(i -> executor.submit(task)).toList();
+    }
+
+    private static void awaitAll(List<Future<?>> tasks, PipelineRun run)
+            throws InterruptedException {
+        for (var task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                run.fail(e.getCause());
+            }
+        }
+    }
+
+    /** State shared by the stages of a single import. */
+    private final class PipelineRun {
+
+        private final UUID importJobId;
+        private final BlockingQueue<QueuedChunk> chunks;
+        private final BlockingQueue<WriteBatch> batches;
+        private final AdaptiveBatchSizer batchSizer =
+                new AdaptiveBatchSizer(importProperties.batch());
+        private final ImportProgressTracker progress;
+        private final ImportCheckpointTracker checkpoints;
+        private final NaturalKeySequence naturalKeys;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean chunksDone;
+        private volatile boolean batchesDone;
+        private long rowCount;
+
+        private PipelineRun(
+                UUID importJobId,
+                int queueCapacity,
+                ImportProgressTracker progress,
+                ImportCheckpoint resumeFrom,
+                NaturalKeySequence naturalKeys) {
+            this.importJobId = importJobId;
+            this.progress = progress;
+            this.checkpoints = new ImportCheckpointTracker(resumeFrom);
+            this.naturalKeys = naturalKeys;
+            this.chunks = new ArrayBlockingQueue<>(queueCapacity);
+            this.batches = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        private void readChunks(TransactionCsvChunker chunker) {
+            var maxRows = importProperties.maxRows();
+            long sequence = 0;
+            try {
+                while (!failed()) {
+                    var start = System.nanoTime();
+                    var chunk = chunker.nextChunk();
+                    progress.read(System.nanoTime() - start);
+                    if (chunk == null) {
+                        break;
+                    }
+                    if (chunker.rowCount() > maxRows) {
+                        throw new ImportBudgetExceededException("row", maxRows);
+                    }
+                    checkpoints.register(
+                            chunk.firstRowNumber(), chunker.rowCount(), chunk.endOffset());
+                    if (!put(chunks, new QueuedChunk(sequence++, chunk))) {
+                        return;
+                    }
+                }
+                rowCount = chunker.rowCount();
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void parseChunks() {
+            try {
+                var batch = new WriteBatch(batchSizer.batchSize());
+                QueuedChunk queued;
+                while ((queued = take(chunks, () -> chunksDone)) != null) {
+                    var chunk = queued.chunk();
+                    var start = System.nanoTime();
+                    var transactions = new ArrayList<Transaction>();
+                    var valuesKeys = new ArrayList<UUID>();
+                    try (var csvReader = chunk.open()) {
+                        Transaction transaction;
+                        while ((transaction = csvReader.next()) != null) {
+                            var violations = transactionRowValidator.validate(transaction);
+                            if (!violations.isEmpty()) {
+                                log.warn(
+                                        "Invalid transaction row {} detected during import: {}. Violations: {}. Rolling back entire import.",
+                                        csvReader.rowNumber(),
+                                        csvReader.currentRow(),
+                                        violations);
+
+                                throw new InvalidTransactionRowException(csvReader.currentRow());
+                            }
+                            transactions.add(transaction);
+                            valuesKeys.add(NaturalKeySequence.valuesKey(transaction));
+                        }
+                    }
+                    progress.parsed(transactions.size(), System.nanoTime() - start);
+
+                    // time spent waiting for the previous chunks or a full queue is not parse time
+                    var keys = naturalKeys.assign(queued.sequence(), valuesKeys, this::failed);
+                    if (keys == null) {
+                        return;
+                    }
+                    for (int i = 0; i < transactions.size(); i++) {
+                        // rows of a chunk are numbered consecutively
+                        var rowNumber = chunk.firstRowNumber() + i;
+                        batch.add(
+                                TransactionDocument.fromDto(
+                                        transactions.get(i), importJobId, rowNumber, keys.get(i)),
+                                chunk.firstRowNumber());
+
+                        if (batch.documents.size() >= batchSizer.batchSize()
+                                || batch.payloadBytes >= batchSizer.maxPayloadBytes()) {
+                            if (!put(batches, batch)) {
+                                return;
+                            }
+                            batch = new WriteBatch(batchSizer.batchSize());
+                        }
+                    }
+                }
+
+                // save any remaining transactions in the batch
+                if (!batch.documents.isEmpty() && !failed()) {
+                    put(batches, batch);
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void writeBatches() {
+            try {
+                WriteBatch batch;
+                while ((batch = take(batches, () -> batchesDone)) != null) {
+                    var start = System.nanoTime();
+                    var duplicates = transactionService.insertAllTransactions(batch.documents);
+                    var latency = System.nanoTime() - start;
+                    progress.duplicates(duplicates);
+                    batchSizer.record(batch.documents.size(), batch.payloadBytes, latency);
+                    for (var chunkRows : batch.chunks) {
+                        var checkpoint =
+                                checkpoints.written(chunkRows.firstRowNumber, chunkRows.rows);
+                        if (checkpoint != null) {
+                            progress.checkpoint(checkpoint);
+                        }
+                    }
+                    progress.written(batch.documents.size(), latency);
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable cause) {
+            if (failure.compareAndSet(null, cause)) {
+                log.warn("Import pipeline of job id: {} stopped", importJobId, cause);
+            }
+        }
+
+        private boolean failed() {
+            return failure.get() != null;
+        }
+
+        /**
+         * @return false if the pipeline failed before the item could be queued
+         */
+        private <T> boolean put(BlockingQueue<T> queue, T item) throws InterruptedException {
+            while (!failed()) {
+                if (queue.offer(item, QUEUE_POLL_INTERVAL_MS, MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return next item, or null once the producing stage is done and the queue is drained, or
+         *     the pipeline failed
+         */
+        private <T> T take(BlockingQueue<T> queue, BooleanSupplier producerDone)
+                throws InterruptedException {
+            while (!failed()) {
+                // read the flag before polling, an empty queue after the producer is done is final
+                var done = producerDone.getAsBoolean();
+                var item = queue.poll(QUEUE_POLL_INTERVAL_MS, MILLISECONDS);
+                if (item != null) {
+                    return item;
+                }
+                if (done) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param sequence index of the chunk in read order
+     */
+    private record QueuedChunk(long sequence, RowChunk chunk) {}
+
+    /**
+     * Documents of one bulk write with their estimated BSON size and the chunks they come from.
+     */
+    private static final class WriteBatch {
+
+        private final List<TransactionDocument> documents;
+        private final List<ChunkRows> chunks = new ArrayList<>(2);
+        private long payloadBytes;
+
+        private WriteBatch(int expectedSize) {
+            this.documents = new ArrayList<>(expectedSize);
+        }
+
+        private void add(TransactionDocument transactionDocument, long chunkFirstRowNumber) {
+            documents.add(transactionDocument);
+            payloadBytes += AdaptiveBatchSizer.estimateBsonSize(transactionDocument);
+            // a parse worker fills a batch chunk by chunk
+            var last = chunks.isEmpty() ? null : chunks.getLast();
+            if (last == null || last.firstRowNumber != chunkFirstRowNumber) {
+                last = new ChunkRows(chunkFirstRowNumber);
+                chunks.add(last);
+            }
+            last.rows++;
+        }
+    }
+
+    private static final class ChunkRows {
+
+        private final long firstRowNumber;
+        private int rows;
+
+        private ChunkRows(long firstRowNumber) {
+            this.firstRowNumber = firstRowNumber;
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import pl.zkotlowski.banktransactionanalyzer.configuration.DistinctCountProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctSketch;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.IbanSketchRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsVersionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionRollupRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionScanRepository;
+
+/**
+ * Keeps the rollups and IBAN sketches statistics are answered from in line with the
+ * transactions. Every import rolls up and sketches its own transactions before it is completed,
+ * a full rebuild is only needed for transactions written otherwise, e.g. stored before rollups
+ * were introduced.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TransactionRollupService {
+
+    // completion times are taken on other instances, whose clocks may be ahead
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+
+    private final TransactionRollupRepository transactionRollupRepository;
+    private final TransactionRepository transactionRepository;
+    private final StatisticsVersionRepository statisticsVersionRepository;
+    private final IbanSketchRepository ibanSketchRepository;
+    private final TransactionScanRepository transactionScanRepository;
+    private final DistinctCountProperties distinctCountProperties;
+    private final ImportJobRepository importJobRepository;
+
+    public void rollUpImportJob(UUID importJobId) {
+        transactionRollupRepository.rollUpImportJob(importJobId);
+        var sketches = new IbanSketchBuilder(precision());
+        transactionScanRepository.forEachOfImportJob(importJobId, sketches);
+        var documents = sketches.documentsByImportJobId().getOrDefault(importJobId, List.of());
+        ibanSketchRepository.replaceImportJob(importJobId, documents);
+    }
+
+    public long deleteRollupsOfImportJob(UUID importJobId) {
+        ibanSketchRepository.deleteAllByImportJobId(importJobId);
+        return transactionRollupRepository.deleteAllByImportJobId(importJobId);
+    }
+
+    /**
+     * Recomputes all rollups and sketches from the stored transactions. Imports keep running on
+     * all instances meanwhile, and the ones rolling up their transactions while it runs write into
+     * the rollups it replaces. So every job running or completed since it started is rolled up
+     * again afterwards, and rollups it picked up from rows of jobs failing meanwhile are removed.
+     */
+    public void rebuild() {
+        var start = System.nanoTime();
+        var startedAt = Instant.now();
+        transactionRollupRepository.rebuild();
+        var sketches = new IbanSketchBuilder(precision());
+        transactionScanRepository.forEachStored(sketches);
+        ibanSketchRepository.replaceAll(sketches.documentsByImportJobId());
+        var importJobs =
+                importJobRepository.findAllByStatusOrCompletedAtGreaterThanEqual(
+                        ImportJobDocument.Status.IMPORT_IN_PROGRESS,
+                        startedAt.minus(CLOCK_SKEW));
+        importJobs.forEach(importJob -> rollUpImportJob(importJob.getId()));
+        // after rolling up again, a job failing meanwhile is failed before its rows are removed
+        var failedImportJobIds =
+                importJobRepository.findAllByStatus(ImportJobDocument.Status.FAILED).stream()
+                        .map(ImportJobDocument::getId)
+                        .toList();
+        if (!failedImportJobIds.isEmpty()) {
+            transactionRollupRepository.deleteAllByImportJobIdIn(failedImportJobIds);
+            ibanSketchRepository.deleteAllByImportJobIdIn(failedImportJobIds);
+        }
+        statisticsVersionRepository.increment();
+        log.info(
+                "Rebuilt transaction rollups in {} ms, rolled up {} import jobs again",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                importJobs.size());
+    }
+
+    /**
+     * Builds the rollups and sketches of transactions stored before they were introduced, or
+     * before rollups held the amount distribution.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void rebuildIfMissing() {
+        Thread.ofPlatform()
+                .daemon()
+                .name("rollup-rebuild")
+                .start(
+                        () -> {
+                            try {
+                                if ((transactionRollupRepository.isEmpty()
+                                                        || ibanSketchRepository.isEmpty())
+                                                && transactionRepository.count() > 0
+                                        || transactionRollupRepository.lacksAmountBuckets()) {
+                                    rebuild();
+                                }
+                            } catch (RuntimeException e) {
+                                log.error("Could not rebuild the transaction rollups", e);
+                            }
+                        });
+    }
+
+    private int precision() {
+        return DistinctSketch.precisionFor(distinctCountProperties.standardError());
+    }
+}
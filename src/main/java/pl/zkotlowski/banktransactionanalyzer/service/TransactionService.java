@@ -1,23 +1,212 @@
 package pl.zkotlowski.banktransactionanalyzer.service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportFormat;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionSearchCursor;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionSearchQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.document.DeferredTransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
 import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.response.SearchTransactionsResponseBody;
+import pl.zkotlowski.banktransactionanalyzer.repository.DeferredTransactionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionIngestRepository;
 import pl.zkotlowski.banktransactionanalyzer.repository.TransactionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionScanRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionSearchRepository;
+import tools.jackson.databind.json.JsonMapper;
 
 @Service
 @RequiredArgsConstructor
 public class TransactionService {
 
     private final TransactionRepository transactionRepository;
+    private final TransactionIngestRepository transactionIngestRepository;
+    private final NaturalKeyFilter naturalKeyFilter;
+    private final TransactionScanRepository transactionScanRepository;
+    private final TransactionSearchRepository transactionSearchRepository;
+    private final ImportJobRepository importJobRepository;
+    private final DeferredTransactionRepository deferredTransactionRepository;
+    private final JsonMapper jsonMapper;
 
-    public void saveAllTransactions(List<TransactionDocument> transactionDocuments) {
-        transactionRepository.saveAll(transactionDocuments);
+    /**
+     * Inserts imported transactions, skipping rows whose natural key is already stored. Only keys
+     * the filter reports as possibly stored are looked up, the unique index rejects the
+     * duplicates the filter cannot know about. A row skipped for the key of an import job that is
+     * not completed yet is deferred, it is imported after all if that job fails, see {@link
+     * DeferredTransactionService}.
+     *
+     * @return number of rows skipped as duplicates
+     */
+    public int insertAllTransactions(List<TransactionDocument> transactionDocuments) {
+        var duplicates = 0;
+        var newDocuments = transactionDocuments;
+        if (naturalKeyFilter.isReady()) {
+            var candidates =
+                    transactionDocuments.stream()
+                            .map(TransactionDocument::getNaturalKey)
+                            .filter(naturalKeyFilter::mightContain)
+                            .toList();
+            if (!candidates.isEmpty()) {
+                var holders = transactionIngestRepository.findNaturalKeyHolders(candidates);
+                duplicates += skipDuplicates(transactionDocuments, holders);
+                newDocuments =
+                        transactionDocuments.stream()
+                                .filter(document -> !holders.containsKey(document.getNaturalKey()))
+                                .toList();
+            }
+        }
+
+        while (!newDocuments.isEmpty()) {
+            var rejected = transactionIngestRepository.insertUnordered(newDocuments);
+            if (rejected.isEmpty()) {
+                break;
+            }
+            var holders =
+                    transactionIngestRepository.findNaturalKeyHolders(
+                            rejected.stream().map(TransactionDocument::getNaturalKey).toList());
+            duplicates += skipDuplicates(rejected, holders);
+            // the row holding the key was removed in the meantime, by a failed import
+            newDocuments =
+                    rejected.stream()
+                            .filter(document -> !holders.containsKey(document.getNaturalKey()))
+                            .toList();
+        }
+        // rejected keys are stored as well, by another row
+        transactionDocuments.forEach(document -> naturalKeyFilter.add(document.getNaturalKey()));
+        return duplicates;
+    }
+
+    public long countTransactionsOfImportJob(UUID importJobId) {
+        return transactionRepository.countByImportJobId(importJobId);
+    }
+
+    /** Removes the rows of the import job, together with the rows it deferred. */
+    public long deleteTransactionsOfImportJob(UUID importJobId) {
+        deferredTransactionRepository.deleteAllByOwnerImportJobId(importJobId);
+        return transactionRepository.deleteAllByImportJobId(importJobId);
+    }
+
+    /**
+     * Removes rows written or deferred after the given row, i.e. past the checkpoint of a resumed
+     * import.
+     *
+     * @return number of written rows removed
+     */
+    public long deleteTransactionsOfImportJobAfterRow(UUID importJobId, long rowNumber) {
+        deferredTransactionRepository.deleteAllByOwnerImportJobIdAndImportRowGreaterThan(
+                importJobId, rowNumber);
+        return transactionRepository.deleteAllByImportJobIdAndImportRowGreaterThan(
+                importJobId, rowNumber);
+    }
+
+    /** Returns a page of the published transactions matching the filters, newest first. */
+    public SearchTransactionsResponseBody searchTransactions(TransactionSearchQuery query) {
+        var normalizedQuery =
+                new TransactionSearchQuery(
+                        query.currency(),
+                        Transaction.normalizeIban(query.iban()),
+                        Transaction.normalizeCategory(query.category()),
+                        query.from(),
+                        query.to(),
+                        query.minAmount(),
+                        query.maxAmount(),
+                        query.cursor(),
+                        query.limit());
+        // one more than the page, to know whether there is a next page
+        var documents =
+                transactionSearchRepository.search(
+                        normalizedQuery, pendingImportJobIds(), query.limit() + 1);
+        var page = documents.stream().limit(query.limit()).map(Transaction::fromEntity).toList();
+        if (documents.size() <= query.limit()) {
+            return new SearchTransactionsResponseBody(page, null);
+        }
+        var last = page.getLast();
+        return new SearchTransactionsResponseBody(
+                page, new TransactionSearchCursor(last.date(), last.id()).encode());
+    }
+
+    /**
+     * Writes the published transactions matching the filters in the format, read from a cursor
+     * in batches of fixed size, so the export needs constant memory however many rows it has.
+     * The output stream is flushed but left open.
+     */
+    public void exportTransactions(
+            TransactionExportQuery query, TransactionExportFormat format, OutputStream outputStream)
+            throws IOException {
+        var normalizedQuery =
+                new TransactionExportQuery(
+                        Transaction.normalizeIban(query.iban()),
+                        query.currency(),
+                        query.from(),
+                        query.to());
+        var writer = TransactionExportWriter.of(format, outputStream, jsonMapper);
+        try {
+            transactionScanRepository.forEachExported(
+                    pendingImportJobIds(),
+                    normalizedQuery,
+                    document -> {
+                        try {
+                            writer.write(Transaction.fromEntity(document));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            // e.g. the client closed the connection, which ends the export
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Skips the rows whose key is stored, deferring the ones whose key is held by a row of
+     * another import job that is not completed yet.
+     *
+     * @param holders import job ids of the rows holding the natural keys, by natural key
+     * @return number of rows skipped, the ones with a holder
+     */
+    private int skipDuplicates(List<TransactionDocument> documents, Map<UUID, UUID> holders) {
+        var skipped =
+                documents.stream()
+                        .filter(document -> holders.containsKey(document.getNaturalKey()))
+                        .toList();
+        if (skipped.isEmpty()) {
+            return 0;
+        }
+        var pendingImportJobIds = new HashSet<>(pendingImportJobIds());
+        var deferred =
+                skipped.stream()
+                        .filter(
+                                document -> {
+                                    var holder = holders.get(document.getNaturalKey());
+                                    return pendingImportJobIds.contains(holder)
+                                            && !holder.equals(document.getImportJobId());
+                                })
+                        .map(
+                                document ->
+                                        DeferredTransactionDocument.of(
+                                                document, holders.get(document.getNaturalKey())))
+                        .toList();
+        if (!deferred.isEmpty()) {
+            deferredTransactionRepository.insertAll(deferred);
+        }
+        return skipped.size();
     }
 
-    public List<Transaction> getAllTransactions() {
-        return transactionRepository.findAll().stream().map(Transaction::fromEntity).toList();
+    private List<UUID> pendingImportJobIds() {
+        return importJobRepository.findAllByTransactionsPendingTrue().stream()
+                .map(ImportJobDocument::getId)
+                .toList();
     }
 }
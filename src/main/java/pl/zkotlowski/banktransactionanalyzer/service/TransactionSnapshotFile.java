@@ -0,0 +1,387 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import pl.zkotlowski.banktransactionanalyzer.exception.InvalidSnapshotException;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Binary snapshot of transactions, stored column by column in blocks of rows:
+ *
+ * <ul>
+ *   <li>header: magic, format version
+ *   <li>blocks: row count, then one column after the other (id, natural key, amount in minor
+ *       units, date as epoch day, IBAN, category and currency as dictionary ids), followed by the
+ *       CRC32 of the block
+ *   <li>footer: the IBAN, category and currency dictionaries, the offset and row count of every
+ *       block
+ *   <li>trailer: footer offset, CRC32 of the footer, magic
+ * </ul>
+ *
+ * All numbers are big endian and of fixed width, so a block is read with bulk copies out of the
+ * mapped file. Dictionary id 0 stands for a missing value, ids of the entries start at 1.
+ */
+final class TransactionSnapshotFile {
+
+    private static final int MAGIC = 0x42545853; // "BTXS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int TRAILER_BYTES = Long.BYTES + 2 * Integer.BYTES;
+    private static final int BLOCK_HEADER_BYTES = Integer.BYTES;
+    private static final int CHECKSUM_BYTES = Integer.BYTES;
+    // id and natural key as two longs each, amount, epoch day and three dictionary ids
+    private static final int ROW_BYTES = 5 * Long.BYTES + 4 * Integer.BYTES;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private TransactionSnapshotFile() {}
+
+    /** Writes the appended transactions block by block, a block is kept in memory until full. */
+    static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final int blockRows;
+        private final ByteBuffer buffer;
+        private final long[] idMostBits;
+        private final long[] idLeastBits;
+        private final long[] keyMostBits;
+        private final long[] keyLeastBits;
+        private final long[] amounts;
+        private final int[] epochDays;
+        private final int[] ibanIds;
+        private final int[] categoryIds;
+        private final int[] currencyIds;
+        private final Map<String, Integer> ibans = new LinkedHashMap<>();
+        private final Map<String, Integer> categories = new LinkedHashMap<>();
+        private final Map<String, Integer> currencies = new LinkedHashMap<>();
+        private final List<Long> blockOffsets = new ArrayList<>();
+        private final List<Integer> blockSizes = new ArrayList<>();
+        private int blockSize;
+        private long rows;
+
+        Writer(Path path, int blockRows) throws IOException {
+            if (blockRows < 1) {
+                throw new IllegalArgumentException(
+                        String.format("Block rows must be positive, got %d.", blockRows));
+            }
+            this.blockRows = blockRows;
+            this.buffer =
+                    ByteBuffer.allocateDirect(
+                            BLOCK_HEADER_BYTES + blockRows * ROW_BYTES + CHECKSUM_BYTES);
+            this.idMostBits = new long[blockRows];
+            this.idLeastBits = new long[blockRows];
+            this.keyMostBits = new long[blockRows];
+            this.keyLeastBits = new long[blockRows];
+            this.amounts = new long[blockRows];
+            this.epochDays = new int[blockRows];
+            this.ibanIds = new int[blockRows];
+            this.categoryIds = new int[blockRows];
+            this.currencyIds = new int[blockRows];
+            this.channel =
+                    FileChannel.open(
+                            path,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE);
+            writeFully(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        /**
+         * @param transaction transaction with an id and an amount in minor units
+         */
+        void append(TransactionDocument transaction) throws IOException {
+            var i = blockSize++;
+            idMostBits[i] = transaction.getId().getMostSignificantBits();
+            idLeastBits[i] = transaction.getId().getLeastSignificantBits();
+            var naturalKey = transaction.getNaturalKey();
+            keyMostBits[i] = naturalKey == null ? 0 : naturalKey.getMostSignificantBits();
+            keyLeastBits[i] = naturalKey == null ? 0 : naturalKey.getLeastSignificantBits();
+            amounts[i] = transaction.getAmountMinor();
+            epochDays[i] =
+                    transaction.getDate() == null
+                            ? NO_DATE
+                            : (int) transaction.getDate().toEpochDay();
+            ibanIds[i] = id(ibans, transaction.getIban());
+            categoryIds[i] = id(categories, transaction.getCategory());
+            currencyIds[i] = id(currencies, transaction.getCurrency());
+            rows++;
+            if (blockSize == blockRows) {
+                writeBlock();
+            }
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        /** Writes the last block and the footer, the snapshot is incomplete without it. */
+        void finish() throws IOException {
+            if (blockSize > 0) {
+                writeBlock();
+            }
+            var footer = new ByteArrayOutputStream();
+            var output = new DataOutputStream(footer);
+            for (var dictionary : List.of(ibans, categories, currencies)) {
+                output.writeInt(dictionary.size());
+                for (var value : dictionary.keySet()) {
+                    var bytes = value.getBytes(UTF_8);
+                    output.writeInt(bytes.length);
+                    output.write(bytes);
+                }
+            }
+            output.writeInt(blockOffsets.size());
+            for (int i = 0; i < blockOffsets.size(); i++) {
+                output.writeLong(blockOffsets.get(i));
+                output.writeInt(blockSizes.get(i));
+            }
+            var footerOffset = channel.position();
+            var footerBuffer = ByteBuffer.wrap(footer.toByteArray());
+            var footerChecksum = checksum(footerBuffer);
+            writeFully(footerBuffer);
+            writeFully(
+                    ByteBuffer.allocate(TRAILER_BYTES)
+                            .putLong(footerOffset)
+                            .putInt(footerChecksum)
+                            .putInt(MAGIC)
+                            .flip());
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void writeBlock() throws IOException {
+            buffer.clear();
+            buffer.putInt(blockSize);
+            putLongs(idMostBits);
+            putLongs(idLeastBits);
+            putLongs(keyMostBits);
+            putLongs(keyLeastBits);
+            putLongs(amounts);
+            putInts(epochDays);
+            putInts(ibanIds);
+            putInts(categoryIds);
+            putInts(currencyIds);
+            buffer.putInt(checksum(buffer.slice(0, buffer.position())));
+            blockOffsets.add(channel.position());
+            blockSizes.add(blockSize);
+            writeFully(buffer.flip());
+            blockSize = 0;
+        }
+
+        private void putLongs(long[] column) {
+            buffer.asLongBuffer().put(column, 0, blockSize);
+            buffer.position(buffer.position() + blockSize * Long.BYTES);
+        }
+
+        private void putInts(int[] column) {
+            buffer.asIntBuffer().put(column, 0, blockSize);
+            buffer.position(buffer.position() + blockSize * Integer.BYTES);
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        private static int id(Map<String, Integer> dictionary, String value) {
+            return value == null
+                    ? 0
+                    : dictionary.computeIfAbsent(value, ignored -> dictionary.size() + 1);
+        }
+    }
+
+    /**
+     * Reads a snapshot block by block out of the memory mapped file. The header, footer and
+     * trailer are checked when the snapshot is opened, every block when it is read. Blocks may be
+     * read concurrently.
+     */
+    static final class Reader implements Closeable {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final String[] ibans;
+        private final String[] categories;
+        private final String[] currencies;
+        private final long[] blockOffsets;
+        private final int[] blockSizes;
+        private final long rows;
+
+        Reader(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                var size = channel.size();
+                if (size < HEADER_BYTES + TRAILER_BYTES) {
+                    throw invalid("the file is truncated");
+                }
+                var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                if (header.getInt() != MAGIC) {
+                    throw invalid("the file is not a transaction snapshot");
+                }
+                var version = header.getInt();
+                if (version != VERSION) {
+                    throw invalid(String.format("unsupported version %d", version));
+                }
+                var trailer =
+                        channel.map(
+                                FileChannel.MapMode.READ_ONLY, size - TRAILER_BYTES, TRAILER_BYTES);
+                var footerOffset = trailer.getLong();
+                var footerChecksum = trailer.getInt();
+                if (trailer.getInt() != MAGIC
+                        || footerOffset < HEADER_BYTES
+                        || footerOffset > size - TRAILER_BYTES) {
+                    throw invalid("the file is truncated");
+                }
+                var footer =
+                        channel.map(
+                                FileChannel.MapMode.READ_ONLY,
+                                footerOffset,
+                                size - TRAILER_BYTES - footerOffset);
+                if (checksum(footer) != footerChecksum) {
+                    throw invalid("the footer checksum does not match");
+                }
+                this.ibans = readDictionary(footer);
+                this.categories = readDictionary(footer);
+                this.currencies = readDictionary(footer);
+                var blockCount = footer.getInt();
+                this.blockOffsets = new long[blockCount];
+                this.blockSizes = new int[blockCount];
+                var totalRows = 0L;
+                for (int i = 0; i < blockCount; i++) {
+                    blockOffsets[i] = footer.getLong();
+                    blockSizes[i] = footer.getInt();
+                    if (blockOffsets[i] < HEADER_BYTES
+                            || blockOffsets[i] + blockBytes(blockSizes[i]) > footerOffset) {
+                        throw invalid(String.format("block %d is out of bounds", i));
+                    }
+                    totalRows += blockSizes[i];
+                }
+                this.rows = totalRows;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int blockCount() {
+            return blockOffsets.length;
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        List<TransactionDocument> readBlock(int index) throws IOException {
+            var blockSize = blockSizes[index];
+            var length = (int) blockBytes(blockSize) - CHECKSUM_BYTES;
+            var block =
+                    channel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            blockOffsets[index],
+                            length + CHECKSUM_BYTES);
+            if (checksum(block.slice(0, length)) != block.getInt(length)
+                    || block.getInt(0) != blockSize) {
+                throw invalid(String.format("the checksum of block %d does not match", index));
+            }
+            block.position(BLOCK_HEADER_BYTES);
+            var idMostBits = getLongs(block, blockSize);
+            var idLeastBits = getLongs(block, blockSize);
+            var keyMostBits = getLongs(block, blockSize);
+            var keyLeastBits = getLongs(block, blockSize);
+            var amounts = getLongs(block, blockSize);
+            var epochDays = getInts(block, blockSize);
+            var ibanIds = getInts(block, blockSize);
+            var categoryIds = getInts(block, blockSize);
+            var currencyIds = getInts(block, blockSize);
+            var documents = new ArrayList<TransactionDocument>(blockSize);
+            for (int i = 0; i < blockSize; i++) {
+                var hasKey = keyMostBits[i] != 0 || keyLeastBits[i] != 0;
+                documents.add(
+                        TransactionDocument.builder()
+                                .withId(new UUID(idMostBits[i], idLeastBits[i]))
+                                .withNaturalKey(
+                                        hasKey ? new UUID(keyMostBits[i], keyLeastBits[i]) : null)
+                                .withAmountMinor(amounts[i])
+                                .withDate(
+                                        epochDays[i] == NO_DATE
+                                                ? null
+                                                : LocalDate.ofEpochDay(epochDays[i]))
+                                .withIban(lookup(ibans, ibanIds[i], index))
+                                .withCategory(lookup(categories, categoryIds[i], index))
+                                .withCurrency(lookup(currencies, currencyIds[i], index))
+                                .build());
+            }
+            return documents;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private String lookup(String[] dictionary, int id, int index) {
+            if (id < 0 || id >= dictionary.length) {
+                throw invalid(
+                        String.format("block %d refers to unknown dictionary id %d", index, id));
+            }
+            return dictionary[id];
+        }
+
+        private InvalidSnapshotException invalid(String reason) {
+            return new InvalidSnapshotException(path, reason);
+        }
+
+        private static String[] readDictionary(ByteBuffer footer) {
+            // id 0 stands for a missing value
+            var values = new String[footer.getInt() + 1];
+            for (int i = 1; i < values.length; i++) {
+                var bytes = new byte[footer.getInt()];
+                footer.get(bytes);
+                values[i] = new String(bytes, UTF_8);
+            }
+            return values;
+        }
+
+        private static long[] getLongs(ByteBuffer block, int count) {
+            var column = new long[count];
+            block.asLongBuffer().get(column);
+            block.position(block.position() + count * Long.BYTES);
+            return column;
+        }
+
+        private static int[] getInts(ByteBuffer block, int count) {
+            var column = new int[count];
+            block.asIntBuffer().get(column);
+            block.position(block.position() + count * Integer.BYTES);
+            return column;
+        }
+    }
+
+    private static long blockBytes(int blockSize) {
+        return BLOCK_HEADER_BYTES + (long) blockSize * ROW_BYTES + CHECKSUM_BYTES;
+    }
+
+    private static int checksum(ByteBuffer bytes) {
+        var crc = new CRC32();
+        crc.update(bytes.duplicate());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,177 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import pl.zkotlowski.banktransactionanalyzer.configuration.TransactionSnapshotProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.response.TransactionSnapshotStats;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionIngestRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionScanRepository;
+
+/**
+ * Writes the published transactions to a {@link TransactionSnapshotFile} and loads them back,
+ * without the parsing and validation of an import. Loaded transactions are inserted block by
+ * block on parallel workers and are published right away, they belong to no import job.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TransactionSnapshotService {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,127}");
+
+    private final TransactionScanRepository transactionScanRepository;
+    private final TransactionIngestRepository transactionIngestRepository;
+    private final ImportJobRepository importJobRepository;
+    private final NaturalKeyFilter naturalKeyFilter;
+    private final TransactionRollupService transactionRollupService;
+    private final ColumnarStatisticsEngine columnarStatisticsEngine;
+    private final TransactionSnapshotProperties transactionSnapshotProperties;
+
+    /**
+     * Writes the published transactions to the snapshot of the name, replacing it. The snapshot
+     * is written to a temporary file first, so a failed write leaves the previous one intact.
+     */
+    public TransactionSnapshotStats export(String name) throws IOException {
+        var start = System.nanoTime();
+        var target = resolve(name);
+        Files.createDirectories(target.getParent());
+        var temporary = target.resolveSibling(name + ".tmp");
+        long rows;
+        try (var writer =
+                new TransactionSnapshotFile.Writer(
+                        temporary, transactionSnapshotProperties.blockRows())) {
+            transactionScanRepository.forEachSnapshotted(
+                    pendingImportJobIds(),
+                    document -> {
+                        try {
+                            writer.append(document);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            writer.finish();
+            rows = writer.rows();
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(temporary);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(
+                temporary,
+                target,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        var stats = new TransactionSnapshotStats(name, rows, 0, Files.size(target), millis(start));
+        log.info("Exported {} transactions to snapshot {} in {} ms", rows, name, stats.millis());
+        return stats;
+    }
+
+    /**
+     * Inserts the transactions of the snapshot of the name, skipping the ones already stored,
+     * then rebuilds the rollups and reloads the columnar engine.
+     */
+    public TransactionSnapshotStats load(String name) throws IOException {
+        var start = System.nanoTime();
+        var path = resolve(name);
+        var duplicates = new LongAdder();
+        long rows;
+        try (var reader = new TransactionSnapshotFile.Reader(path);
+                var workers =
+                        Executors.newFixedThreadPool(
+                                transactionSnapshotProperties.loadWorkers(),
+                                Thread.ofPlatform().name("snapshot-load-", 0).factory())) {
+            rows = reader.rows();
+            var blocks = new ArrayList<Future<?>>(reader.blockCount());
+            for (int i = 0; i < reader.blockCount(); i++) {
+                var index = i;
+                blocks.add(
+                        workers.submit(
+                                () -> {
+                                    var documents = reader.readBlock(index);
+                                    duplicates.add(
+                                            transactionIngestRepository
+                                                    .insertUnordered(documents)
+                                                    .size());
+                                    for (var document : documents) {
+                                        if (document.getNaturalKey() != null) {
+                                            naturalKeyFilter.add(document.getNaturalKey());
+                                        }
+                                    }
+                                    return null;
+                                }));
+            }
+            try {
+                for (var block : blocks) {
+                    block.get();
+                }
+            } catch (ExecutionException e) {
+                workers.shutdownNow();
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Snapshot load interrupted.");
+            }
+        }
+        // the rollups and the columnar engine are only updated by imports
+        transactionRollupService.rebuild();
+        columnarStatisticsEngine.reload();
+        var stats =
+                new TransactionSnapshotStats(
+                        name, rows, duplicates.sum(), Files.size(path), millis(start));
+        log.info(
+                "Loaded {} transactions from snapshot {} in {} ms, duplicates: {}",
+                rows,
+                name,
+                stats.millis(),
+                stats.duplicates());
+        return stats;
+    }
+
+    private Path resolve(String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Invalid snapshot name: %s, expected letters, digits, '.', '_' or"
+                                    + " '-'.",
+                            name));
+        }
+        return transactionSnapshotProperties.directory().resolve(name);
+    }
+
+    private List<UUID> pendingImportJobIds() {
+        return importJobRepository.findAllByTransactionsPendingTrue().stream()
+                .map(ImportJobDocument::getId)
+                .toList();
+    }
+
+    private static long millis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
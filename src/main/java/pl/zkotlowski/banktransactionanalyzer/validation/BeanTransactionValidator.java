@@ -0,0 +1,23 @@
+package pl.zkotlowski.banktransactionanalyzer.validation;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/** Validates transactions with Jakarta Bean Validation. */
+@RequiredArgsConstructor
+public class BeanTransactionValidator implements TransactionRowValidator {
+
+    private final Validator validator;
+
+    @Override
+    public List<String> validate(Transaction transaction) {
+        var violations = validator.validate(transaction);
+        if (violations.isEmpty()) {
+            return List.of();
+        }
+        return violations.stream().map(ConstraintViolation::getMessage).toList();
+    }
+}
@@ -0,0 +1,166 @@
+package pl.zkotlowski.banktransactionanalyzer.validation;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/**
+ * Checks the constraints declared on {@link Transaction} with plain comparisons instead of
+ * evaluating the annotations through reflection on every row:
+ *
+ * <ul>
+ *   <li>IBAN and currency patterns are checked character by character,
+ *   <li>{@code @Digits} compares precision and scale of the amount, only stripping trailing zeros
+ *       when the amount is not obviously valid,
+ *   <li>{@code @PastOrPresent} compares with a cached current date, refreshed at midnight.
+ * </ul>
+ *
+ * <p>Violation messages are the same as reported by Bean Validation. Constraints without an
+ * explicit message report the default English message, Bean Validation localizes those to the
+ * default locale. {@code TransactionValidatorTest} keeps both implementations in line, so any
+ * change of the annotations has to be reflected here.
+ */
+public class CompiledTransactionValidator implements TransactionRowValidator {
+
+    static final String NOT_NULL_MESSAGE = "must not be null";
+    static final String IBAN_MESSAGE = "Invalid IBAN format";
+    static final String DATE_MESSAGE = "Transaction date cannot be in the future";
+    static final String CURRENCY_MESSAGE = "Currency must be 3-letter ISO code";
+    static final String CATEGORY_SIZE_MESSAGE = "size must be between 1 and 100";
+    static final String AMOUNT_MESSAGE =
+            "Amount must have at most 12 integer digits and 2 decimal places";
+
+    // ^[A-Z]{2}[0-9]{2}[A-Z0-9]{11,30}$
+    private static final int IBAN_MIN_LENGTH = 2 + 2 + 11;
+    private static final int IBAN_MAX_LENGTH = 2 + 2 + 30;
+    private static final int CURRENCY_LENGTH = 3;
+    private static final int CATEGORY_MIN_LENGTH = 1;
+    private static final int CATEGORY_MAX_LENGTH = 100;
+    private static final int AMOUNT_INTEGER_DIGITS = 12;
+    private static final int AMOUNT_FRACTION_DIGITS = 2;
+
+    private final Clock clock;
+    private volatile Today today;
+
+    public CompiledTransactionValidator(Clock clock) {
+        this.clock = clock;
+        this.today = Today.of(clock);
+    }
+
+    @Override
+    public List<String> validate(Transaction transaction) {
+        List<String> violations = null;
+
+        if (transaction.id() == null) {
+            violations = add(violations, NOT_NULL_MESSAGE);
+        }
+        if (transaction.iban() == null) {
+            violations = add(violations, NOT_NULL_MESSAGE);
+        } else if (!isValidIban(transaction.iban())) {
+            violations = add(violations, IBAN_MESSAGE);
+        }
+        if (transaction.date() == null) {
+            violations = add(violations, NOT_NULL_MESSAGE);
+        } else if (transaction.date().isAfter(today())) {
+            violations = add(violations, DATE_MESSAGE);
+        }
+        if (transaction.currency() == null) {
+            violations = add(violations, NOT_NULL_MESSAGE);
+        } else if (!isValidCurrency(transaction.currency())) {
+            violations = add(violations, CURRENCY_MESSAGE);
+        }
+        if (transaction.category() != null
+                && (transaction.category().length() < CATEGORY_MIN_LENGTH
+                        || transaction.category().length() > CATEGORY_MAX_LENGTH)) {
+            violations = add(violations, CATEGORY_SIZE_MESSAGE);
+        }
+        if (transaction.amount() == null) {
+            violations = add(violations, NOT_NULL_MESSAGE);
+        } else if (!isValidAmount(transaction.amount())) {
+            violations = add(violations, AMOUNT_MESSAGE);
+        }
+
+        return violations == null ? List.of() : violations;
+    }
+
+    static boolean isValidIban(String iban) {
+        var length = iban.length();
+        if (length < IBAN_MIN_LENGTH || length > IBAN_MAX_LENGTH) {
+            return false;
+        }
+        if (!isUpperCaseLetter(iban.charAt(0))
+                || !isUpperCaseLetter(iban.charAt(1))
+                || !isDigit(iban.charAt(2))
+                || !isDigit(iban.charAt(3))) {
+            return false;
+        }
+        for (int i = 4; i < length; i++) {
+            var c = iban.charAt(i);
+            if (!isUpperCaseLetter(c) && !isDigit(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isValidCurrency(String currency) {
+        return currency.length() == CURRENCY_LENGTH
+                && isUpperCaseLetter(currency.charAt(0))
+                && isUpperCaseLetter(currency.charAt(1))
+                && isUpperCaseLetter(currency.charAt(2));
+    }
+
+    /** Same rule as the Hibernate Validator implementation of {@code @Digits}. */
+    static boolean isValidAmount(BigDecimal amount) {
+        var scale = amount.scale();
+        // stripping trailing zeros lowers precision and scale equally, so amounts that already
+        // fit do not need it
+        if (scale >= 0
+                && scale <= AMOUNT_FRACTION_DIGITS
+                && amount.precision() - scale <= AMOUNT_INTEGER_DIGITS) {
+            return true;
+        }
+        var stripped = amount.stripTrailingZeros();
+        var integerLength = stripped.precision() - stripped.scale();
+        var fractionLength = Math.max(stripped.scale(), 0);
+        return integerLength <= AMOUNT_INTEGER_DIGITS && fractionLength <= AMOUNT_FRACTION_DIGITS;
+    }
+
+    private LocalDate today() {
+        var current = today;
+        if (clock.millis() >= current.validUntilMillis) {
+            current = Today.of(clock);
+            today = current;
+        }
+        return current.date;
+    }
+
+    private static List<String> add(List<String> violations, String message) {
+        if (violations == null) {
+            violations = new ArrayList<>(2);
+        }
+        violations.add(message);
+        return violations;
+    }
+
+    private static boolean isUpperCaseLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Current date in the clock's zone, with the instant at which the next day starts. */
+    private record Today(LocalDate date, long validUntilMillis) {
+
+        private static Today of(Clock clock) {
+            var date = LocalDate.now(clock);
+            var nextDayStart = date.plusDays(1).atStartOfDay(clock.getZone()).toInstant();
+            return new Today(date, nextDayStart.toEpochMilli());
+        }
+    }
+}
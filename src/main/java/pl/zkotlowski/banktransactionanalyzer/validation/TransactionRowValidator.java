@@ -0,0 +1,13 @@
+package pl.zkotlowski.banktransactionanalyzer.validation;
+
+import java.util.List;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/** Validates imported transactions against the constraints declared on {@link Transaction}. */
+public interface TransactionRowValidator {
+
+    /**
+     * @return messages of the violated constraints, empty if the transaction is valid
+     */
+    List<String> validate(Transaction transaction);
+}
@@ -0,0 +1,9 @@
+package pl.zkotlowski.banktransactionanalyzer.validation;
+
+/** Selects how imported transaction rows are validated. */
+public enum TransactionValidatorMode {
+    /** Plain checks equivalent to the annotations, see {@link CompiledTransactionValidator}. */
+    COMPILED,
+    /** Jakarta Bean Validation, evaluating the annotations on every row. */
+    BEAN_VALIDATION
+}
@@ -0,0 +1,134 @@
+package pl.zkotlowski.banktransactionanalyzer.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportFormat;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportQuery;
+import pl.zkotlowski.banktransactionanalyzer.service.TransactionService;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionControllerTest {
+
+    private static final String CSV =
+            "iban,date,currency,category,amount\n"
+                    + "DE89370400440532013000,2024-01-15,EUR,GROCERIES,100.50\n";
+
+    @Mock private TransactionService transactionService;
+
+    @InjectMocks private TransactionController transactionController;
+
+    private void givenExportWrites(String content) throws IOException {
+        doAnswer(
+                        invocation -> {
+                            OutputStream outputStream = invocation.getArgument(2);
+                            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+                            return null;
+                        })
+                .when(transactionService)
+                .exportTransactions(any(), any(), any());
+    }
+
+    @Nested
+    @DisplayName("exportTransactions tests")
+    class ExportTransactionsTests {
+
+        @Test
+        @DisplayName("should stream the export as a download of the format")
+        void givenCsvFormat_whenExport_thenCsvDownload() throws IOException {
+            // Given
+            givenExportWrites(CSV);
+
+            // When
+            var response =
+                    transactionController.exportTransactions(
+                            TransactionExportFormat.CSV, false, "DE89", "EUR", null, null);
+            var body = new ByteArrayOutputStream();
+            response.getBody().writeTo(body);
+
+            // Then
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(
+                    MediaType.parseMediaType("text/csv"), response.getHeaders().getContentType());
+            assertEquals(
+                    "attachment; filename=\"transactions.csv\"",
+                    response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+            assertEquals(CSV, body.toString(StandardCharsets.UTF_8));
+            verify(transactionService)
+                    .exportTransactions(
+                            eq(new TransactionExportQuery("DE89", "EUR", null, null)),
+                            eq(TransactionExportFormat.CSV),
+                            any());
+        }
+
+        @Test
+        @DisplayName("should compress the export when gzip is requested")
+        void givenGzip_whenExport_thenGzippedDownload() throws IOException {
+            // Given
+            givenExportWrites(CSV);
+
+            // When
+            var response =
+                    transactionController.exportTransactions(
+                            TransactionExportFormat.CSV, true, null, null, null, null);
+            var body = new ByteArrayOutputStream();
+            response.getBody().writeTo(body);
+
+            // Then
+            assertEquals(
+                    MediaType.parseMediaType("application/gzip"),
+                    response.getHeaders().getContentType());
+            assertEquals(
+                    "attachment; filename=\"transactions.csv.gz\"",
+                    response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+            try (var gunzipped =
+                    new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+                assertEquals(CSV, new String(gunzipped.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        @Test
+        @DisplayName("should reject a date range ending before it starts")
+        void givenInvertedRange_whenExport_thenBadRequest() throws IOException {
+            // When
+            var response =
+                    transactionController.exportTransactions(
+                            TransactionExportFormat.NDJSON,
+                            false,
+                            null,
+                            null,
+                            LocalDate.parse("2024-02-01"),
+                            LocalDate.parse("2024-01-01"));
+            var body = new ByteArrayOutputStream();
+            response.getBody().writeTo(body);
+
+            // Then
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals(
+                    "Export start 2024-02-01 is after its end 2024-01-01.",
+                    body.toString(StandardCharsets.UTF_8));
+            verify(transactionService, never()).exportTransactions(any(), any(), any());
+        }
+    }
+}
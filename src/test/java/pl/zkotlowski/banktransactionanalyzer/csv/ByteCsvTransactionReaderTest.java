@@ -0,0 +1,287 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+class ByteCsvTransactionReaderTest {
+
+    private static final String CSV_HEADER = "iban,date,currency,category,amount\n";
+
+    @Nested
+    @DisplayName("Equivalence with commons-csv tests")
+    class EquivalenceTests {
+
+        @Test
+        @DisplayName("should read sample file exactly like Transaction.fromCsvRow")
+        void givenSampleFile_whenRead_thenSameAsCommonsCsv() throws IOException {
+            // Given
+            byte[] csvContent;
+            try (var inputStream =
+                    getClass().getResourceAsStream("/csv/sample-transactions-1000.csv")) {
+                csvContent = inputStream.readAllBytes();
+            }
+
+            // When
+            var expected = readAll(new CommonsCsvTransactionReader(stream(csvContent)));
+            var result = readAll(new ByteCsvTransactionReader(stream(csvContent)));
+
+            // Then
+            assertEquals(1000, result.size());
+            assertEquals(expected, result);
+        }
+
+        @ParameterizedTest
+        @DisplayName("should read edge case rows exactly like Transaction.fromCsvRow")
+        @ValueSource(
+                strings = {
+                    "de89 3704\t0044 0532 0130 00,2024-01-15,EUR,  groceries  ,100.50",
+                    "DE89370400440532013000,2024-02-30,EUR,FOOD,-0.00",
+                    "DE89370400440532013000,2023-04-31,EUR,FOOD,+.5",
+                    "DE89370400440532013000,2024-01-15,EUR,FOOD,1.",
+                    "DE89370400440532013000,2024-01-15,EUR,FOOD,1e3",
+                    "DE89370400440532013000,2024-01-15,EUR,FOOD,1234567890123456789.12",
+                    "DE89370400440532013000,2024-01-15,EUR,FOOD,007.50",
+                    "DE89370400440532013000,2024-01-15,PLN,  żabka ,-15.01",
+                    "\"DE89 3704\",\"2024-01-15\",EUR,\"food, \"\"fresh\"\"\" ,\"5.10\"",
+                    "DE89370400440532013000,2024-01-15,EUR,,5,extra",
+                    "DE89370400440532013000,2024-01-15,EUR,FOOD,5\r\n\r\nDE89,2024-01-16,EUR,FOOD,6"
+                })
+        void givenEdgeCaseRow_whenRead_thenSameAsCommonsCsv(String rows) throws IOException {
+            // Given
+            var csvContent = (CSV_HEADER + rows).getBytes(StandardCharsets.UTF_8);
+
+            // When
+            var expected = readAll(new CommonsCsvTransactionReader(stream(csvContent)));
+            var result = readAll(new ByteCsvTransactionReader(stream(csvContent)));
+
+            // Then
+            assertEquals(expected, result);
+        }
+
+        @Test
+        @DisplayName("should read records split across buffer refills")
+        void givenRecordsLargerThanBuffer_whenRead_thenReadAllRows() throws IOException {
+            // Given
+            var longCategory = "x".repeat(200_000);
+            var csvContent =
+                    (CSV_HEADER
+                                    + "DE89370400440532013000,2024-01-15,EUR,GROCERIES,100.50\n"
+                                            .repeat(5_000)
+                                    + "DE89370400440532013000,2024-01-15,EUR,"
+                                    + longCategory
+                                    + ",1\n")
+                            .getBytes(StandardCharsets.UTF_8);
+
+            // When
+            var expected = readAll(new CommonsCsvTransactionReader(stream(csvContent)));
+            var result = readAll(new ByteCsvTransactionReader(stream(csvContent)));
+
+            // Then
+            assertEquals(5_001, result.size());
+            assertEquals(expected, result);
+        }
+    }
+
+    @Nested
+    @DisplayName("Invalid input tests")
+    class InvalidInputTests {
+
+        @Test
+        @DisplayName("should fail on row with missing columns")
+        void givenRowWithMissingColumns_whenRead_thenThrowException() {
+            // Given
+            var reader =
+                    new ByteCsvTransactionReader(
+                            stream(
+                                    (CSV_HEADER + "DE89370400440532013000,2024-01-15,EUR")
+                                            .getBytes(StandardCharsets.UTF_8)));
+
+            // When & Then
+            assertThrows(IllegalArgumentException.class, reader::next);
+        }
+
+        @Test
+        @DisplayName("should fail on invalid amount the same way as BigDecimal")
+        void givenInvalidAmount_whenRead_thenThrowNumberFormatException() {
+            // Given
+            var csvContent = CSV_HEADER + "DE89370400440532013000,2024-01-15,EUR,FOOD,1.2.3";
+            var reader =
+                    new ByteCsvTransactionReader(
+                            stream(csvContent.getBytes(StandardCharsets.UTF_8)));
+
+            // When & Then
+            assertThrows(NumberFormatException.class, reader::next);
+        }
+
+        @Test
+        @DisplayName("should return null for file with only header")
+        void givenOnlyHeader_whenRead_thenReturnNull() throws IOException {
+            // Given
+            var reader =
+                    new ByteCsvTransactionReader(
+                            stream(CSV_HEADER.getBytes(StandardCharsets.UTF_8)));
+
+            // When & Then
+            assertNull(reader.next());
+        }
+    }
+
+    @Nested
+    @DisplayName("Chunking tests")
+    class ChunkingTests {
+
+        @Test
+        @DisplayName("should read the same rows from chunks as from the whole file")
+        void givenSmallChunkSize_whenReadChunks_thenSameAsWholeFile() throws IOException {
+            // Given
+            var csvContent =
+                    (CSV_HEADER
+                                    + "\"DE89 3704\",2024-01-15,EUR,\"multi\nline, \"\"quoted\"\"\",1\r\n"
+                                            .repeat(300)
+                                    + "\n\n"
+                                    + "DE89370400440532013000,2024-01-15,EUR,GROCERIES,100.50\n"
+                                            .repeat(300))
+                            .getBytes(StandardCharsets.UTF_8);
+            var expected = readAll(new ByteCsvTransactionReader(stream(csvContent)));
+
+            // When
+            List<List<Object>> result = new ArrayList<>();
+            List<Long> firstRowNumbers = new ArrayList<>();
+            try (var chunker = new ByteCsvChunker(stream(csvContent), 1_000)) {
+                RowChunk chunk;
+                while ((chunk = chunker.nextChunk()) != null) {
+                    firstRowNumbers.add(chunk.firstRowNumber());
+                    result.addAll(readAll(chunk.open()));
+                }
+                assertEquals(600, chunker.rowCount());
+            }
+
+            // Then
+            assertEquals(expected, result);
+            assertEquals(1L, firstRowNumbers.getFirst());
+        }
+
+        @ParameterizedTest
+        @DisplayName("should continue after a chunk end offset with the remaining rows")
+        @ValueSource(strings = {"FAST", "COMMONS"})
+        void givenChunkEndOffset_whenResume_thenRemainingRows(CsvParserMode mode)
+                throws IOException {
+            // Given
+            var csvContent =
+                    (CSV_HEADER
+                                    + "\"DE89 3704\",2024-01-15,EUR,\"multi\nline\",1\r\n"
+                                            .repeat(200))
+                            .getBytes(StandardCharsets.UTF_8);
+            var expected = readAll(new ByteCsvTransactionReader(stream(csvContent)));
+            long resumeOffset;
+            long resumeRowCount;
+            try (var chunker = TransactionCsvChunker.open(stream(csvContent), mode, 1_000)) {
+                var firstChunk = chunker.nextChunk();
+                resumeOffset = firstChunk.endOffset();
+                resumeRowCount = chunker.rowCount();
+            }
+
+            // When
+            List<List<Object>> result = new ArrayList<>();
+            long firstRowNumber;
+            try (var chunker =
+                    TransactionCsvChunker.open(
+                            stream(csvContent), mode, 1_000, resumeOffset, resumeRowCount)) {
+                var chunk = chunker.nextChunk();
+                firstRowNumber = chunk.firstRowNumber();
+                do {
+                    result.addAll(readAll(chunk.open()));
+                } while ((chunk = chunker.nextChunk()) != null);
+                assertEquals(200, chunker.rowCount());
+            }
+
+            // Then
+            assertEquals(resumeRowCount + 1, firstRowNumber);
+            assertEquals(expected.subList((int) resumeRowCount, expected.size()), result);
+        }
+    }
+
+    @Nested
+    @DisplayName("Parser selection tests")
+    class ParserSelectionTests {
+
+        @Test
+        @DisplayName("should use byte-level parser for standard header in AUTO mode")
+        void givenStandardHeader_whenOpenAuto_thenByteChunker() throws IOException {
+            // Given
+            var csvContent = (CSV_HEADER + "DE89,2024-01-15,EUR,FOOD,1").getBytes();
+
+            // When
+            var chunker =
+                    TransactionCsvChunker.open(stream(csvContent), CsvParserMode.AUTO, 1_024);
+
+            // Then
+            assertAll(
+                    () -> assertInstanceOf(ByteCsvChunker.class, chunker),
+                    () ->
+                            assertEquals(
+                                    LocalDate.of(2024, 1, 15),
+                                    chunker.nextChunk().open().next().date()));
+        }
+
+        @Test
+        @DisplayName("should fall back to commons-csv for non-standard header in AUTO mode")
+        void givenNonStandardHeader_whenOpenAuto_thenCommonsChunker() throws IOException {
+            // Given
+            var csvContent =
+                    "\"iban\",\"date\",\"currency\",\"category\",\"amount\"\nDE89,2024-01-15,EUR,FOOD,1"
+                            .getBytes();
+
+            // When
+            var chunker =
+                    TransactionCsvChunker.open(stream(csvContent), CsvParserMode.AUTO, 1_024);
+
+            // Then
+            assertAll(
+                    () -> assertInstanceOf(CommonsCsvChunker.class, chunker),
+                    () ->
+                            assertEquals(
+                                    BigDecimal.ONE, chunker.nextChunk().open().next().amount()));
+        }
+    }
+
+    /** Reads all rows, mapping each transaction to its values without the random id. */
+    private static List<List<Object>> readAll(TransactionCsvReader reader) throws IOException {
+        List<List<Object>> rows = new ArrayList<>();
+        try (reader) {
+            Transaction transaction;
+            while ((transaction = reader.next()) != null) {
+                rows.add(
+                        List.of(
+                                transaction.iban(),
+                                transaction.date(),
+                                transaction.currency(),
+                                transaction.category(),
+                                transaction.amount()));
+            }
+        }
+        return rows;
+    }
+
+    private static InputStream stream(byte[] content) {
+        return new ByteArrayInputStream(content);
+    }
+}
@@ -0,0 +1,99 @@
+package pl.zkotlowski.banktransactionanalyzer.csv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+/**
+ * Compares the rows/sec of the byte-level reader with the commons-csv reader on the standard
+ * layout, and checks the byte-level one reaches the targeted speedup. Run with e.g. {@code
+ * BENCHMARK_CSV_ROWS=2000000 ./gradlew test --tests '*CsvParserBenchmarkTest'}, {@code
+ * BENCHMARK_CSV_MIN_SPEEDUP} sets the expected speedup (default 5).
+ */
+@EnabledIfEnvironmentVariable(named = "BENCHMARK_CSV_ROWS", matches = ".+")
+@Slf4j
+class CsvParserBenchmarkTest {
+
+    private static final int RUNS = 5;
+    private static final List<String> CURRENCIES = List.of("EUR", "PLN", "USD");
+    private static final List<String> CATEGORIES =
+            List.of("GROCERIES", " restaurants ", "Transport", "RENT", "utilities");
+
+    @Test
+    @DisplayName("should read the standard layout at least the target times faster")
+    void givenStandardCsv_whenRead_thenByteReaderReachesTargetSpeedup() throws IOException {
+        // Given
+        var rows = Integer.parseInt(System.getenv("BENCHMARK_CSV_ROWS"));
+        var minSpeedup =
+                Double.parseDouble(System.getenv().getOrDefault("BENCHMARK_CSV_MIN_SPEEDUP", "5"));
+        var csvContent = generate(rows);
+
+        // When
+        var commonsRowsPerSecond = bestRowsPerSecond(csvContent, rows, false);
+        var byteRowsPerSecond = bestRowsPerSecond(csvContent, rows, true);
+
+        // Then
+        var speedup = byteRowsPerSecond / commonsRowsPerSecond;
+        log.info(
+                "commons-csv {} rows/s, byte reader {} rows/s, speedup {}",
+                Math.round(commonsRowsPerSecond),
+                Math.round(byteRowsPerSecond),
+                String.format("%.1f", speedup));
+        assertTrue(
+                speedup >= minSpeedup,
+                String.format("speedup %.1f is below %.1f", speedup, minSpeedup));
+    }
+
+    private static byte[] generate(int rows) {
+        var random = new Random(42);
+        var csv = new StringBuilder(rows * 64).append("iban,date,currency,category,amount\n");
+        var firstDay = LocalDate.parse("2020-01-01").toEpochDay();
+        for (int i = 0; i < rows; i++) {
+            csv.append("DE")
+                    .append(10 + random.nextInt(90))
+                    .append(String.format("%018d", random.nextLong(1_000_000_000_000_000_000L)))
+                    .append(',')
+                    .append(LocalDate.ofEpochDay(firstDay + random.nextInt(1800)))
+                    .append(',')
+                    .append(CURRENCIES.get(random.nextInt(CURRENCIES.size())))
+                    .append(',')
+                    .append(CATEGORIES.get(random.nextInt(CATEGORIES.size())))
+                    .append(',')
+                    .append(random.nextInt(-500_000, 500_000) / 100.0)
+                    .append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // best of the runs, the first ones warm up the JIT
+    private static double bestRowsPerSecond(byte[] csvContent, int rows, boolean byteReader)
+            throws IOException {
+        var best = 0.0;
+        for (int run = 0; run < RUNS; run++) {
+            var start = System.nanoTime();
+            var inputStream = new ByteArrayInputStream(csvContent);
+            var read = 0;
+            try (var reader =
+                    byteReader
+                            ? new ByteCsvTransactionReader(inputStream)
+                            : new CommonsCsvTransactionReader(inputStream)) {
+                while (reader.next() != null) {
+                    read++;
+                }
+            }
+            assertEquals(rows, read);
+            best = Math.max(best, rows / ((System.nanoTime() - start) / 1e9));
+        }
+        return best;
+    }
+}
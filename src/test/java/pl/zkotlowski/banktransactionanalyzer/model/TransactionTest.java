@@ -59,7 +59,7 @@ class TransactionTest {
             when(transactionDocument.getDate()).thenReturn(expectedDate);
             when(transactionDocument.getCurrency()).thenReturn(expectedCurrency);
             when(transactionDocument.getCategory()).thenReturn(expectedCategory);
-            when(transactionDocument.getAmount()).thenReturn(expectedAmount);
+            when(transactionDocument.getAmountMinor()).thenReturn(10050L);
 
             // When
             Transaction result = Transaction.fromEntity(transactionDocument);
@@ -0,0 +1,72 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AmountSketchTest {
+
+    @Test
+    @DisplayName("should estimate percentiles within 1% and merge partitions into the same sketch")
+    void givenPartitionedAmounts_whenMerge_thenSamePercentilesAsOneSketch() {
+        // Given
+        var random = new Random(42);
+        var amounts = new long[100_000];
+        var whole = new AmountSketch();
+        var partitions = List.of(new AmountSketch(), new AmountSketch(), new AmountSketch());
+        for (int i = 0; i < amounts.length; i++) {
+            var magnitude = (long) Math.exp(random.nextGaussian() * 2 + 8);
+            amounts[i] = random.nextInt(4) == 0 ? magnitude : -magnitude;
+            whole.add(amounts[i]);
+            partitions.get(i % partitions.size()).add(amounts[i]);
+        }
+        Arrays.sort(amounts);
+
+        // When
+        var merged = new AmountSketch();
+        partitions.forEach(merged::merge);
+
+        // Then
+        assertEquals(whole.count(), merged.count());
+        assertEquals(whole.sum(), merged.sum());
+        assertEquals(whole.histogram(), merged.histogram());
+        for (var percentile : List.of(1.0, 50.0, 90.0, 99.0, 99.9)) {
+            var exact = amounts[(int) Math.ceil(percentile / 100 * amounts.length) - 1];
+            var estimate = whole.percentile(percentile);
+            assertEquals(estimate, merged.percentile(percentile));
+            assertTrue(
+                    Math.abs(estimate - exact) <= Math.abs(exact) / 100,
+                    percentile + ": " + estimate + " vs " + exact);
+        }
+        assertEquals(amounts[amounts.length - 1], whole.percentile(100));
+    }
+
+    @Test
+    @DisplayName("should count amounts per power of two, small amounts exactly")
+    void givenAmounts_whenHistogram_thenBinsPerPowerOfTwo() {
+        // Given
+        var sketch = new AmountSketch();
+        for (var amount : List.of(-300L, -1L, 0L, 5L, 7L, 128L, 255L)) {
+            sketch.add(amount);
+        }
+
+        // When
+        var histogram = sketch.histogram();
+
+        // Then
+        assertEquals(
+                List.of(
+                        new AmountSketch.Bin(-511, -256, 1),
+                        new AmountSketch.Bin(-1, -1, 1),
+                        new AmountSketch.Bin(0, 0, 1),
+                        new AmountSketch.Bin(4, 7, 2),
+                        new AmountSketch.Bin(128, 255, 2)),
+                histogram);
+        assertEquals(5, sketch.percentile(50));
+    }
+}
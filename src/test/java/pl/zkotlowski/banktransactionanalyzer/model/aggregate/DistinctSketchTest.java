@@ -0,0 +1,58 @@
+package pl.zkotlowski.banktransactionanalyzer.model.aggregate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class DistinctSketchTest {
+
+    @Test
+    @DisplayName("should estimate within 3 standard errors and merge overlapping partitions")
+    void givenOverlappingPartitions_whenMerge_thenSameSketchAsUnion() {
+        // Given
+        var precision = DistinctSketch.precisionFor(0.01);
+        var union = new DistinctSketch(precision);
+        var january = new DistinctSketch(precision);
+        var february = new DistinctSketch(precision);
+        for (int i = 0; i < 60_000; i++) {
+            var iban = String.format("PL%026d", i);
+            union.add(iban);
+            (i < 40_000 ? january : february).add(iban);
+            if (i >= 20_000 && i < 40_000) {
+                february.add(iban);
+            }
+        }
+
+        // When
+        january.merge(DistinctSketch.fromBytes(february.toBytes()));
+
+        // Then
+        assertEquals(14, precision);
+        assertArrayEquals(union.toBytes(), january.toBytes());
+        var error = Math.abs(union.estimate() - 60_000) / 60_000.0;
+        assertTrue(error <= 3 * DistinctSketch.standardError(precision), "error: " + error);
+    }
+
+    @Test
+    @DisplayName("should count few values exactly and reduce to a lower precision")
+    void givenFewValues_whenReduce_thenSameAsBuiltAtLowerPrecision() {
+        // Given
+        var sketch = new DistinctSketch(14);
+        var lower = new DistinctSketch(10);
+        for (int i = 0; i < 100; i++) {
+            sketch.add("DE" + i);
+            sketch.add("DE" + i);
+            lower.add("DE" + i);
+        }
+
+        // When
+        var reduced = DistinctSketch.fromBytes(sketch.toBytes()).reduce(10);
+
+        // Then
+        assertEquals(100, sketch.estimate(), 1);
+        assertArrayEquals(lower.toBytes(), reduced.toBytes());
+    }
+}
@@ -0,0 +1,142 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+/**
+ * Compares the balance aggregation on string amounts (the legacy shape, coerced with {@code
+ * $toDecimal}) with the same aggregation on minor units. Needs a MongoDB instance, run with e.g.
+ * {@code BENCHMARK_MONGO_URI=mongodb://localhost:27017 ./gradlew test --tests
+ * '*AmountStorageBenchmarkTest'}, {@code BENCHMARK_ROWS} sets the collection size (default 1M).
+ * Minor units are expected to be both faster to aggregate and smaller.
+ */
+@EnabledIfEnvironmentVariable(named = "BENCHMARK_MONGO_URI", matches = ".+")
+@Slf4j
+class AmountStorageBenchmarkTest {
+
+    private static final int RUNS = 5;
+    private static final int INSERT_BATCH = 10_000;
+
+    @Test
+    @DisplayName("should aggregate minor units faster and store them smaller with equal balances")
+    void givenLargeCollection_whenAggregateBalance_thenCompareStorageFormats() {
+        var rows =
+                Integer.parseInt(System.getenv().getOrDefault("BENCHMARK_ROWS", "1000000"));
+        try (var client = MongoClients.create(System.getenv("BENCHMARK_MONGO_URI"))) {
+            // Given
+            var database = client.getDatabase("amount-storage-benchmark");
+            database.drop();
+            var legacy = database.getCollection("legacy");
+            var minor = database.getCollection("minor");
+            seed(legacy, minor, rows);
+            var legacyPipeline = balancePipeline(new Document("$toDecimal", "$amount"));
+            var minorPipeline = balancePipeline("$amount_minor");
+
+            // When
+            var legacyResult = legacy.aggregate(legacyPipeline).first();
+            var minorResult = minor.aggregate(minorPipeline).first();
+            var legacyMillis = medianMillis(legacy, legacyPipeline);
+            var minorMillis = medianMillis(minor, minorPipeline);
+
+            // Then
+            var legacySize = averageDocumentSize(database, "legacy", legacyMillis);
+            var minorSize = averageDocumentSize(database, "minor", minorMillis);
+            for (var total : List.of("expenses", "income")) {
+                var legacyTotal = legacyResult.get(total, Decimal128.class).bigDecimalValue();
+                var minorTotal = BigDecimal.valueOf(minorResult.getLong(total), 2);
+                assertEquals(0, legacyTotal.compareTo(minorTotal), total);
+            }
+            assertTrue(
+                    minorMillis < legacyMillis,
+                    String.format(
+                            "minor units took %d ms, string amounts %d ms",
+                            minorMillis, legacyMillis));
+            assertTrue(
+                    minorSize < legacySize,
+                    String.format(
+                            "minor units take %d bytes per document, string amounts %d",
+                            minorSize, legacySize));
+        }
+    }
+
+    private static void seed(
+            MongoCollection<Document> legacy, MongoCollection<Document> minor, int rows) {
+        var random = ThreadLocalRandom.current();
+        var legacyBatch = new ArrayList<Document>(INSERT_BATCH);
+        var minorBatch = new ArrayList<Document>(INSERT_BATCH);
+        for (int i = 0; i < rows; i++) {
+            var cents = random.nextLong(-500_000, 500_000);
+            legacyBatch.add(
+                    new Document("currency", "EUR")
+                            .append("amount", BigDecimal.valueOf(cents, 2).toPlainString()));
+            minorBatch.add(new Document("currency", "EUR").append("amount_minor", cents));
+            if (legacyBatch.size() == INSERT_BATCH || i == rows - 1) {
+                legacy.insertMany(legacyBatch);
+                minor.insertMany(minorBatch);
+                legacyBatch.clear();
+                minorBatch.clear();
+            }
+        }
+    }
+
+    private static List<Document> balancePipeline(Object amount) {
+        return List.of(
+                new Document("$match", new Document("currency", "EUR")),
+                new Document("$project", new Document("amount", amount)),
+                new Document(
+                        "$group",
+                        new Document("_id", null)
+                                .append("expenses", conditionalSum("$lt"))
+                                .append("income", conditionalSum("$gte"))));
+    }
+
+    private static Document conditionalSum(String operator) {
+        return new Document(
+                "$sum",
+                new Document(
+                        "$cond",
+                        List.of(new Document(operator, List.of("$amount", 0)), "$amount", 0)));
+    }
+
+    private static long medianMillis(
+            MongoCollection<Document> collection, List<Document> pipeline) {
+        var millis = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            var start = System.nanoTime();
+            collection.aggregate(pipeline).first();
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        Arrays.sort(millis);
+        return millis[RUNS / 2];
+    }
+
+    // logs the timing and size of the collection, returns its average document size
+    private static int averageDocumentSize(
+            MongoDatabase database, String collection, long millis) {
+        var stats = database.runCommand(new Document("collStats", collection));
+        var averageSize = stats.get("avgObjSize", Number.class).intValue();
+        log.info(
+                "{}: median {} ms, avg document {} bytes, data {} bytes",
+                collection,
+                millis,
+                averageSize,
+                stats.get("size", Number.class).longValue());
+        return averageSize;
+    }
+}
@@ -0,0 +1,204 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import org.bson.UuidRepresentation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument.Status;
+
+/**
+ * Checks the leases of the import queue against a real MongoDB instance, run with e.g. {@code
+ * MONGO_TEST_URI=mongodb://localhost:27017 ./gradlew test --tests '*ImportJobQueueRepositoryTest'}.
+ */
+@EnabledIfEnvironmentVariable(named = "MONGO_TEST_URI", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ImportJobQueueRepositoryTest {
+
+    private static final String DATABASE = "import-job-queue-test";
+    private static final String WORKER = "worker-1";
+    private static final String OTHER_WORKER = "worker-2";
+    private static final Duration LEASE = Duration.ofSeconds(30);
+    private static final Instant NOW = Instant.parse("2025-03-01T12:00:00Z");
+
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private ImportJobQueueRepository importJobQueueRepository;
+
+    @BeforeAll
+    void setUp() {
+        client =
+                MongoClients.create(
+                        MongoClientSettings.builder()
+                                .applyConnectionString(
+                                        new ConnectionString(System.getenv("MONGO_TEST_URI")))
+                                .uuidRepresentation(UuidRepresentation.STANDARD)
+                                .build());
+        client.getDatabase(DATABASE).drop();
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        importJobQueueRepository = new ImportJobQueueRepository(mongoTemplate);
+    }
+
+    @BeforeEach
+    void clearQueue() {
+        mongoTemplate.dropCollection(ImportJobDocument.class);
+    }
+
+    @AfterAll
+    void tearDown() {
+        client.getDatabase(DATABASE).drop();
+        client.close();
+    }
+
+    private ImportJobDocument queued(int priority) {
+        return mongoTemplate.insert(
+                ImportJobDocument.createNew(UUID.randomUUID(), priority, UUID.randomUUID() + ""));
+    }
+
+    @Nested
+    @DisplayName("claimNext tests")
+    class ClaimNextTests {
+
+        @Test
+        @DisplayName("should claim the queued job with the highest priority")
+        void givenQueuedJobs_whenClaimNext_thenHighestPriorityLeased() {
+            // Given
+            queued(0);
+            var urgent = queued(5);
+
+            // When
+            var claimed = importJobQueueRepository.claimNext(WORKER, NOW, LEASE).orElseThrow();
+
+            // Then
+            assertEquals(urgent.getId(), claimed.getId());
+            assertEquals(Status.IMPORT_IN_PROGRESS, claimed.getStatus());
+            assertEquals(WORKER, claimed.getLeaseOwner());
+            assertEquals(NOW.plus(LEASE), claimed.getLeaseExpiresAt());
+            assertEquals(1, claimed.getAttempts());
+        }
+
+        @Test
+        @DisplayName("should not claim a job whose lease is still held")
+        void givenLiveLease_whenClaimNext_thenNothingClaimed() {
+            // Given
+            queued(0);
+            importJobQueueRepository.claimNext(WORKER, NOW, LEASE);
+
+            // When
+            var claimed =
+                    importJobQueueRepository.claimNext(
+                            OTHER_WORKER, NOW.plus(LEASE).minusSeconds(1), LEASE);
+
+            // Then
+            assertTrue(claimed.isEmpty());
+        }
+
+        @Test
+        @DisplayName("should hand a job whose lease expired to another worker")
+        void givenExpiredLease_whenClaimNext_thenReclaimedByOtherWorker() {
+            // Given
+            var job = queued(0);
+            importJobQueueRepository.claimNext(WORKER, NOW, LEASE);
+            var expired = NOW.plus(LEASE).plusSeconds(1);
+
+            // When
+            var reclaimed =
+                    importJobQueueRepository.claimNext(OTHER_WORKER, expired, LEASE).orElseThrow();
+
+            // Then
+            assertEquals(job.getId(), reclaimed.getId());
+            assertEquals(OTHER_WORKER, reclaimed.getLeaseOwner());
+            assertEquals(expired.plus(LEASE), reclaimed.getLeaseExpiresAt());
+            assertEquals(2, reclaimed.getAttempts());
+        }
+    }
+
+    @Nested
+    @DisplayName("Lease owner tests")
+    class LeaseOwnerTests {
+
+        @Test
+        @DisplayName("should renew the lease for its owner")
+        void givenOwner_whenRenewLease_thenLeaseExtended() {
+            // Given
+            var job = queued(0);
+            importJobQueueRepository.claimNext(WORKER, NOW, LEASE);
+            var expiresAt = NOW.plus(LEASE.multipliedBy(2));
+
+            // When
+            var renewed = importJobQueueRepository.renewLease(job.getId(), WORKER, expiresAt);
+
+            // Then
+            assertTrue(renewed);
+            assertEquals(
+                    expiresAt,
+                    mongoTemplate.findById(job.getId(), ImportJobDocument.class)
+                            .getLeaseExpiresAt());
+        }
+
+        @Test
+        @DisplayName("should reject the renewals and updates of a worker that lost its lease")
+        void givenLeaseReclaimed_whenStaleOwnerUpdates_thenRejected() {
+            // Given
+            var job = queued(0);
+            importJobQueueRepository.claimNext(WORKER, NOW, LEASE);
+            importJobQueueRepository.claimNext(OTHER_WORKER, NOW.plus(LEASE).plusSeconds(1), LEASE);
+
+            // When
+            var renewed =
+                    importJobQueueRepository.renewLease(
+                            job.getId(), WORKER, NOW.plus(LEASE.multipliedBy(3)));
+            var updated =
+                    importJobQueueRepository.updateOwned(
+                            job.getId(),
+                            WORKER,
+                            new Update().set("checkpoint", new ImportCheckpoint(500, 10)));
+
+            // Then
+            assertFalse(renewed);
+            assertFalse(updated);
+            var stored = mongoTemplate.findById(job.getId(), ImportJobDocument.class);
+            assertEquals(OTHER_WORKER, stored.getLeaseOwner());
+            assertEquals(NOW.plus(LEASE).plusSeconds(1).plus(LEASE), stored.getLeaseExpiresAt());
+            assertNull(stored.getCheckpoint());
+        }
+
+        @Test
+        @DisplayName("should reject updates once the job is no longer running")
+        void givenCompletedJob_whenOwnerUpdates_thenRejected() {
+            // Given
+            var job = queued(0);
+            importJobQueueRepository.claimNext(WORKER, NOW, LEASE);
+            importJobQueueRepository.updateOwned(
+                    job.getId(), WORKER, new Update().set("status", Status.COMPLETED));
+
+            // When
+            var renewed =
+                    importJobQueueRepository.renewLease(
+                            job.getId(), WORKER, NOW.plus(LEASE.multipliedBy(2)));
+
+            // Then
+            assertFalse(renewed);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import pl.zkotlowski.banktransactionanalyzer.configuration.MongoWorkloadProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistributionQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceGranularity;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceSeriesQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.DistinctIbanQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionRollupDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsPipelineBuilder.StatisticsPipeline;
+
+/**
+ * Checks with {@code explain} that the statistics pipeline of every attribute starts with an
+ * index scan of its collection. Needs a MongoDB instance, run with e.g. {@code
+ * MONGO_TEST_URI=mongodb://localhost:27017 ./gradlew test --tests
+ * '*TransactionAggregationIndexTest'}.
+ */
+@EnabledIfEnvironmentVariable(named = "MONGO_TEST_URI", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TransactionAggregationIndexTest {
+
+    private static final String DATABASE = "transaction-aggregation-index-test";
+    private static final Map<TransactionFilterByAttribute, String> SAMPLE_VALUES =
+            Map.of(
+                    TransactionFilterByAttribute.IBAN, "DE89370400440532013000",
+                    TransactionFilterByAttribute.CATEGORY, "GROCERIES",
+                    TransactionFilterByAttribute.DATE, "2025-01-15",
+                    TransactionFilterByAttribute.YEAR_MONTH, "2025-01",
+                    TransactionFilterByAttribute.CURRENCY, "EUR");
+
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private TransactionAggregationRepository repository;
+
+    @BeforeAll
+    void setUp() {
+        client =
+                MongoClients.create(
+                        MongoClientSettings.builder()
+                                .applyConnectionString(
+                                        new ConnectionString(System.getenv("MONGO_TEST_URI")))
+                                .uuidRepresentation(UuidRepresentation.STANDARD)
+                                .build());
+        client.getDatabase(DATABASE).drop();
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        var indexResolver =
+                new MongoPersistentEntityIndexResolver(
+                        mongoTemplate.getConverter().getMappingContext());
+        for (var type : List.of(TransactionDocument.class, TransactionRollupDocument.class)) {
+            var indexOps = mongoTemplate.indexOps(type);
+            indexResolver.resolveIndexFor(type).forEach(indexOps::createIndex);
+        }
+
+        var importJobRepository = mock(ImportJobRepository.class);
+        when(importJobRepository.findAllByTransactionsPendingTrue()).thenReturn(List.of());
+        var workload =
+                new MongoWorkload(
+                        "query",
+                        client,
+                        DATABASE,
+                        mongoTemplate.getConverter(),
+                        new MongoWorkloadProperties.Workload(
+                                1, 1, Duration.ZERO, "primary", Duration.ZERO));
+        repository =
+                new TransactionAggregationRepository(
+                        new MongoWorkloads(workload, workload, workload), importJobRepository);
+    }
+
+    @AfterAll
+    void tearDown() {
+        client.getDatabase(DATABASE).drop();
+        client.close();
+    }
+
+    Stream<Arguments> pipelines() {
+        var published = repository.published();
+        var pipelines = new LinkedHashMap<String, StatisticsPipeline>();
+        for (var attribute : TransactionFilterByAttribute.values()) {
+            pipelines.put(
+                    "top spent by " + attribute,
+                    StatisticsPipelineBuilder.topSpent(attribute, 5, "EUR"));
+            pipelines.put(
+                    "balance by " + attribute,
+                    StatisticsPipelineBuilder.balance(
+                            attribute, SAMPLE_VALUES.get(attribute), "EUR"));
+        }
+        var single =
+                pipelines.entrySet().stream()
+                        .map(
+                                pipeline ->
+                                        Arguments.of(
+                                                pipeline.getKey(),
+                                                pipeline.getValue().type(),
+                                                pipeline.getValue().aggregation(published)));
+        // a batch of every pipeline of the collection
+        var batches =
+                pipelines.values().stream()
+                        .collect(Collectors.groupingBy(StatisticsPipeline::type))
+                        .entrySet()
+                        .stream()
+                        .map(
+                                batch ->
+                                        Arguments.of(
+                                                "batch on " + batch.getKey().getSimpleName(),
+                                                batch.getKey(),
+                                                StatisticsPipelineBuilder.facet(
+                                                        batch.getValue(), published)));
+        var series =
+                Stream.of(
+                                new BalanceSeriesQuery(
+                                        LocalDate.parse("2021-01-01"),
+                                        LocalDate.parse("2025-12-31"),
+                                        BalanceGranularity.MONTH,
+                                        "EUR",
+                                        null,
+                                        null),
+                                new BalanceSeriesQuery(
+                                        LocalDate.parse("2025-01-15"),
+                                        LocalDate.parse("2025-03-15"),
+                                        BalanceGranularity.WEEK,
+                                        "EUR",
+                                        SAMPLE_VALUES.get(TransactionFilterByAttribute.IBAN),
+                                        null))
+                        .map(
+                                query -> {
+                                    var pipeline = StatisticsPipelineBuilder.balanceSeries(query);
+                                    return Arguments.of(
+                                            "balance series by " + query.granularity(),
+                                            pipeline.type(),
+                                            pipeline.aggregation(published));
+                                });
+        var distributions =
+                Stream.of(
+                                new AmountDistributionQuery(
+                                        TransactionFilterByAttribute.CATEGORY,
+                                        "EUR",
+                                        LocalDate.parse("2025-01-01"),
+                                        LocalDate.parse("2025-03-31"),
+                                        null),
+                                new AmountDistributionQuery(
+                                        TransactionFilterByAttribute.IBAN,
+                                        "EUR",
+                                        LocalDate.parse("2025-01-15"),
+                                        LocalDate.parse("2025-03-15"),
+                                        null))
+                        .map(
+                                query -> {
+                                    var pipeline = StatisticsPipelineBuilder.distribution(query);
+                                    return Arguments.of(
+                                            "distribution by " + query.groupBy(),
+                                            pipeline.type(),
+                                            pipeline.aggregation(published));
+                                });
+        var distinctIbans =
+                StatisticsPipelineBuilder.distinctIbans(
+                        new DistinctIbanQuery(
+                                TransactionFilterByAttribute.CATEGORY,
+                                "EUR",
+                                YearMonth.parse("2025-01"),
+                                YearMonth.parse("2025-03"),
+                                true));
+        return Stream.of(
+                        single,
+                        batches,
+                        series,
+                        distributions,
+                        Stream.of(
+                                Arguments.of(
+                                        "exact distinct IBANs by CATEGORY",
+                                        distinctIbans.type(),
+                                        distinctIbans.aggregation(published))))
+                .flatMap(arguments -> arguments);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("pipelines")
+    @DisplayName("should run the statistics pipeline on an index scan")
+    void givenPipeline_whenExplain_thenIndexScanWithoutCollectionScan(
+            String name, Class<?> type, Aggregation aggregation) {
+        // When
+        var plan =
+                mongoTemplate
+                        .aggregate(
+                                aggregation.withOptions(
+                                        AggregationOptions.builder().explain(true).build()),
+                                type,
+                                Document.class)
+                        .getRawResults()
+                        .toJson();
+
+        // Then
+        assertTrue(plan.contains("IXSCAN"), plan);
+        assertFalse(plan.contains("COLLSCAN"), plan);
+    }
+}
@@ -0,0 +1,132 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.bson.UuidRepresentation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionSearchCursor;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionSearchQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+/**
+ * Checks with {@code explain} that every shape of search is an index scan returning rows in the
+ * order of the search, without a collection scan or an in-memory sort. Needs a MongoDB instance,
+ * run with e.g. {@code MONGO_TEST_URI=mongodb://localhost:27017 ./gradlew test --tests
+ * '*TransactionSearchIndexTest'}.
+ */
+@EnabledIfEnvironmentVariable(named = "MONGO_TEST_URI", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TransactionSearchIndexTest {
+
+    private static final String DATABASE = "transaction-search-index-test";
+    private static final String IBAN = "DE89370400440532013000";
+    private static final TransactionSearchCursor CURSOR =
+            new TransactionSearchCursor(LocalDate.parse("2025-02-10"), UUID.randomUUID());
+
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+
+    @BeforeAll
+    void setUp() {
+        client =
+                MongoClients.create(
+                        MongoClientSettings.builder()
+                                .applyConnectionString(
+                                        new ConnectionString(System.getenv("MONGO_TEST_URI")))
+                                .uuidRepresentation(UuidRepresentation.STANDARD)
+                                .build());
+        client.getDatabase(DATABASE).drop();
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        var indexResolver =
+                new MongoPersistentEntityIndexResolver(
+                        mongoTemplate.getConverter().getMappingContext());
+        var indexOps = mongoTemplate.indexOps(TransactionDocument.class);
+        indexResolver.resolveIndexFor(TransactionDocument.class).forEach(indexOps::createIndex);
+    }
+
+    @AfterAll
+    void tearDown() {
+        client.getDatabase(DATABASE).drop();
+        client.close();
+    }
+
+    Stream<Arguments> searches() {
+        return Stream.of(
+                Arguments.of("currency", query(null, null, null, null, null)),
+                Arguments.of("iban", query(IBAN, null, null, null, null)),
+                Arguments.of("category", query(null, "GROCERIES", null, null, null)),
+                Arguments.of("iban and category", query(IBAN, "GROCERIES", null, null, null)),
+                Arguments.of(
+                        "date and amount range",
+                        query(
+                                null,
+                                null,
+                                LocalDate.parse("2025-01-01"),
+                                new BigDecimal("-100"),
+                                null)),
+                Arguments.of("next page", query(null, null, null, null, CURSOR)),
+                Arguments.of("next page of an iban", query(IBAN, null, null, null, CURSOR)),
+                Arguments.of(
+                        "next page of a category", query(null, "GROCERIES", null, null, CURSOR)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("searches")
+    @DisplayName("should seek the page on an index in the order of the search")
+    void givenSearch_whenExplain_thenIndexScanWithoutCollectionScanOrSort(
+            String name, TransactionSearchQuery searchQuery) {
+        // Given
+        var query = TransactionSearchRepository.query(searchQuery, List.of(UUID.randomUUID()), 101);
+        var queryMapper = new QueryMapper(mongoTemplate.getConverter());
+        var entity =
+                mongoTemplate
+                        .getConverter()
+                        .getMappingContext()
+                        .getRequiredPersistentEntity(TransactionDocument.class);
+
+        // When
+        var plan =
+                mongoTemplate
+                        .getCollection(mongoTemplate.getCollectionName(TransactionDocument.class))
+                        .find(queryMapper.getMappedObject(query.getQueryObject(), entity))
+                        .sort(queryMapper.getMappedSort(query.getSortObject(), entity))
+                        .limit(query.getLimit())
+                        .explain()
+                        .toJson();
+
+        // Then
+        assertTrue(plan.contains("IXSCAN"), plan);
+        assertFalse(plan.contains("COLLSCAN"), plan);
+        assertFalse(plan.contains("\"stage\": \"SORT\""), plan);
+    }
+
+    private static TransactionSearchQuery query(
+            String iban,
+            String category,
+            LocalDate from,
+            BigDecimal minAmount,
+            TransactionSearchCursor cursor) {
+        return new TransactionSearchQuery(
+                "EUR", iban, category, from, null, minAmount, null, cursor, 100);
+    }
+}
@@ -0,0 +1,183 @@
+package pl.zkotlowski.banktransactionanalyzer.repository;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.Indexes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import pl.zkotlowski.banktransactionanalyzer.configuration.MongoWorkloadProperties;
+
+/**
+ * Measures the latency of a statistics aggregation on the query workload, alone and while import
+ * writers saturate the ingest workload, and checks its p99 under load stays within a target. Needs
+ * a MongoDB instance, run with e.g. {@code BENCHMARK_MONGO_URI=mongodb://localhost:27017 ./gradlew
+ * test --tests '*WorkloadIsolationBenchmarkTest'}, {@code BENCHMARK_STATS_P99_MS} sets the target
+ * (default 250).
+ */
+@EnabledIfEnvironmentVariable(named = "BENCHMARK_MONGO_URI", matches = ".+")
+@Slf4j
+class WorkloadIsolationBenchmarkTest {
+
+    private static final String DATABASE = "workload-isolation-benchmark";
+    private static final int ROLLUPS = 200_000;
+    private static final int QUERIES = 500;
+    private static final int WRITERS = 32;
+    private static final int INSERT_BATCH = 5_000;
+
+    @Test
+    @DisplayName("should keep the stats p99 within the target while an import writes")
+    void givenImportRunning_whenAggregateStatistics_thenP99WithinTarget() throws Exception {
+        var target =
+                Long.parseLong(System.getenv().getOrDefault("BENCHMARK_STATS_P99_MS", "250"));
+        var connectionString = new ConnectionString(System.getenv("BENCHMARK_MONGO_URI"));
+        try (var ingest =
+                        workload(
+                                "ingest",
+                                connectionString,
+                                new MongoWorkloadProperties.Workload(
+                                        8, 8, Duration.ofMinutes(1), "primary", Duration.ZERO));
+                var query =
+                        workload(
+                                "query",
+                                connectionString,
+                                new MongoWorkloadProperties.Workload(
+                                        4,
+                                        4,
+                                        Duration.ofSeconds(2),
+                                        "primary",
+                                        Duration.ofSeconds(20)));
+                var writers = Executors.newFixedThreadPool(WRITERS)) {
+            // Given
+            var rollups = seedRollups(query);
+            var idle = latenciesMillis(query, rollups);
+            var importing = new AtomicBoolean(true);
+            var inserted = new LongAdder();
+            for (int i = 0; i < WRITERS; i++) {
+                writers.submit(() -> insertTransactions(ingest, importing, inserted));
+            }
+
+            // When
+            long[] loaded;
+            try {
+                loaded = latenciesMillis(query, rollups);
+            } finally {
+                importing.set(false);
+                writers.shutdown();
+                writers.awaitTermination(1, TimeUnit.MINUTES);
+            }
+
+            // Then
+            log.info(
+                    "Stats p50/p99 idle {}/{} ms, importing {}/{} ms, {} transactions inserted",
+                    percentile(idle, 50),
+                    percentile(idle, 99),
+                    percentile(loaded, 50),
+                    percentile(loaded, 99),
+                    inserted.sum());
+            assertTrue(inserted.sum() > 0, "no transactions were inserted during the queries");
+            assertTrue(
+                    percentile(loaded, 99) <= target,
+                    String.format(
+                            "stats p99 %d ms exceeds %d ms", percentile(loaded, 99), target));
+        } finally {
+            try (var client = MongoClients.create(connectionString)) {
+                client.getDatabase(DATABASE).drop();
+            }
+        }
+    }
+
+    private static MongoWorkload workload(
+            String name,
+            ConnectionString connectionString,
+            MongoWorkloadProperties.Workload settings) {
+        var client =
+                MongoClients.create(
+                        MongoClientSettings.builder()
+                                .applyConnectionString(connectionString)
+                                .applyToConnectionPoolSettings(
+                                        pool -> pool.maxSize(settings.maxPoolSize()))
+                                .build());
+        return new MongoWorkload(name, client, DATABASE, null, settings);
+    }
+
+    private static List<Document> seedRollups(MongoWorkload query) {
+        query.run(
+                mongoTemplate -> {
+                    mongoTemplate.getDb().drop();
+                    var collection = mongoTemplate.getCollection("rollups");
+                    collection.createIndex(Indexes.ascending("currency", "category"));
+                    var random = ThreadLocalRandom.current();
+                    var batch = new ArrayList<Document>(INSERT_BATCH);
+                    for (int i = 0; i < ROLLUPS; i++) {
+                        batch.add(
+                                new Document("currency", "EUR")
+                                        .append("category", "C" + random.nextInt(50))
+                                        .append("expenses", -random.nextLong(1_000_000))
+                                        .append("income", random.nextLong(1_000_000)));
+                        if (batch.size() == INSERT_BATCH) {
+                            collection.insertMany(batch);
+                            batch.clear();
+                        }
+                    }
+                });
+        // balance of one category, like the balance statistic on rollups
+        return List.of(
+                new Document("$match", new Document("currency", "EUR").append("category", "C7")),
+                new Document(
+                        "$group",
+                        new Document("_id", null)
+                                .append("expenses", new Document("$sum", "$expenses"))
+                                .append("income", new Document("$sum", "$income"))));
+    }
+
+    private static long[] latenciesMillis(MongoWorkload query, List<Document> pipeline) {
+        var millis = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            var start = System.nanoTime();
+            query.run(
+                    mongoTemplate ->
+                            mongoTemplate.getCollection("rollups").aggregate(pipeline).first());
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        Arrays.sort(millis);
+        return millis;
+    }
+
+    private static void insertTransactions(
+            MongoWorkload ingest, AtomicBoolean importing, LongAdder inserted) {
+        var random = ThreadLocalRandom.current();
+        while (importing.get()) {
+            var batch = new ArrayList<Document>(INSERT_BATCH);
+            for (int i = 0; i < INSERT_BATCH; i++) {
+                batch.add(
+                        new Document("currency", "EUR")
+                                .append("iban", "DE" + random.nextLong(1_000_000_000L))
+                                .append("amount_minor", random.nextLong(-500_000, 500_000)));
+            }
+            ingest.run(
+                    mongoTemplate -> mongoTemplate.getCollection("transactions").insertMany(batch));
+            inserted.add(batch.size());
+        }
+    }
+
+    // nearest rank of sorted values
+    private static long percentile(long[] sorted, int percentile) {
+        var rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
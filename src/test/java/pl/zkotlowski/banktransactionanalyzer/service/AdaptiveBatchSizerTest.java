@@ -0,0 +1,167 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.BatchWriteStats;
+
+class AdaptiveBatchSizerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(400);
+    // small enough documents never hit the payload limit of 8MB
+    private static final long DOCUMENT_BYTES = 200;
+
+    private static AdaptiveBatchSizer sizer(int minSize, int maxSize, int initialSize) {
+        return new AdaptiveBatchSizer(
+                new ImportProperties.Batch(
+                        minSize,
+                        maxSize,
+                        initialSize,
+                        Duration.ofMillis(250),
+                        DataSize.ofMegabytes(8)));
+    }
+
+    private static void recordFull(AdaptiveBatchSizer sizer, long latencyNanos) {
+        var size = sizer.batchSize();
+        sizer.record(size, size * DOCUMENT_BYTES, latencyNanos);
+    }
+
+    @Nested
+    @DisplayName("Latency tests")
+    class LatencyTests {
+
+        @Test
+        @DisplayName("should grow by a quarter after full batches within the target latency")
+        void givenFastFullBatches_whenRecord_thenGrowByQuarter() {
+            // Given
+            var sizer = sizer(100, 20_000, 1000);
+
+            // When
+            recordFull(sizer, FAST);
+            var afterFirst = sizer.batchSize();
+            recordFull(sizer, FAST);
+
+            // Then
+            assertEquals(1250, afterFirst);
+            assertEquals(1562, sizer.batchSize());
+        }
+
+        @Test
+        @DisplayName("should halve the size after a batch slower than the target latency")
+        void givenSlowBatch_whenRecord_thenHalve() {
+            // Given
+            var sizer = sizer(100, 20_000, 1000);
+
+            // When
+            recordFull(sizer, SLOW);
+
+            // Then
+            assertEquals(500, sizer.batchSize());
+        }
+
+        @Test
+        @DisplayName("should keep the size after a fast partial batch")
+        void givenFastPartialBatch_whenRecord_thenSizeUnchanged() {
+            // Given
+            var sizer = sizer(100, 20_000, 1000);
+
+            // When
+            sizer.record(300, 300 * DOCUMENT_BYTES, FAST);
+
+            // Then
+            assertEquals(1000, sizer.batchSize());
+        }
+
+        @Test
+        @DisplayName("should halve the size after a slow partial batch")
+        void givenSlowPartialBatch_whenRecord_thenHalve() {
+            // Given
+            var sizer = sizer(100, 20_000, 1000);
+
+            // When
+            sizer.record(300, 300 * DOCUMENT_BYTES, SLOW);
+
+            // Then
+            assertEquals(500, sizer.batchSize());
+        }
+    }
+
+    @Nested
+    @DisplayName("Limit tests")
+    class LimitTests {
+
+        @Test
+        @DisplayName("should clamp the initial size and keep the size between min and max")
+        void givenBounds_whenRecord_thenSizeClamped() {
+            // Given
+            var tooSmall = sizer(100, 1000, 10);
+            var nearMax = sizer(100, 1000, 900);
+
+            // When
+            recordFull(tooSmall, SLOW);
+            recordFull(nearMax, FAST);
+
+            // Then
+            assertEquals(100, tooSmall.batchSize());
+            assertEquals(1000, nearMax.batchSize());
+        }
+
+        @Test
+        @DisplayName("should cap the size by the payload limit from the average document size")
+        void givenLargeDocuments_whenRecord_thenSizeCappedByPayload() {
+            // Given
+            var sizer = sizer(100, 20_000, 10_000);
+
+            // When
+            // 10 000 documents of 2KB, 8MB fits 4096 of them
+            sizer.record(10_000, 10_000 * 2048L, FAST);
+            var afterLarge = sizer.batchSize();
+            // a batch of 1KB documents moves the average by a tenth: 0.9 * 2048 + 0.1 * 1024
+            sizer.record(afterLarge, afterLarge * 1024L, FAST);
+
+            // Then
+            assertEquals(4096, afterLarge);
+            assertEquals((int) (DataSize.ofMegabytes(8).toBytes() / 1945.6), sizer.batchSize());
+        }
+    }
+
+    @Nested
+    @DisplayName("Stats tests")
+    class StatsTests {
+
+        @Test
+        @DisplayName("should report no batches before any is recorded")
+        void givenNoBatch_whenStats_thenEmpty() {
+            // Given
+            var sizer = sizer(100, 20_000, 1000);
+
+            // When
+            var stats = sizer.stats();
+
+            // Then
+            assertEquals(new BatchWriteStats(0, 0, 0, 1000, 0, 0), stats);
+        }
+
+        @Test
+        @DisplayName("should report count, sizes and latencies of the recorded batches")
+        void givenBatches_whenStats_thenSummarized() {
+            // Given
+            var sizer = sizer(100, 20_000, 1000);
+
+            // When
+            sizer.record(1000, 1000 * DOCUMENT_BYTES, FAST);
+            sizer.record(1250, 1250 * DOCUMENT_BYTES, SLOW);
+            sizer.record(200, 200 * DOCUMENT_BYTES, FAST);
+
+            // Then
+            assertEquals(new BatchWriteStats(3, 200, 1250, 625, 200.0, 400.0), sizer.stats());
+        }
+    }
+}
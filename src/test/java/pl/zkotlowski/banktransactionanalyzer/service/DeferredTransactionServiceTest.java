@@ -0,0 +1,263 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+import pl.zkotlowski.banktransactionanalyzer.model.document.DeferredTransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument.Status;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.DeferredTransactionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+
+@ExtendWith(MockitoExtension.class)
+class DeferredTransactionServiceTest {
+
+    @Mock private DeferredTransactionRepository deferredTransactionRepository;
+
+    @Mock private ImportJobRepository importJobRepository;
+
+    @Mock private ImportJobService importJobService;
+
+    @Mock private TransactionService transactionService;
+
+    @InjectMocks private DeferredTransactionService deferredTransactionService;
+
+    private static final UUID OWNER_IMPORT_JOB_ID = UUID.randomUUID();
+
+    private static final UUID BLOCKING_IMPORT_JOB_ID = UUID.randomUUID();
+
+    private static final UUID REINSTATEMENT_JOB_ID = UUID.randomUUID();
+
+    private void givenJob(UUID importJobId, Status status, boolean transactionsPending) {
+        var importJob = ImportJobDocument.createNew(importJobId, 0, importJobId.toString());
+        importJob.setStatus(status);
+        importJob.setTransactionsPending(transactionsPending);
+        when(importJobRepository.findById(importJobId)).thenReturn(Optional.of(importJob));
+    }
+
+    // the owner finished and settles the rows it deferred
+    private void givenOwnerFinished() {
+        when(deferredTransactionRepository.findBlockingImportJobIds(OWNER_IMPORT_JOB_ID))
+                .thenReturn(List.of(BLOCKING_IMPORT_JOB_ID));
+    }
+
+    // the blocking job finished and settles the rows deferred for it
+    private void givenBlockingFinished() {
+        when(deferredTransactionRepository.findOwnerImportJobIds(BLOCKING_IMPORT_JOB_ID))
+                .thenReturn(List.of(OWNER_IMPORT_JOB_ID));
+    }
+
+    private void verifyKept() {
+        verify(deferredTransactionRepository, never()).delete(any(), any());
+        verify(deferredTransactionRepository, never()).reassign(any(), any(), any());
+        verify(importJobService, never()).createReinstatementJob();
+    }
+
+    private static DeferredTransactionDocument deferred(long importRow) {
+        var transaction =
+                new Transaction(
+                        UUID.randomUUID(),
+                        "DE89370400440532013000",
+                        LocalDate.parse("2024-01-15"),
+                        "EUR",
+                        "GROCERIES",
+                        new BigDecimal("100.50"));
+        return DeferredTransactionDocument.of(
+                TransactionDocument.fromDto(
+                        transaction, OWNER_IMPORT_JOB_ID, importRow, UUID.randomUUID()),
+                REINSTATEMENT_JOB_ID);
+    }
+
+    @Nested
+    @DisplayName("settle tests")
+    class SettleTests {
+
+        @Test
+        @DisplayName("should move rows to a reinstatement job once the blocking job is discarded")
+        void givenOwnerCompletedAndBlockingDiscarded_whenOwnerSettles_thenRowsReassigned() {
+            // Given
+            givenOwnerFinished();
+            givenJob(OWNER_IMPORT_JOB_ID, Status.COMPLETED, false);
+            givenJob(BLOCKING_IMPORT_JOB_ID, Status.FAILED, false);
+            when(importJobService.createReinstatementJob()).thenReturn(REINSTATEMENT_JOB_ID);
+
+            // When
+            deferredTransactionService.settle(OWNER_IMPORT_JOB_ID);
+
+            // Then
+            verify(deferredTransactionRepository)
+                    .reassign(OWNER_IMPORT_JOB_ID, BLOCKING_IMPORT_JOB_ID, REINSTATEMENT_JOB_ID);
+            verify(deferredTransactionRepository, never()).delete(any(), any());
+        }
+
+        @Test
+        @DisplayName("should move rows to a reinstatement job when the blocking job finishes last")
+        void givenOwnerCompletedAndBlockingDiscarded_whenBlockingSettles_thenRowsReassigned() {
+            // Given
+            givenBlockingFinished();
+            givenJob(OWNER_IMPORT_JOB_ID, Status.COMPLETED, false);
+            givenJob(BLOCKING_IMPORT_JOB_ID, Status.FAILED, false);
+            when(importJobService.createReinstatementJob()).thenReturn(REINSTATEMENT_JOB_ID);
+
+            // When
+            deferredTransactionService.settle(BLOCKING_IMPORT_JOB_ID);
+
+            // Then
+            verify(deferredTransactionRepository)
+                    .reassign(OWNER_IMPORT_JOB_ID, BLOCKING_IMPORT_JOB_ID, REINSTATEMENT_JOB_ID);
+        }
+
+        @Test
+        @DisplayName("should drop rows whose blocking job completed, they are duplicates")
+        void givenBlockingCompleted_whenSettle_thenRowsDropped() {
+            // Given
+            givenBlockingFinished();
+            givenJob(OWNER_IMPORT_JOB_ID, Status.IMPORT_IN_PROGRESS, true);
+            givenJob(BLOCKING_IMPORT_JOB_ID, Status.COMPLETED, false);
+
+            // When
+            deferredTransactionService.settle(BLOCKING_IMPORT_JOB_ID);
+
+            // Then
+            verify(deferredTransactionRepository)
+                    .delete(OWNER_IMPORT_JOB_ID, BLOCKING_IMPORT_JOB_ID);
+            verify(importJobService, never()).createReinstatementJob();
+        }
+
+        @Test
+        @DisplayName("should drop rows of a failed owner, they are not imported at all")
+        void givenOwnerFailed_whenSettle_thenRowsDropped() {
+            // Given
+            givenOwnerFinished();
+            givenJob(OWNER_IMPORT_JOB_ID, Status.FAILED, false);
+            givenJob(BLOCKING_IMPORT_JOB_ID, Status.IMPORT_IN_PROGRESS, true);
+
+            // When
+            deferredTransactionService.settle(OWNER_IMPORT_JOB_ID);
+
+            // Then
+            verify(deferredTransactionRepository)
+                    .delete(OWNER_IMPORT_JOB_ID, BLOCKING_IMPORT_JOB_ID);
+            verify(importJobService, never()).createReinstatementJob();
+        }
+
+        @Test
+        @DisplayName("should drop rows of an owner that no longer exists")
+        void givenOwnerMissing_whenSettle_thenRowsDropped() {
+            // Given
+            givenBlockingFinished();
+            when(importJobRepository.findById(OWNER_IMPORT_JOB_ID)).thenReturn(Optional.empty());
+            givenJob(BLOCKING_IMPORT_JOB_ID, Status.FAILED, false);
+
+            // When
+            deferredTransactionService.settle(BLOCKING_IMPORT_JOB_ID);
+
+            // Then
+            verify(deferredTransactionRepository)
+                    .delete(OWNER_IMPORT_JOB_ID, BLOCKING_IMPORT_JOB_ID);
+        }
+
+        @Test
+        @DisplayName("should keep rows while the owner is still running")
+        void givenOwnerRunning_whenBlockingDiscarded_thenRowsKept() {
+            // Given
+            givenBlockingFinished();
+            givenJob(OWNER_IMPORT_JOB_ID, Status.IMPORT_IN_PROGRESS, true);
+            givenJob(BLOCKING_IMPORT_JOB_ID, Status.FAILED, false);
+
+            // When
+            deferredTransactionService.settle(BLOCKING_IMPORT_JOB_ID);
+
+            // Then
+            verifyKept();
+        }
+
+        @Test
+        @DisplayName("should keep rows while the rows of the failed blocking job are not removed")
+        void givenBlockingFailedNotDiscarded_whenOwnerSettles_thenRowsKept() {
+            // Given
+            givenOwnerFinished();
+            givenJob(OWNER_IMPORT_JOB_ID, Status.COMPLETED, false);
+            givenJob(BLOCKING_IMPORT_JOB_ID, Status.FAILED, true);
+
+            // When
+            deferredTransactionService.settle(OWNER_IMPORT_JOB_ID);
+
+            // Then
+            verifyKept();
+        }
+    }
+
+    @Nested
+    @DisplayName("reinstate tests")
+    class ReinstateTests {
+
+        private static boolean isReinstated(List<TransactionDocument> documents) {
+            return documents.stream()
+                    .allMatch(document -> document.getImportJobId().equals(REINSTATEMENT_JOB_ID));
+        }
+
+        @Test
+        @DisplayName("should import the moved rows page by page as rows of the reinstatement job")
+        void givenMoreRowsThanOnePage_whenReinstate_thenAllPagesInserted() {
+            // Given
+            var firstPage =
+                    IntStream.rangeClosed(1, DeferredTransactionService.REINSTATE_BATCH_SIZE)
+                            .mapToObj(DeferredTransactionServiceTest::deferred)
+                            .toList();
+            var lastPage = List.of(deferred(1_001), deferred(1_002));
+            when(deferredTransactionRepository.findBlockedBy(
+                            REINSTATEMENT_JOB_ID,
+                            null,
+                            DeferredTransactionService.REINSTATE_BATCH_SIZE))
+                    .thenReturn(firstPage);
+            when(deferredTransactionRepository.findBlockedBy(
+                            REINSTATEMENT_JOB_ID,
+                            firstPage.getLast().getId(),
+                            DeferredTransactionService.REINSTATE_BATCH_SIZE))
+                    .thenReturn(lastPage);
+            when(transactionService.insertAllTransactions(anyList())).thenReturn(3, 1);
+
+            // When
+            var duplicates = deferredTransactionService.reinstate(REINSTATEMENT_JOB_ID);
+
+            // Then
+            assertEquals(4, duplicates);
+            verify(transactionService).deleteTransactionsOfImportJob(REINSTATEMENT_JOB_ID);
+            verify(transactionService)
+                    .insertAllTransactions(
+                            argThat(
+                                    documents ->
+                                            isReinstated(documents)
+                                                    && documents.size()
+                                                            == firstPage.size()));
+            verify(transactionService)
+                    .insertAllTransactions(
+                            argThat(
+                                    documents ->
+                                            isReinstated(documents)
+                                                    && documents.getLast().getImportRow()
+                                                            .equals(1_002L)));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+
+class ImportCheckpointTrackerTest {
+
+    @Test
+    @DisplayName("should not move past a chunk that is only partly written")
+    void givenPartlyWrittenChunk_whenWritten_thenCheckpointUnchanged() {
+        // Given
+        var tracker = new ImportCheckpointTracker(ImportCheckpoint.START);
+        tracker.register(1, 10, 500);
+
+        // When
+        var checkpoint = tracker.written(1, 9);
+
+        // Then
+        assertNull(checkpoint);
+    }
+
+    @Test
+    @DisplayName("should move past chunks written out of order once all before them are written")
+    void givenChunksWrittenOutOfOrder_whenWritten_thenCheckpointAfterContiguousChunks() {
+        // Given
+        var tracker = new ImportCheckpointTracker(ImportCheckpoint.START);
+        tracker.register(1, 10, 500);
+        tracker.register(11, 20, 1000);
+        tracker.register(21, 30, 1500);
+
+        // When
+        var afterSecond = tracker.written(11, 10);
+        var afterThird = tracker.written(21, 10);
+        var afterFirstPart = tracker.written(1, 4);
+        var afterFirst = tracker.written(1, 6);
+
+        // Then
+        assertNull(afterSecond);
+        assertNull(afterThird);
+        assertNull(afterFirstPart);
+        assertEquals(new ImportCheckpoint(1500, 30), afterFirst);
+    }
+
+    @Test
+    @DisplayName("should continue from the checkpoint it was resumed from")
+    void givenResumedImport_whenWritten_thenCheckpointMovesOn() {
+        // Given
+        var tracker = new ImportCheckpointTracker(new ImportCheckpoint(1000, 20));
+        tracker.register(21, 30, 1500);
+        tracker.register(31, 40, 2000);
+
+        // When
+        var checkpoint = tracker.written(21, 10);
+
+        // Then
+        assertEquals(new ImportCheckpoint(1500, 30), checkpoint);
+    }
+}
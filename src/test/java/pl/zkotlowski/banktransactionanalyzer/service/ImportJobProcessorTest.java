@@ -0,0 +1,153 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.csv.CsvParserMode;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportJob;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.validation.TransactionValidatorMode;
+
+@ExtendWith(MockitoExtension.class)
+class ImportJobProcessorTest {
+
+    @Mock private ImportJobService importJobService;
+
+    @Mock private TransactionImporter transactionImporter;
+
+    @Mock private ImportPayloadStore importPayloadStore;
+
+    @Mock private TransactionService transactionService;
+
+    @Mock private TransactionRollupService transactionRollupService;
+
+    @Mock private DeferredTransactionService deferredTransactionService;
+
+    @Spy
+    private ImportProperties importProperties =
+            new ImportProperties(
+                    DataSize.ofMegabytes(1),
+                    1_000,
+                    Path.of("build", "imports"),
+                    CsvParserMode.AUTO,
+                    TransactionValidatorMode.COMPILED,
+                    new ImportProperties.Pipeline(1, 1, 1, DataSize.ofMegabytes(1)),
+                    new ImportProperties.Batch(
+                            100, 100, 100, Duration.ofSeconds(1), DataSize.ofMegabytes(8)),
+                    Duration.ofSeconds(2),
+                    new ImportProperties.Scheduler(
+                            1,
+                            false,
+                            10,
+                            Duration.ofSeconds(30),
+                            Duration.ofSeconds(60),
+                            Duration.ofSeconds(10),
+                            Duration.ofSeconds(1),
+                            3),
+                    new ImportProperties.Dedupe(1_000, 0.01));
+
+    @InjectMocks private ImportJobProcessor importJobProcessor;
+
+    private static final String OWNER = "node";
+
+    private static final UUID IMPORT_JOB_ID = UUID.randomUUID();
+
+    // a reinstatement job has no payload to read
+    private static final ImportJob IMPORT_JOB =
+            new ImportJob(
+                    IMPORT_JOB_ID,
+                    Instant.now(),
+                    ImportJobDocument.Status.IMPORT_IN_PROGRESS,
+                    null,
+                    0,
+                    null,
+                    null,
+                    ImportCheckpoint.START,
+                    1,
+                    true,
+                    null);
+
+    private final ImportLease lease =
+            new ImportLease(IMPORT_JOB_ID, OWNER, Instant.now(), Thread.currentThread());
+
+    // what the heartbeat does once the lease was removed from the job
+    private void heartbeat() {
+        lease.lose();
+    }
+
+    @Nested
+    @DisplayName("Finishing tests")
+    class FinishingTests {
+
+        @Test
+        @DisplayName("should settle deferred rows of a completed job without being interrupted")
+        void givenCompletedJob_whenLeaseRenewalFails_thenSettledWithoutInterrupt() {
+            // Given
+            when(importJobService.completeJob(eq(IMPORT_JOB_ID), eq(OWNER), any()))
+                    .thenAnswer(invocation -> lease.isReleased());
+            doAnswer(
+                            invocation -> {
+                                heartbeat();
+                                return null;
+                            })
+                    .when(deferredTransactionService)
+                    .settle(IMPORT_JOB_ID);
+
+            // When
+            importJobProcessor.processImport(IMPORT_JOB, lease);
+
+            // Then
+            assertFalse(lease.isLost());
+            assertFalse(Thread.interrupted());
+            verify(deferredTransactionService).settle(IMPORT_JOB_ID);
+            verify(importPayloadStore).delete(IMPORT_JOB_ID);
+        }
+
+        @Test
+        @DisplayName("should discard the rows of a failed job without being interrupted")
+        void givenFailedJob_whenLeaseRenewalFails_thenDiscardedWithoutInterrupt() {
+            // Given
+            when(deferredTransactionService.reinstate(IMPORT_JOB_ID))
+                    .thenThrow(new IllegalStateException("Connection lost."));
+            when(importJobService.failJob(eq(IMPORT_JOB_ID), eq(OWNER), anyString()))
+                    .thenAnswer(invocation -> lease.isReleased());
+            doAnswer(
+                            invocation -> {
+                                heartbeat();
+                                return 0L;
+                            })
+                    .when(transactionRollupService)
+                    .deleteRollupsOfImportJob(IMPORT_JOB_ID);
+
+            // When
+            importJobProcessor.processImport(IMPORT_JOB, lease);
+
+            // Then
+            assertFalse(lease.isLost());
+            assertFalse(Thread.interrupted());
+            verify(transactionService).deleteTransactionsOfImportJob(IMPORT_JOB_ID);
+            verify(importJobService).markTransactionsDiscarded(IMPORT_JOB_ID);
+            verify(deferredTransactionService).settle(IMPORT_JOB_ID);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportProgress;
+
+class ImportProgressTrackerTest {
+
+    private final List<ImportProgress> snapshots = new ArrayList<>();
+    private final List<ImportCheckpoint> checkpoints = new ArrayList<>();
+
+    private ImportProgressTracker tracker(long totalBytes, Duration interval) {
+        return new ImportProgressTracker(
+                totalBytes,
+                interval,
+                (progress, checkpoint) -> {
+                    snapshots.add(progress);
+                    checkpoints.add(checkpoint);
+                });
+    }
+
+    @Nested
+    @DisplayName("Counter tests")
+    class CounterTests {
+
+        @Test
+        @DisplayName("should publish the counters of all stages and the latest checkpoint")
+        void givenCountedStages_whenFlush_thenSnapshotHoldsCounters() throws IOException {
+            // Given
+            var tracker = tracker(1000, Duration.ofHours(1));
+            try (var inputStream = tracker.countBytes(new ByteArrayInputStream(new byte[250]))) {
+                inputStream.readAllBytes();
+            }
+            tracker.parsed(120, 0);
+            tracker.written(100, 0);
+            tracker.duplicates(7);
+            tracker.checkpoint(new ImportCheckpoint(200, 100));
+
+            // When
+            tracker.flush();
+
+            // Then
+            var progress = snapshots.getLast();
+            assertEquals(120, progress.rowsParsed());
+            assertEquals(100, progress.rowsWritten());
+            assertEquals(7, progress.duplicateRows());
+            assertEquals(250, progress.bytesRead());
+            assertEquals(1000, progress.totalBytes());
+            assertNotNull(progress.etaSeconds());
+            assertNotNull(progress.updatedAt());
+            assertEquals(new ImportCheckpoint(200, 100), checkpoints.getLast());
+        }
+
+        @Test
+        @DisplayName("should count the rows before the checkpoint of a resumed import")
+        void givenResumedImport_whenFlush_thenRowsBeforeCheckpointCounted() {
+            // Given
+            var tracker = tracker(1000, Duration.ofHours(1));
+            tracker.resumedFrom(new ImportCheckpoint(400, 80));
+
+            // When
+            tracker.written(20, 0);
+            tracker.flush();
+
+            // Then
+            var progress = snapshots.getLast();
+            assertEquals(80, progress.rowsParsed());
+            assertEquals(100, progress.rowsWritten());
+            assertEquals(new ImportCheckpoint(400, 80), checkpoints.getLast());
+        }
+
+        @Test
+        @DisplayName("should have no ETA and no checkpoint before anything is read")
+        void givenNothingRead_whenFlush_thenNoEtaAndNoCheckpoint() {
+            // Given
+            var tracker = tracker(1000, Duration.ofHours(1));
+
+            // When
+            tracker.flush();
+
+            // Then
+            assertNull(snapshots.getLast().etaSeconds());
+            assertNull(checkpoints.getLast());
+        }
+    }
+
+    @Nested
+    @DisplayName("Interval tests")
+    class IntervalTests {
+
+        @Test
+        @DisplayName("should not publish written batches before the interval has passed")
+        void givenLongInterval_whenWritten_thenNothingPublished() {
+            // Given
+            var tracker = tracker(1000, Duration.ofHours(1));
+
+            // When
+            tracker.written(100, 0);
+            tracker.written(100, 0);
+
+            // Then
+            assertTrue(snapshots.isEmpty());
+        }
+
+        @Test
+        @DisplayName("should publish written batches once the interval has passed")
+        void givenElapsedInterval_whenWritten_thenPublished() {
+            // Given
+            var tracker = tracker(1000, Duration.ZERO);
+
+            // When
+            tracker.written(100, 0);
+            tracker.written(50, 0);
+
+            // Then
+            assertEquals(2, snapshots.size());
+            assertEquals(150, snapshots.getLast().rowsWritten());
+        }
+
+        @Test
+        @DisplayName("should not fail the import when publishing fails")
+        void givenFailingListener_whenFlush_thenNoException() {
+            // Given
+            var tracker =
+                    new ImportProgressTracker(
+                            1000,
+                            Duration.ZERO,
+                            (progress, checkpoint) -> {
+                                throw new IllegalStateException("Lease lost.");
+                            });
+
+            // When & Then
+            assertDoesNotThrow(() -> tracker.written(100, 0));
+            assertDoesNotThrow(tracker::flush);
+        }
+    }
+}
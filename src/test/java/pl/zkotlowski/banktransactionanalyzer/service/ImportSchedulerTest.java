@@ -0,0 +1,205 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.csv.CsvParserMode;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportQueueFullException;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportJob;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.validation.TransactionValidatorMode;
+
+class ImportSchedulerTest {
+
+    private final ImportJobService importJobService = mock(ImportJobService.class);
+    private final ImportJobProcessor importJobProcessor = mock(ImportJobProcessor.class);
+
+    private ImportScheduler scheduler(int queueCapacity) {
+        return scheduler(queueCapacity, Duration.ofSeconds(10));
+    }
+
+    private ImportScheduler scheduler(int queueCapacity, Duration heartbeatInterval) {
+        return new ImportScheduler(
+                new ImportProperties(
+                        DataSize.ofMegabytes(1),
+                        1_000,
+                        Path.of("build", "imports"),
+                        CsvParserMode.AUTO,
+                        TransactionValidatorMode.COMPILED,
+                        new ImportProperties.Pipeline(1, 1, 1, DataSize.ofMegabytes(1)),
+                        new ImportProperties.Batch(
+                                100, 100, 100, Duration.ofSeconds(1), DataSize.ofMegabytes(8)),
+                        Duration.ofSeconds(2),
+                        new ImportProperties.Scheduler(
+                                1,
+                                false,
+                                queueCapacity,
+                                Duration.ofSeconds(30),
+                                Duration.ofSeconds(60),
+                                heartbeatInterval,
+                                Duration.ofMillis(50),
+                                3),
+                        new ImportProperties.Dedupe(1_000, 0.01)),
+                importJobService,
+                importJobProcessor);
+    }
+
+    private static ImportJob claimedJob() {
+        return new ImportJob(
+                UUID.randomUUID(),
+                Instant.now(),
+                ImportJobDocument.Status.IMPORT_IN_PROGRESS,
+                null,
+                0,
+                null,
+                null,
+                ImportCheckpoint.START,
+                1,
+                false,
+                null);
+    }
+
+    @Nested
+    @DisplayName("Queue tests")
+    class QueueTests {
+
+        @Test
+        @DisplayName("should reject uploads when the shared queue is full")
+        void givenFullQueue_whenCheckCapacity_thenThrowImportQueueFullException() {
+            // Given
+            var scheduler = scheduler(2);
+            when(importJobService.countQueuedJobs()).thenReturn(2L);
+
+            // When & Then
+            var exception = assertThrows(ImportQueueFullException.class, scheduler::checkCapacity);
+            assertEquals(Duration.ofSeconds(30), exception.getRetryAfter());
+        }
+
+        @Test
+        @DisplayName("should run claimed jobs under a lease of this instance")
+        void givenQueuedJob_whenStarted_thenJobClaimedAndProcessed() {
+            // Given
+            var scheduler = scheduler(10);
+            var importJob = claimedJob();
+            when(importJobService.claimNextJob(any(), any()))
+                    .thenReturn(Optional.of(importJob))
+                    .thenReturn(Optional.empty());
+
+            // When
+            scheduler.start();
+
+            // Then
+            try {
+                verify(importJobProcessor, timeout(5_000))
+                        .processImport(
+                                eq(importJob),
+                                argThat(
+                                        lease ->
+                                                lease.getImportJobId().equals(importJob.id())
+                                                        && lease.getOwner()
+                                                                .equals(scheduler.getNodeId())));
+            } finally {
+                scheduler.stop();
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Lease tests")
+    class LeaseTests {
+
+        @Test
+        @DisplayName("should interrupt the worker when a held lease is lost")
+        void givenHeldLease_whenLost_thenWorkerInterrupted() {
+            // Given
+            var lease =
+                    new ImportLease(
+                            UUID.randomUUID(), "node", Instant.now(), Thread.currentThread());
+
+            // When
+            lease.lose();
+
+            // Then
+            assertTrue(lease.isLost());
+            assertTrue(Thread.interrupted());
+        }
+
+        @Test
+        @DisplayName("should not interrupt the worker when a lease is lost after its release")
+        void givenReleasedLease_whenLost_thenWorkerNotInterrupted() {
+            // Given
+            var lease =
+                    new ImportLease(
+                            UUID.randomUUID(), "node", Instant.now(), Thread.currentThread());
+            lease.release();
+
+            // When
+            lease.lose();
+
+            // Then
+            assertFalse(lease.isLost());
+            assertFalse(Thread.interrupted());
+        }
+
+        @Test
+        @DisplayName("should not renew the lease of a job its worker is finishing")
+        void givenReleasedLease_whenHeartbeat_thenNotRenewedAndWorkerNotInterrupted()
+                throws Exception {
+            // Given
+            var scheduler = scheduler(10, Duration.ofMillis(20));
+            when(importJobService.claimNextJob(any(), any()))
+                    .thenReturn(Optional.of(claimedJob()))
+                    .thenReturn(Optional.empty());
+            var interrupted = new CompletableFuture<Boolean>();
+            doAnswer(
+                            invocation -> {
+                                // the job is completed, the cleanup outlasts several heartbeats
+                                invocation.getArgument(1, ImportLease.class).release();
+                                try {
+                                    Thread.sleep(300);
+                                    interrupted.complete(false);
+                                } catch (InterruptedException e) {
+                                    interrupted.complete(true);
+                                }
+                                return null;
+                            })
+                    .when(importJobProcessor)
+                    .processImport(any(), any());
+
+            // When
+            scheduler.start();
+
+            // Then
+            try {
+                assertFalse(interrupted.get(5, TimeUnit.SECONDS));
+                verify(importJobService, never()).renewLease(any(), any(), any());
+            } finally {
+                scheduler.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+class NaturalKeySequenceTest {
+
+    private static UUID valuesKey(String category, String amount) {
+        return NaturalKeySequence.valuesKey(
+                new Transaction(
+                        UUID.randomUUID(),
+                        "DE89370400440532013000",
+                        LocalDate.of(2025, 1, 15),
+                        "EUR",
+                        category,
+                        new BigDecimal(amount)));
+    }
+
+    @Nested
+    @DisplayName("Natural key tests")
+    class NaturalKeyTests {
+
+        @Test
+        @DisplayName("should derive the same key from the same values, ignoring the amount scale")
+        void givenSameValues_whenValuesKey_thenSameKey() {
+            // Given & When
+            var first = valuesKey("GROCERIES", "100.50");
+            var second = valuesKey("GROCERIES", "100.5");
+            var other = valuesKey("GROCERIES", "100.51");
+
+            // Then
+            assertEquals(first, second);
+            assertNotEquals(first, other);
+        }
+
+        @Test
+        @DisplayName("should keep identical rows of a file distinct and repeat keys on re-upload")
+        void givenIdenticalRows_whenAssign_thenOccurrencesDistinctAndRepeatable()
+                throws InterruptedException {
+            // Given
+            var rows =
+                    List.of(
+                            valuesKey("GROCERIES", "10"),
+                            valuesKey("GROCERIES", "10"),
+                            valuesKey("RENT", "10"));
+
+            // When
+            var upload = new NaturalKeySequence().assign(0, rows, () -> false);
+            var reUpload = new NaturalKeySequence().assign(0, rows, () -> false);
+
+            // Then
+            assertEquals(3, upload.stream().distinct().count());
+            assertEquals(upload, reUpload);
+        }
+    }
+
+    @Nested
+    @DisplayName("Ordering tests")
+    class OrderingTests {
+
+        @Test
+        @DisplayName("should assign occurrences in chunk order regardless of completion order")
+        void givenChunksOutOfOrder_whenAssign_thenOccurrencesFollowChunkOrder() throws Exception {
+            // Given
+            var row = List.of(valuesKey("GROCERIES", "10"));
+            var sequence = new NaturalKeySequence();
+
+            // When
+            var second =
+                    CompletableFuture.supplyAsync(
+                            () -> {
+                                try {
+                                    return sequence.assign(1, row, () -> false);
+                                } catch (InterruptedException e) {
+                                    throw new IllegalStateException(e);
+                                }
+                            });
+            var first = sequence.assign(0, row, () -> false);
+
+            // Then
+            assertEquals(List.of(NaturalKeySequence.naturalKey(row.getFirst(), 0)), first);
+            assertEquals(
+                    List.of(NaturalKeySequence.naturalKey(row.getFirst(), 1)),
+                    second.get(5, TimeUnit.SECONDS));
+        }
+
+        @Test
+        @DisplayName("should continue occurrences of replayed rows after a resume")
+        void givenReplayedRows_whenAssign_thenOccurrencesContinue() throws InterruptedException {
+            // Given
+            var row = valuesKey("GROCERIES", "10");
+            var sequence = new NaturalKeySequence();
+            sequence.replay(row);
+            sequence.replay(row);
+
+            // When
+            var keys = sequence.assign(0, List.of(row), () -> false);
+
+            // Then
+            assertEquals(List.of(NaturalKeySequence.naturalKey(row, 2)), keys);
+        }
+
+        @Test
+        @DisplayName("should stop waiting for previous chunks once cancelled")
+        void givenCancelled_whenAssignOutOfOrder_thenNull() throws InterruptedException {
+            assertNull(new NaturalKeySequence().assign(1, new ArrayList<>(), () -> true));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import pl.zkotlowski.banktransactionanalyzer.configuration.StatisticsCacheProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+
+class StatisticsCacheTest {
+
+    private static final BalanceByAttribute BALANCE =
+            new BalanceByAttribute(new BigDecimal("-10.00"), new BigDecimal("20.00"));
+
+    private static StatisticsCache cache(DataSize maxSize) {
+        return new StatisticsCache(new StatisticsCacheProperties(maxSize, Duration.ofMinutes(10)));
+    }
+
+    private static StatisticsCache.Key key(String value) {
+        return new StatisticsCache.Key(
+                "balance", TransactionFilterByAttribute.YEAR_MONTH, value, "EUR");
+    }
+
+    @Nested
+    @DisplayName("Version tests")
+    class VersionTests {
+
+        @Test
+        @DisplayName("should serve a result only for the version it was computed for")
+        void givenCachedResult_whenVersionChanges_thenComputedAgain() {
+            // Given
+            var cache = cache(DataSize.ofMegabytes(1));
+            var computations = new AtomicInteger();
+
+            // When
+            cache.get(key("2025-01"), 1, () -> countedBalance(computations));
+            cache.get(key("2025-01"), 1, () -> countedBalance(computations));
+            cache.get(key("2025-01"), 2, () -> countedBalance(computations));
+
+            // Then
+            var stats = cache.stats();
+            assertEquals(2, computations.get());
+            assertEquals(1, stats.hits());
+            assertEquals(2, stats.misses());
+            assertEquals(1, stats.entries());
+        }
+
+        @Test
+        @DisplayName("should cache results without a balance as well")
+        void givenNullResult_whenGetAgain_thenServedFromCache() {
+            // Given
+            var cache = cache(DataSize.ofMegabytes(1));
+            cache.get(key("2025-01"), 1, () -> null);
+
+            // When
+            BalanceByAttribute balance = cache.get(key("2025-01"), 1, () -> BALANCE);
+
+            // Then
+            assertNull(balance);
+            assertEquals(1, cache.stats().hits());
+        }
+    }
+
+    @Nested
+    @DisplayName("Batch tests")
+    class BatchTests {
+
+        @Test
+        @DisplayName("should compute only the distinct missing results of a batch, in order")
+        void givenPartlyCachedBatch_whenGetAll_thenOnlyMissesComputed() {
+            // Given
+            var cache = cache(DataSize.ofMegabytes(1));
+            cache.get(key("2025-01"), 1, () -> BALANCE);
+            var computedKeys = new ArrayList<StatisticsCache.Key>();
+
+            // When
+            List<BalanceByAttribute> balances =
+                    cache.getAll(
+                            List.of(key("2025-02"), key("2025-01"), key("2025-02")),
+                            1,
+                            missing -> {
+                                computedKeys.addAll(missing);
+                                return Collections.nCopies(missing.size(), null);
+                            });
+
+            // Then
+            assertEquals(List.of(key("2025-02")), computedKeys);
+            assertEquals(Arrays.asList(null, BALANCE, null), balances);
+            assertEquals(1, cache.stats().hits());
+        }
+    }
+
+    @Nested
+    @DisplayName("Eviction tests")
+    class EvictionTests {
+
+        @Test
+        @DisplayName("should evict the least recently used results beyond the size limit")
+        void givenFullCache_whenPut_thenLeastRecentlyUsedEvicted() {
+            // Given
+            var cache = cache(DataSize.ofBytes(1_000));
+            cache.get(key("2025-01"), 1, () -> BALANCE);
+            cache.get(key("2025-02"), 1, () -> BALANCE);
+            cache.get(key("2025-01"), 1, () -> BALANCE);
+
+            // When
+            cache.get(key("2025-03"), 1, () -> BALANCE);
+
+            // Then
+            var computations = new AtomicInteger();
+            cache.get(key("2025-01"), 1, () -> countedBalance(computations));
+            cache.get(key("2025-02"), 1, () -> countedBalance(computations));
+            assertEquals(1, computations.get());
+            assertTrue(cache.stats().evictions() >= 1);
+        }
+    }
+
+    private static BalanceByAttribute countedBalance(AtomicInteger computations) {
+        computations.incrementAndGet();
+        return BALANCE;
+    }
+}
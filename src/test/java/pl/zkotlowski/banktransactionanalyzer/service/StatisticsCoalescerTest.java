@@ -0,0 +1,106 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pl.zkotlowski.banktransactionanalyzer.configuration.StatisticsCoalescingProperties;
+import pl.zkotlowski.banktransactionanalyzer.exception.StatisticsTimeoutException;
+
+class StatisticsCoalescerTest {
+
+    private static String awaitResult(CountDownLatch release) {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "result";
+    }
+
+    @Test
+    @DisplayName("should run one computation for concurrent requests of the same statistic")
+    void givenConcurrentRequests_whenCoalesce_thenComputedOnce()
+            throws InterruptedException, ExecutionException {
+        // Given
+        var coalescer =
+                new StatisticsCoalescer(
+                        new StatisticsCoalescingProperties(true, Duration.ofSeconds(10)));
+        var computations = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        var requests = 20;
+
+        // When
+        var results = new ArrayList<Future<String>>();
+        try (var executor = Executors.newFixedThreadPool(requests)) {
+            for (int i = 0; i < requests; i++) {
+                results.add(
+                        executor.submit(
+                                () ->
+                                        coalescer.coalesce(
+                                                "most-spent",
+                                                1,
+                                                () -> {
+                                                    computations.incrementAndGet();
+                                                    return awaitResult(release);
+                                                })));
+            }
+            while (coalescer.stats().coalesced() < requests - 1) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+        }
+
+        // Then
+        for (var result : results) {
+            assertEquals("result", result.get());
+        }
+        var stats = coalescer.stats();
+        assertEquals(1, computations.get());
+        assertEquals(1, stats.executed());
+        assertEquals(requests - 1, stats.coalesced());
+    }
+
+    @Test
+    @DisplayName("should cancel a computation once its only request timed out")
+    void givenSlowComputation_whenTimeout_thenCancelled() throws InterruptedException {
+        // Given
+        var coalescer =
+                new StatisticsCoalescer(
+                        new StatisticsCoalescingProperties(true, Duration.ofMillis(50)));
+        var interrupted = new CountDownLatch(1);
+
+        // When
+        assertThrows(
+                StatisticsTimeoutException.class,
+                () ->
+                        coalescer.coalesce(
+                                "balance",
+                                1,
+                                () -> {
+                                    try {
+                                        Thread.sleep(Duration.ofMinutes(1));
+                                    } catch (InterruptedException e) {
+                                        interrupted.countDown();
+                                    }
+                                    return null;
+                                }));
+
+        // Then
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        var stats = coalescer.stats();
+        assertEquals(1, stats.timedOut());
+        assertEquals(1, stats.cancelled());
+        assertEquals(0, stats.inFlight());
+    }
+}
@@ -0,0 +1,77 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import pl.zkotlowski.banktransactionanalyzer.configuration.DistinctCountProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceGranularity;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalancePoint;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceSeriesQuery;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsVersionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionAggregationRepository;
+
+class StatisticsServiceTest {
+
+    private final TransactionAggregationRepository transactionAggregationRepository =
+            mock(TransactionAggregationRepository.class);
+    private final StatisticsService statisticsService =
+            new StatisticsService(
+                    transactionAggregationRepository,
+                    mock(ColumnarStatisticsEngine.class),
+                    mock(StatisticsVersionRepository.class),
+                    mock(StatisticsCache.class),
+                    mock(StatisticsCoalescer.class),
+                    new DistinctCountProperties(0.01, 12));
+
+    @Nested
+    @DisplayName("Balance series tests")
+    class BalanceSeriesTests {
+
+        @Test
+        @DisplayName("should fill the buckets without transactions across the whole range")
+        void givenBucketsWithGaps_whenStreamBalanceSeries_thenEveryBucketStreamed() {
+            // Given
+            var march = point("2025-03-01", -1_000, 5_000);
+            when(transactionAggregationRepository.aggregateBalanceBuckets(
+                            argThat(query -> query.iban().equals("DE89370400440532013000"))))
+                    .thenReturn(List.of(march));
+            var series = new ArrayList<BalancePoint>();
+
+            // When
+            statisticsService.streamBalanceSeries(
+                    new BalanceSeriesQuery(
+                            LocalDate.parse("2025-01-15"),
+                            LocalDate.parse("2025-04-10"),
+                            BalanceGranularity.MONTH,
+                            "EUR",
+                            "de89 3704 0044 0532 0130 00",
+                            null),
+                    series::add);
+
+            // Then
+            assertEquals(
+                    List.of(
+                            BalancePoint.empty(LocalDate.parse("2025-01-01")),
+                            BalancePoint.empty(LocalDate.parse("2025-02-01")),
+                            march,
+                            BalancePoint.empty(LocalDate.parse("2025-04-01"))),
+                    series);
+        }
+    }
+
+    private static BalancePoint point(String bucket, long expenses, long income) {
+        return new BalancePoint(
+                LocalDate.parse(bucket),
+                BigDecimal.valueOf(expenses, 2),
+                BigDecimal.valueOf(income, 2));
+    }
+}
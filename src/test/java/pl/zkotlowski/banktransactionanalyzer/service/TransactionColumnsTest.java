@@ -0,0 +1,205 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.AmountDistributionQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.BalanceByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TopSpentBy;
+import pl.zkotlowski.banktransactionanalyzer.model.aggregate.TransactionFilterByAttribute;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+class TransactionColumnsTest {
+
+    private static final String IBAN = "DE89370400440532013000";
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    // one row per slice, so every query is scanned and merged in parallel
+    private TransactionColumns columns(TransactionDocument... transactions) {
+        var columns = new TransactionColumns(pool, 1);
+        for (var transaction : transactions) {
+            columns.append(transaction);
+        }
+        columns.publish();
+        return columns;
+    }
+
+    private static TransactionDocument transaction(
+            String date, String category, String currency, Long amountMinor) {
+        return TransactionDocument.builder()
+                .withIban(IBAN)
+                .withDate(LocalDate.parse(date))
+                .withCategory(category)
+                .withCurrency(currency)
+                .withAmountMinor(amountMinor)
+                .build();
+    }
+
+    @Nested
+    @DisplayName("Top spent tests")
+    class TopSpentTests {
+
+        @Test
+        @DisplayName("should sum expenses per category of the currency, most spent first")
+        void givenTransactions_whenTopSpentCategories_thenExpensesPerCategory() {
+            // Given
+            var columns =
+                    columns(
+                            transaction("2025-01-15", "GROCERIES", "EUR", -1_050L),
+                            transaction("2025-01-16", "GROCERIES", "EUR", -950L),
+                            transaction("2025-01-17", "RENT", "EUR", -150_000L),
+                            transaction("2025-01-18", "SALARY", "EUR", 500_000L),
+                            transaction("2025-01-19", "GROCERIES", "PLN", -99_999L),
+                            transaction("2025-01-20", "FUEL", "EUR", null));
+
+            // When
+            var topSpent = columns.topSpent(TransactionFilterByAttribute.CATEGORY, 5, "EUR");
+
+            // Then
+            assertEquals(
+                    List.of(
+                            new TopSpentBy(new BigDecimal("-1500.00"), "RENT"),
+                            new TopSpentBy(new BigDecimal("-20.00"), "GROCERIES")),
+                    topSpent);
+        }
+
+        @Test
+        @DisplayName("should group expenses by month in the format of the Mongo aggregation")
+        void givenTransactions_whenTopSpentYearMonth_thenExpensesPerMonth() {
+            // Given
+            var columns =
+                    columns(
+                            transaction("2024-12-31", "GROCERIES", "EUR", -100L),
+                            transaction("2025-01-01", "GROCERIES", "EUR", -300L),
+                            transaction("2025-03-31", "GROCERIES", "EUR", -200L));
+
+            // When
+            var topSpent = columns.topSpent(TransactionFilterByAttribute.YEAR_MONTH, 2, "EUR");
+
+            // Then
+            assertEquals(
+                    List.of(
+                            new TopSpentBy(new BigDecimal("-3.00"), "2025-1"),
+                            new TopSpentBy(new BigDecimal("-2.00"), "2025-3")),
+                    topSpent);
+        }
+
+        @Test
+        @DisplayName("should group expenses by day as ISO dates")
+        void givenTransactions_whenTopSpentDate_thenExpensesPerDay() {
+            // Given
+            var columns =
+                    columns(
+                            transaction("2024-12-31", "GROCERIES", "EUR", -100L),
+                            transaction("2025-01-01", "GROCERIES", "EUR", -300L),
+                            transaction("2025-01-01", "FUEL", "EUR", -50L),
+                            transaction("2025-03-31", "GROCERIES", "EUR", -200L));
+
+            // When
+            var topSpent = columns.topSpent(TransactionFilterByAttribute.DATE, 5, "EUR");
+
+            // Then
+            assertEquals(
+                    List.of(
+                            new TopSpentBy(new BigDecimal("-3.50"), "2025-01-01"),
+                            new TopSpentBy(new BigDecimal("-2.00"), "2025-03-31"),
+                            new TopSpentBy(new BigDecimal("-1.00"), "2024-12-31")),
+                    topSpent);
+        }
+    }
+
+    @Nested
+    @DisplayName("Balance tests")
+    class BalanceTests {
+
+        @Test
+        @DisplayName("should sum expenses and income of the month and currency")
+        void givenTransactions_whenBalanceByYearMonth_thenSumsOfMonth() {
+            // Given
+            var columns =
+                    columns(
+                            transaction("2025-01-31", "GROCERIES", "EUR", -1_000L),
+                            transaction("2025-02-01", "GROCERIES", "EUR", -2_000L),
+                            transaction("2025-02-28", "SALARY", "EUR", 10_000L),
+                            transaction("2025-02-15", "SALARY", "PLN", 7_000L));
+
+            // When
+            var balance =
+                    columns.balance(TransactionFilterByAttribute.YEAR_MONTH, "2025-02", "EUR");
+
+            // Then
+            assertEquals(
+                    new BalanceByAttribute(new BigDecimal("-20.00"), new BigDecimal("100.00")),
+                    balance);
+        }
+
+        @Test
+        @DisplayName("should return no balance when no transaction matches, like Mongo")
+        void givenNoMatchingTransaction_whenBalance_thenNull() {
+            // Given
+            var columns = columns(transaction("2025-01-31", "GROCERIES", "EUR", -1_000L));
+
+            // When & Then
+            assertNull(columns.balance(TransactionFilterByAttribute.IBAN, IBAN, "PLN"));
+            assertNull(
+                    columns.balance(
+                            TransactionFilterByAttribute.IBAN,
+                            "PL61109010140000071219812874",
+                            "EUR"));
+            assertNull(columns.balance(TransactionFilterByAttribute.YEAR_MONTH, "2025-02", "EUR"));
+            assertNull(columns.balance(TransactionFilterByAttribute.CATEGORY, "RENT", "EUR"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Distribution tests")
+    class DistributionTests {
+
+        @Test
+        @DisplayName("should merge the sketches of the slices into one per month of the range")
+        void givenTransactions_whenDistributionByYearMonth_thenSketchPerMonth() {
+            // Given
+            var columns =
+                    columns(
+                            transaction("2025-01-15", "GROCERIES", "EUR", -1_050L),
+                            transaction("2025-01-16", "GROCERIES", "EUR", -50L),
+                            transaction("2025-01-17", "SALARY", "EUR", 500_000L),
+                            transaction("2025-02-01", "GROCERIES", "EUR", -20L),
+                            transaction("2025-03-01", "GROCERIES", "EUR", -30L),
+                            transaction("2025-01-18", "GROCERIES", "PLN", -99_999L));
+
+            // When
+            var distribution =
+                    columns.distribution(
+                            new AmountDistributionQuery(
+                                    TransactionFilterByAttribute.YEAR_MONTH,
+                                    "EUR",
+                                    LocalDate.parse("2025-01-01"),
+                                    LocalDate.parse("2025-02-28"),
+                                    null));
+
+            // Then
+            assertEquals(List.of("2025-1", "2025-2"), List.copyOf(distribution.keySet()));
+            var january = distribution.get("2025-1");
+            assertEquals(3, january.count());
+            assertEquals(498_900, january.sum());
+            assertEquals(-1_050, january.min());
+            assertEquals(500_000, january.max());
+            assertEquals(-50, january.percentile(50));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportFormat;
+import tools.jackson.databind.json.JsonMapper;
+
+class TransactionExportWriterTest {
+
+    private static final JsonMapper JSON_MAPPER = JsonMapper.builder().build();
+
+    private static final Transaction GROCERIES =
+            new Transaction(
+                    UUID.randomUUID(),
+                    "DE89370400440532013000",
+                    LocalDate.parse("2024-01-15"),
+                    "EUR",
+                    "GROCERIES",
+                    new BigDecimal("-100.50"));
+
+    private static final Transaction SALARY =
+            new Transaction(
+                    UUID.randomUUID(),
+                    "PL61109010140000071219812874",
+                    LocalDate.parse("2024-01-31"),
+                    "PLN",
+                    "SALARY, BONUS",
+                    new BigDecimal("5000.00"));
+
+    private static String export(TransactionExportFormat format, Transaction... transactions)
+            throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        var writer = TransactionExportWriter.of(format, outputStream, JSON_MAPPER);
+        for (var transaction : transactions) {
+            writer.write(transaction);
+        }
+        writer.flush();
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    @Nested
+    @DisplayName("NDJSON tests")
+    class NdjsonTests {
+
+        @Test
+        @DisplayName("should write one JSON object per line that reads back as the transaction")
+        void givenTransactions_whenWriteNdjson_thenOneObjectPerLine() throws IOException {
+            // When
+            var ndjson = export(TransactionExportFormat.NDJSON, GROCERIES, SALARY);
+
+            // Then
+            var lines = ndjson.split("\n");
+            assertEquals(2, lines.length);
+            assertEquals(GROCERIES, JSON_MAPPER.readValue(lines[0], Transaction.class));
+            assertEquals(SALARY, JSON_MAPPER.readValue(lines[1], Transaction.class));
+            assertEquals('\n', ndjson.charAt(ndjson.length() - 1));
+        }
+
+        @Test
+        @DisplayName("should write nothing when there are no transactions")
+        void givenNoTransactions_whenWriteNdjson_thenEmpty() throws IOException {
+            // When
+            var ndjson = export(TransactionExportFormat.NDJSON);
+
+            // Then
+            assertEquals("", ndjson);
+        }
+    }
+
+    @Nested
+    @DisplayName("CSV tests")
+    class CsvTests {
+
+        @Test
+        @DisplayName("should write the import header and one record per transaction")
+        void givenTransactions_whenWriteCsv_thenHeaderAndRecords() throws IOException {
+            // When
+            var csv = export(TransactionExportFormat.CSV, GROCERIES, SALARY);
+
+            // Then
+            assertEquals(
+                    "iban,date,currency,category,amount\n"
+                            + "DE89370400440532013000,2024-01-15,EUR,GROCERIES,-100.50\n"
+                            + "PL61109010140000071219812874,2024-01-31,PLN,\"SALARY, BONUS\","
+                            + "5000.00\n",
+                    csv);
+        }
+
+        @Test
+        @DisplayName("should write the header alone when there are no transactions")
+        void givenNoTransactions_whenWriteCsv_thenHeaderOnly() throws IOException {
+            // When
+            var csv = export(TransactionExportFormat.CSV);
+
+            // Then
+            assertEquals("iban,date,currency,category,amount\n", csv);
+        }
+
+        @Test
+        @DisplayName("should write amounts in plain notation")
+        void givenLargeAmount_whenWriteCsv_thenPlainNotation() throws IOException {
+            // Given
+            var transaction =
+                    new Transaction(
+                            UUID.randomUUID(),
+                            "DE89370400440532013000",
+                            LocalDate.parse("2024-01-15"),
+                            "EUR",
+                            "RENT",
+                            new BigDecimal("1E+7").setScale(2));
+
+            // When
+            var csv = export(TransactionExportFormat.CSV, transaction);
+
+            // Then
+            assertFalse(csv.contains("E+"));
+            assertEquals(
+                    "DE89370400440532013000,2024-01-15,EUR,RENT,10000000.00",
+                    csv.split("\n")[1]);
+        }
+    }
+}
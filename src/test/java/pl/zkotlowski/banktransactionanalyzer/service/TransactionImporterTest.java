@@ -1,48 +1,89 @@
 package pl.zkotlowski.banktransactionanalyzer.service;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import jakarta.validation.ConstraintViolation;
-import jakarta.validation.Validator;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.Set;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
+import pl.zkotlowski.banktransactionanalyzer.configuration.ImportProperties;
+import pl.zkotlowski.banktransactionanalyzer.csv.CsvParserMode;
+import pl.zkotlowski.banktransactionanalyzer.exception.ImportBudgetExceededException;
 import pl.zkotlowski.banktransactionanalyzer.exception.TransactionImportFailedException;
+import pl.zkotlowski.banktransactionanalyzer.model.ImportCheckpoint;
 import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.validation.TransactionRowValidator;
+import pl.zkotlowski.banktransactionanalyzer.validation.TransactionValidatorMode;
 
 @ExtendWith(MockitoExtension.class)
 class TransactionImporterTest {
 
     @Mock private TransactionService transactionService;
 
-    @Mock private Validator validator;
+    @Mock private TransactionRowValidator transactionRowValidator;
 
     @Mock private MultipartFile multipartFile;
 
-    @Mock private ConstraintViolation<Transaction> constraintViolation;
+    @Spy
+    private ImportProperties importProperties =
+            new ImportProperties(
+                    DataSize.ofMegabytes(1),
+                    1_000,
+                    Path.of("build", "imports"),
+                    CsvParserMode.AUTO,
+                    TransactionValidatorMode.COMPILED,
+                    new ImportProperties.Pipeline(2, 2, 4, DataSize.ofMegabytes(1)),
+                    // fixed batch size keeps the number of writes deterministic
+                    new ImportProperties.Batch(
+                            100, 100, 100, Duration.ofSeconds(10), DataSize.ofMegabytes(8)),
+                    Duration.ofSeconds(2),
+                    new ImportProperties.Scheduler(
+                            1,
+                            false,
+                            10,
+                            Duration.ofSeconds(30),
+                            Duration.ofSeconds(60),
+                            Duration.ofSeconds(10),
+                            Duration.ofSeconds(1),
+                            3),
+                    new ImportProperties.Dedupe(1_000, 0.01));
 
     @InjectMocks private TransactionImporter transactionImporter;
 
     private static final String CSV_HEADER = "iban,date,currency,category,amount\n";
 
+    private static final UUID IMPORT_JOB_ID = UUID.randomUUID();
+
     @Nested
     @DisplayName("importTransactionsFromCsv tests")
     class ImportTransactionsFromCsvTests {
@@ -57,13 +98,13 @@ class TransactionImporterTest {
             when(multipartFile.getInputStream())
                     .thenReturn(
                             new ByteArrayInputStream(csvContent.getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
-            verify(transactionService, times(1)).saveAllTransactions(anyList());
+            verify(transactionService, times(1)).insertAllTransactions(anyList());
         }
 
         @Test
@@ -79,14 +120,14 @@ class TransactionImporterTest {
                     .thenReturn(
                             new ByteArrayInputStream(
                                     csvContent.toString().getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
             verify(transactionService, times(1))
-                    .saveAllTransactions(argThat(list -> list.size() == 50));
+                    .insertAllTransactions(argThat(list -> list.size() == 50));
         }
 
         @Test
@@ -100,14 +141,14 @@ class TransactionImporterTest {
                     .thenReturn(
                             new ByteArrayInputStream(
                                     csvContent.toString().getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
             // 250 transactions = 2 full batches of 100 + 1 remaining batch of 50
-            verify(transactionService, times(3)).saveAllTransactions(anyList());
+            verify(transactionService, times(3)).insertAllTransactions(anyList());
         }
 
         @Test
@@ -121,14 +162,14 @@ class TransactionImporterTest {
                     .thenReturn(
                             new ByteArrayInputStream(
                                     csvContent.toString().getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
             verify(transactionService, times(1))
-                    .saveAllTransactions(argThat(list -> list.size() == 100));
+                    .insertAllTransactions(argThat(list -> list.size() == 100));
         }
 
         @Test
@@ -140,10 +181,10 @@ class TransactionImporterTest {
                             new ByteArrayInputStream(CSV_HEADER.getBytes(StandardCharsets.UTF_8)));
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
-            verify(transactionService, never()).saveAllTransactions(anyList());
+            verify(transactionService, never()).insertAllTransactions(anyList());
         }
 
         @Test
@@ -155,13 +196,13 @@ class TransactionImporterTest {
             when(multipartFile.getInputStream())
                     .thenReturn(
                             new ByteArrayInputStream(csvContent.getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
-            verify(transactionService, times(1)).saveAllTransactions(anyList());
+            verify(transactionService, times(1)).insertAllTransactions(anyList());
         }
 
         @Test
@@ -174,13 +215,13 @@ class TransactionImporterTest {
             when(multipartFile.getInputStream())
                     .thenReturn(
                             new ByteArrayInputStream(csvContent.getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
-            verify(transactionService, times(1)).saveAllTransactions(anyList());
+            verify(transactionService, times(1)).insertAllTransactions(anyList());
         }
     }
 
@@ -196,14 +237,15 @@ class TransactionImporterTest {
             when(multipartFile.getInputStream())
                     .thenReturn(
                             new ByteArrayInputStream(csvContent.getBytes(StandardCharsets.UTF_8)));
-            when(constraintViolation.getMessage()).thenReturn("Invalid IBAN format");
-            when(validator.validate(any(Transaction.class)))
-                    .thenReturn(Set.of(constraintViolation));
+            when(transactionRowValidator.validate(any(Transaction.class)))
+                    .thenReturn(List.of("Invalid IBAN format"));
 
             // When & Then
             assertThrows(
                     TransactionImportFailedException.class,
-                    () -> transactionImporter.importTransactionsFromCsv(multipartFile));
+                    () ->
+                            transactionImporter.importTransactionsFromCsv(
+                                    IMPORT_JOB_ID, multipartFile));
         }
 
         @Test
@@ -217,19 +259,18 @@ class TransactionImporterTest {
             when(multipartFile.getInputStream())
                     .thenReturn(
                             new ByteArrayInputStream(csvContent.getBytes(StandardCharsets.UTF_8)));
-            when(constraintViolation.getMessage()).thenReturn("Invalid IBAN format");
-            when(validator.validate(any(Transaction.class)))
-                    .thenReturn(Set.of(constraintViolation));
+            when(transactionRowValidator.validate(any(Transaction.class)))
+                    .thenReturn(List.of("Invalid IBAN format"));
 
             // When
             try {
-                transactionImporter.importTransactionsFromCsv(multipartFile);
+                transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
             } catch (TransactionImportFailedException e) {
                 // Expected
             }
 
             // Then
-            verify(transactionService, never()).saveAllTransactions(anyList());
+            verify(transactionService, never()).insertAllTransactions(anyList());
         }
 
         @Test
@@ -245,8 +286,7 @@ class TransactionImporterTest {
                     .thenReturn(
                             new ByteArrayInputStream(
                                     csvContent.toString().getBytes(StandardCharsets.UTF_8)));
-            when(constraintViolation.getMessage()).thenReturn("Invalid IBAN format");
-            when(validator.validate(any(Transaction.class)))
+            when(transactionRowValidator.validate(any(Transaction.class)))
                     .thenAnswer(
                             invocation -> {
                                 Transaction transaction = invocation.getArgument(0);
@@ -254,15 +294,17 @@ class TransactionImporterTest {
                                         || !transaction
                                                 .iban()
                                                 .matches("^[A-Z]{2}[0-9]{2}[A-Z0-9]{11,30}$")) {
-                                    return Set.of(constraintViolation);
+                                    return List.of("Invalid IBAN format");
                                 }
-                                return Collections.emptySet();
+                                return List.of();
                             });
 
             // When & Then
             assertThrows(
                     TransactionImportFailedException.class,
-                    () -> transactionImporter.importTransactionsFromCsv(multipartFile));
+                    () ->
+                            transactionImporter.importTransactionsFromCsv(
+                                    IMPORT_JOB_ID, multipartFile));
         }
     }
 
@@ -281,7 +323,9 @@ class TransactionImporterTest {
             TransactionImportFailedException exception =
                     assertThrows(
                             TransactionImportFailedException.class,
-                            () -> transactionImporter.importTransactionsFromCsv(multipartFile));
+                            () ->
+                                    transactionImporter.importTransactionsFromCsv(
+                                            IMPORT_JOB_ID, multipartFile));
 
             assertInstanceOf(IOException.class, exception.getCause());
         }
@@ -300,13 +344,13 @@ class TransactionImporterTest {
             when(multipartFile.getInputStream())
                     .thenReturn(
                             new ByteArrayInputStream(csvContent.getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
-            verify(transactionService, times(1)).saveAllTransactions(anyList());
+            verify(transactionService, times(1)).insertAllTransactions(anyList());
         }
 
         @Test
@@ -318,13 +362,13 @@ class TransactionImporterTest {
             when(multipartFile.getInputStream())
                     .thenReturn(
                             new ByteArrayInputStream(csvContent.getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
 
             // Then
-            verify(transactionService, times(1)).saveAllTransactions(anyList());
+            verify(transactionService, times(1)).insertAllTransactions(anyList());
         }
 
         @Test
@@ -338,13 +382,164 @@ class TransactionImporterTest {
                     .thenReturn(
                             new ByteArrayInputStream(
                                     csvContent.toString().getBytes(StandardCharsets.UTF_8)));
-            when(validator.validate(any(Transaction.class))).thenReturn(Collections.emptySet());
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
+
+            // When
+            transactionImporter.importTransactionsFromCsv(IMPORT_JOB_ID, multipartFile);
+
+            // Then
+            verify(transactionService, times(4)).insertAllTransactions(anyList());
+        }
+    }
+
+    @Nested
+    @DisplayName("Import budget tests")
+    class ImportBudgetTests {
+
+        @Test
+        @DisplayName("should fail import when row budget is exceeded")
+        void givenCsvExceedingRowBudget_whenImport_thenThrowException() throws IOException {
+            // Given
+            StringBuilder csvContent = new StringBuilder(CSV_HEADER);
+            csvContent.append(
+                    "DE89370400440532013000,2024-01-15,EUR,GROCERIES,100.50\n".repeat(1_001));
+            when(multipartFile.getInputStream())
+                    .thenReturn(
+                            new ByteArrayInputStream(
+                                    csvContent.toString().getBytes(StandardCharsets.UTF_8)));
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
+
+            // When & Then
+            TransactionImportFailedException exception =
+                    assertThrows(
+                            TransactionImportFailedException.class,
+                            () ->
+                                    transactionImporter.importTransactionsFromCsv(
+                                            IMPORT_JOB_ID, multipartFile));
+
+            assertInstanceOf(ImportBudgetExceededException.class, exception.getCause());
+        }
+    }
+
+    @Nested
+    @DisplayName("Resume tests")
+    class ResumeTests {
+
+        private static final int ROWS = 600;
+        private static final int FAILING_WRITE = 4;
+
+        private final ImportProperties resumeProperties =
+                new ImportProperties(
+                        DataSize.ofMegabytes(1),
+                        10_000,
+                        Path.of("build", "imports"),
+                        CsvParserMode.AUTO,
+                        TransactionValidatorMode.COMPILED,
+                        // single workers write the batches in order, a chunk spans several batches
+                        new ImportProperties.Pipeline(1, 1, 4, DataSize.ofBytes(512)),
+                        new ImportProperties.Batch(
+                                47, 47, 47, Duration.ofSeconds(10), DataSize.ofMegabytes(8)),
+                        Duration.ofSeconds(2),
+                        importProperties.scheduler(),
+                        importProperties.dedupe());
+
+        // rows repeat, so their natural keys depend on the occurrences before them
+        private static byte[] csv() {
+            var csvContent = new StringBuilder(CSV_HEADER);
+            for (int i = 0; i < ROWS; i++) {
+                var value = i % 7;
+                csvContent
+                        .append("DE89370400440532013000,2024-01-1")
+                        .append(value)
+                        .append(",EUR,GROCERIES,10")
+                        .append(value)
+                        .append(".50\n");
+            }
+            return csvContent.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param failingWrite number of the write that fails, 0 for none
+         */
+        private TransactionImporter importer(List<TransactionDocument> written, int failingWrite) {
+            var service = mock(TransactionService.class);
+            var writes = new AtomicInteger();
+            when(service.insertAllTransactions(anyList()))
+                    .thenAnswer(
+                            invocation -> {
+                                if (writes.incrementAndGet() == failingWrite) {
+                                    throw new IllegalStateException("Connection lost.");
+                                }
+                                written.addAll(invocation.getArgument(0));
+                                return 0;
+                            });
+            return new TransactionImporter(service, transactionRowValidator, resumeProperties);
+        }
+
+        private static Map<Long, UUID> naturalKeysByRow(List<TransactionDocument> documents) {
+            // fails on a row stored twice
+            return documents.stream()
+                    .collect(
+                            Collectors.toMap(
+                                    TransactionDocument::getImportRow,
+                                    TransactionDocument::getNaturalKey));
+        }
+
+        @Test
+        @DisplayName("should store every row once with the same natural keys after a crash")
+        void givenCrashMidChunk_whenResumed_thenSameRowsAndNaturalKeys() throws IOException {
+            // Given
+            var csv = csv();
+            when(transactionRowValidator.validate(any(Transaction.class))).thenReturn(List.of());
+            var uninterrupted = new ArrayList<TransactionDocument>();
+            importer(uninterrupted, 0)
+                    .importTransactionsFromCsv(IMPORT_JOB_ID, new ByteArrayInputStream(csv));
+            var crashed = new ArrayList<TransactionDocument>();
+            var checkpoint = new AtomicReference<>(ImportCheckpoint.START);
+            var progress =
+                    new ImportProgressTracker(
+                            csv.length,
+                            Duration.ZERO,
+                            (snapshot, latest) -> {
+                                if (latest != null) {
+                                    checkpoint.set(latest);
+                                }
+                            });
+            assertThrows(
+                    TransactionImportFailedException.class,
+                    () ->
+                            importer(crashed, FAILING_WRITE)
+                                    .importTransactionsFromCsv(
+                                            IMPORT_JOB_ID,
+                                            new ByteArrayInputStream(csv),
+                                            progress,
+                                            ImportCheckpoint.START,
+                                            new NaturalKeySequence()));
+            var resumeFrom = checkpoint.get();
 
             // When
-            transactionImporter.importTransactionsFromCsv(multipartFile);
+            var resumed = new ArrayList<TransactionDocument>();
+            var importer = importer(resumed, 0);
+            var naturalKeys =
+                    importer.replayNaturalKeys(new ByteArrayInputStream(csv), resumeFrom);
+            importer.importTransactionsFromCsv(
+                    IMPORT_JOB_ID,
+                    new ByteArrayInputStream(csv),
+                    ImportProgressTracker.untracked(),
+                    resumeFrom,
+                    naturalKeys);
 
             // Then
-            verify(transactionService, times(4)).saveAllTransactions(anyList());
+            assertTrue(resumeFrom.rowNumber() > 0, "no checkpoint before the crash");
+            assertTrue(crashed.size() > resumeFrom.rowNumber(), "no rows after the checkpoint");
+            // rows written after the checkpoint are removed before the import is resumed
+            var stored = new ArrayList<TransactionDocument>();
+            crashed.stream()
+                    .filter(document -> document.getImportRow() <= resumeFrom.rowNumber())
+                    .forEach(stored::add);
+            stored.addAll(resumed);
+            assertEquals(ROWS, stored.size());
+            assertEquals(naturalKeysByRow(uninterrupted), naturalKeysByRow(stored));
         }
     }
 }
@@ -0,0 +1,102 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.zkotlowski.banktransactionanalyzer.configuration.DistinctCountProperties;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.IbanSketchRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.StatisticsVersionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionRollupRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionScanRepository;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionRollupServiceTest {
+
+    @Mock private TransactionRollupRepository transactionRollupRepository;
+
+    @Mock private TransactionRepository transactionRepository;
+
+    @Mock private StatisticsVersionRepository statisticsVersionRepository;
+
+    @Mock private IbanSketchRepository ibanSketchRepository;
+
+    @Mock private TransactionScanRepository transactionScanRepository;
+
+    @Mock private ImportJobRepository importJobRepository;
+
+    @Spy
+    private DistinctCountProperties distinctCountProperties = new DistinctCountProperties(0.01, 24);
+
+    @InjectMocks private TransactionRollupService transactionRollupService;
+
+    @Nested
+    @DisplayName("rebuild tests")
+    class RebuildTests {
+
+        @Test
+        @DisplayName("should roll up again the jobs running or completed during the rebuild")
+        void givenImportRunning_whenRebuild_thenJobRolledUpAfterRebuild() {
+            // Given
+            var running = ImportJobDocument.createNew(UUID.randomUUID(), 0, "a");
+            when(importJobRepository.findAllByStatusOrCompletedAtGreaterThanEqual(
+                            eq(ImportJobDocument.Status.IMPORT_IN_PROGRESS), any()))
+                    .thenReturn(List.of(running));
+            when(importJobRepository.findAllByStatus(ImportJobDocument.Status.FAILED))
+                    .thenReturn(List.of());
+
+            // When
+            transactionRollupService.rebuild();
+
+            // Then
+            var order =
+                    inOrder(
+                            transactionRollupRepository,
+                            ibanSketchRepository,
+                            statisticsVersionRepository);
+            order.verify(transactionRollupRepository).rebuild();
+            order.verify(ibanSketchRepository).replaceAll(any());
+            order.verify(transactionRollupRepository).rollUpImportJob(running.getId());
+            order.verify(ibanSketchRepository).replaceImportJob(eq(running.getId()), any());
+            order.verify(statisticsVersionRepository).increment();
+            verify(transactionRollupRepository, never()).deleteAllByImportJobIdIn(anyList());
+        }
+
+        @Test
+        @DisplayName("should remove the rollups and sketches the rebuild took from failed jobs")
+        void givenFailedJob_whenRebuild_thenItsRollupsRemoved() {
+            // Given
+            var failed = ImportJobDocument.createNew(UUID.randomUUID(), 0, "a");
+            when(importJobRepository.findAllByStatusOrCompletedAtGreaterThanEqual(
+                            eq(ImportJobDocument.Status.IMPORT_IN_PROGRESS), any()))
+                    .thenReturn(List.of());
+            when(importJobRepository.findAllByStatus(ImportJobDocument.Status.FAILED))
+                    .thenReturn(List.of(failed));
+
+            // When
+            transactionRollupService.rebuild();
+
+            // Then
+            verify(transactionRollupRepository).deleteAllByImportJobIdIn(List.of(failed.getId()));
+            verify(ibanSketchRepository).deleteAllByImportJobIdIn(List.of(failed.getId()));
+            verify(transactionRollupRepository, never()).rollUpImportJob(any());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportFormat;
+import pl.zkotlowski.banktransactionanalyzer.model.TransactionExportQuery;
+import pl.zkotlowski.banktransactionanalyzer.model.document.ImportJobDocument;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+import pl.zkotlowski.banktransactionanalyzer.repository.DeferredTransactionRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.ImportJobRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionIngestRepository;
+import pl.zkotlowski.banktransactionanalyzer.repository.TransactionScanRepository;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionServiceTest {
+
+    @Mock private TransactionIngestRepository transactionIngestRepository;
+
+    @Mock private NaturalKeyFilter naturalKeyFilter;
+
+    @Mock private ImportJobRepository importJobRepository;
+
+    @Mock private DeferredTransactionRepository deferredTransactionRepository;
+
+    @Mock private TransactionScanRepository transactionScanRepository;
+
+    @InjectMocks private TransactionService transactionService;
+
+    private static final UUID IMPORT_JOB_ID = UUID.randomUUID();
+
+    private static final UUID OTHER_IMPORT_JOB_ID = UUID.randomUUID();
+
+    private static TransactionDocument document(long importRow) {
+        var transaction =
+                new Transaction(
+                        UUID.randomUUID(),
+                        "DE89370400440532013000",
+                        LocalDate.parse("2024-01-15"),
+                        "EUR",
+                        "GROCERIES",
+                        new BigDecimal("100.50"));
+        return TransactionDocument.fromDto(
+                transaction, IMPORT_JOB_ID, importRow, UUID.randomUUID());
+    }
+
+    @Nested
+    @DisplayName("insertAllTransactions tests")
+    class InsertAllTransactionsTests {
+
+        @Test
+        @DisplayName("should defer a row whose key is held by a job that is not completed")
+        void givenKeyOfPendingJob_whenInsert_thenRowDeferred() {
+            // Given
+            var duplicate = document(1);
+            when(naturalKeyFilter.isReady()).thenReturn(true);
+            when(naturalKeyFilter.mightContain(duplicate.getNaturalKey())).thenReturn(true);
+            when(transactionIngestRepository.findNaturalKeyHolders(anyList()))
+                    .thenReturn(Map.of(duplicate.getNaturalKey(), OTHER_IMPORT_JOB_ID));
+            when(importJobRepository.findAllByTransactionsPendingTrue())
+                    .thenReturn(
+                            List.of(
+                                    ImportJobDocument.createNew(OTHER_IMPORT_JOB_ID, 0, "a"),
+                                    ImportJobDocument.createNew(IMPORT_JOB_ID, 0, "b")));
+
+            // When
+            var duplicates = transactionService.insertAllTransactions(List.of(duplicate));
+
+            // Then
+            assertEquals(1, duplicates);
+            verify(transactionIngestRepository, never()).insertUnordered(anyList());
+            verify(deferredTransactionRepository, times(1))
+                    .insertAll(
+                            argThat(
+                                    deferred ->
+                                            deferred.size() == 1
+                                                    && deferred.iterator()
+                                                            .next()
+                                                            .getBlockingImportJobId()
+                                                            .equals(OTHER_IMPORT_JOB_ID)));
+        }
+
+        @Test
+        @DisplayName("should skip a row whose key is held by a completed job without deferring")
+        void givenKeyOfCompletedJob_whenInsert_thenRowSkipped() {
+            // Given
+            var duplicate = document(1);
+            when(naturalKeyFilter.isReady()).thenReturn(false);
+            when(transactionIngestRepository.insertUnordered(anyList()))
+                    .thenReturn(List.of(duplicate));
+            when(transactionIngestRepository.findNaturalKeyHolders(anyList()))
+                    .thenReturn(Map.of(duplicate.getNaturalKey(), OTHER_IMPORT_JOB_ID));
+            when(importJobRepository.findAllByTransactionsPendingTrue())
+                    .thenReturn(List.of(ImportJobDocument.createNew(IMPORT_JOB_ID, 0, "b")));
+
+            // When
+            var duplicates =
+                    transactionService.insertAllTransactions(List.of(duplicate, document(2)));
+
+            // Then
+            assertEquals(1, duplicates);
+            verify(deferredTransactionRepository, never()).insertAll(any());
+        }
+
+        @Test
+        @DisplayName("should insert a rejected row again once the row holding its key is gone")
+        void givenHolderRemoved_whenInsert_thenRowInsertedAgain() {
+            // Given
+            var rejected = document(1);
+            when(naturalKeyFilter.isReady()).thenReturn(false);
+            when(transactionIngestRepository.insertUnordered(anyList()))
+                    .thenReturn(List.of(rejected))
+                    .thenReturn(List.of());
+            when(transactionIngestRepository.findNaturalKeyHolders(anyList()))
+                    .thenReturn(Map.of());
+
+            // When
+            var duplicates =
+                    transactionService.insertAllTransactions(List.of(rejected, document(2)));
+
+            // Then
+            assertEquals(0, duplicates);
+            verify(transactionIngestRepository, times(1))
+                    .insertUnordered(argThat(documents -> documents.equals(List.of(rejected))));
+            verify(deferredTransactionRepository, never()).insertAll(any());
+        }
+    }
+
+    @Nested
+    @DisplayName("exportTransactions tests")
+    class ExportTransactionsTests {
+
+        private static final String CSV_HEADER = "iban,date,currency,category,amount\n";
+
+        private void givenExported(List<TransactionDocument> documents) {
+            doAnswer(
+                            invocation -> {
+                                Consumer<TransactionDocument> consumer = invocation.getArgument(2);
+                                documents.forEach(consumer);
+                                return null;
+                            })
+                    .when(transactionScanRepository)
+                    .forEachExported(anyList(), any(), any());
+        }
+
+        @Test
+        @DisplayName("should pass normalized filters and hide rows of pending jobs")
+        void givenFilters_whenExport_thenNormalizedFiltersAndPendingJobsPassed()
+                throws IOException {
+            // Given
+            var query =
+                    new TransactionExportQuery(
+                            " de89 3704 0044 0532 0130 00 ",
+                            "EUR",
+                            LocalDate.parse("2024-01-01"),
+                            LocalDate.parse("2024-01-31"));
+            when(importJobRepository.findAllByTransactionsPendingTrue())
+                    .thenReturn(List.of(ImportJobDocument.createNew(OTHER_IMPORT_JOB_ID, 0, "a")));
+
+            // When
+            transactionService.exportTransactions(
+                    query, TransactionExportFormat.CSV, new ByteArrayOutputStream());
+
+            // Then
+            verify(transactionScanRepository)
+                    .forEachExported(
+                            eq(List.of(OTHER_IMPORT_JOB_ID)),
+                            eq(
+                                    new TransactionExportQuery(
+                                            "DE89370400440532013000",
+                                            "EUR",
+                                            LocalDate.parse("2024-01-01"),
+                                            LocalDate.parse("2024-01-31"))),
+                            any());
+        }
+
+        @Test
+        @DisplayName("should write the streamed rows in the format and flush them")
+        void givenStreamedRows_whenExportCsv_thenRowsWritten() throws IOException {
+            // Given
+            givenExported(List.of(document(1), document(2)));
+            var outputStream = new ByteArrayOutputStream();
+
+            // When
+            transactionService.exportTransactions(
+                    new TransactionExportQuery(null, null, null, null),
+                    TransactionExportFormat.CSV,
+                    outputStream);
+
+            // Then
+            var row = "DE89370400440532013000,2024-01-15,EUR,GROCERIES,100.50\n";
+            assertEquals(CSV_HEADER + row + row, outputStream.toString(StandardCharsets.UTF_8));
+        }
+
+        @Test
+        @DisplayName("should rethrow an IOException of the output stream as it is")
+        void givenClosedOutputStream_whenExport_thenIoExceptionUnwrapped() {
+            // Given
+            // more rows than the writer buffers, so they are written while streamed
+            givenExported(
+                    LongStream.range(0, 5_000)
+                            .mapToObj(TransactionServiceTest::document)
+                            .toList());
+            var closed = new IOException("Broken pipe");
+            var outputStream =
+                    new OutputStream() {
+                        @Override
+                        public void write(int b) throws IOException {
+                            throw closed;
+                        }
+                    };
+
+            // When
+            var exception =
+                    assertThrows(
+                            IOException.class,
+                            () ->
+                                    transactionService.exportTransactions(
+                                            new TransactionExportQuery(null, null, null, null),
+                                            TransactionExportFormat.CSV,
+                                            outputStream));
+
+            // Then
+            assertSame(closed, exception);
+        }
+    }
+}
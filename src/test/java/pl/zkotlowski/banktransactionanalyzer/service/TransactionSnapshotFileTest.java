@@ -0,0 +1,105 @@
+package pl.zkotlowski.banktransactionanalyzer.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.zkotlowski.banktransactionanalyzer.exception.InvalidSnapshotException;
+import pl.zkotlowski.banktransactionanalyzer.model.document.TransactionDocument;
+
+class TransactionSnapshotFileTest {
+
+    @TempDir private Path directory;
+
+    @Test
+    @DisplayName("should read back every transaction across blocks, missing values included")
+    void givenWrittenSnapshot_whenReadBlocks_thenSameTransactions() throws IOException {
+        // Given
+        var snapshot = directory.resolve("snapshot");
+        var transactions =
+                List.of(
+                        transaction("PL61109010140000071219812874", "Food", "2025-01-15", -1_050),
+                        transaction("PL61109010140000071219812874", null, "2025-02-01", 250_000),
+                        transaction("DE89370400440532013000", "Food", null, -999));
+        write(snapshot, transactions);
+
+        // When
+        var read = new ArrayList<TransactionDocument>();
+        try (var reader = new TransactionSnapshotFile.Reader(snapshot)) {
+            for (int i = 0; i < reader.blockCount(); i++) {
+                read.addAll(reader.readBlock(i));
+            }
+
+            // Then
+            assertEquals(2, reader.blockCount());
+            assertEquals(3, reader.rows());
+        }
+        assertEquals(fields(transactions), fields(read));
+    }
+
+    @Test
+    @DisplayName("should reject a block whose bytes were changed")
+    void givenCorruptedBlock_whenReadBlock_thenInvalidSnapshot() throws IOException {
+        // Given
+        var snapshot = directory.resolve("snapshot");
+        write(snapshot, List.of(transaction("DE89370400440532013000", "Food", "2025-01-15", -1)));
+        var bytes = Files.readAllBytes(snapshot);
+        // first byte of the amount column of the first block
+        bytes[8 + 4 + 4 * 8] ^= 1;
+        Files.write(snapshot, bytes);
+
+        // When
+        try (var reader = new TransactionSnapshotFile.Reader(snapshot)) {
+            // Then
+            assertThrows(InvalidSnapshotException.class, () -> reader.readBlock(0));
+        }
+    }
+
+    private static void write(Path snapshot, List<TransactionDocument> transactions)
+            throws IOException {
+        try (var writer = new TransactionSnapshotFile.Writer(snapshot, 2)) {
+            for (var transaction : transactions) {
+                writer.append(transaction);
+            }
+            writer.finish();
+        }
+    }
+
+    private static TransactionDocument transaction(
+            String iban, String category, String date, long amountMinor) {
+        return TransactionDocument.builder()
+                .withId(UUID.randomUUID())
+                .withNaturalKey(category == null ? null : UUID.randomUUID())
+                .withIban(iban)
+                .withCategory(category)
+                .withCurrency("EUR")
+                .withDate(date == null ? null : LocalDate.parse(date))
+                .withAmountMinor(amountMinor)
+                .build();
+    }
+
+    private static List<List<Object>> fields(List<TransactionDocument> transactions) {
+        return transactions.stream()
+                .map(
+                        transaction ->
+                                Arrays.asList(
+                                        transaction.getId(),
+                                        transaction.getNaturalKey(),
+                                        transaction.getIban(),
+                                        transaction.getCategory(),
+                                        transaction.getCurrency(),
+                                        transaction.getDate(),
+                                        transaction.getAmountMinor()))
+                .toList();
+    }
+}
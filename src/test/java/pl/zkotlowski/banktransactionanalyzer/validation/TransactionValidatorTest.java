@@ -0,0 +1,264 @@
+package pl.zkotlowski.banktransactionanalyzer.validation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import org.hibernate.validator.HibernateValidator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import pl.zkotlowski.banktransactionanalyzer.model.Transaction;
+
+/** Pins {@link CompiledTransactionValidator} to the annotation semantics of Bean Validation. */
+class TransactionValidatorTest {
+
+    private static final Instant NOW = Instant.parse("2025-06-15T10:00:00Z");
+
+    private final Clock clock = Clock.fixed(NOW, ZoneOffset.UTC);
+    private final LocalDate today = LocalDate.ofInstant(NOW, ZoneOffset.UTC);
+
+    private Validator beanValidator;
+    private CompiledTransactionValidator compiledValidator;
+
+    @BeforeEach
+    void setUp() {
+        // default messages are compared in English, the same clock decides what "today" is
+        beanValidator =
+                Validation.byProvider(HibernateValidator.class)
+                        .configure()
+                        .defaultLocale(Locale.ENGLISH)
+                        .clockProvider(() -> clock)
+                        .buildValidatorFactory()
+                        .getValidator();
+        compiledValidator = new CompiledTransactionValidator(clock);
+    }
+
+    private Transaction transaction(
+            String iban, LocalDate date, String currency, String category, BigDecimal amount) {
+        return new Transaction(UUID.randomUUID(), iban, date, currency, category, amount);
+    }
+
+    private Transaction valid() {
+        return transaction(
+                "DE89370400440532013000",
+                LocalDate.of(2025, 1, 15),
+                "EUR",
+                "GROCERIES",
+                new BigDecimal("100.50"));
+    }
+
+    private void assertSameViolations(Transaction transaction) {
+        var expected =
+                beanValidator.validate(transaction).stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .toList();
+        var actual = compiledValidator.validate(transaction).stream().sorted().toList();
+
+        assertEquals(expected, actual, "violations of " + transaction);
+    }
+
+    @Nested
+    @DisplayName("Equivalence with Bean Validation tests")
+    class EquivalenceTests {
+
+        @Test
+        @DisplayName("should report no violations for a valid transaction")
+        void givenValidTransaction_whenValidate_thenNoViolations() {
+            // Given
+            var transaction = valid();
+
+            // When
+            var violations = compiledValidator.validate(transaction);
+
+            // Then
+            assertTrue(violations.isEmpty());
+            assertSameViolations(transaction);
+        }
+
+        @Test
+        @DisplayName("should report the same violations when all fields are null")
+        void givenAllFieldsNull_whenValidate_thenSameViolations() {
+            assertSameViolations(new Transaction(null, null, null, null, null, null));
+        }
+
+        @ParameterizedTest
+        @DisplayName("should validate IBAN like the @Pattern constraint")
+        @ValueSource(
+                strings = {
+                    "DE89370400440532013000",
+                    "de89370400440532013000",
+                    "DE8937040044053201300a",
+                    "D189370400440532013000",
+                    "DEX9370400440532013000",
+                    "DE89 370400440532013000",
+                    "DE89370400440532013000\n",
+                    "DE8937040044053",
+                    "DE893704004405",
+                    "DE89370400440532013000123456789012",
+                    "DE893704004405320130001234567890123",
+                    "ÄE89370400440532013000",
+                    "DE８9370400440532013000",
+                    ""
+                })
+        void givenIban_whenValidate_thenSameViolations(String iban) {
+            assertSameViolations(
+                    transaction(iban, today, "EUR", "GROCERIES", new BigDecimal("1.00")));
+        }
+
+        @ParameterizedTest
+        @DisplayName("should validate currency like the @Pattern constraint")
+        @ValueSource(strings = {"EUR", "eur", "EU", "EURO", "EU1", "E R", "ÉUR", ""})
+        void givenCurrency_whenValidate_thenSameViolations(String currency) {
+            assertSameViolations(
+                    transaction(
+                            "DE89370400440532013000",
+                            today,
+                            currency,
+                            "GROCERIES",
+                            new BigDecimal("1.00")));
+        }
+
+        @ParameterizedTest
+        @DisplayName("should validate category length like the @Size constraint")
+        @ValueSource(ints = {0, 1, 99, 100, 101, 500})
+        void givenCategoryLength_whenValidate_thenSameViolations(int length) {
+            assertSameViolations(
+                    transaction(
+                            "DE89370400440532013000",
+                            today,
+                            "EUR",
+                            "A".repeat(length),
+                            new BigDecimal("1.00")));
+        }
+
+        @ParameterizedTest
+        @DisplayName("should validate amount like the @Digits constraint")
+        @ValueSource(
+                strings = {
+                    "0",
+                    "0.00",
+                    "0.000",
+                    "0E+20",
+                    "100.50",
+                    "100.500",
+                    "100.505",
+                    "-100.50",
+                    "999999999999.99",
+                    "999999999999.999",
+                    "1000000000000",
+                    "1000000000000.00",
+                    "1E+11",
+                    "1E+12",
+                    "1.2300E+3",
+                    "0.001",
+                    "1E-2",
+                    "1E-3"
+                })
+        void givenAmount_whenValidate_thenSameViolations(String amount) {
+            assertSameViolations(
+                    transaction(
+                            "DE89370400440532013000",
+                            today,
+                            "EUR",
+                            "GROCERIES",
+                            new BigDecimal(amount)));
+        }
+
+        @ParameterizedTest
+        @DisplayName("should validate date like the @PastOrPresent constraint")
+        @ValueSource(longs = {-36500, -1, 0, 1, 365})
+        void givenDateRelativeToToday_whenValidate_thenSameViolations(long days) {
+            assertSameViolations(
+                    transaction(
+                            "DE89370400440532013000",
+                            today.plusDays(days),
+                            "EUR",
+                            "GROCERIES",
+                            new BigDecimal("1.00")));
+        }
+
+        @Test
+        @DisplayName("should report every violated constraint of a row")
+        void givenSeveralInvalidFields_whenValidate_thenSameViolations() {
+            assertSameViolations(
+                    transaction(
+                            "INVALID_IBAN",
+                            today.plusDays(1),
+                            "eur",
+                            "",
+                            new BigDecimal("1.005")));
+        }
+    }
+
+    @Nested
+    @DisplayName("Current date tests")
+    class CurrentDateTests {
+
+        @Test
+        @DisplayName("should accept the next day once the clock passes midnight")
+        void givenClockPassingMidnight_whenValidate_thenTodayIsRefreshed() {
+            // Given
+            var zone = ZoneId.of("Europe/Warsaw");
+            var clock = new MutableClock(Instant.parse("2025-06-15T21:59:59Z"), zone);
+            var validator = new CompiledTransactionValidator(clock);
+            var nextDay =
+                    transaction(
+                            "DE89370400440532013000",
+                            LocalDate.of(2025, 6, 16),
+                            "EUR",
+                            "GROCERIES",
+                            new BigDecimal("1.00"));
+
+            // When
+            var beforeMidnight = validator.validate(nextDay);
+            clock.instant = Instant.parse("2025-06-15T22:00:00Z");
+            var afterMidnight = validator.validate(nextDay);
+
+            // Then
+            assertEquals(List.of(CompiledTransactionValidator.DATE_MESSAGE), beforeMidnight);
+            assertTrue(afterMidnight.isEmpty());
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private final ZoneId zone;
+        private Instant instant;
+
+        private MutableClock(Instant instant, ZoneId zone) {
+            this.instant = instant;
+            this.zone = zone;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return new MutableClock(instant, zone);
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}